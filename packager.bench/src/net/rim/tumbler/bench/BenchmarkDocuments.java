@@ -0,0 +1,88 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.bench;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import net.rim.tumbler.json4j.JSONException;
+import net.rim.tumbler.json4j.JSONWriter;
+
+/**
+ * Deterministic JSON documents shaped like the <code>user.js</code> config the packager writes: a block of string and boolean
+ * properties followed by an access list whose length sets the document size.
+ */
+public final class BenchmarkDocuments {
+    public static final String SMALL = "small";
+    public static final String MEDIUM = "medium";
+    public static final String HUGE = "huge";
+
+    private BenchmarkDocuments() {
+    }
+
+    /**
+     * Returns the document for the specified size: <code>small</code> (2 access entries, about 1 KB), <code>medium</code>
+     * (500 entries, about 100 KB) or <code>huge</code> (50,000 entries, about 10 MB).
+     */
+    public static String get( String size ) throws IOException, JSONException {
+        if( SMALL.equals( size ) ) {
+            return generate( 2 );
+        } else if( MEDIUM.equals( size ) ) {
+            return generate( 500 );
+        } else if( HUGE.equals( size ) ) {
+            return generate( 50000 );
+        }
+        throw new IllegalArgumentException( size );
+    }
+
+    private static String generate( int accessEntries ) throws IOException, JSONException {
+        StringWriter out = new StringWriter();
+        JSONWriter writer = new JSONWriter( out );
+
+        writer.object();
+        writer.key( "version" ).value( "1.0.0.0" );
+        writer.key( "id" ).value( "BenchApp" );
+        writer.key( "name" ).value( "Bench App" );
+        writer.key( "description" ).value( "A widget used to measure json4j \"parse\" and serialize costs" );
+        writer.key( "content" ).value( "index.html" );
+        writer.key( "configXML" ).value( "config.xml" );
+        writer.key( "author" ).value( "Research In Motion" );
+        writer.key( "authorURL" ).value( "http://www.blackberry.com/developers" );
+        writer.key( "loadingScreenColor" ).value( "#000000" );
+        writer.key( "hasMultiAccess" ).value( true );
+        writer.key( "onFirstLaunch" ).value( true );
+        writer.key( "transportTimeout" ).value( 120000 );
+
+        writer.key( "accessList" ).array();
+        for( int i = 0; i < accessEntries; i++ ) {
+            writer.object();
+            writer.key( "uri" ).value( "http://host" + i + ".example.com/path/" + i );
+            writer.key( "allowSubDomain" ).value( i % 2 == 0 );
+            writer.key( "features" ).array();
+            writer.object().key( "id" ).value( "blackberry.app" ).key( "required" ).value( true ).key( "version" )
+                    .value( "1.0.0" ).endObject();
+            writer.object().key( "id" ).value( "blackberry.ui.dialog" ).key( "required" ).value( false ).key( "version" )
+                    .value( "1.0.0" ).endObject();
+            writer.endArray();
+            writer.endObject();
+        }
+        writer.endArray();
+
+        writer.endObject();
+        writer.close();
+        return out.toString();
+    }
+}
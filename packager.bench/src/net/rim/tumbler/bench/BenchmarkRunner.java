@@ -0,0 +1,165 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.bench;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of <code>benchmarks.jar</code>. Runs the selected benchmarks with the GC profiler attached, writes the throughput
+ * and allocation rate of every benchmark to a properties file and compares the throughput against a stored baseline.
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar [-Dbench.baseline=baseline/json4j.properties] [-Dbench.results=results.properties]
+ *                                 [-Dbench.tolerance=0.10] [JMH options] [regexp]
+ * </pre>
+ *
+ * The process exits with 1 if any benchmark is slower than its baseline by more than the tolerance, so that the runner can
+ * gate a build. Without a baseline file the results are only recorded; copy them to <code>baseline/</code> to adopt them.
+ */
+public class BenchmarkRunner {
+    private static final String DEFAULT_BASELINE = "baseline/json4j.properties";
+    private static final String DEFAULT_RESULTS = "target/bench-results.properties";
+    private static final String DEFAULT_TOLERANCE = "0.10";
+
+    private static final String THROUGHPUT_SUFFIX = ".ops";
+    private static final String ALLOC_SUFFIX = ".alloc";
+    private static final String ALLOC_METRIC = "gc.alloc.rate.norm";
+
+    public static void main( String[] args ) throws IOException, RunnerException {
+        CommandLineOptions cmdOptions;
+        try {
+            cmdOptions = new CommandLineOptions( args );
+        } catch( CommandLineOptionException e ) {
+            System.err.println( "Error parsing command line: " + e.getMessage() );
+            System.exit( 2 );
+            return;
+        }
+
+        Options options = new OptionsBuilder().parent( cmdOptions ).addProfiler( GCProfiler.class ).build();
+        Collection< RunResult > runResults = new Runner( options ).run();
+
+        Properties results = toProperties( runResults );
+        File resultsFile = new File( System.getProperty( "bench.results", DEFAULT_RESULTS ) );
+        store( results, resultsFile );
+        System.out.println( "Results written to " + resultsFile.getPath() );
+
+        File baselineFile = new File( System.getProperty( "bench.baseline", DEFAULT_BASELINE ) );
+        if( !baselineFile.isFile() ) {
+            System.out.println( "No baseline found at " + baselineFile.getPath() + ", skipping comparison" );
+            return;
+        }
+        double tolerance = Double.parseDouble( System.getProperty( "bench.tolerance", DEFAULT_TOLERANCE ) );
+        if( compare( load( baselineFile ), results, tolerance ) > 0 ) {
+            System.exit( 1 );
+        }
+    }
+
+    /**
+     * Flattens the run results to <code>&lt;benchmark&gt;[:param=value...].ops</code> (throughput) and
+     * <code>.alloc</code> (bytes allocated per operation) entries.
+     */
+    static Properties toProperties( Collection< RunResult > runResults ) {
+        Properties props = new Properties();
+        for( RunResult runResult : runResults ) {
+            String key = runResult.getParams().getBenchmark();
+            for( String param : new TreeSet< String >( runResult.getParams().getParamsKeys() ) ) {
+                key += ":" + param + "=" + runResult.getParams().getParam( param );
+            }
+
+            Result primary = runResult.getPrimaryResult();
+            props.setProperty( key + THROUGHPUT_SUFFIX, Double.toString( primary.getScore() ) );
+
+            Map< String, Result > secondary = runResult.getSecondaryResults();
+            Result alloc = secondary.get( ALLOC_METRIC );
+            if( alloc != null ) {
+                props.setProperty( key + ALLOC_SUFFIX, Double.toString( alloc.getScore() ) );
+            }
+        }
+        return props;
+    }
+
+    /**
+     * Prints the change of every benchmark present in both sets and returns the number of throughput regressions beyond the
+     * tolerance.
+     */
+    static int compare( Properties baseline, Properties results, double tolerance ) {
+        int regressions = 0;
+        for( String key : new TreeSet< String >( results.stringPropertyNames() ) ) {
+            String before = baseline.getProperty( key );
+            if( before == null ) {
+                continue;
+            }
+            double oldScore = Double.parseDouble( before );
+            double newScore = Double.parseDouble( results.getProperty( key ) );
+            if( oldScore == 0 ) {
+                continue;
+            }
+            double change = ( newScore - oldScore ) / oldScore;
+
+            // higher is better for throughput, lower is better for allocation
+            boolean regressed = key.endsWith( THROUGHPUT_SUFFIX ) ? change < -tolerance : change > tolerance;
+            if( regressed && key.endsWith( THROUGHPUT_SUFFIX ) ) {
+                regressions++;
+            }
+            System.out.println( String.format( "%-90s %14.2f -> %14.2f %+7.1f%%%s", key, oldScore, newScore, change * 100,
+                    regressed ? "  REGRESSION" : "" ) );
+        }
+        return regressions;
+    }
+
+    private static Properties load( File file ) throws IOException {
+        Properties props = new Properties();
+        InputStream in = new FileInputStream( file );
+        try {
+            props.load( in );
+        } finally {
+            in.close();
+        }
+        return props;
+    }
+
+    private static void store( Properties props, File file ) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if( parent != null && !parent.exists() ) {
+            parent.mkdirs();
+        }
+        OutputStream out = new FileOutputStream( file );
+        try {
+            props.store( out, "packager.bench results" );
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.bench;
+
+import java.lang.reflect.Field;
+
+import net.rim.tumbler.session.SessionManager;
+
+import org.objenesis.ObjenesisStd;
+
+/**
+ * Installs a <code>SessionManager</code> singleton for benchmarks that exercise config classes in isolation.
+ * <p>
+ * <code>WidgetConfig</code> and <code>WidgetAccess</code> read the debug flag and the top-level domain list from the session,
+ * but a real session needs an installed SDK layout and a widget archive on disk. As in <code>SerializerTest</code>, the
+ * singleton is replaced directly; here with a bare instance whose fields are set by reflection.
+ */
+public final class BenchmarkSession {
+
+    private BenchmarkSession() {
+    }
+
+    /**
+     * Installs a session with debug mode off, verbose off and the specified top-level domains.
+     * 
+     * @param tlds
+     *            the top-level domains known to the session, e.g. <code>{ "com", "net" }</code>.
+     */
+    public static void install( String[] tlds ) throws Exception {
+        StringBuffer tld = new StringBuffer( "$$" );
+        for( String t : tlds ) {
+            tld.append( t ).append( "$$" );
+        }
+
+        SessionManager session = (SessionManager) new ObjenesisStd().newInstance( SessionManager.class );
+        set( session, "_tld", tld.toString() );
+        set( session, "_debugMode", Boolean.FALSE );
+        set( session, "_isVerbose", Boolean.FALSE );
+        set( session, "_playbook", Boolean.TRUE );
+        set( null, "_instance", session );
+    }
+
+    private static void set( SessionManager target, String name, Object value ) throws Exception {
+        Field field = SessionManager.class.getDeclaredField( name );
+        field.setAccessible( true );
+        field.set( target, value );
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import net.rim.tumbler.json4j.JSONObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures <code>JSONObject.write</code> in compact and verbose form.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+public class JSONWriteBenchmark {
+
+    @Param( { BenchmarkDocuments.SMALL, BenchmarkDocuments.MEDIUM, BenchmarkDocuments.HUGE } )
+    public String size;
+
+    @Param( { "false", "true" } )
+    public boolean verbose;
+
+    private JSONObject _object;
+
+    @Setup
+    public void setup() throws Exception {
+        _object = new JSONObject( BenchmarkDocuments.get( size ) );
+    }
+
+    @Benchmark
+    public String write() throws Exception {
+        return _object.write( verbose );
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import net.rim.tumbler.json4j.internal.Serializer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures <code>Serializer.quote</code> on ASCII strings and on strings where most characters need a unicode escape.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+public class SerializerQuoteBenchmark {
+    private static final String ASCII = "ascii";
+    private static final String UNICODE = "unicode";
+
+    private static final String ASCII_CHUNK = "http://www.blackberry.com/developers/\"widget\"\t";
+    private static final String UNICODE_CHUNK = "\u00e9\u00e8\u4e2d\u6587\u0420\u0443\u0441 \u00fc\u00f1\u00ee\u00e7\u00f8\u2603";
+
+    @Param( { ASCII, UNICODE } )
+    public String charset;
+
+    @Param( { "32", "4096" } )
+    public int length;
+
+    private String _value;
+
+    @Setup
+    public void setup() {
+        String chunk = ASCII.equals( charset ) ? ASCII_CHUNK : UNICODE_CHUNK;
+        StringBuffer sb = new StringBuffer( length );
+        while( sb.length() < length ) {
+            sb.append( chunk );
+        }
+        sb.setLength( length );
+        _value = sb.toString();
+    }
+
+    @Benchmark
+    public String quote() {
+        return Serializer.quote( _value );
+    }
+}
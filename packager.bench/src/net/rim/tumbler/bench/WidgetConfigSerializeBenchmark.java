@@ -0,0 +1,74 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.bench;
+
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+import net.rim.tumbler.config.WidgetAccess;
+import net.rim.tumbler.config.WidgetConfig;
+import net.rim.tumbler.config.WidgetFeature;
+import net.rim.tumbler.serialize.WidgetConfig_v1Serializer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures <code>WidgetConfig_v1Serializer.serialize</code>, i.e. generation of <code>user.js</code>, for whitelists of 1 to
+ * 10,000 access entries.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+public class WidgetConfigSerializeBenchmark {
+
+    @Param( { "1", "10", "100", "1000", "10000" } )
+    public int accessEntries;
+
+    private WidgetConfig _config;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkSession.install( new String[] { "com", "net", "org" } );
+
+        _config = new WidgetConfig();
+        _config.setVersion( "1.0.0.0" );
+        _config.setName( "Bench App" );
+        _config.setContent( "index.html" );
+        _config.setAuthor( "Research In Motion" );
+        _config.setDescription( "A widget used to measure user.js generation" );
+        _config.addIcon( "icon.png" );
+        _config.addHeader( "RIM-Widget", "rim/widget" );
+
+        for( int i = 0; i < accessEntries; i++ ) {
+            Vector< WidgetFeature > features = new Vector< WidgetFeature >();
+            features.add( new WidgetFeature( "blackberry.app", true, "1.0.0", null ) );
+            features.add( new WidgetFeature( "blackberry.ui.dialog", false, "1.0.0", null ) );
+            _config.getAccessTable().put( new WidgetAccess( "http://host" + i + ".example.com", i % 2 == 0 ), features );
+        }
+    }
+
+    @Benchmark
+    public byte[] serialize() throws Exception {
+        return new WidgetConfig_v1Serializer( _config, null ).serialize();
+    }
+}
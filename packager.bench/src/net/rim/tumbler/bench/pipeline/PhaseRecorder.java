@@ -0,0 +1,160 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.bench.pipeline;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures the steps of a packaging run. For every step it records the wall time, the bytes read and written by this JVM and
+ * the peak heap usage.
+ * <p>
+ * Bytes are taken from the <code>rchar</code>/<code>wchar</code> counters of <code>/proc/self/io</code>, so they count all
+ * reads and writes of the JVM (files and pipes) but not those of subprocesses; where the counters are not available they are
+ * reported as -1. The peak heap is the sum of the peaks of the heap memory pools, which are reset at the start of every phase.
+ */
+public class PhaseRecorder {
+
+    /**
+     * A unit of work measured as one phase.
+     */
+    public interface Phase {
+        void run() throws Exception;
+    }
+
+    /**
+     * The measurements of one execution of a phase.
+     */
+    public static class Sample {
+        public long wallNanos;
+        public long bytesRead;
+        public long bytesWritten;
+        public long peakHeap;
+    }
+
+    private static final File PROC_SELF_IO = new File( "/proc/self/io" );
+
+    private final List< MemoryPoolMXBean > _heapPools;
+    private final Map< String, List< Sample >> _samples;
+    private boolean _recording;
+
+    public PhaseRecorder() {
+        _heapPools = new ArrayList< MemoryPoolMXBean >();
+        for( MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() ) {
+            if( pool.getType() == MemoryType.HEAP ) {
+                _heapPools.add( pool );
+            }
+        }
+        _samples = new LinkedHashMap< String, List< Sample >>();
+        _recording = true;
+    }
+
+    /**
+     * Sets whether samples are kept. Warm-up iterations run their phases without recording them.
+     */
+    public void setRecording( boolean recording ) {
+        _recording = recording;
+    }
+
+    public boolean isRecording() {
+        return _recording;
+    }
+
+    /**
+     * Runs and measures the specified phase.
+     */
+    public void run( String name, Phase phase ) throws Exception {
+        for( MemoryPoolMXBean pool : _heapPools ) {
+            pool.resetPeakUsage();
+        }
+        long[] ioBefore = readIO();
+        long start = System.nanoTime();
+
+        phase.run();
+
+        Sample sample = new Sample();
+        sample.wallNanos = System.nanoTime() - start;
+        long[] ioAfter = readIO();
+        sample.bytesRead = ioBefore == null || ioAfter == null ? -1 : ioAfter[ 0 ] - ioBefore[ 0 ];
+        sample.bytesWritten = ioBefore == null || ioAfter == null ? -1 : ioAfter[ 1 ] - ioBefore[ 1 ];
+        for( MemoryPoolMXBean pool : _heapPools ) {
+            sample.peakHeap += pool.getPeakUsage().getUsed();
+        }
+
+        if( _recording ) {
+            List< Sample > samples = _samples.get( name );
+            if( samples == null ) {
+                samples = new ArrayList< Sample >();
+                _samples.put( name, samples );
+            }
+            samples.add( sample );
+        }
+    }
+
+    /**
+     * Returns the recorded samples by phase, in the order the phases first ran.
+     */
+    public Map< String, List< Sample >> getSamples() {
+        return _samples;
+    }
+
+    /**
+     * Returns the median of the specified values.
+     */
+    public static long median( List< Long > values ) {
+        List< Long > sorted = new ArrayList< Long >( values );
+        Collections.sort( sorted );
+        return sorted.isEmpty() ? 0 : sorted.get( sorted.size() / 2 ).longValue();
+    }
+
+    /**
+     * Returns { rchar, wchar } for this process, or null if not available.
+     */
+    private static long[] readIO() {
+        if( !PROC_SELF_IO.canRead() ) {
+            return null;
+        }
+        try {
+            long[] result = new long[ 2 ];
+            BufferedReader reader = new BufferedReader( new FileReader( PROC_SELF_IO ) );
+            try {
+                String line;
+                while( ( line = reader.readLine() ) != null ) {
+                    if( line.startsWith( "rchar:" ) ) {
+                        result[ 0 ] = Long.parseLong( line.substring( 6 ).trim() );
+                    } else if( line.startsWith( "wchar:" ) ) {
+                        result[ 1 ] = Long.parseLong( line.substring( 6 ).trim() );
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+            return result;
+        } catch( IOException e ) {
+            return null;
+        }
+    }
+}
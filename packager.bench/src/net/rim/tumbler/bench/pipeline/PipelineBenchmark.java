@@ -0,0 +1,356 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.bench.pipeline;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import net.rim.tumbler.WidgetArchive;
+import net.rim.tumbler.WidgetPackager;
+import net.rim.tumbler.airpackager.AirPackager;
+import net.rim.tumbler.config.WidgetConfig;
+import net.rim.tumbler.file.FileManager;
+import net.rim.tumbler.file.TreeRemover;
+import net.rim.tumbler.json4j.JSONObject;
+import net.rim.tumbler.json4j.JSONWriter;
+import net.rim.tumbler.metrics.BuildMetrics;
+import net.rim.tumbler.mxmlc.Mxmlc;
+import net.rim.tumbler.session.BBWPProperties;
+import net.rim.tumbler.session.SessionManager;
+import net.rim.tumbler.signing.SigningSupport;
+import net.rim.tumbler.xml.ConfigXMLParser;
+
+/**
+ * End-to-end benchmark of the packaging pipeline. Generates a synthetic widget and SDK (see {@link WidgetGenerator}), then
+ * builds it with {@link WidgetPackager#packageSession}, followed by the Tablet SDK tools that <code>WidgetPackager</code>
+ * does not run yet, which are replaced by {@link StubTool}. The wall time of every phase is read from {@link BuildMetrics};
+ * the I/O and peak heap of the build and of the tools are measured by {@link PhaseRecorder}.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar net.rim.tumbler.bench.pipeline.PipelineBenchmark [--&lt;shape field&gt;=value...]
+ *      [--iterations=5] [--warmup=1] [--work=target/pipeline-work] [--out=target/pipeline-results.json]
+ *      [--baseline=results.json] [--tolerance=0.25] [--minMs=10]
+ * </pre>
+ *
+ * With a baseline, the process exits with 1 if the median wall time of any phase, or of the whole run, grew by more than the
+ * tolerance. Phases faster than <code>minMs</code> in the baseline are too noisy to compare and are skipped.
+ */
+public class PipelineBenchmark {
+    private final WidgetShape _shape;
+    private final WidgetGenerator _generator;
+    private final PhaseRecorder _recorder;
+    private final List< Long > _totals;
+    private final Map< String, List< Long >> _phases;
+    // parsed once, for the tools run after the build
+    private WidgetConfig _config;
+
+    public PipelineBenchmark( WidgetShape shape, File workFolder ) {
+        _shape = shape;
+        _generator = new WidgetGenerator( shape, workFolder );
+        _recorder = new PhaseRecorder();
+        _totals = new ArrayList< Long >();
+        _phases = new LinkedHashMap< String, List< Long >>();
+    }
+
+    public static void main( String[] args ) throws Exception {
+        System.setProperty( "java.awt.headless", "true" );
+
+        Properties options = new Properties();
+        for( String arg : args ) {
+            int eq = arg.indexOf( '=' );
+            if( !arg.startsWith( "--" ) || eq < 0 ) {
+                System.err.println( "Expected --name=value: " + arg );
+                System.exit( 2 );
+            }
+            options.setProperty( arg.substring( 2, eq ), arg.substring( eq + 1 ) );
+        }
+
+        WidgetShape shape = new WidgetShape();
+        options = shape.apply( options );
+
+        int warmup = Integer.parseInt( options.getProperty( "warmup", "1" ) );
+        int iterations = Integer.parseInt( options.getProperty( "iterations", "5" ) );
+        File work = new File( options.getProperty( "work", "target/pipeline-work" ) ).getAbsoluteFile();
+        File out = new File( options.getProperty( "out", "target/pipeline-results.json" ) );
+
+        deleteTree( work );
+        PipelineBenchmark benchmark = new PipelineBenchmark( shape, work );
+        benchmark._generator.generate();
+
+        benchmark._recorder.setRecording( false );
+        for( int i = 0; i < warmup; i++ ) {
+            benchmark.runOnce();
+        }
+        benchmark._recorder.setRecording( true );
+        for( int i = 0; i < iterations; i++ ) {
+            benchmark.runOnce();
+        }
+
+        benchmark.writeResults( out, warmup, iterations );
+        benchmark.printSummary();
+        System.out.println( "Results written to " + out.getPath() );
+
+        String baseline = options.getProperty( "baseline" );
+        if( baseline != null ) {
+            double tolerance = Double.parseDouble( options.getProperty( "tolerance", "0.25" ) );
+            long minMs = Long.parseLong( options.getProperty( "minMs", "10" ) );
+            if( compare( readJSON( new File( baseline ) ), readJSON( out ), tolerance, minMs ) > 0 ) {
+                System.exit( 1 );
+            }
+        }
+    }
+
+    /**
+     * Packages the generated widget once, recording every phase.
+     */
+    public void runOnce() throws Exception {
+        final File source = _generator.getSourceFolder();
+        final File output = _generator.getOutputFolder();
+        // the previous build's folders cleaned in the background, as WidgetPackager waits for them before exiting
+        TreeRemover.awaitPending();
+        deleteTree( source.getParentFile() );
+
+        // the session is set up by the command line in bbwp; the source folder is kept for the tools run after the build
+        String sdk = _generator.getSdkFolder().getAbsolutePath() + File.separator;
+        SessionManager.createInstance( WidgetGenerator.ARCHIVE_NAME, _generator.getArchive().getAbsolutePath(), sdk,
+                output.getAbsolutePath(), _shape.signing, "bench", "bench", "bench", "", true, source.getAbsolutePath(),
+                false, false, false, true );
+        final SessionManager sessionManager = SessionManager.getInstance();
+        final BBWPProperties bbwpProperties = new BBWPProperties( sdk + WidgetPackager.PROPERTIES_FILE, sessionManager
+                .getSessionHome() );
+        final FileManager fileManager = new FileManager( bbwpProperties );
+        if( _config == null ) {
+            // the archive is the same for every run
+            WidgetArchive archive = new WidgetArchive( sessionManager.getWidgetArchive(), WidgetArchive.VERIFY_NONE );
+            archive.validate();
+            _config = new ConfigXMLParser().parseXML( archive );
+        }
+
+        BuildMetrics.createInstance();
+        _recorder.run( "package", new PhaseRecorder.Phase() {
+            public void run() throws Exception {
+                WidgetPackager.packageSession( sessionManager, bbwpProperties, fileManager, _shape.verify );
+            }
+        } );
+        _recorder.run( "tools", new PhaseRecorder.Phase() {
+            public void run() throws Exception {
+                BuildMetrics.startPhase( "mxmlc" );
+                new Mxmlc( bbwpProperties, _config ).run();
+
+                BuildMetrics.startPhase( "airpackager" );
+                int ret = new AirPackager( bbwpProperties, _config ).run();
+                if( ret != 0 ) {
+                    throw new IllegalStateException( "airpackager exited with " + ret );
+                }
+
+                if( _shape.signing ) {
+                    BuildMetrics.startPhase( "signing" );
+                    SigningSupport.signBar( bbwpProperties );
+                }
+                BuildMetrics.endPhase();
+            }
+        } );
+        BuildMetrics.finish( 0 );
+
+        if( _recorder.isRecording() ) {
+            BuildMetrics metrics = BuildMetrics.getInstance();
+            _totals.add( Long.valueOf( metrics.getWallTime() ) );
+            for( Map.Entry< String, Long > phase : metrics.getPhaseDurations().entrySet() ) {
+                List< Long > wall = _phases.get( phase.getKey() );
+                if( wall == null ) {
+                    wall = new ArrayList< Long >();
+                    _phases.put( phase.getKey(), wall );
+                }
+                wall.add( phase.getValue() );
+            }
+        }
+    }
+
+    private void writeResults( File out, int warmup, int iterations ) throws Exception {
+        File parent = out.getAbsoluteFile().getParentFile();
+        if( parent != null ) {
+            parent.mkdirs();
+        }
+
+        JSONWriter writer = new JSONWriter( new OutputStreamWriter( new FileOutputStream( out ), "UTF-8" ) );
+        writer.object();
+        writer.key( "benchmark" ).value( "pipeline" );
+        writer.key( "shape" ).object();
+        for( Map.Entry< String, Object > field : _shape.toMap().entrySet() ) {
+            writer.key( field.getKey() ).value( field.getValue() );
+        }
+        writer.endObject();
+        writer.key( "archiveBytes" ).value( _generator.getArchive().length() );
+        writer.key( "warmup" ).value( warmup );
+        writer.key( "iterations" ).value( iterations );
+
+        writer.key( "totalWallMs" );
+        writeWall( writer, _totals );
+
+        writer.key( "phases" ).object();
+        for( Map.Entry< String, List< Long >> phase : _phases.entrySet() ) {
+            writer.key( phase.getKey() ).object();
+            writer.key( "wallMs" );
+            writeWall( writer, phase.getValue() );
+            writer.endObject();
+        }
+        writer.endObject();
+
+        writer.key( "resources" ).object();
+        for( Map.Entry< String, List< PhaseRecorder.Sample >> step : _recorder.getSamples().entrySet() ) {
+            List< Long > read = new ArrayList< Long >();
+            List< Long > written = new ArrayList< Long >();
+            long peakHeap = 0;
+            for( PhaseRecorder.Sample sample : step.getValue() ) {
+                read.add( Long.valueOf( sample.bytesRead ) );
+                written.add( Long.valueOf( sample.bytesWritten ) );
+                peakHeap = Math.max( peakHeap, sample.peakHeap );
+            }
+
+            writer.key( step.getKey() ).object();
+            writer.key( "bytesRead" ).value( PhaseRecorder.median( read ) );
+            writer.key( "bytesWritten" ).value( PhaseRecorder.median( written ) );
+            writer.key( "peakHeapBytes" ).value( peakHeap );
+            writer.endObject();
+        }
+        writer.endObject();
+
+        writer.endObject();
+        writer.close();
+    }
+
+    private static void writeWall( JSONWriter writer, List< Long > wall ) throws Exception {
+        writer.object();
+        writer.key( "min" ).value( millis( minimum( wall ) ) );
+        writer.key( "median" ).value( millis( PhaseRecorder.median( wall ) ) );
+        writer.key( "max" ).value( millis( maximum( wall ) ) );
+        writer.endObject();
+    }
+
+    private void printSummary() {
+        System.out.println( String.format( "%-12s %10s %10s %10s", "phase", "min ms", "median ms", "max ms" ) );
+        for( Map.Entry< String, List< Long >> phase : _phases.entrySet() ) {
+            printWall( phase.getKey(), phase.getValue() );
+        }
+        printWall( "total", _totals );
+
+        System.out.println();
+        System.out.println( String.format( "%-12s %14s %14s %12s", "step", "bytes read", "bytes written", "peak heap" ) );
+        for( Map.Entry< String, List< PhaseRecorder.Sample >> step : _recorder.getSamples().entrySet() ) {
+            List< Long > read = new ArrayList< Long >();
+            List< Long > written = new ArrayList< Long >();
+            long peakHeap = 0;
+            for( PhaseRecorder.Sample sample : step.getValue() ) {
+                read.add( Long.valueOf( sample.bytesRead ) );
+                written.add( Long.valueOf( sample.bytesWritten ) );
+                peakHeap = Math.max( peakHeap, sample.peakHeap );
+            }
+            System.out.println( String.format( "%-12s %14d %14d %12d", step.getKey(), PhaseRecorder.median( read ),
+                    PhaseRecorder.median( written ), peakHeap ) );
+        }
+    }
+
+    private static void printWall( String name, List< Long > wall ) {
+        System.out.println( String.format( "%-12s %10.1f %10.1f %10.1f", name, millis( minimum( wall ) ), millis( PhaseRecorder
+                .median( wall ) ), millis( maximum( wall ) ) ) );
+    }
+
+    /**
+     * Prints the median wall time of every phase present in both results and returns the number of regressions.
+     */
+    static int compare( JSONObject baseline, JSONObject results, double tolerance, long minMs ) throws Exception {
+        JSONObject oldPhases = baseline.getJSONObject( "phases" );
+        JSONObject newPhases = results.getJSONObject( "phases" );
+        int regressions = 0;
+        for( Object key : newPhases.keySet() ) {
+            String phase = (String) key;
+            if( oldPhases.containsKey( phase )
+                    && isRegression( phase, oldPhases.getJSONObject( phase ).getJSONObject( "wallMs" ), newPhases
+                            .getJSONObject( phase ).getJSONObject( "wallMs" ), tolerance, minMs ) ) {
+                regressions++;
+            }
+        }
+        if( isRegression( "total", baseline.getJSONObject( "totalWallMs" ), results.getJSONObject( "totalWallMs" ), tolerance,
+                minMs ) ) {
+            regressions++;
+        }
+        return regressions;
+    }
+
+    private static boolean isRegression( String name, JSONObject oldWall, JSONObject newWall, double tolerance, long minMs )
+            throws Exception {
+        double before = oldWall.getDouble( "median" );
+        double after = newWall.getDouble( "median" );
+        if( before < minMs ) {
+            return false;
+        }
+        boolean regressed = after > before * ( 1 + tolerance );
+        System.out.println( String.format( "%-12s %10.1f -> %10.1f ms %+7.1f%%%s", name, before, after, ( after - before ) * 100
+                / before, regressed ? "  REGRESSION" : "" ) );
+        return regressed;
+    }
+
+    private static JSONObject readJSON( File file ) throws Exception {
+        Reader reader = new InputStreamReader( new FileInputStream( file ), "UTF-8" );
+        try {
+            return new JSONObject( reader );
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static double millis( long nanos ) {
+        return nanos / 1000000.0;
+    }
+
+    private static long minimum( List< Long > values ) {
+        long result = Long.MAX_VALUE;
+        for( Long value : values ) {
+            result = Math.min( result, value.longValue() );
+        }
+        return values.isEmpty() ? 0 : result;
+    }
+
+    private static long maximum( List< Long > values ) {
+        long result = 0;
+        for( Long value : values ) {
+            result = Math.max( result, value.longValue() );
+        }
+        return result;
+    }
+
+    private static void deleteTree( File file ) throws IOException {
+        File[] children = file.listFiles();
+        if( children != null ) {
+            for( File child : children ) {
+                deleteTree( child );
+            }
+        }
+        if( file.exists() && !file.delete() ) {
+            throw new IOException( "Cannot delete " + file );
+        }
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.bench.pipeline;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Stands in for the Tablet SDK tools invoked by the packager. The scripts generated by {@link WidgetGenerator} call
+ * <code>StubTool &lt;tool&gt; &lt;tool arguments&gt;</code>; each tool does the file I/O the real one would so that the
+ * packager sees the same outputs:
+ * <ul>
+ * <li><code>mxmlc</code> writes <code>bench.stub.swfSize</code> bytes to the <code>-output</code> file.</li>
+ * <li><code>airpackager</code> zips the listed files into the output BAR.</li>
+ * <li><code>signer</code> digests each listed BAR and appends the digest to it.</li>
+ * <li><code>fcsh</code> speaks the fcsh shell protocol on its standard streams, running the <code>mxmlc</code> stub for each
+ * <code>mxmlc</code> and <code>compile</code> request.</li>
+ * </ul>
+ * Every tool first sleeps for <code>bench.stub.delay</code> milliseconds.
+ */
+public class StubTool {
+    public static final String MXMLC = "mxmlc";
+    public static final String AIRPACKAGER = "airpackager";
+    public static final String SIGNER = "signer";
+    public static final String FCSH = "fcsh";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    public static void main( String[] args ) throws Exception {
+        if( args.length == 0 ) {
+            System.err.println( "usage: StubTool mxmlc|airpackager|signer|fcsh [args]" );
+            System.exit( 2 );
+        }
+
+        long delay = Long.getLong( "bench.stub.delay", 0 ).longValue();
+        if( delay > 0 ) {
+            Thread.sleep( delay );
+        }
+
+        String[] toolArgs = new String[ args.length - 1 ];
+        System.arraycopy( args, 1, toolArgs, 0, toolArgs.length );
+
+        if( MXMLC.equals( args[ 0 ] ) ) {
+            mxmlc( toolArgs );
+        } else if( AIRPACKAGER.equals( args[ 0 ] ) ) {
+            airpackager( toolArgs );
+        } else if( SIGNER.equals( args[ 0 ] ) ) {
+            signer( toolArgs );
+        } else if( FCSH.equals( args[ 0 ] ) ) {
+            fcsh();
+            return;
+        } else {
+            System.err.println( "unknown tool: " + args[ 0 ] );
+            System.exit( 2 );
+        }
+        System.out.println( args[ 0 ] + ": done" );
+    }
+
+    private static void mxmlc( String[] args ) throws IOException {
+        String output = null;
+        for( int i = 0; i < args.length - 1; i++ ) {
+            if( args[ i ].equals( "-output" ) ) {
+                output = args[ i + 1 ];
+            }
+        }
+        if( output == null ) {
+            throw new IllegalArgumentException( "mxmlc: missing -output" );
+        }
+
+        int size = Integer.getInteger( "bench.stub.swfSize", 262144 ).intValue();
+        byte[] chunk = new byte[ BUFFER_SIZE ];
+        for( int i = 0; i < chunk.length; i++ ) {
+            chunk[ i ] = (byte) i;
+        }
+        OutputStream out = new FileOutputStream( output );
+        try {
+            for( int written = 0; written < size; written += chunk.length ) {
+                out.write( chunk, 0, Math.min( chunk.length, size - written ) );
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads <code>mxmlc &lt;args&gt;</code>, <code>compile &lt;id&gt;</code> and <code>quit</code> requests from standard
+     * input, printing the <code>(fcsh) </code> prompt before each.
+     */
+    private static void fcsh() throws IOException {
+        BufferedReader in = new BufferedReader( new InputStreamReader( System.in ) );
+        List< String[] > targets = new ArrayList< String[] >();
+        System.out.print( "(fcsh) " );
+        System.out.flush();
+        for( String line; ( line = in.readLine() ) != null && !line.equals( "quit" ); ) {
+            try {
+                if( line.startsWith( "mxmlc " ) ) {
+                    String[] args = splitArgs( line.substring( 6 ) );
+                    targets.add( args );
+                    System.out.println( "fcsh: Assigned " + targets.size() + " as the compile target id" );
+                    mxmlc( args );
+                } else if( line.startsWith( "compile " ) ) {
+                    mxmlc( targets.get( Integer.parseInt( line.substring( 8 ).trim() ) - 1 ) );
+                } else {
+                    System.out.println( "Error: unknown command " + line );
+                }
+            } catch( RuntimeException e ) {
+                System.out.println( "Error: " + e.getMessage() );
+            }
+            System.out.print( "(fcsh) " );
+            System.out.flush();
+        }
+    }
+
+    /**
+     * Splits a command line on spaces, keeping double-quoted arguments together.
+     */
+    private static String[] splitArgs( String line ) {
+        List< String > args = new ArrayList< String >();
+        StringBuilder arg = new StringBuilder();
+        boolean quoted = false;
+        for( char c : line.toCharArray() ) {
+            if( c == '"' ) {
+                quoted = !quoted;
+            } else if( c == ' ' && !quoted ) {
+                if( arg.length() > 0 ) {
+                    args.add( arg.toString() );
+                    arg.setLength( 0 );
+                }
+            } else {
+                arg.append( c );
+            }
+        }
+        if( arg.length() > 0 ) {
+            args.add( arg.toString() );
+        }
+        return args.toArray( new String[ args.size() ] );
+    }
+
+    /**
+     * <code>-package [flags] -buildId &lt;id&gt; &lt;output&gt; &lt;files...&gt;</code>, files relative to the working
+     * directory.
+     */
+    private static void airpackager( String[] args ) throws IOException {
+        int index = 0;
+        while( index < args.length && !args[ index ].equals( "-buildId" ) ) {
+            index++;
+        }
+        if( index + 2 >= args.length ) {
+            throw new IllegalArgumentException( "airpackager: missing -buildId or output" );
+        }
+        File output = new File( args[ index + 2 ] );
+
+        ZipOutputStream zip = new ZipOutputStream( new FileOutputStream( output ) );
+        try {
+            byte[] buffer = new byte[ BUFFER_SIZE ];
+            for( int i = index + 3; i < args.length; i++ ) {
+                addToZip( zip, new File( args[ i ] ), args[ i ], buffer );
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    private static void addToZip( ZipOutputStream zip, File file, String name, byte[] buffer ) throws IOException {
+        if( file.isDirectory() ) {
+            String[] children = file.list();
+            for( String child : children ) {
+                addToZip( zip, new File( file, child ), name + "/" + child, buffer );
+            }
+        } else if( file.isFile() ) {
+            zip.putNextEntry( new ZipEntry( name ) );
+            InputStream in = new FileInputStream( file );
+            try {
+                int count;
+                while( ( count = in.read( buffer ) ) != -1 ) {
+                    zip.write( buffer, 0, count );
+                }
+            } finally {
+                in.close();
+            }
+            zip.closeEntry();
+        }
+    }
+
+    /**
+     * <code>[-cskpass &lt;pass&gt;] -keystore &lt;p12&gt; -storepass &lt;pass&gt; &lt;bar&gt;... &lt;alias&gt;</code>
+     */
+    private static void signer( String[] args ) throws IOException, NoSuchAlgorithmException {
+        int first = 0;
+        while( first < args.length && args[ first ].startsWith( "-" ) ) {
+            first += 2;
+        }
+        if( args.length - first < 2 ) {
+            throw new IllegalArgumentException( "signer: missing BAR or alias" );
+        }
+        for( int i = first; i < args.length - 1; i++ ) {
+            sign( new File( args[ i ] ) );
+        }
+    }
+
+    private static void sign( File bar ) throws IOException, NoSuchAlgorithmException {
+        MessageDigest md = MessageDigest.getInstance( "SHA-1" );
+        InputStream in = new FileInputStream( bar );
+        try {
+            byte[] buffer = new byte[ BUFFER_SIZE ];
+            int count;
+            while( ( count = in.read( buffer ) ) != -1 ) {
+                md.update( buffer, 0, count );
+            }
+        } finally {
+            in.close();
+        }
+
+        RandomAccessFile out = new RandomAccessFile( bar, "rw" );
+        try {
+            out.seek( out.length() );
+            out.write( md.digest() );
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.bench.pipeline;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates everything a packaging run needs, under a work folder:
+ *
+ * <pre>
+ * sdk/                      bbwp install folder: bbwp.properties, tld.txt, sigtool.p12
+ * sdk/templates/            WebWorksAppTemplate.as, -app.xml, Blackberry-Tablet.xml and filler templates
+ * sdk/ext/                  extension repository, one folder with a library.xml per extension
+ * sdk/tablet/bin/           mxmlc, fcsh, blackberry-airpackager and blackberry-signer scripts running {@link StubTool}
+ * widget/BenchWidget.zip    the widget archive
+ * </pre>
+ *
+ * The content only depends on the shape, so two runs of the same shape package identical archives.
+ */
+public class WidgetGenerator {
+    public static final String ARCHIVE_NAME = "BenchWidget";
+
+    private static final String[] WORDS = { "blackberry", "widget", "function", "var", "return", "document", "window", "style",
+            "div", "class", "width", "height", "color", "margin", "padding", "this", "new", "if", "else", "for" };
+    private static final String[] RESOURCE_EXTENSIONS = { "js", "css", "html", "png" };
+
+    private final WidgetShape _shape;
+    private final File _root;
+    private final Random _random;
+
+    public WidgetGenerator( WidgetShape shape, File root ) {
+        _shape = shape;
+        _root = root;
+        _random = new Random( shape.seed );
+    }
+
+    public File getSdkFolder() {
+        return new File( _root, "sdk" );
+    }
+
+    public File getArchive() {
+        return new File( new File( _root, "widget" ), ARCHIVE_NAME + ".zip" );
+    }
+
+    public File getSourceFolder() {
+        return new File( new File( _root, "work" ), "src" );
+    }
+
+    public File getOutputFolder() {
+        return new File( new File( _root, "work" ), "bin" );
+    }
+
+    /**
+     * Writes the SDK layout and the widget archive.
+     */
+    public void generate() throws IOException {
+        File sdk = getSdkFolder();
+        File templates = new File( sdk, "templates" );
+        File ext = new File( sdk, "ext" );
+        File tablet = new File( sdk, "tablet" );
+
+        write( new File( sdk, "bbwp.properties" ), "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" + "<wcp>\n"
+                + "  <additional>-quiet</additional>\n" + "  <java></java>\n" + "  <wcp_template>" + templates.getAbsolutePath()
+                + "</wcp_template>\n" + "  <tablet_sdk>" + tablet.getAbsolutePath() + "</tablet_sdk>\n"
+                + "  <extension_repository>" + ext.getAbsolutePath() + "</extension_repository>\n" + "  <compiler_workers>"
+                + _shape.compilerWorkers + "</compiler_workers>\n" + "  <png_compression>" + _shape.pngCompression
+                + "</png_compression>\n" + "  <copy_hard_links>" + _shape.hardLinks + "</copy_hard_links>\n"
+                + ( _shape.swfCache ? "  <swf_cache>" + new File( sdk, "swfcache" ).getAbsolutePath() + "</swf_cache>\n" : "" )
+                + "</wcp>\n" );
+        write( new File( sdk, "tld.txt" ), "com\nnet\norg\nca\n" );
+        write( new File( sdk, "sigtool.p12" ), "not a real key store" );
+
+        generateTemplates( templates );
+        generateExtensions( ext );
+        generateStubs( tablet );
+        generateArchive( getArchive() );
+    }
+
+    private void generateTemplates( File templates ) throws IOException {
+        write( new File( templates, "WebWorksAppTemplate.as" ), "package\n{\n"
+                + "    [SWF(width=\"1024\", height=\"600\", backgroundColor=\"#FFFFFF\", frameRate=\"30\")]\n"
+                + "    public class WebWorksAppTemplate extends Sprite\n    {\n" + text( 4096 ) + "\n    }\n}\n" );
+        write( new File( templates, "WebWorksAppTemplate-app.xml" ), "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n"
+                + "<application xmlns=\"http://ns.adobe.com/air/application/2.5\">\n" + "  <id>WebWorksAppTemplate</id>\n"
+                + "  <name>WebWorksAppTemplate</name>\n" + "  <versionNumber>1.0.0</versionNumber>\n"
+                + "  <initialWindow>\n    <content>[SWF file name]</content>\n  </initialWindow>\n" + "</application>\n" );
+        write( new File( templates, "Blackberry-Tablet.xml" ), "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" + "<qnx>\n"
+                + "  <publisher>Research In Motion</publisher>\n" + "</qnx>\n" );
+        for( int i = 0; i < _shape.templates; i++ ) {
+            write( new File( templates, "blackberry/web/widget/Template" + i + ".as" ), "package blackberry.web.widget\n{\n"
+                    + text( 2048 ) + "\n}\n" );
+        }
+    }
+
+    private void generateExtensions( File ext ) throws IOException {
+        for( int i = 0; i < _shape.extensions; i++ ) {
+            String id = extensionId( i );
+            File folder = new File( ext, id );
+            write( new File( folder, "library.xml" ), "<library>\n" + "  <extension id=\"" + id + "\">\n" + "    <entryClass>"
+                    + id + ".Entry</entryClass>\n" + "  </extension>\n" + "  <platforms>\n" + "    <platform value=\"AIR\">\n"
+                    + "      <target version=\"default\" config=\"AIR_XHR\" />\n" + "    </platform>\n" + "  </platforms>\n"
+                    + "  <configurations>\n" + "    <configuration name=\"AIR_XHR\">\n" + "      <src path=\"src\" />\n"
+                    + "    </configuration>\n" + "  </configurations>\n" + "  <features>\n" + "    <feature id=\"" + id
+                    + "\" version=\"1.0.0\" />\n" + "  </features>\n" + "</library>\n" );
+            for( int j = 0; j < _shape.extensionFiles; j++ ) {
+                String name = j % 2 == 0 ? "client" + j + ".js" : "bench/" + id.replace( '.', '_' ) + "/Impl" + j + ".as";
+                write( new File( folder, "src/" + name ), text( _shape.extensionFileSize ) );
+            }
+        }
+    }
+
+    private void generateStubs( File tablet ) throws IOException {
+        File bin = new File( tablet, "bin" );
+        write( new File( new File( tablet, "frameworks" ), "air-config.xml" ), "<flex-config />\n" );
+
+        String java = new File( new File( System.getProperty( "java.home" ), "bin" ), "java" ).getAbsolutePath();
+        String classpath = new File( URLDecoder.decode( StubTool.class.getProtectionDomain().getCodeSource().getLocation()
+                .getPath(), "UTF-8" ) ).getAbsolutePath();
+        String options = "-Dbench.stub.delay=" + _shape.stubDelay + " -Dbench.stub.swfSize=" + _shape.swfSize + " -cp \""
+                + classpath + "\" " + StubTool.class.getName();
+
+        if( System.getProperty( "os.name" ).toLowerCase().indexOf( "win" ) >= 0 ) {
+            // Mxmlc starts mxmlc.exe on Windows, which a script cannot stand in for
+            throw new IOException( "The stub Tablet SDK needs a POSIX shell" );
+        }
+        writeStub( new File( bin, "mxmlc" ), java, options, StubTool.MXMLC );
+        writeStub( new File( bin, "blackberry-airpackager" ), java, options, StubTool.AIRPACKAGER );
+        writeStub( new File( bin, "blackberry-signer" ), java, options, StubTool.SIGNER );
+        writeStub( new File( bin, "fcsh" ), java, options, StubTool.FCSH );
+    }
+
+    private static void writeStub( File script, String java, String options, String tool ) throws IOException {
+        write( script, "#!/bin/sh\nexec \"" + java + "\" " + options + " " + tool + " \"$@\"\n" );
+        script.setExecutable( true );
+    }
+
+    private void generateArchive( File archive ) throws IOException {
+        archive.getParentFile().mkdirs();
+        ZipOutputStream zip = new ZipOutputStream( new FileOutputStream( archive ) );
+        try {
+            addEntry( zip, "config.xml", bytes( configXML() ), false );
+            addEntry( zip, "index.html", bytes( "<html><body>" + text( 1024 ) + "</body></html>" ), false );
+            addEntry( zip, "icon.png", random( 2048 ), true );
+
+            for( int i = 0; i < _shape.files; i++ ) {
+                String ext = RESOURCE_EXTENSIONS[ i % RESOURCE_EXTENSIONS.length ];
+                String name = "res/dir" + ( i % Math.max( 1, _shape.folders ) ) + "/file" + i + "." + ext;
+                int size = nextSize();
+                byte[] content = ext.equals( "png" ) ? random( size ) : bytes( text( size ) );
+                addEntry( zip, name, content, _random.nextDouble() < _shape.storedRatio );
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    private String configXML() {
+        StringBuffer sb = new StringBuffer();
+        sb.append( "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" );
+        sb.append( "<widget xmlns=\"http://www.w3.org/ns/widgets\" xmlns:rim=\"http://www.blackberry.com/ns/widgets\"" );
+        sb.append( " version=\"1.0.0.1\" id=\"" + ARCHIVE_NAME + "\">\n" );
+        sb.append( "  <name>Bench Widget</name>\n" );
+        sb.append( "  <author>Research In Motion</author>\n" );
+        sb.append( "  <description>Synthetic widget generated by packager.bench</description>\n" );
+        sb.append( "  <content src=\"index.html\" />\n" );
+        sb.append( "  <icon src=\"icon.png\" />\n" );
+        if( _shape.loadingScreen ) {
+            sb.append( "  <rim:loadingScreen backgroundColor=\"#336699\" onFirstLaunch=\"true\" />\n" );
+        }
+        for( int i = 0; i < _shape.accessCount; i++ ) {
+            sb.append( "  <access uri=\"http://host" + i + ".example.com\" subdomains=\"false\">\n" );
+            for( int j = 0; j < _shape.featuresPerAccess && _shape.extensions > 0; j++ ) {
+                sb.append( "    <feature id=\"" + extensionId( ( i * _shape.featuresPerAccess + j ) % _shape.extensions )
+                        + "\" required=\"true\" version=\"1.0.0\" />\n" );
+            }
+            sb.append( "  </access>\n" );
+        }
+        sb.append( "</widget>\n" );
+        return sb.toString();
+    }
+
+    private int nextSize() {
+        int mean = Math.max( 1, _shape.meanFileSize );
+        if( WidgetShape.UNIFORM.equals( _shape.sizeDistribution ) ) {
+            return _random.nextInt( 2 * mean ) + 1;
+        } else if( WidgetShape.LOGNORMAL.equals( _shape.sizeDistribution ) ) {
+            // median = mean, sigma 1: mostly small files with a long tail of large ones
+            return (int) Math.min( 64L * mean, Math.max( 1L, Math.round( mean * Math.exp( _random.nextGaussian() ) ) ) );
+        }
+        return mean;
+    }
+
+    private static String extensionId( int index ) {
+        return "bench.ext" + index;
+    }
+
+    private static void addEntry( ZipOutputStream zip, String name, byte[] content, boolean stored ) throws IOException {
+        ZipEntry entry = new ZipEntry( name );
+        if( stored ) {
+            CRC32 crc = new CRC32();
+            crc.update( content );
+            entry.setMethod( ZipEntry.STORED );
+            entry.setSize( content.length );
+            entry.setCompressedSize( content.length );
+            entry.setCrc( crc.getValue() );
+        }
+        zip.putNextEntry( entry );
+        zip.write( content );
+        zip.closeEntry();
+    }
+
+    /**
+     * Returns pseudo source text of the specified length, which deflates about as well as real scripts and markup.
+     */
+    private String text( int length ) {
+        StringBuffer sb = new StringBuffer( length + 16 );
+        while( sb.length() < length ) {
+            sb.append( WORDS[ _random.nextInt( WORDS.length ) ] );
+            sb.append( _random.nextInt( 8 ) == 0 ? '\n' : ' ' );
+        }
+        sb.setLength( length );
+        return sb.toString();
+    }
+
+    private byte[] random( int length ) {
+        byte[] b = new byte[ length ];
+        _random.nextBytes( b );
+        return b;
+    }
+
+    private static byte[] bytes( String s ) throws UnsupportedEncodingException {
+        return s.getBytes( "UTF-8" );
+    }
+
+    private static void write( File file, String content ) throws IOException {
+        file.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream( file );
+        try {
+            out.write( bytes( content ) );
+        } finally {
+            out.close();
+        }
+    }
+}
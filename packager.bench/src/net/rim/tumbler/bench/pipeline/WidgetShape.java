@@ -0,0 +1,150 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.bench.pipeline;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Describes the synthetic widget and SDK generated for a pipeline run. Every field can be set from the command line as
+ * <code>--name=value</code>, e.g. <code>--files=2000 --sizeDistribution=lognormal --storedRatio=0.5</code>.
+ */
+public class WidgetShape {
+    public static final String FIXED = "fixed";
+    public static final String UNIFORM = "uniform";
+    public static final String LOGNORMAL = "lognormal";
+
+    /** number of resource files in the archive, besides config.xml, index.html and icon.png */
+    public int files = 200;
+
+    /** number of folders the resource files are spread over */
+    public int folders = 10;
+
+    /** mean resource file size in bytes */
+    public int meanFileSize = 8192;
+
+    /** fixed, uniform (0 to 2 * mean) or lognormal (median = mean) */
+    public String sizeDistribution = LOGNORMAL;
+
+    /** fraction of the resource files stored rather than deflated */
+    public double storedRatio = 0.25;
+
+    /** number of access elements in config.xml */
+    public int accessCount = 10;
+
+    /** number of feature elements per access element */
+    public int featuresPerAccess = 2;
+
+    /** number of extensions in the extension repository */
+    public int extensions = 20;
+
+    /** number of source files per extension */
+    public int extensionFiles = 5;
+
+    /** size in bytes of each extension source file */
+    public int extensionFileSize = 4096;
+
+    /** number of template files besides the three the packager patches */
+    public int templates = 50;
+
+    /** whether config.xml has a loading screen, which makes AirPackager render the splash screens */
+    public boolean loadingScreen = true;
+
+    /** whether the BAR is signed */
+    public boolean signing = true;
+
+    /** size in bytes of the SWF written by the stub compiler */
+    public int swfSize = 262144;
+
+    /** number of persistent fcsh shells the packager may keep; 0 runs the mxmlc stub for every compilation */
+    public int compilerWorkers = 0;
+
+    /** whether the packager caches compiled SWFs, and rendered splash screens, in sdk/swfcache */
+    public boolean swfCache = false;
+
+    /** deflate level of the splash screen PNG encoder; -1 encodes with ImageIO */
+    public int pngCompression = -1;
+
+    /** whether bin-debug and the output folder hold hard links to the source files rather than copies */
+    public boolean hardLinks = false;
+
+    /** how thoroughly the archive is verified: none, names or crc */
+    public String verify = "crc";
+
+    /** time in milliseconds each stub tool sleeps, on top of the JVM start */
+    public int stubDelay = 0;
+
+    /** seed of the content generator, so that runs of the same shape produce the same archive */
+    public long seed = 42;
+
+    /**
+     * Applies the <code>--name=value</code> arguments to this shape. Arguments that do not name a field are returned, so that
+     * the caller can handle its own options.
+     */
+    public Properties apply( Properties args ) {
+        Properties rest = new Properties();
+        for( Iterator< Map.Entry< Object, Object >> it = args.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry< Object, Object > arg = it.next();
+            String name = (String) arg.getKey();
+            String value = (String) arg.getValue();
+            try {
+                Field field = WidgetShape.class.getField( name );
+                Class< ? > type = field.getType();
+                if( type == int.class ) {
+                    field.setInt( this, Integer.parseInt( value ) );
+                } else if( type == long.class ) {
+                    field.setLong( this, Long.parseLong( value ) );
+                } else if( type == double.class ) {
+                    field.setDouble( this, Double.parseDouble( value ) );
+                } else if( type == boolean.class ) {
+                    field.setBoolean( this, Boolean.parseBoolean( value ) );
+                } else {
+                    field.set( this, value );
+                }
+            } catch( NoSuchFieldException e ) {
+                rest.setProperty( name, value );
+            } catch( IllegalAccessException e ) {
+                throw new IllegalStateException( e );
+            }
+        }
+
+        if( !FIXED.equals( sizeDistribution ) && !UNIFORM.equals( sizeDistribution ) && !LOGNORMAL.equals( sizeDistribution ) ) {
+            throw new IllegalArgumentException( "Unknown size distribution: " + sizeDistribution );
+        }
+        return rest;
+    }
+
+    /**
+     * Returns the fields of this shape as name/value pairs.
+     */
+    public Map< String, Object > toMap() {
+        Map< String, Object > result = new LinkedHashMap< String, Object >();
+        for( Field field : WidgetShape.class.getFields() ) {
+            if( !Modifier.isStatic( field.getModifiers() ) ) {
+                try {
+                    result.put( field.getName(), field.get( this ) );
+                } catch( IllegalAccessException e ) {
+                    throw new IllegalStateException( e );
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler;
+
+import java.io.File;
+
+import junit.framework.Assert;
+import net.rim.tumbler.exception.CommandLineException;
+import net.rim.tumbler.exception.PackageException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnit for CmdLineHandler.
+ */
+public class CmdLineHandlerTest {
+    private File _dir;
+
+    @Before
+    public void setUp() throws Exception {
+        _dir = TempFiles.createFolder( "cmdline" );
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TempFiles.delete( _dir );
+    }
+
+    @Test
+    public void testSingleArchive() throws Exception {
+        CmdLineHandler cmd = new CmdLineHandler();
+        Assert.assertTrue( cmd.parse( new String[] { path( "app.zip" ), "-o", path( "out" ) } ) );
+        Assert.assertFalse( cmd.isBatch() );
+        Assert.assertEquals( 1, cmd.getWidgetArchives().size() );
+        Assert.assertEquals( path( "app.zip" ), cmd.getWidgetArchives().get( 0 ) );
+        Assert.assertEquals( 1, cmd.getJobs() );
+        Assert.assertEquals( WidgetArchive.VERIFY_CRC, cmd.getVerification() );
+
+        cmd = new CmdLineHandler();
+        Assert.assertTrue( cmd.parse( new String[] { path( "app.zip" ), "--verify=names" } ) );
+        Assert.assertEquals( WidgetArchive.VERIFY_NAMES, cmd.getVerification() );
+        cmd = new CmdLineHandler();
+        Assert.assertTrue( cmd.parse( new String[] { path( "app.zip" ), "-verify", "none" } ) );
+        Assert.assertEquals( WidgetArchive.VERIFY_NONE, cmd.getVerification() );
+    }
+
+    @Test
+    public void testBatchFromCommandLineAndList() throws Exception {
+        File list = new File( _dir, "list.txt" );
+        TempFiles.write( list, "# apps\nthird.zip\n\n  fourth.zip  \n" );
+
+        CmdLineHandler cmd = new CmdLineHandler();
+        Assert.assertTrue( cmd.parse( new String[] { path( "first.zip" ), path( "second.zip" ), "-j", "3", "--batch",
+                list.getPath() } ) );
+        Assert.assertTrue( cmd.isBatch() );
+        Assert.assertEquals( 3, cmd.getJobs() );
+        Assert.assertEquals( 4, cmd.getWidgetArchives().size() );
+        Assert.assertEquals( path( "second.zip" ), cmd.getWidgetArchives().get( 1 ) );
+        Assert.assertEquals( path( "fourth.zip" ), cmd.getWidgetArchives().get( 3 ) );
+
+        // a list alone is a batch, even of one archive
+        cmd = new CmdLineHandler();
+        Assert.assertTrue( cmd.parse( new String[] { "-batch", list.getPath() } ) );
+        Assert.assertTrue( cmd.isBatch() );
+        Assert.assertEquals( 2, cmd.getWidgetArchives().size() );
+    }
+
+    @Test
+    public void testInvalidBatch() throws Exception {
+        try {
+            new CmdLineHandler().parse( new String[] { path( "app.zip" ), path( "other" + File.separator + "app.zip" ) } );
+            Assert.fail( "archives of the same name accepted" );
+        } catch( PackageException pe ) {
+            Assert.assertEquals( "EXCEPTION_DUPLICATE_ARCHIVE_NAME", pe.getMessage() );
+        }
+
+        try {
+            new CmdLineHandler().parse( new String[] { path( "first.zip" ), path( "second.zip" ), "-j", "0" } );
+            Assert.fail( "no jobs accepted" );
+        } catch( CommandLineException cle ) {
+            Assert.assertEquals( "EXCEPTION_INVALID_COMMAND_LINE", cle.getMessage() );
+        }
+
+        try {
+            new CmdLineHandler().parse( new String[] { path( "app.zip" ), "--verify=adler" } );
+            Assert.fail( "unknown verification accepted" );
+        } catch( CommandLineException cle ) {
+            Assert.assertEquals( "EXCEPTION_INVALID_COMMAND_LINE", cle.getMessage() );
+        }
+    }
+
+    private String path( String name ) {
+        return new File( _dir, name ).getPath();
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler;
+
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * JUnit for ResourceNameValidator.
+ */
+public class ResourceNameValidatorTest {
+
+    @Test
+    public void testSegments() {
+        ResourceNameValidator validator = new ResourceNameValidator();
+        Assert.assertTrue( validator.check( "index.html" ) );
+        Assert.assertTrue( validator.check( "images/" ) );
+        Assert.assertTrue( validator.check( "_lib/jquery-1.4.min.js" ) );
+        Assert.assertTrue( validator.check( ".hidden/a-b_c.9" ) );
+
+        Assert.assertFalse( validator.check( "-images/a.png" ) );
+        Assert.assertFalse( validator.check( "images/-a.png" ) );
+        Assert.assertFalse( validator.check( "my images/a.png" ) );
+        Assert.assertFalse( validator.check( "images/caf\u00e9.png" ) );
+        Assert.assertFalse( validator.check( "images//a.png" ) );
+        Assert.assertFalse( validator.check( "/a.png" ) );
+        Assert.assertFalse( validator.check( "" ) );
+    }
+
+    @Test
+    public void testSharedFolders() {
+        ResourceNameValidator validator = new ResourceNameValidator();
+        Assert.assertTrue( validator.check( "a/bc/x.js" ) );
+        // the shared folders are not checked again, the rest is
+        Assert.assertTrue( validator.check( "a/bc/y.js" ) );
+        Assert.assertFalse( validator.check( "a/bc/-y.js" ) );
+        Assert.assertTrue( validator.check( "a/b" ) );
+        Assert.assertFalse( validator.check( "a/b c/z.js" ) );
+        Assert.assertTrue( validator.check( "a/bc/" ) );
+        Assert.assertFalse( validator.check( "a/bc//" ) );
+    }
+
+    @Test
+    public void testAllInvalidNamesReported() {
+        ResourceNameValidator validator = new ResourceNameValidator();
+        validator.check( "a b.png" );
+        validator.check( "ok.png" );
+        validator.check( "c d.png" );
+        Assert.assertEquals( 2, validator.getInvalidCount() );
+        Assert.assertEquals( Arrays.asList( "a b.png", "c d.png" ), validator.getInvalidNames() );
+        Assert.assertEquals( "a b.png, c d.png", validator.describeInvalidNames() );
+
+        for( int i = 0; i < 100; i++ ) {
+            validator.check( "x y" + i );
+        }
+        Assert.assertEquals( 102, validator.getInvalidCount() );
+        Assert.assertTrue( validator.describeInvalidNames().endsWith( " and 82 more" ) );
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.rim.tumbler.file.TreeRemover;
+
+/**
+ * Temporary folders and the text files the JUnit tests write to and read from them, in UTF-8.
+ */
+public final class TempFiles {
+
+    private TempFiles() {
+    }
+
+    /**
+     * Creates an empty folder in the temporary folder, named after the specified prefix.
+     */
+    public static File createFolder( String prefix ) throws IOException {
+        File folder = File.createTempFile( prefix, "" ).getCanonicalFile();
+        if( !folder.delete() || !folder.mkdirs() ) {
+            throw new IOException( "Could not create folder: " + folder.getPath() + "." );
+        }
+        return folder;
+    }
+
+    /**
+     * Removes a folder, once the files the test left to {@link TreeRemover} are removed.
+     */
+    public static void delete( File folder ) {
+        TreeRemover.awaitPending();
+        TreeRemover.delete( folder );
+    }
+
+    /**
+     * Writes a file, creating its folder if needed.
+     */
+    public static void write( File file, String text ) throws IOException {
+        file.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream( file );
+        try {
+            out.write( text.getBytes( "UTF-8" ) );
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Returns the content of a file.
+     */
+    public static String read( File file ) throws IOException {
+        byte[] bytes = new byte[ (int) file.length() ];
+        FileInputStream in = new FileInputStream( file );
+        try {
+            int offset = 0;
+            while( offset < bytes.length ) {
+                offset += in.read( bytes, offset, bytes.length - offset );
+            }
+        } finally {
+            in.close();
+        }
+        return new String( bytes, "UTF-8" );
+    }
+
+    /**
+     * Returns the lines of a file, without line terminators.
+     */
+    public static List< String > readLines( File file ) throws IOException {
+        List< String > lines = new ArrayList< String >();
+        BufferedReader reader = new BufferedReader( new InputStreamReader( new FileInputStream( file ), "UTF-8" ) );
+        try {
+            String line;
+            while( ( line = reader.readLine() ) != null ) {
+                lines.add( line );
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.Assert;
+import net.rim.tumbler.exception.PackageException;
+import net.rim.tumbler.exception.ValidationException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnit for WidgetArchive.
+ */
+public class WidgetArchiveTest {
+    private static final String CONTENT = "<html>stored content of the page</html>";
+
+    private File _archive;
+
+    @Before
+    public void setUp() throws Exception {
+        _archive = File.createTempFile( "archive", ".zip" );
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        _archive.delete();
+    }
+
+    @Test
+    public void testValidArchive() throws Exception {
+        write( "index.html", "my page.html" );
+        WidgetArchive archive = new WidgetArchive( _archive.getPath(), WidgetArchive.VERIFY_CRC );
+        try {
+            archive.validate();
+            Assert.fail( "invalid name accepted" );
+        } catch( ValidationException ve ) {
+            Assert.assertEquals( "EXCEPTION_INVALID_RESOURCE_NAME", ve.getMessage() );
+        }
+
+        // the names are not validated without verification, but the files the packager needs are still found
+        archive = new WidgetArchive( _archive.getPath(), WidgetArchive.VERIFY_NONE );
+        archive.validate();
+        Assert.assertEquals( "index.html", archive.getIndexFile() );
+        Assert.assertEquals( "<widget/>", new String( archive.getConfigXML(), "UTF-8" ) );
+    }
+
+    @Test
+    public void testCorruptEntries() throws Exception {
+        write( "index.html", "page.html" );
+        // alter the stored content of both pages, which the names leave unnoticed
+        RandomAccessFile file = new RandomAccessFile( _archive, "rw" );
+        byte[] bytes = new byte[ (int) file.length() ];
+        file.readFully( bytes );
+        String zip = new String( bytes, "ISO-8859-1" );
+        for( int at = zip.indexOf( CONTENT ); at >= 0; at = zip.indexOf( CONTENT, at + 1 ) ) {
+            file.seek( at + 1 );
+            file.write( 'H' );
+        }
+        file.close();
+
+        new WidgetArchive( _archive.getPath(), WidgetArchive.VERIFY_NAMES ).validate();
+        try {
+            new WidgetArchive( _archive.getPath(), WidgetArchive.VERIFY_CRC ).validate();
+            Assert.fail( "corrupt entries accepted" );
+        } catch( PackageException pe ) {
+            Assert.assertEquals( "EXCEPTION_ARCHIVE_CORRUPT", pe.getMessage() );
+        }
+    }
+
+    /**
+     * Writes an archive of config.xml and the given pages, stored so that their content can be altered.
+     */
+    private void write( String... pages ) throws Exception {
+        ZipOutputStream zos = new ZipOutputStream( new FileOutputStream( _archive ) );
+        zos.putNextEntry( new ZipEntry( "config.xml" ) );
+        zos.write( " <widget/>\n".getBytes( "UTF-8" ) );
+        byte[] content = CONTENT.getBytes( "UTF-8" );
+        for( String page : pages ) {
+            ZipEntry entry = new ZipEntry( page );
+            CRC32 crc = new CRC32();
+            crc.update( content );
+            entry.setMethod( ZipEntry.STORED );
+            entry.setSize( content.length );
+            entry.setCrc( crc.getValue() );
+            zos.putNextEntry( entry );
+            zos.write( content );
+        }
+        zos.close();
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.Assert;
+import net.rim.tumbler.build.BuildGraph;
+import net.rim.tumbler.file.FileManager;
+import net.rim.tumbler.session.BBWPProperties;
+import net.rim.tumbler.session.SessionManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnit for WidgetPackager.
+ */
+public class WidgetPackagerTest {
+    private File _dir;
+    private File _source;
+
+    @Before
+    public void setUp() throws Exception {
+        _dir = TempFiles.createFolder( "packager" );
+        new File( _dir, "sdk/bin" ).mkdirs();
+        TempFiles.write( new File( _dir, "tld.txt" ), "com\n" );
+        TempFiles.write( new File( _dir, "templates/index.html" ), "template" );
+        // enough templates for the archive to be extracted while they are written, were it not waiting for them
+        for( int i = 0; i < 500; i++ ) {
+            TempFiles.write( new File( _dir, "templates/js/app" + i + ".js" ), "template" );
+        }
+        TempFiles.write( new File( _dir, "bbwp.properties" ), "<wcp>\n  <wcp_template>" + new File( _dir, "templates" )
+                + "</wcp_template>\n  <tablet_sdk>" + new File( _dir, "sdk" ) + "</tablet_sdk>\n</wcp>\n" );
+
+        ZipOutputStream zip = new ZipOutputStream( new FileOutputStream( new File( _dir, "widget.zip" ) ) );
+        zip.putNextEntry( new ZipEntry( "config.xml" ) );
+        zip.write( "<widget/>".getBytes( "UTF-8" ) );
+        zip.putNextEntry( new ZipEntry( "index.html" ) );
+        zip.write( "archive".getBytes( "UTF-8" ) );
+        zip.close();
+
+        _source = new File( _dir, "src" );
+        String sep = File.separator;
+        SessionManager.createInstance( "widget", _dir + sep + "widget.zip", _dir + sep, _dir.getPath(), false, "", "", "",
+                "", false, _source.getPath(), false, false, false, true );
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        SessionManager.releaseInstance();
+        TempFiles.delete( _dir );
+    }
+
+    @Test
+    public void testArchiveShadowsTemplates() throws Exception {
+        BBWPProperties properties = new BBWPProperties( new File( _dir, "bbwp.properties" ).getPath(), _dir.getPath() );
+        FileManager fileManager = new FileManager( properties );
+        final boolean[] extracted = new boolean[ 1 ];
+
+        BuildGraph graph = new BuildGraph();
+        graph.add( "validate", new BuildGraph.Task() {
+            public void run() throws Exception {
+            }
+        } ).produces( "archive" );
+        graph.add( "configxml", new BuildGraph.Task() {
+            public void run() throws Exception {
+            }
+        } ).produces( "config" );
+        WidgetPackager.addSourceTasks( graph, fileManager, new BuildGraph.Task() {
+            public void run() throws Exception {
+                extracted[ 0 ] = "archive".equals( TempFiles.read( new File( _source, "index.html" ) ) );
+            }
+        } );
+        graph.run();
+
+        Assert.assertTrue( extracted[ 0 ] );
+        Assert.assertEquals( "archive", TempFiles.read( new File( _source, "index.html" ) ) );
+        Assert.assertEquals( "template", TempFiles.read( new File( _source, "js/app7.js" ) ) );
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.airpackager;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+import junit.framework.Assert;
+import net.rim.tumbler.file.TreeRemover;
+import net.rim.tumbler.mxmlc.SwfCache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnit for SplashscreenRenderer and PngEncoder.
+ */
+public class SplashscreenRendererTest {
+
+    private File _dir;
+    private File _background;
+    private File _foreground;
+
+    @Before
+    public void setUp() throws Exception {
+        _dir = File.createTempFile( "splash", "" );
+        _dir.delete();
+        _dir.mkdirs();
+
+        BufferedImage bg = new BufferedImage( 64, 32, BufferedImage.TYPE_INT_ARGB );
+        Graphics2D g = bg.createGraphics();
+        g.setColor( Color.BLUE );
+        g.fillRect( 0, 0, 32, 32 );
+        g.dispose();
+        _background = new File( _dir, "bg.png" );
+        ImageIO.write( bg, "png", _background );
+
+        BufferedImage fg = new BufferedImage( 100, 100, BufferedImage.TYPE_INT_RGB );
+        g = fg.createGraphics();
+        g.setColor( Color.RED );
+        g.fillRect( 0, 0, 100, 100 );
+        g.dispose();
+        _foreground = new File( _dir, "fg.png" );
+        ImageIO.write( fg, "png", _foreground );
+    }
+
+    @After
+    public void tearDown() {
+        TreeRemover.delete( _dir );
+    }
+
+    @Test
+    public void testPngEncoderRoundTrip() throws Exception {
+        SplashscreenRenderer renderer = new SplashscreenRenderer( "#336699", _background, _foreground, 6, null );
+        BufferedImage image = renderer.compose( SplashscreenRenderer.ORIENTATION_LANDSCAPE );
+        for( int level : new int[] { 0, 1, 9 } ) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            PngEncoder.write( image, level, out );
+            BufferedImage decoded = ImageIO.read( new ByteArrayInputStream( out.toByteArray() ) );
+            Assert.assertEquals( 1024, decoded.getWidth() );
+            Assert.assertEquals( 600, decoded.getHeight() );
+            for( int y = 0; y < 600; y += 7 ) {
+                for( int x = 0; x < 1024; x += 5 ) {
+                    Assert.assertEquals( image.getRGB( x, y ), decoded.getRGB( x, y ) );
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRendersBothOrientations() throws Exception {
+        for( int level : new int[] { -1, 6 } ) {
+            String[] names = new SplashscreenRenderer( "#336699", _background, _foreground, level, null ).render( _dir );
+            BufferedImage landscape = ImageIO.read( new File( _dir, names[ 0 ] ) );
+            BufferedImage portrait = ImageIO.read( new File( _dir, names[ 1 ] ) );
+            Assert.assertEquals( 1024, landscape.getWidth() );
+            Assert.assertEquals( 600, portrait.getWidth() );
+            Assert.assertEquals( 0xFFFF0000, landscape.getRGB( 512, 300 ) );
+            Assert.assertEquals( 0xFF336699, landscape.getRGB( 1000, 590 ) );
+        }
+    }
+
+    @Test
+    public void testCachedOnDisk() throws Exception {
+        SwfCache cache = new SwfCache( new File( _dir, "cache" ), 1024 * 1024 * 1024, ".png" );
+        String[] first = new SplashscreenRenderer( "#000000", _background, null, 3, cache ).render( _dir );
+        Assert.assertEquals( 2, new File( _dir, "cache" ).list().length );
+
+        String[] second = new SplashscreenRenderer( "#000000", _background, null, 3, cache ).render( _dir );
+        Assert.assertFalse( first[ 0 ].equals( second[ 0 ] ) );
+        Assert.assertTrue( Arrays.equals( read( new File( _dir, first[ 0 ] ) ), read( new File( _dir, second[ 0 ] ) ) ) );
+        Assert.assertTrue( Arrays.equals( read( new File( _dir, first[ 1 ] ) ), read( new File( _dir, second[ 1 ] ) ) ) );
+
+        // a different color is another entry
+        new SplashscreenRenderer( "#000001", _background, null, 3, cache ).render( _dir );
+        Assert.assertEquals( 4, new File( _dir, "cache" ).list().length );
+    }
+
+    private static byte[] read( File file ) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputStream in = new FileInputStream( file );
+        byte[] buffer = new byte[ 4096 ];
+        int count;
+        while( ( count = in.read( buffer ) ) != -1 ) {
+            out.write( buffer, 0, count );
+        }
+        in.close();
+        return out.toByteArray();
+    }
+}
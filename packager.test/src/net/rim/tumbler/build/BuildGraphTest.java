@@ -0,0 +1,151 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.build;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * JUnit for BuildGraph.
+ */
+public class BuildGraphTest {
+
+    @Test
+    public void testDependenciesRunFirst() throws Exception {
+        final List< String > ran = Collections.synchronizedList( new ArrayList< String >() );
+        BuildGraph graph = new BuildGraph();
+        graph.add( "autogen", record( ran, "autogen", 0 ) ).requires( "config", "templates" );
+        graph.add( "configxml", record( ran, "configxml", 50 ) ).requires( "archive" ).produces( "config" );
+        graph.add( "validate", record( ran, "validate", 10 ) ).produces( "archive" );
+        graph.add( "templates", record( ran, "templates", 0 ) ).produces( "templates" );
+        graph.run();
+
+        Assert.assertEquals( 4, ran.size() );
+        Assert.assertTrue( ran.indexOf( "validate" ) < ran.indexOf( "configxml" ) );
+        Assert.assertEquals( "autogen", ran.get( 3 ) );
+        Assert.assertEquals( Arrays.asList( "validate", "configxml", "autogen" ), graph.getCriticalPath() );
+    }
+
+    @Test
+    public void testIndependentTasksRunAtOnce() throws Exception {
+        // each task waits for the other, so the graph only completes if they run at the same time
+        final CountDownLatch started = new CountDownLatch( 2 );
+        BuildGraph.Task task = new BuildGraph.Task() {
+            public void run() throws Exception {
+                started.countDown();
+                if( !started.await( 10, TimeUnit.SECONDS ) ) {
+                    throw new IllegalStateException( "tasks ran one after the other" );
+                }
+            }
+        };
+        BuildGraph graph = new BuildGraph();
+        graph.add( "templates", task ).produces( "templates" );
+        graph.add( "extract", task ).produces( "resources" );
+        graph.run();
+    }
+
+    @Test
+    public void testFailureStopsDependents() throws Exception {
+        final List< String > ran = Collections.synchronizedList( new ArrayList< String >() );
+        BuildGraph graph = new BuildGraph();
+        graph.add( "validate", new BuildGraph.Task() {
+            public void run() throws Exception {
+                throw new IOException( "invalid archive" );
+            }
+        } ).produces( "archive" );
+        graph.add( "configxml", record( ran, "configxml", 0 ) ).requires( "archive" ).produces( "config" );
+        graph.add( "autogen", record( ran, "autogen", 0 ) ).requires( "config", "templates" );
+        graph.add( "templates", record( ran, "templates", 20 ) ).produces( "templates" );
+        try {
+            graph.run();
+            Assert.fail( "failure not reported" );
+        } catch( IOException ioe ) {
+            Assert.assertEquals( "invalid archive", ioe.getMessage() );
+        }
+        Assert.assertFalse( ran.contains( "configxml" ) );
+        Assert.assertFalse( ran.contains( "autogen" ) );
+    }
+
+    @Test
+    public void testFailureStopsQueuedTasks() throws Exception {
+        final List< String > ran = Collections.synchronizedList( new ArrayList< String >() );
+        // on one thread the second task waits in the queue while the first fails
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            BuildGraph graph = new BuildGraph( executor );
+            graph.add( "validate", new BuildGraph.Task() {
+                public void run() throws Exception {
+                    throw new IOException( "invalid archive" );
+                }
+            } ).produces( "archive" );
+            graph.add( "stage", record( ran, "stage", 0 ) ).produces( "output" );
+            graph.add( "publish", record( ran, "publish", 0 ) ).requires( "output" );
+            try {
+                graph.run();
+                Assert.fail( "failure not reported" );
+            } catch( IOException e ) {
+                Assert.assertEquals( "invalid archive", e.getMessage() );
+            }
+            Assert.assertTrue( ran.isEmpty() );
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testInvalidGraph() throws Exception {
+        BuildGraph graph = new BuildGraph();
+        graph.add( "configxml", record( null, "configxml", 0 ) ).requires( "archive" );
+        try {
+            graph.run();
+            Assert.fail( "missing input accepted" );
+        } catch( IllegalStateException ise ) {
+            // expected
+        }
+
+        graph = new BuildGraph();
+        graph.add( "a", record( null, "a", 0 ) ).requires( "b" ).produces( "a" );
+        graph.add( "b", record( null, "b", 0 ) ).requires( "a" ).produces( "b" );
+        try {
+            graph.run();
+            Assert.fail( "cycle accepted" );
+        } catch( IllegalStateException ise ) {
+            // expected
+        }
+    }
+
+    private static BuildGraph.Task record( final List< String > ran, final String name, final long millis ) {
+        return new BuildGraph.Task() {
+            public void run() throws Exception {
+                Thread.sleep( millis );
+                if( ran != null ) {
+                    ran.add( name );
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.file;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.Assert;
+
+import net.rim.tumbler.TempFiles;
+import net.rim.tumbler.exception.PackageException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnit for FileManager.
+ */
+public class FileManagerTest {
+    private File _dir;
+    private File _ota;
+
+    @Before
+    public void setUp() throws Exception {
+        _dir = TempFiles.createFolder( "file-manager" );
+        _ota = new File( _dir, "OTAInstall" );
+        _ota.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TempFiles.delete( _dir );
+    }
+
+    @Test
+    public void testExpandsBigCod() throws Exception {
+        File cod = createCod( 20 );
+        FileManager.expandCod( cod, _ota, _ota );
+
+        Assert.assertEquals( 20, _ota.list().length );
+        Assert.assertEquals( "cod 7 cod 7 cod 7 ", TempFiles.read( new File( _ota, "app-7.cod" ) ).substring( 0, 18 ) );
+    }
+
+    @Test
+    public void testKeepsMatchingCods() throws Exception {
+        File cod = createCod( 3 );
+        FileManager.expandCod( cod, _ota, _ota );
+
+        File same = new File( _ota, "app-1.cod" );
+        File changed = new File( _ota, "app-2.cod" );
+        same.setLastModified( 1000000000000L );
+        TempFiles.write( changed, TempFiles.read( changed ).replace( '2', '9' ) );
+        changed.setLastModified( 1000000000000L );
+
+        FileManager.expandCod( cod, _ota, _ota );
+        Assert.assertEquals( 1000000000000L, same.lastModified() );
+        Assert.assertTrue( TempFiles.read( changed ).startsWith( "cod 2 " ) );
+    }
+
+    @Test
+    public void testLinksPublishedCods() throws Exception {
+        File cod = createCod( 3 );
+        FileManager.expandCod( cod, _ota, _ota );
+        File changed = new File( _ota, "app-2.cod" );
+        TempFiles.write( changed, "changed" );
+        new File( _ota, "app-1.cod" ).setLastModified( 1000000000000L );
+
+        // a staged output reuses the published cods without writing to them
+        File staging = new File( _dir, "staging/OTAInstall" );
+        staging.mkdirs();
+        FileManager.expandCod( cod, staging, _ota );
+        Assert.assertEquals( 3, staging.list().length );
+        Assert.assertEquals( 1000000000000L, new File( staging, "app-1.cod" ).lastModified() );
+        Assert.assertTrue( TempFiles.read( new File( staging, "app-2.cod" ) ).startsWith( "cod 2 " ) );
+        Assert.assertEquals( "changed", TempFiles.read( changed ) );
+    }
+
+    @Test
+    public void testLeavesSmallCod() throws Exception {
+        File cod = new File( _dir, "app.cod" );
+        TempFiles.write( cod, "not a zip" );
+        FileManager.expandCod( cod, _ota, _ota );
+        Assert.assertEquals( 0, _ota.list().length );
+    }
+
+    @Test( expected = PackageException.class )
+    public void testMissingCod() throws Exception {
+        FileManager.expandCod( new File( _dir, "missing.cod" ), _ota, _ota );
+    }
+
+    private File createCod( int siblings ) throws Exception {
+        File cod = new File( _dir, "app.cod" );
+        ZipOutputStream zip = new ZipOutputStream( new FileOutputStream( cod ) );
+        try {
+            for( int i = 0; i < siblings; i++ ) {
+                zip.putNextEntry( new ZipEntry( "app-" + i + ".cod" ) );
+                StringBuilder content = new StringBuilder();
+                for( int j = 0; j < 1000; j++ ) {
+                    content.append( "cod " ).append( i ).append( ' ' );
+                }
+                zip.write( content.toString().getBytes( "UTF-8" ) );
+            }
+        } finally {
+            zip.close();
+        }
+        return cod;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.file;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * JUnit for FileManifest.
+ */
+public class FileManifestTest {
+
+    @Test
+    public void testOrder() {
+        // as the files were listed when the subfolder files were inserted at the start of the list
+        FileManifest manifest = new FileManifest();
+        manifest.add( "src/index.html", 10, 1, FileManifest.Origin.ARCHIVE );
+        manifest.addFirst( "src/img/a.png", 20, 2, FileManifest.Origin.ARCHIVE );
+        manifest.add( "src/blackberry/Main.as", -1, -1, FileManifest.Origin.TEMPLATE );
+        manifest.addFirst( "src/img/b.png", 30, 3, FileManifest.Origin.ARCHIVE );
+
+        Assert.assertEquals( 4, manifest.size() );
+        Assert.assertEquals( Arrays.asList( "src/img/b.png", "src/img/a.png", "src/index.html", "src/blackberry/Main.as" ),
+                manifest.getPaths() );
+        List< FileManifest.Entry > entries = manifest.getEntries();
+        Assert.assertEquals( 30, entries.get( 0 ).getSize() );
+        Assert.assertEquals( 3, entries.get( 0 ).getCrc() );
+        Assert.assertEquals( FileManifest.Origin.TEMPLATE, entries.get( 3 ).getOrigin() );
+    }
+
+    @Test
+    public void testPaths() {
+        FileManifest manifest = new FileManifest();
+        manifest.add( "src/img/a.png", 1, -1, FileManifest.Origin.ARCHIVE );
+        manifest.add( "src/img/b.png", 1, -1, FileManifest.Origin.ARCHIVE );
+        manifest.add( "c.png", 1, -1, FileManifest.Origin.GENERATED );
+
+        List< FileManifest.Entry > entries = manifest.getEntries();
+        Assert.assertEquals( "src/img/b.png", entries.get( 1 ).getPath() );
+        Assert.assertEquals( "c.png", entries.get( 2 ).getPath() );
+    }
+}
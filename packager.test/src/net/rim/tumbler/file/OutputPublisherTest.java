@@ -0,0 +1,156 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.file;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+import net.rim.tumbler.TempFiles;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnit for OutputPublisher.
+ */
+public class OutputPublisherTest {
+    private File _dir;
+    private File _output;
+
+    @Before
+    public void setUp() throws Exception {
+        _dir = TempFiles.createFolder( "output-publisher" );
+        _output = new File( _dir, "bin" );
+        TempFiles.write( new File( _output, "OTAInstall/app.cod" ), "old" );
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TempFiles.delete( _dir );
+    }
+
+    @Test
+    public void testPublishReplacesOutput() throws Exception {
+        OutputPublisher publisher = new OutputPublisher( _output, false );
+        TempFiles.write( new File( publisher.getStagingFolder(), "OTAInstall/app.jad" ), "new" );
+        Assert.assertTrue( new File( _output, "OTAInstall/app.cod" ).isFile() );
+
+        publisher.publish();
+        Assert.assertTrue( new File( _output, "OTAInstall/app.jad" ).isFile() );
+        Assert.assertFalse( new File( _output, "OTAInstall/app.cod" ).exists() );
+        Assert.assertFalse( publisher.getStagingFolder().exists() );
+
+        TreeRemover.awaitPending();
+        Assert.assertEquals( 1, _dir.list().length );
+    }
+
+    @Test
+    public void testFailedBuildKeepsOutput() throws Exception {
+        OutputPublisher publisher = new OutputPublisher( _output, false );
+        TempFiles.write( new File( publisher.getStagingFolder(), "OTAInstall/app.jad" ), "partial" );
+
+        OutputPublisher.discardUnpublished();
+        TreeRemover.awaitPending();
+        Assert.assertTrue( new File( _output, "OTAInstall/app.cod" ).isFile() );
+        Assert.assertEquals( 1, _dir.list().length );
+    }
+
+    @Test
+    public void testStaleStagingIsRemoved() throws Exception {
+        // left behind by a killed build, whose lock was released by the operating system
+        File stale = new File( _dir, ".bin.staging-1" );
+        TempFiles.write( new File( stale, "app.bar" ), "partial" );
+        File staleLock = new File( _dir, ".bin.lock-1" );
+        TempFiles.write( staleLock, "" );
+        // left behind by a packager without lock files
+        File old = new File( _dir, ".bin.staging-2" );
+        old.mkdirs();
+        old.setLastModified( System.currentTimeMillis() - 2 * 24 * 60 * 60 * 1000L );
+        File other = new File( _dir, ".other.staging-1" );
+        other.mkdirs();
+
+        OutputPublisher running = new OutputPublisher( _output, false );
+        OutputPublisher publisher = new OutputPublisher( _output, false );
+        TreeRemover.awaitPending();
+        Assert.assertFalse( stale.exists() );
+        Assert.assertFalse( staleLock.exists() );
+        Assert.assertFalse( old.exists() );
+        Assert.assertTrue( other.isDirectory() );
+        Assert.assertTrue( running.getStagingFolder().isDirectory() );
+        Assert.assertTrue( publisher.getStagingFolder().isDirectory() );
+        running.discard();
+        publisher.discard();
+    }
+
+    @Test
+    public void testLiveStagingOfOtherProcessIsKept() throws Exception {
+        // staged by a build of another process, which holds its lock
+        File locked = new File( _dir, ".bin.staging-1" );
+        TempFiles.write( new File( locked, "app.bar" ), "partial" );
+        RandomAccessFile lockFile = new RandomAccessFile( new File( _dir, ".bin.lock-1" ), "rw" );
+        // staged by a packager without lock files, too recently to be abandoned
+        File unlocked = new File( _dir, ".bin.staging-2" );
+        unlocked.mkdirs();
+
+        try {
+            lockFile.getChannel().lock();
+            new OutputPublisher( _output, false ).discard();
+            TreeRemover.awaitPending();
+            Assert.assertTrue( new File( locked, "app.bar" ).isFile() );
+            Assert.assertTrue( unlocked.isDirectory() );
+        } finally {
+            lockFile.close();
+        }
+    }
+
+    @Test
+    public void testLockFileIsRemoved() throws Exception {
+        OutputPublisher publisher = new OutputPublisher( _output, false );
+        Assert.assertEquals( 3, _dir.list().length );
+        publisher.publish();
+        TreeRemover.awaitPending();
+        Assert.assertEquals( Arrays.asList( "bin" ), Arrays.asList( _dir.list() ) );
+    }
+
+    @Test
+    public void testPublishSwapsLink() throws Exception {
+        OutputPublisher first = new OutputPublisher( _output, true );
+        TempFiles.write( new File( first.getStagingFolder(), "app.bar" ), "1" );
+        first.publish();
+        if( !TreeRemover.isLink( _output ) ) {
+            return; // no symbolic links on this platform
+        }
+        Assert.assertTrue( new File( _output, "app.bar" ).isFile() );
+        Assert.assertTrue( first.getStagingFolder().isDirectory() );
+
+        // the published staging folder is not taken for a stale one
+        OutputPublisher second = new OutputPublisher( _output, true );
+        TreeRemover.awaitPending();
+        Assert.assertTrue( new File( _output, "app.bar" ).isFile() );
+        TempFiles.write( new File( second.getStagingFolder(), "app2.bar" ), "2" );
+        second.publish();
+        Assert.assertTrue( TreeRemover.isLink( _output ) );
+        Assert.assertTrue( new File( _output, "app2.bar" ).isFile() );
+        Assert.assertFalse( new File( _output, "app.bar" ).exists() );
+
+        TreeRemover.awaitPending();
+        Assert.assertFalse( first.getStagingFolder().exists() );
+        Assert.assertEquals( 2, _dir.list().length );
+    }
+}
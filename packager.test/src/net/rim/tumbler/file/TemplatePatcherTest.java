@@ -0,0 +1,99 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.file;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * JUnit for TemplatePatcher.
+ */
+public class TemplatePatcherTest {
+
+    @Test
+    public void testReplacesAllTargets() throws Exception {
+        TemplatePatcher patcher = new TemplatePatcher().replace( "#FFFFFF", "#336699" ).replace( "blackberry.web.widget",
+                "blackberry.web.widgetabcpackage" );
+        Assert.assertEquals( "package blackberry.web.widgetabcpackage {\r\n  color=\"#336699\" /* #336699 */\n}", patch(
+                patcher, "package blackberry.web.widget {\r\n  color=\"#FFFFFF\" /* #FFFFFF */\n}" ) );
+    }
+
+    @Test
+    public void testFirstTargetWinsAndOutputIsNotRescanned() throws Exception {
+        Assert.assertEquals( "xc", patch( new TemplatePatcher().replace( "ab", "x" ).replace( "abc", "y" ), "abc" ) );
+        Assert.assertEquals( "ZY", patch( new TemplatePatcher().replace( "aab", "Z" ).replace( "ab", "Y" ), "aabab" ) );
+        Assert.assertEquals( "axbbbb", patch( new TemplatePatcher().replace( "ab", "x" ).replace( "b", "bb" ), "aabbb" ) );
+    }
+
+    @Test
+    public void testMatchesAcrossBufferBoundaries() throws Exception {
+        StringBuilder source = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for( int i = 0; i < 20000; i++ ) {
+            source.append( "line " ).append( i ).append( " #FFFFFF\n" );
+            expected.append( "line " ).append( i ).append( " #000\n" );
+        }
+        TemplatePatcher patcher = new TemplatePatcher().replace( "#FFFFFF", "#000" );
+        Assert.assertEquals( expected.toString(), patch( patcher, source.toString() ) );
+    }
+
+    @Test
+    public void testEmptyPatcherCopiesLargeSource() throws Exception {
+        StringBuilder source = new StringBuilder();
+        for( int i = 0; i < 5000; i++ ) {
+            source.append( "line " ).append( i ).append( '\n' );
+        }
+        Assert.assertTrue( source.length() > 16384 );
+        Assert.assertEquals( source.toString(), patch( new TemplatePatcher(), source.toString() ) );
+    }
+
+    @Test
+    public void testPatchInPlace() throws Exception {
+        File file = File.createTempFile( "patcher", ".as" );
+        try {
+            OutputStream os = new FileOutputStream( file );
+            os.write( "backgroundColor=\"#FFFFFF\"".getBytes( "UTF-8" ) );
+            os.close();
+
+            new TemplatePatcher().replace( "#FFFFFF", "#123456" ).patchInPlace( file );
+            new TemplatePatcher().patchInPlace( file );
+
+            InputStream is = new FileInputStream( file );
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            new TemplatePatcher().patch( is, bytes );
+            is.close();
+            Assert.assertEquals( "backgroundColor=\"#123456\"", bytes.toString( "UTF-8" ) );
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static String patch( TemplatePatcher patcher, String source ) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long written = patcher.patch( new ByteArrayInputStream( source.getBytes( "UTF-8" ) ), out );
+        Assert.assertEquals( out.size(), written );
+        return out.toString( "UTF-8" );
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.file;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+
+import junit.framework.Assert;
+import net.rim.tumbler.TempFiles;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnit for TreeCopier.
+ */
+public class TreeCopierTest {
+    private File _dir;
+    private File _src;
+
+    @Before
+    public void setUp() throws Exception {
+        _dir = TempFiles.createFolder( "tree-copier" );
+        _src = new File( _dir, "src" );
+        TempFiles.write( new File( _src, "index.html" ), "<html/>" );
+        TempFiles.write( new File( _src, "js/app.js" ), "var a;" );
+        TempFiles.write( new File( _src, "js/lib/x.js" ), "var x;" );
+        TempFiles.write( new File( _src, "as/Main.as" ), "package {}" );
+        new File( _src, "empty" ).mkdirs();
+        for( int i = 0; i < 100; i++ ) {
+            TempFiles.write( new File( _src, "img/i" + i + ".png" ), "png" + i );
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TempFiles.delete( _dir );
+    }
+
+    @Test
+    public void testCopiesTree() throws Exception {
+        File dest = new File( _dir, "out" );
+        Assert.assertEquals( 104, new TreeCopier( _src, dest ).copy() );
+
+        Assert.assertEquals( "var x;", TempFiles.read( new File( dest, "js/lib/x.js" ) ) );
+        Assert.assertEquals( "png42", TempFiles.read( new File( dest, "img/i42.png" ) ) );
+        Assert.assertTrue( new File( dest, "empty" ).isDirectory() );
+
+        // copying again overwrites
+        TempFiles.write( new File( _src, "index.html" ), "<html></html>" );
+        new TreeCopier( _src, dest ).copy();
+        Assert.assertEquals( "<html></html>", TempFiles.read( new File( dest, "index.html" ) ) );
+    }
+
+    @Test
+    public void testFilterSkipsFilesAndTheirFolders() throws Exception {
+        File dest = new File( _src, "bin-debug" );
+        dest.mkdir();
+        new File( _src, ".bin-debug.trash-1" ).mkdir();
+        TempFiles.write( new File( _src, ".bin-debug.trash-1/old.js" ), "old" );
+
+        int copied = new TreeCopier( _src, dest ).setFilter( new FileFilter() {
+            public boolean accept( File pathname ) {
+                return !pathname.getName().endsWith( ".as" );
+            }
+        } ).copy();
+
+        Assert.assertEquals( 103, copied );
+        Assert.assertFalse( new File( dest, "as" ).exists() );
+        Assert.assertFalse( new File( dest, "empty" ).exists() );
+        Assert.assertFalse( new File( dest, "bin-debug" ).exists() );
+        Assert.assertFalse( new File( dest, ".bin-debug.trash-1" ).exists() );
+        Assert.assertEquals( "var a;", TempFiles.read( new File( dest, "js/app.js" ) ) );
+    }
+
+    @Test
+    public void testHardLinksShareContent() throws Exception {
+        File dest = new File( _dir, "out" );
+        new TreeCopier( _src, dest ).setHardLinks( true ).copy();
+        Assert.assertEquals( "var a;", TempFiles.read( new File( dest, "js/app.js" ) ) );
+
+        // a link sees the source being rewritten in place; a copy does not
+        FileOutputStream out = new FileOutputStream( new File( _src, "js/app.js" ), true );
+        out.write( " var b;".getBytes( "UTF-8" ) );
+        out.close();
+        String linked = TempFiles.read( new File( dest, "js/app.js" ) );
+        boolean links = System.getProperty( "java.specification.version" ).compareTo( "1.7" ) >= 0;
+        Assert.assertEquals( links ? "var a; var b;" : "var a;", linked );
+    }
+
+    @Test( expected = java.io.IOException.class )
+    public void testMissingSource() throws Exception {
+        new TreeCopier( new File( _dir, "missing" ), new File( _dir, "out" ) ).copy();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.file;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnit for TreeRemover.
+ */
+public class TreeRemoverTest {
+    private File _dir;
+
+    @Before
+    public void setUp() throws Exception {
+        _dir = File.createTempFile( "tree-remover", "" );
+        _dir.delete();
+        _dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TreeRemover.awaitPending();
+        TreeRemover.delete( _dir );
+    }
+
+    @Test
+    public void testDeletesTree() throws Exception {
+        File root = new File( _dir, "src" );
+        populate( root, 3 );
+        // more files in one folder than one task deletes
+        for( int i = 0; i < 600; i++ ) {
+            write( new File( root, "flat" + i + ".js" ) );
+        }
+
+        Assert.assertTrue( TreeRemover.delete( root ) );
+        Assert.assertFalse( root.exists() );
+        Assert.assertTrue( TreeRemover.delete( root ) );
+
+        File file = new File( _dir, "single.txt" );
+        write( file );
+        Assert.assertTrue( TreeRemover.delete( file ) );
+        Assert.assertFalse( file.exists() );
+    }
+
+    @Test
+    public void testDeleteAsyncFreesPathAtOnce() throws Exception {
+        File stale = new File( _dir, ".bin-debug.trash-1" );
+        populate( stale, 1 );
+        File root = new File( _dir, "bin-debug" );
+        populate( root, 2 );
+
+        TreeRemover.deleteAsync( root );
+        Assert.assertFalse( root.exists() );
+        Assert.assertTrue( root.mkdir() );
+
+        TreeRemover.awaitPending();
+        String[] left = _dir.list();
+        Assert.assertEquals( 1, left.length );
+        Assert.assertEquals( "bin-debug", left[ 0 ] );
+        Assert.assertEquals( 0, root.list().length );
+    }
+
+    @Test
+    public void testDoesNotFollowLinks() throws Exception {
+        File target = new File( _dir, "target" );
+        populate( target, 1 );
+        File root = new File( _dir, "output" );
+        populate( root, 1 );
+        Process ln = new ProcessBuilder( "ln", "-s", target.getAbsolutePath(), new File( root, "link" ).getAbsolutePath() )
+                .start();
+        if( File.separatorChar != '/' || ln.waitFor() != 0 ) {
+            return;
+        }
+
+        Assert.assertTrue( TreeRemover.delete( root ) );
+        Assert.assertTrue( new File( target, "a.js" ).isFile() );
+        Assert.assertTrue( new File( target, "d0" ).isDirectory() );
+    }
+
+    private static void populate( File dir, int depth ) throws Exception {
+        dir.mkdirs();
+        write( new File( dir, "a.js" ) );
+        write( new File( dir, "b.png" ) );
+        if( depth > 0 ) {
+            for( int i = 0; i < 3; i++ ) {
+                populate( new File( dir, "d" + i ), depth - 1 );
+            }
+        }
+    }
+
+    private static void write( File file ) throws Exception {
+        FileOutputStream out = new FileOutputStream( file );
+        try {
+            out.write( file.getName().getBytes( "UTF-8" ) );
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.json4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * JUnit for the buffered and stream modes of JSONWriter.
+ * 
+ * The same sequence of calls must produce identical JSON in direct, buffered and UTF-8 stream mode.
+ */
+public class JSONWriterTest {
+
+    /**
+     * Passed through unescaped, so that multi-byte UTF-8 sequences reach the stream encoder.
+     */
+    private static final JSONString RAW = new JSONString() {
+        public String toJSONString() {
+            return "\"caf\u00e9 \ud83d\ude00 \u4e2d\"";
+        }
+    };
+
+    private static void writeSample( JSONWriter w, int entries ) throws Exception {
+        w.object().key( "name" ).value( "caf\u00e9 \ud83d\ude00 \u4e2d" ).key( "raw" ).value( RAW ).key( "list" ).array();
+        for( int i = 0; i < entries; i++ ) {
+            w.object().key( "i" ).value( i ).key( "ok" ).value( i % 2 == 0 ).endObject();
+        }
+        w.endArray().key( "nested" ).array().array().endArray().endArray();
+        w.close();
+    }
+
+    @Test
+    public void testBufferedMatchesDirect() throws Exception {
+        StringWriter direct = new StringWriter();
+        writeSample( new JSONWriter( direct ), 5000 );
+
+        StringWriter buffered = new StringWriter();
+        writeSample( new JSONWriter( buffered, true ), 5000 );
+
+        Assert.assertEquals( direct.toString(), buffered.toString() );
+        Assert.assertTrue( direct.toString().endsWith( "\"nested\":[[]]}" ) );
+    }
+
+    @Test
+    public void testStreamMatchesDirect() throws Exception {
+        StringWriter direct = new StringWriter();
+        writeSample( new JSONWriter( direct ), 5000 );
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writeSample( new JSONWriter( bytes ), 5000 );
+
+        Assert.assertEquals( direct.toString(), new String( bytes.toByteArray(), "UTF-8" ) );
+    }
+
+    @Test
+    public void testCloseEndsOpenClosures() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JSONWriter w = new JSONWriter( bytes );
+        w.array().object().key( "a" ).array().value( 1 );
+        w.close();
+
+        Assert.assertEquals( "[{\"a\":[1]}]", new String( bytes.toByteArray(), "UTF-8" ) );
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testKeyOutsideObject() throws Exception {
+        new JSONWriter( new StringWriter(), true ).array().key( "a" );
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.json4j.internal;
+
+import java.io.StringReader;
+
+import junit.framework.Assert;
+import net.rim.tumbler.json4j.JSON;
+import net.rim.tumbler.json4j.JSONArray;
+import net.rim.tumbler.json4j.JSONObject;
+
+import org.junit.Test;
+
+/**
+ * JUnit for JSON4JPBackReader.
+ */
+public class JSON4JPBackReaderTest {
+
+    @Test
+    public void testUnreadCharacterIsReadAgain() throws Exception {
+        JSON4JPBackReader reader = new JSON4JPBackReader( new StringReader( "abc" ) );
+        Assert.assertEquals( 'a', reader.read() );
+        Assert.assertEquals( 'b', reader.read() );
+        reader.unread( 'b' );
+        Assert.assertEquals( 'b', reader.read() );
+        Assert.assertEquals( 'c', reader.read() );
+        Assert.assertEquals( -1, reader.read() );
+    }
+
+    @Test
+    public void testReadsThrough() throws Exception {
+        JSON4JPBackReader reader = new JSON4JPBackReader( new StringReader( "abcdef" ) );
+        char[] buffer = new char[ 8 ];
+        Assert.assertEquals( 6, reader.read( buffer, 1, 7 ) );
+        Assert.assertEquals( "abcdef", new String( buffer, 1, 6 ) );
+    }
+
+    @Test
+    public void testParsesManyTokens() throws Exception {
+        // the tokenizer pushes back the character ending every number and literal
+        JSONObject json = (JSONObject) JSON.parse( new StringReader( "{\"a\":[1,22,true,null],\"b\":{\"c\":-3.5}}" ) );
+        JSONArray a = json.getJSONArray( "a" );
+        Assert.assertEquals( 4, a.length() );
+        Assert.assertEquals( 22, a.getInt( 1 ) );
+        Assert.assertTrue( a.getBoolean( 2 ) );
+        Assert.assertEquals( -3.5, json.getJSONObject( "b" ).getDouble( "c" ), 0 );
+    }
+}
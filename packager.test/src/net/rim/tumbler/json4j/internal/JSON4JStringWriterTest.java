@@ -0,0 +1,58 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.json4j.internal;
+
+import java.util.Arrays;
+
+import junit.framework.Assert;
+import net.rim.tumbler.json4j.JSONObject;
+
+import org.junit.Test;
+
+/**
+ * JUnit for JSON4JStringWriter.
+ */
+public class JSON4JStringWriterTest {
+
+    @Test
+    public void testGrowsPastInitialSize() throws Exception {
+        JSON4JStringWriter writer = new JSON4JStringWriter();
+        StringBuilder expected = new StringBuilder();
+        char[] chunk = "0123456789abcdef".toCharArray();
+        for( int i = 0; i < 3 * JSON4JStringWriter.BUF_SIZE / chunk.length; i++ ) {
+            writer.write( chunk, 0, chunk.length );
+            expected.append( chunk );
+        }
+        // one write larger than twice the buffer
+        char[] large = new char[ 5 * JSON4JStringWriter.BUF_SIZE ];
+        Arrays.fill( large, 'x' );
+        writer.write( large, 1, large.length - 1 );
+        expected.append( large, 1, large.length - 1 );
+
+        Assert.assertEquals( expected.toString(), writer.toString() );
+    }
+
+    @Test
+    public void testWritesLargeObject() throws Exception {
+        JSONObject json = new JSONObject();
+        for( int i = 0; i < 2000; i++ ) {
+            json.put( "key" + i, "value" + i );
+        }
+        String text = json.write( 0 );
+        Assert.assertTrue( text.length() > JSON4JStringWriter.BUF_SIZE );
+        Assert.assertEquals( json.size(), new JSONObject( text ).size() );
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnit for Logger.
+ */
+public class LoggerTest {
+    private PrintStream _out;
+    private ByteArrayOutputStream _printed;
+
+    @Before
+    public void setUp() throws Exception {
+        Logger.flush();
+        _out = System.out;
+        _printed = new ByteArrayOutputStream();
+        System.setOut( new PrintStream( _printed, true, "UTF-8" ) );
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Logger.flush();
+        System.setOut( _out );
+        Logger.setLevel( LogType.INFO );
+        Logger.setFormat( Logger.FORMAT_TEXT );
+        Logger.setBuild( null );
+        Logger.setPhase( null );
+    }
+
+    @Test
+    public void testLevel() throws Exception {
+        Logger.setLevel( LogType.WARNING );
+        Logger.logMessage( LogType.INFO, "PROGRESS_COMPLETE" );
+        Logger.logMessage( LogType.ERROR, "PROGRESS_VALIDATING_WIDGET_ARCHIVE" );
+        Logger.logLine( "tool output" );
+        Logger.flush();
+
+        String printed = _printed.toString( "UTF-8" );
+        Assert.assertFalse( printed.contains( "packaging complete" ) );
+        Assert.assertTrue( printed.startsWith( "[ERROR]     \t\tValidating WebWorks archive\n" ) );
+        Assert.assertTrue( printed.contains( "tool output" ) );
+    }
+
+    @Test
+    public void testJsonLines() throws Exception {
+        Logger.setFormat( Logger.FORMAT_JSON );
+        Logger.setBuild( "app" );
+        Logger.setPhase( "extract" );
+        Logger.logMessage( LogType.INFO, "BATCH_COMPLETE", new Object[] { 1, 2 } );
+        Logger.setBuild( null );
+        Logger.setPhase( null );
+        Logger.logLine( "say \"hi\"" );
+        Logger.flush();
+
+        String[] lines = _printed.toString( "UTF-8" ).split( System.getProperty( "line.separator" ) );
+        Assert.assertEquals( 2, lines.length );
+        Assert.assertTrue( lines[ 0 ].endsWith(
+                ",\"type\":\"INFO\",\"build\":\"app\",\"phase\":\"extract\",\"message\":\"1 of 2 archives packaged\"}" ) );
+        Assert.assertTrue( lines[ 1 ].endsWith( ",\"type\":\"NONE\",\"message\":\"say \\\"hi\\\"\"}" ) );
+    }
+
+    @Test
+    public void testUnknownMessageWithArgumentsIsIgnored() throws Exception {
+        Logger.logMessage( LogType.INFO, "NO_SUCH_MESSAGE", new Object[] { 1 } );
+        Logger.logLine( "done" );
+        Logger.flush();
+
+        Assert.assertEquals( "done" + System.getProperty( "line.separator" ), _printed.toString( "UTF-8" ) );
+    }
+}
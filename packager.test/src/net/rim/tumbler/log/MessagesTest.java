@@ -0,0 +1,45 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.log;
+
+import java.util.MissingResourceException;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * JUnit for Messages.
+ */
+public class MessagesTest {
+
+    @Test
+    public void testCompiledOnce() {
+        Messages.Message message = Messages.get( "BATCH_ARCHIVE_FAILED" );
+        Assert.assertSame( message, Messages.get( "BATCH_ARCHIVE_FAILED" ) );
+        Assert.assertEquals( "app failed with return code 2 after 15 ms", message.format( new Object[] { "app", 2, 15 } ) );
+        Assert.assertEquals( "{0} failed with return code {1} after {2} ms", message.getPattern() );
+
+        // a message without arguments is printed as is
+        message = Messages.get( "PROGRESS_COMPLETE" );
+        Assert.assertEquals( message.getPattern(), message.format( new Object[] { "ignored" } ) );
+    }
+
+    @Test(expected = MissingResourceException.class)
+    public void testUnknownMessage() {
+        Messages.get( "NO_SUCH_MESSAGE" );
+    }
+}
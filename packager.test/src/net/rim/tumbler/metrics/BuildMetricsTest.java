@@ -0,0 +1,145 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.metrics;
+
+import java.io.StringWriter;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import junit.framework.Assert;
+import net.rim.tumbler.json4j.JSONArray;
+import net.rim.tumbler.json4j.JSONObject;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * JUnit for BuildMetrics.
+ */
+public class BuildMetricsTest {
+
+    @After
+    public void disable() throws Exception {
+        Field instance = BuildMetrics.class.getDeclaredField( "_instance" );
+        instance.setAccessible( true );
+        instance.set( null, null );
+    }
+
+    @Test
+    public void testDisabledIsNoOp() {
+        Assert.assertFalse( BuildMetrics.isEnabled() );
+        BuildMetrics.startPhase( "prepare" );
+        BuildMetrics.count( BuildMetrics.FILES_EXTRACTED, 1 );
+        Assert.assertNull( BuildMetrics.startSubprocess( "mxmlc" ) );
+        BuildMetrics.endSubprocess( null, 0, "EXITED" );
+        BuildMetrics.finish( 0 );
+        Assert.assertNull( BuildMetrics.getInstance() );
+    }
+
+    @Test
+    public void testWriteJSON() throws Exception {
+        BuildMetrics.createInstance();
+        BuildMetrics.startPhase( "validate" );
+        BuildMetrics.startPhase( "prepare" );
+        BuildMetrics.count( BuildMetrics.FILES_EXTRACTED, 2 );
+        BuildMetrics.count( BuildMetrics.FILES_EXTRACTED, 3 );
+        BuildMetrics.endSubprocess( BuildMetrics.startSubprocess( "mxmlc" ), 1, "EXITED" );
+        BuildMetrics.finish( 2 );
+
+        StringWriter out = new StringWriter();
+        BuildMetrics.getInstance().writeJSON( out );
+        JSONObject json = new JSONObject( out.toString() );
+
+        Assert.assertEquals( 2, json.getInt( "result" ) );
+        JSONArray phases = json.getJSONArray( "phases" );
+        Assert.assertEquals( 2, phases.length() );
+        Assert.assertEquals( "validate", phases.getJSONObject( 0 ).getString( "name" ) );
+        Assert.assertEquals( "prepare", phases.getJSONObject( 1 ).getString( "name" ) );
+        Assert.assertTrue( phases.getJSONObject( 1 ).getDouble( "durationMs" ) >= 0 );
+        Assert.assertEquals( 5, json.getJSONObject( "counters" ).getLong( BuildMetrics.FILES_EXTRACTED ) );
+        JSONObject subprocess = json.getJSONArray( "subprocesses" ).getJSONObject( 0 );
+        Assert.assertEquals( "mxmlc", subprocess.getString( "tool" ) );
+        Assert.assertEquals( 1, subprocess.getInt( "exitValue" ) );
+        Assert.assertEquals( "EXITED", subprocess.getString( "exitReason" ) );
+    }
+
+    @Test
+    public void testWritePrometheus() throws Exception {
+        BuildMetrics.createInstance();
+        BuildMetrics.startPhase( "prepare" );
+        BuildMetrics.count( BuildMetrics.BYTES_EXTRACTED, 1024 );
+        BuildMetrics.finish( 0 );
+
+        StringWriter out = new StringWriter();
+        BuildMetrics.getInstance().writePrometheus( out );
+        String text = out.toString();
+
+        Assert.assertTrue( text.contains( "# TYPE bbwp_phase_duration_seconds gauge\n" ) );
+        Assert.assertTrue( text.contains( "bbwp_phase_duration_seconds{phase=\"prepare\"} " ) );
+        Assert.assertTrue( text.contains( "bbwp_bytes_extracted_total 1024\n" ) );
+    }
+
+    @Test
+    public void testPrometheusSeriesAreUnique() throws Exception {
+        BuildMetrics.createInstance();
+        // two archives of a batch, each running the same phases and tool
+        for( int i = 0; i < 2; i++ ) {
+            Thread build = new Thread() {
+                public void run() {
+                    BuildMetrics.startPhase( "prepare" );
+                    BuildMetrics.endSubprocess( BuildMetrics.startSubprocess( "mxmlc" ), 0, "EXITED" );
+                    BuildMetrics.endPhase();
+                }
+            };
+            build.start();
+            build.join();
+        }
+        BuildMetrics.finish( 0 );
+
+        StringWriter out = new StringWriter();
+        BuildMetrics.getInstance().writePrometheus( out );
+        String text = out.toString();
+
+        Assert.assertEquals( 1, occurrences( text, "bbwp_phase_duration_seconds{phase=\"prepare\"} " ) );
+        Assert.assertEquals( 1, occurrences( text, "bbwp_subprocess_wall_seconds{tool=\"mxmlc\"} " ) );
+    }
+
+    @Test
+    public void testPhaseDurationsAreSummed() throws Exception {
+        BuildMetrics.createInstance();
+        BuildMetrics.startPhase( "validate" );
+        BuildMetrics.startPhase( "extract" );
+        Thread.sleep( 5 );
+        BuildMetrics.startPhase( "validate" );
+        BuildMetrics.finish( 0 );
+
+        Map< String, Long > phases = BuildMetrics.getInstance().getPhaseDurations();
+        Assert.assertEquals( Arrays.asList( "validate", "extract" ), new ArrayList< String >( phases.keySet() ) );
+        Assert.assertTrue( phases.get( "extract" ).longValue() >= 5000000L );
+        long total = phases.get( "validate" ).longValue() + phases.get( "extract" ).longValue();
+        Assert.assertTrue( total <= BuildMetrics.getInstance().getWallTime() );
+    }
+
+    private static int occurrences( String text, String sample ) {
+        int count = 0;
+        for( int i = text.indexOf( sample ); i >= 0; i = text.indexOf( sample, i + 1 ) ) {
+            count++;
+        }
+        return count;
+    }
+}
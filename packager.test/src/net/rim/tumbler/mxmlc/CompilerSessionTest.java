@@ -0,0 +1,159 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.mxmlc;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import junit.framework.Assert;
+import net.rim.tumbler.exception.PackageException;
+import net.rim.tumbler.processbuffer.ProcessRunner;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnit for CompilerSession, using a shell script that speaks the fcsh protocol.
+ */
+public class CompilerSessionTest {
+
+    /**
+     * Assigns a target id per mxmlc command, writes the -output file on mxmlc and compile, reports an error for sources named
+     * Broken.as, hangs on Slow.as, prints 3 MB for Noisy.as, and logs every start to the file in STUB_LOG.
+     */
+    private static final String STUB = "#!/bin/sh\n" //
+            + "echo started >> \"$STUB_LOG\"\n" //
+            + "n=0\n" //
+            + "printf '(fcsh) '\n" //
+            + "while read cmd rest; do\n" //
+            + "  case \"$cmd\" in\n" //
+            + "  mxmlc)\n" //
+            + "    n=$((n+1)); echo \"fcsh: Assigned $n as the compile target id\"\n" //
+            + "    set -- $rest; out=; src=\n" //
+            + "    while [ $# -gt 0 ]; do if [ \"$1\" = -output ]; then out=$2; shift; else src=$1; fi; shift; done\n" //
+            + "    eval \"out_$n=$out; src_$n=$src\" ;;\n" //
+            + "  compile)\n" //
+            + "    eval \"out=\\$out_$rest; src=\\$src_$rest\" ;;\n" //
+            + "  quit) exit 0 ;;\n" //
+            + "  esac\n" //
+            + "  case \"$src\" in *Slow.as) sleep 30 ;; *Noisy.as) head -c 3000000 /dev/zero | tr '\\0' x; echo ;;\n" //
+            + "  esac\n" //
+            + "  case \"$src\" in *Broken.as) echo \"$src(1): col: 1 Error: broken\" ;; *) echo swf > \"$out\"; echo \"$out (4 bytes)\" ;; esac\n" //
+            + "  printf '(fcsh) '\n" //
+            + "done\n";
+
+    private File _dir;
+    private File _fcsh;
+    private File _log;
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue( new File( "/bin/sh" ).canExecute() );
+        _dir = File.createTempFile( "fcsh", "" );
+        _dir.delete();
+        _dir.mkdirs();
+        _fcsh = new File( _dir, "fcsh" );
+        FileWriter writer = new FileWriter( _fcsh );
+        writer.write( STUB.replace( "$STUB_LOG", new File( _dir, "starts.log" ).getAbsolutePath() ) );
+        writer.close();
+        _fcsh.setExecutable( true );
+        _log = new File( _dir, "starts.log" );
+    }
+
+    @After
+    public void tearDown() {
+        if( _dir != null ) {
+            CompilerSession.closeAll();
+            for( File f : _dir.listFiles() ) {
+                f.delete();
+            }
+            _dir.delete();
+        }
+    }
+
+    @Test
+    public void testReusesShellAndTarget() throws Exception {
+        CompilerSession session = CompilerSession.getInstance( _fcsh.getAbsolutePath(), 1 );
+        File swf = new File( _dir, "out.swf" );
+        String[] args = new String[] { "-output", swf.getAbsolutePath(), "Main.as" };
+
+        CompilerSession.Result first = session.compile( args, swf, 10000, false );
+        Assert.assertTrue( first.succeeded() );
+        Assert.assertFalse( first.isIncremental() );
+
+        swf.delete();
+        CompilerSession.Result second = session.compile( args, swf, 10000, false );
+        Assert.assertTrue( second.succeeded() );
+        Assert.assertTrue( second.isIncremental() );
+        Assert.assertTrue( swf.isFile() );
+
+        Assert.assertEquals( 1, countStarts() );
+    }
+
+    @Test
+    public void testReportsCompileErrors() throws Exception {
+        CompilerSession session = CompilerSession.getInstance( _fcsh.getAbsolutePath(), 1 );
+        File swf = new File( _dir, "broken.swf" );
+        CompilerSession.Result result = session.compile( new String[] { "-output", swf.getAbsolutePath(), "Broken.as" }, swf,
+                10000, false );
+        Assert.assertFalse( result.succeeded() );
+        Assert.assertTrue( result.getOutput().contains( "Error: broken" ) );
+    }
+
+    @Test
+    public void testTimeoutFailsTheBuild() throws Exception {
+        CompilerSession session = CompilerSession.getInstance( _fcsh.getAbsolutePath(), 1 );
+        File swf = new File( _dir, "slow.swf" );
+        try {
+            session.compile( new String[] { "-output", swf.getAbsolutePath(), "Slow.as" }, swf, 500, false );
+            Assert.fail();
+        } catch( PackageException pe ) {
+            Assert.assertEquals( "EXCEPTION_TOOL_TIMEOUT", pe.getMessage() );
+        }
+
+        // the shell was discarded, the next compilation starts another one
+        swf = new File( _dir, "out.swf" );
+        Assert.assertTrue( session.compile( new String[] { "-output", swf.getAbsolutePath(), "Main.as" }, swf, 10000, false )
+                .succeeded() );
+        Assert.assertEquals( 2, countStarts() );
+    }
+
+    @Test
+    public void testResponseIsCapped() throws Exception {
+        CompilerSession session = CompilerSession.getInstance( _fcsh.getAbsolutePath(), 1 );
+        File swf = new File( _dir, "noisy.swf" );
+        CompilerSession.Result result = session.compile( new String[] { "-output", swf.getAbsolutePath(), "Noisy.as" }, swf,
+                10000, false );
+        Assert.assertTrue( result.succeeded() );
+        Assert.assertTrue( result.getOutput().length() <= ProcessRunner.DEFAULT_MAX_RETAINED );
+        Assert.assertTrue( result.getOutput().endsWith( "(4 bytes)\n" ) );
+    }
+
+    private int countStarts() throws IOException {
+        BufferedReader reader = new BufferedReader( new FileReader( _log ) );
+        int count = 0;
+        while( reader.readLine() != null ) {
+            count++;
+        }
+        reader.close();
+        return count;
+    }
+}
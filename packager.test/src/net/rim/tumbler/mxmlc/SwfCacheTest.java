@@ -0,0 +1,113 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.mxmlc;
+
+import java.io.File;
+
+import junit.framework.Assert;
+import net.rim.tumbler.TempFiles;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnit for SwfCache.
+ */
+public class SwfCacheTest {
+
+    private File _dir;
+    private File _sources;
+    private File _cache;
+
+    @Before
+    public void setUp() throws Exception {
+        _dir = TempFiles.createFolder( "swfcache" );
+        _sources = new File( _dir, "src" );
+        _cache = new File( _dir, "cache" );
+        TempFiles.write( new File( _sources, "WebWorksAppTemplate.as" ), "backgroundColor=\"#FFFFFF\"" );
+        TempFiles.write( new File( _sources, "blackberry/Template.as" ), "package blackberry {}" );
+        TempFiles.write( new File( _sources, "index.html" ), "<html/>" );
+    }
+
+    @After
+    public void tearDown() {
+        TempFiles.delete( _dir );
+    }
+
+    @Test
+    public void testKeyDependsOnInputs() throws Exception {
+        String key = SwfCache.computeKey( _sources, "#000000", false, "/sdk" );
+        Assert.assertEquals( key, SwfCache.computeKey( _sources, "#000000", false, "/sdk" ) );
+        Assert.assertFalse( key.equals( SwfCache.computeKey( _sources, "#FF0000", false, "/sdk" ) ) );
+        Assert.assertFalse( key.equals( SwfCache.computeKey( _sources, "#000000", true, "/sdk" ) ) );
+        Assert.assertFalse( key.equals( SwfCache.computeKey( _sources, "#000000", false, "/sdk2" ) ) );
+
+        // every file of the source folder counts, whatever its type
+        TempFiles.write( new File( _sources, "index.html" ), "<html><body/></html>" );
+        String edited = SwfCache.computeKey( _sources, "#000000", false, "/sdk" );
+        Assert.assertFalse( key.equals( edited ) );
+        TempFiles.write( new File( _sources, "blackberry/Template.as" ), "package blackberry { class A {} }" );
+        Assert.assertFalse( edited.equals( SwfCache.computeKey( _sources, "#000000", false, "/sdk" ) ) );
+    }
+
+    @Test
+    public void testKeyDependsOnSdk() throws Exception {
+        File sdk = new File( _dir, "sdk" );
+        File jar = new File( sdk, "lib/mxmlc.jar" );
+        TempFiles.write( new File( sdk, "flex-sdk-description.xml" ), "<flex-sdk-description><version>4.6.0</version>" );
+        TempFiles.write( jar, "compiler 1" );
+        String key = SwfCache.computeKey( _sources, "#000000", false, sdk.getPath() );
+        Assert.assertEquals( key, SwfCache.computeKey( _sources, "#000000", false, sdk.getPath() ) );
+
+        // an SDK upgraded in place keeps its path
+        TempFiles.write( jar, "compiler 2" );
+        jar.setLastModified( jar.lastModified() - 60000 );
+        Assert.assertFalse( key.equals( SwfCache.computeKey( _sources, "#000000", false, sdk.getPath() ) ) );
+    }
+
+    @Test
+    public void testStoreAndFetch() throws Exception {
+        SwfCache cache = new SwfCache( _cache, 1024 );
+        File swf = new File( _dir, "a.swf" );
+        TempFiles.write( swf, "compiled" );
+        File out = new File( _dir, "out.swf" );
+
+        Assert.assertFalse( cache.fetch( "k1", out ) );
+        cache.store( "k1", swf );
+        Assert.assertTrue( cache.fetch( "k1", out ) );
+        Assert.assertEquals( swf.length(), out.length() );
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        SwfCache cache = new SwfCache( _cache, 250 );
+        File swf = new File( _dir, "a.swf" );
+        TempFiles.write( swf, new String( new char[ 100 ] ) );
+        File out = new File( _dir, "out.swf" );
+
+        cache.store( "k1", swf );
+        cache.store( "k2", swf );
+        new File( _cache, "k1.swf" ).setLastModified( System.currentTimeMillis() - 60000 );
+        new File( _cache, "k2.swf" ).setLastModified( System.currentTimeMillis() - 120000 );
+        Assert.assertTrue( cache.fetch( "k2", out ) );
+
+        cache.store( "k3", swf );
+        Assert.assertFalse( cache.fetch( "k1", out ) );
+        Assert.assertTrue( cache.fetch( "k2", out ) );
+        Assert.assertTrue( cache.fetch( "k3", out ) );
+    }
+}
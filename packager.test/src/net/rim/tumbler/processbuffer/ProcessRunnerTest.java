@@ -0,0 +1,77 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.processbuffer;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import junit.framework.Assert;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnit for ProcessRunner, using /bin/sh as the subprocess.
+ */
+public class ProcessRunnerTest {
+
+    @Before
+    public void requireShell() {
+        Assume.assumeTrue( new File( "/bin/sh" ).canExecute() );
+    }
+
+    private static Process sh( String script ) throws Exception {
+        return new ProcessBuilder( "/bin/sh", "-c", script ).start();
+    }
+
+    @Test
+    public void testCapturesBothStreams() throws Exception {
+        ProcessRunner runner = ProcessRunner.start( sh( "echo out; echo err 1>&2; exit 3" ), false );
+        Assert.assertEquals( 3, runner.waitFor() );
+        Assert.assertEquals( "out\n", new String( runner.getStdout() ) );
+        Assert.assertEquals( "err\n", new String( runner.getStderr() ) );
+        Assert.assertFalse( runner.isTruncated() );
+        Assert.assertTrue( runner.isDone() );
+    }
+
+    @Test
+    public void testRetainsTailOfFloodedOutput() throws Exception {
+        ProcessRunner runner = ProcessRunner.start( sh( "i=0; while [ $i -lt 20000 ]; do echo line$i; i=$((i+1)); done" ),
+                1000, false );
+        Assert.assertEquals( 0, runner.waitFor() );
+        byte[] stdout = runner.getStdout();
+        Assert.assertEquals( 1000, stdout.length );
+        Assert.assertTrue( new String( stdout ).endsWith( "line19999\n" ) );
+        Assert.assertTrue( runner.isTruncated() );
+    }
+
+    @Test
+    public void testTimeoutAndCancel() throws Exception {
+        ProcessRunner runner = ProcessRunner.start( sh( "exec sleep 30" ), false );
+        try {
+            runner.get( 100, TimeUnit.MILLISECONDS );
+            Assert.fail( "expected a timeout" );
+        } catch( TimeoutException te ) {
+            // expected
+        }
+        Assert.assertFalse( runner.isDone() );
+        Assert.assertTrue( runner.cancel( true ) );
+        Assert.assertTrue( runner.isCancelled() );
+        Assert.assertTrue( runner.waitFor( 5, TimeUnit.SECONDS ) != 0 );
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.processbuffer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+
+import junit.framework.Assert;
+import net.rim.tumbler.exception.PackageException;
+import net.rim.tumbler.processbuffer.ProcessSupervisor.ExitReason;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnit for ProcessSupervisor, using a stub tool script that sleeps, spawns children or floods its output.
+ */
+public class ProcessSupervisorTest {
+
+    private File _pidFile;
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue( new File( "/bin/sh" ).canExecute() );
+        _pidFile = File.createTempFile( "stub", ".pid" );
+    }
+
+    @After
+    public void tearDown() {
+        if( _pidFile != null ) {
+            _pidFile.delete();
+        }
+    }
+
+    private static ProcessBuilder stub( String script ) {
+        return new ProcessBuilder( "/bin/sh", "-c", script );
+    }
+
+    @Test
+    public void testExited() throws Exception {
+        ProcessSupervisor.Result result = new ProcessSupervisor( "stub", 10 ).run( stub( "exit 2" ), false );
+        Assert.assertEquals( ExitReason.EXITED, result.getReason() );
+        Assert.assertEquals( 2, result.getExitValue() );
+        Assert.assertFalse( result.succeeded() );
+        result.checkStopped();
+    }
+
+    @Test
+    public void testFloodedOutput() throws Exception {
+        ProcessSupervisor.Result result = new ProcessSupervisor( "stub", 30 ).run(
+                stub( "head -c 20000000 /dev/zero; echo done 1>&2" ), false );
+        Assert.assertTrue( result.succeeded() );
+    }
+
+    @Test
+    public void testTimeoutKillsTree() throws Exception {
+        long start = System.currentTimeMillis();
+        ProcessSupervisor.Result result = new ProcessSupervisor( "stub", 1 ).run(
+                stub( "sleep 60 & echo $! > " + _pidFile.getAbsolutePath() + "; wait" ), false );
+        Assert.assertEquals( ExitReason.TIMED_OUT, result.getReason() );
+        Assert.assertTrue( System.currentTimeMillis() - start < 30000 );
+        Assert.assertTrue( awaitExit( readPid() ) );
+        try {
+            result.checkStopped();
+            Assert.fail( "expected a PackageException" );
+        } catch( PackageException pe ) {
+            Assert.assertEquals( "EXCEPTION_TOOL_TIMEOUT", pe.getMessage() );
+        }
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        final ProcessSupervisor supervisor = new ProcessSupervisor( "stub", 0 );
+        Thread canceller = new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep( 300 );
+                } catch( InterruptedException ie ) {
+                    // cancel now
+                }
+                supervisor.cancel();
+            }
+        };
+        canceller.start();
+        ProcessSupervisor.Result result = supervisor.run( stub( "sleep 60" ), false );
+        canceller.join();
+        Assert.assertEquals( ExitReason.CANCELLED, result.getReason() );
+    }
+
+    private long readPid() throws Exception {
+        BufferedReader reader = new BufferedReader( new FileReader( _pidFile ) );
+        try {
+            return Long.parseLong( reader.readLine().trim() );
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Waits briefly for the specified process to finish exiting, since its pipes close before it becomes a zombie.
+     */
+    private static boolean awaitExit( long pid ) throws Exception {
+        for( int i = 0; i < 100; i++ ) {
+            if( !isRunning( pid ) ) {
+                return true;
+            }
+            Thread.sleep( 50 );
+        }
+        return false;
+    }
+
+    /**
+     * A killed child that init has not reaped yet is a zombie, which does not count as running.
+     */
+    private static boolean isRunning( long pid ) throws Exception {
+        File stat = new File( "/proc/" + pid + "/stat" );
+        if( !stat.exists() ) {
+            return false;
+        }
+        BufferedReader reader = new BufferedReader( new FileReader( stat ) );
+        try {
+            String line = reader.readLine();
+            return line != null && line.charAt( line.lastIndexOf( ')' ) + 2 ) != 'Z';
+        } catch( Exception e ) {
+            return false;
+        } finally {
+            reader.close();
+        }
+    }
+}
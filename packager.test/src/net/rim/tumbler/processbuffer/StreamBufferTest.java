@@ -0,0 +1,74 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.processbuffer;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * JUnit for StreamBuffer.
+ */
+public class StreamBufferTest {
+
+    @Test
+    public void testRetainsTail() {
+        byte[] data = new byte[ 100000 ];
+        for( int i = 0; i < data.length; i++ ) {
+            data[ i ] = (byte) ( i * 31 );
+        }
+
+        // reads of many sizes, smaller and larger than the retention limit, wrap around the buffer at many offsets
+        for( int limit : new int[] { 3000, 10000 } ) {
+            for( int readSize = 1; readSize < 12000; readSize = readSize * 3 + 1 ) {
+                StreamBuffer buffer = new StreamBuffer( new ChunkedStream( data, readSize ), limit, false );
+                buffer.call();
+                Assert.assertTrue( buffer.isTruncated() );
+                Assert.assertTrue( Arrays.equals( Arrays.copyOfRange( data, data.length - limit, data.length ), buffer
+                        .getBytes() ) );
+            }
+        }
+    }
+
+    @Test
+    public void testRetainsAllWithinLimit() {
+        byte[] data = "line 1\nline 2\n".getBytes();
+        StreamBuffer buffer = new StreamBuffer( new ChunkedStream( data, 5 ), 10000, false );
+        buffer.call();
+        Assert.assertFalse( buffer.isTruncated() );
+        Assert.assertTrue( Arrays.equals( data, buffer.getBytes() ) );
+    }
+
+    /**
+     * A stream returning at most a given number of bytes per read.
+     */
+    private static class ChunkedStream extends ByteArrayInputStream {
+        private final int _readSize;
+
+        ChunkedStream( byte[] data, int readSize ) {
+            super( data );
+            _readSize = readSize;
+        }
+
+        @Override
+        public synchronized int read( byte[] b, int off, int len ) {
+            return super.read( b, off, Math.min( len, _readSize ) );
+        }
+    }
+}
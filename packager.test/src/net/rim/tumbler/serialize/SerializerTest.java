@@ -15,6 +15,8 @@
  */
 package net.rim.tumbler.serialize;
 
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.lang.reflect.Field;
 import java.util.Hashtable;
 import java.util.Iterator;
@@ -28,6 +30,8 @@ import net.rim.tumbler.config.WidgetFeature;
 import net.rim.tumbler.json4j.JSONArray;
 import net.rim.tumbler.json4j.JSONException;
 import net.rim.tumbler.json4j.JSONObject;
+import net.rim.tumbler.json4j.JSONReader;
+import net.rim.tumbler.json4j.JSONWriter;
 import net.rim.tumbler.session.SessionManager;
 
 import org.jmock.Expectations;
@@ -318,6 +322,35 @@ public class SerializerTest {
         }
     }
     
+    @Test
+    public void testWhitelistCodecRoundTrip() throws Exception {
+        Hashtable< WidgetAccess, Vector< WidgetFeature >> accessTable = getTestAccessTable();
+
+        StringWriter json = new StringWriter();
+        JSONWriter writer = new JSONWriter( json );
+        WhitelistCodec.INSTANCE.write( writer, accessTable );
+        writer.close();
+
+        Hashtable< WidgetAccess, Vector< WidgetFeature >> read = WhitelistCodec.INSTANCE.read( new JSONReader( new StringReader(
+                json.toString() ) ) );
+        Assert.assertEquals( accessTable.size(), read.size() );
+
+        for( WidgetAccess access : read.keySet() ) {
+            Vector< WidgetFeature > features = read.get( access );
+            if( access.getURI().toString().equals( "WidgetConfig.WIDGET_LOCAL_DOMAIN" ) ) {
+                Assert.assertTrue( access.allowSubDomain() );
+                Assert.assertEquals( 2, features.size() );
+                Assert.assertEquals( "blackberry.system", features.get( 0 ).getID() );
+                Assert.assertEquals( "1.0.0", features.get( 0 ).getVersion() );
+                Assert.assertTrue( features.get( 0 ).isRequired() );
+            } else {
+                Assert.assertEquals( "http://test-xp.rim.net", access.getURI().toString() );
+                Assert.assertFalse( access.allowSubDomain() );
+                Assert.assertEquals( 4, features.size() );
+            }
+        }
+    }
+
     private static void assertFeature( JSONObject feature, String id, boolean required, String version ) throws JSONException {
         Assert.assertEquals( required, feature.getBoolean( "required" ) );
         Assert.assertEquals( version, feature.getString( "version" ) );
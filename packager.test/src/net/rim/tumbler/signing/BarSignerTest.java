@@ -0,0 +1,205 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.signing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import javax.xml.bind.DatatypeConverter;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * JUnit for BarSigner, using a keystore generated with keytool.
+ */
+public class BarSignerTest {
+
+    private static final String PASSWORD = "password";
+
+    private static File _p12;
+
+    private File _bar;
+
+    @BeforeClass
+    public static void setUpKeystore() throws Exception {
+        File keytool = new File( System.getProperty( "java.home" ), "bin" + File.separator + "keytool" );
+        if( keytool.canExecute() ) {
+            _p12 = File.createTempFile( "author", ".p12" );
+            _p12.delete();
+            genKey( keytool, "RDK", "RSA" );
+            genKey( keytool, "author", "EC" );
+        }
+    }
+
+    @AfterClass
+    public static void tearDownKeystore() {
+        if( _p12 != null ) {
+            _p12.delete();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeNotNull( _p12 );
+
+        _bar = File.createTempFile( "app", ".bar" );
+        ZipOutputStream zip = new ZipOutputStream( new FileOutputStream( _bar ) );
+        for( int i = 0; i < 20; i++ ) {
+            zip.putNextEntry( new ZipEntry( "assets/file" + i + ".js" ) );
+            byte[] data = new byte[ 10000 * i ];
+            Arrays.fill( data, (byte) i );
+            zip.write( data );
+            zip.closeEntry();
+        }
+        zip.close();
+    }
+
+    @After
+    public void tearDown() {
+        if( _bar != null ) {
+            _bar.delete();
+        }
+    }
+
+    @Test
+    public void testSignatureVerifies() throws Exception {
+        new BarSigner( SigningKeystore.getInstance( _p12.getPath(), PASSWORD ) ).sign( _bar, Arrays.asList( "RDK", "author" ) );
+
+        ZipFile zip = new ZipFile( _bar );
+        try {
+            Assert.assertEquals( 20 + 1 + 2 * 3, zip.size() );
+            byte[] manifest = read( zip, BarSigner.MANIFEST_NAME );
+            String text = new String( manifest, "UTF-8" ).replace( "\r\n ", "" );
+            Assert.assertTrue( text.contains( "Name: assets/file3.js\r\nSHA-512-Digest: " + digest( read( zip, "assets/file3.js" ) ) ) );
+
+            for( String alias : new String[] { "RDK", "AUTHOR" } ) {
+                byte[] sf = read( zip, "META-INF/" + alias + ".SF" );
+                Assert.assertTrue( new String( sf, "UTF-8" ).replace( "\r\n ", "" ).contains( "SHA-512-Digest-Manifest: " + digest( manifest ) ) );
+
+                Collection< ? extends Certificate > chain = CertificateFactory.getInstance( "X.509" ).generateCertificates(
+                        zip.getInputStream( zip.getEntry( "META-INF/" + alias + ".CER" ) ) );
+                Certificate certificate = chain.iterator().next();
+                Signature signature = Signature.getInstance( "RDK".equals( alias ) ? "SHA512withRSA" : "SHA512withECDSA" );
+                signature.initVerify( certificate.getPublicKey() );
+                signature.update( sf );
+                Assert.assertTrue( signature.verify( read( zip, "META-INF/" + alias + ".SIG" ) ) );
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    @Test
+    public void testResigningReplacesEntries() throws Exception {
+        BarSigner signer = new BarSigner( SigningKeystore.getInstance( _p12.getPath(), PASSWORD ) );
+        signer.sign( _bar, Arrays.asList( "RDK" ) );
+        long length = _bar.length();
+        signer.sign( _bar, Arrays.asList( "RDK", "author" ) );
+
+        ZipFile zip = new ZipFile( _bar );
+        try {
+            Assert.assertEquals( 20 + 1 + 2 * 3, zip.size() );
+            Assert.assertEquals( 10000 * 7, read( zip, "assets/file7.js" ).length );
+        } finally {
+            zip.close();
+        }
+        // the manifest is unchanged, so it is not written again
+        Assert.assertTrue( _bar.length() - length < 4096 );
+    }
+
+    @Test
+    public void testExistingManifestIsKept() throws Exception {
+        // a BAR as written by the packager, with the package and application headers in its manifest
+        _bar.delete();
+        ZipOutputStream out = new ZipOutputStream( new FileOutputStream( _bar ) );
+        out.putNextEntry( new ZipEntry( BarSigner.MANIFEST_NAME ) );
+        out.write( "Archive-Manifest-Version: 1.1\r\nPackage-Name: app\r\nApplication-Name: App\r\n".getBytes( "UTF-8" ) );
+        out.putNextEntry( new ZipEntry( "assets/index.html" ) );
+        out.write( "<html/>".getBytes( "UTF-8" ) );
+        out.close();
+
+        BarSigner signer = new BarSigner( SigningKeystore.getInstance( _p12.getPath(), PASSWORD ) );
+        signer.sign( _bar, Arrays.asList( "RDK" ) );
+        String manifest;
+        ZipFile zip = new ZipFile( _bar );
+        try {
+            manifest = new String( read( zip, BarSigner.MANIFEST_NAME ), "UTF-8" );
+            Assert.assertTrue( manifest.startsWith( "Archive-Manifest-Version: 1.1\r\nPackage-Name: app\r\n"
+                    + "Application-Name: App\r\n\r\nName: assets/index.html\r\n" ) );
+        } finally {
+            zip.close();
+        }
+
+        // signed again, the digests are not repeated
+        signer.sign( _bar, Arrays.asList( "RDK", "author" ) );
+        zip = new ZipFile( _bar );
+        try {
+            Assert.assertEquals( manifest, new String( read( zip, BarSigner.MANIFEST_NAME ), "UTF-8" ) );
+        } finally {
+            zip.close();
+        }
+    }
+
+    @Test
+    public void testKeystoreIsReused() throws Exception {
+        Assert.assertSame( SigningKeystore.getInstance( _p12.getPath(), PASSWORD ), SigningKeystore.getInstance( _p12
+                .getPath(), PASSWORD ) );
+    }
+
+    private static void genKey( File keytool, String alias, String algorithm ) throws Exception {
+        Process process = new ProcessBuilder( keytool.getPath(), "-genkeypair", "-alias", alias, "-keyalg", algorithm,
+                "-dname", "CN=" + alias, "-validity", "1", "-storetype", "PKCS12", "-keystore", _p12.getPath(), "-storepass",
+                PASSWORD, "-keypass", PASSWORD ).redirectErrorStream( true ).start();
+        InputStream in = process.getInputStream();
+        while( in.read() != -1 ) {
+        }
+        Assert.assertEquals( 0, process.waitFor() );
+    }
+
+    private static String digest( byte[] data ) throws Exception {
+        return DatatypeConverter.printBase64Binary( MessageDigest.getInstance( "SHA-512" ).digest( data ) );
+    }
+
+    private static byte[] read( ZipFile zip, String name ) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputStream in = zip.getInputStream( zip.getEntry( name ) );
+        byte[] buffer = new byte[ 4096 ];
+        int count;
+        while( ( count = in.read( buffer ) ) != -1 ) {
+            out.write( buffer, 0, count );
+        }
+        in.close();
+        return out.toByteArray();
+    }
+}
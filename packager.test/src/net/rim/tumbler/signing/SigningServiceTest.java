@@ -0,0 +1,247 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.signing;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.Assert;
+import net.rim.tumbler.TempFiles;
+import net.rim.tumbler.exception.PackageException;
+import net.rim.tumbler.session.BBWPProperties;
+import net.rim.tumbler.session.SessionManager;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnit for SigningService, using a stub signer script that appends to the listed BARs and logs its invocations.
+ */
+public class SigningServiceTest {
+
+    private File _dir;
+    private File _log;
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue( new File( "/bin/sh" ).canExecute() );
+        _dir = TempFiles.createFolder( "signing" );
+        new File( _dir, "templates" ).mkdirs();
+        new File( _dir, "sdk/bin" ).mkdirs();
+        _log = new File( _dir, "signer.log" );
+        TempFiles.write( new File( _dir, "tld.txt" ), "com\n" );
+
+        ZipOutputStream zip = new ZipOutputStream( new FileOutputStream( new File( _dir, "widget.zip" ) ) );
+        zip.putNextEntry( new ZipEntry( "config.xml" ) );
+        zip.closeEntry();
+        zip.close();
+
+        String sep = File.separator;
+        SessionManager.createInstance( "widget", _dir + sep + "widget.zip", _dir + sep, _dir.getPath(), false, "", "csk",
+                "p12", "", false, _dir.getPath(), false, false, false, true );
+    }
+
+    @After
+    public void tearDown() {
+        TempFiles.delete( _dir );
+    }
+
+    @Test
+    public void testBatchesAreSignedWithOneInvocationPerKey() throws Exception {
+        writeSigner( "for a in \"$@\"; do case \"$a\" in *.bar) echo x >> \"$a\";; esac; done; echo \"$#\" >> " + _log );
+        SigningService service = new SigningService( properties( 2, 2 ), "keystore.p12", "p12", "csk" );
+
+        List< Future< File >> signed = new ArrayList< Future< File >>();
+        for( int i = 0; i < 5; i++ ) {
+            File bar = new File( _dir, "app" + i + ".bar" );
+            TempFiles.write( bar, "bar" + i );
+            signed.add( service.submit( bar, false ) );
+        }
+        service.shutdown();
+
+        for( int i = 0; i < 5; i++ ) {
+            Assert.assertEquals( new File( _dir, "app" + i + ".bar" ), signed.get( i ).get() );
+            Assert.assertEquals( 4 + 2 * 2, new File( _dir, "app" + i + ".bar" ).length() );
+        }
+        // three batches, each signed with the RDK and author keys
+        Assert.assertEquals( 6, TempFiles.readLines( _log ).size() );
+    }
+
+    @Test
+    public void testUnchangedBarFails() throws Exception {
+        writeSigner( "exit 0" );
+        SigningService service = new SigningService( properties( 1, 1 ), "keystore.p12", "p12", "csk" );
+        File bar = new File( _dir, "app.bar" );
+        TempFiles.write( bar, "bar" );
+
+        try {
+            service.sign( bar, false );
+            Assert.fail( "unchanged BAR accepted" );
+        } catch( PackageException pe ) {
+            Assert.assertEquals( "EXCEPTION_SIGNING_FAILED", pe.getMessage() );
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailedSignerFailsEveryBar() throws Exception {
+        writeSigner( "exit 1" );
+        SigningService service = new SigningService( properties( 1, 2 ), "keystore.p12", "p12", "csk" );
+        File bar1 = new File( _dir, "app1.bar" );
+        File bar2 = new File( _dir, "app2.bar" );
+        TempFiles.write( bar1, "bar1" );
+        TempFiles.write( bar2, "bar2" );
+
+        Future< File > signed1 = service.submit( bar1, false );
+        Future< File > signed2 = service.submit( bar2, false );
+        service.shutdown();
+        assertFailed( signed1 );
+        assertFailed( signed2 );
+    }
+
+    @Test
+    public void testFailedBatchIsSignedBarByBar() throws Exception {
+        writeSigner( "for a in \"$@\"; do case \"$a\" in *bad.bar) exit 1;; esac; done; "
+                + "for a in \"$@\"; do case \"$a\" in *.bar) echo x >> \"$a\";; esac; done; echo \"$#\" >> " + _log );
+        SigningService service = new SigningService( properties( 1, 2 ), "keystore.p12", "p12", "csk" );
+        File bad = new File( _dir, "bad.bar" );
+        File good = new File( _dir, "good.bar" );
+        TempFiles.write( bad, "bad" );
+        TempFiles.write( good, "good" );
+
+        // the batch fails, then only the BAR the signer rejects
+        Future< File > signedBad = service.submit( bad, false );
+        Future< File > signedGood = service.submit( good, false );
+        service.shutdown();
+        assertFailed( signedBad );
+        Assert.assertEquals( good, signedGood.get() );
+        Assert.assertEquals( 3, bad.length() );
+        Assert.assertEquals( 4 + 2 * 2, good.length() );
+        Assert.assertEquals( 2, TempFiles.readLines( _log ).size() );
+    }
+
+    @Test
+    public void testCancelledBarLeavesTheBatch() throws Exception {
+        writeSigner( "for a in \"$@\"; do case \"$a\" in *.bar) echo x >> \"$a\";; esac; done" );
+        SigningService service = new SigningService( properties( 1, 3 ), "keystore.p12", "p12", "csk" );
+        File bar1 = new File( _dir, "app1.bar" );
+        File bar2 = new File( _dir, "app2.bar" );
+        TempFiles.write( bar1, "bar1" );
+        TempFiles.write( bar2, "bar2" );
+
+        // the build of the first BAR is interrupted, the second is signed all the same
+        Future< File > signed1 = service.submit( bar1, false );
+        Future< File > signed2 = service.submit( bar2, false );
+        Assert.assertTrue( signed1.cancel( true ) );
+        service.shutdown();
+
+        Assert.assertEquals( bar2, signed2.get() );
+        Assert.assertFalse( signed2.isCancelled() );
+        Assert.assertEquals( 4, bar1.length() );
+        Assert.assertEquals( 4 + 2 * 2, bar2.length() );
+    }
+
+    @Test
+    public void testConcurrentBuildsShareABatch() throws Exception {
+        writeSigner( "for a in \"$@\"; do case \"$a\" in *.bar) echo x >> \"$a\";; esac; done; echo \"$#\" >> " + _log );
+        // a linger long enough for the second build to fill the batch, however late it starts
+        final SigningService service = new SigningService( properties( 2, 2 ), "keystore.p12", "p12", "csk", 60000 );
+
+        final Exception[] failures = new Exception[ 2 ];
+        Thread[] builds = new Thread[ 2 ];
+        for( int i = 0; i < builds.length; i++ ) {
+            final int index = i;
+            final File bar = new File( _dir, "app" + i + ".bar" );
+            TempFiles.write( bar, "bar" + i );
+            builds[ i ] = new Thread() {
+                public void run() {
+                    try {
+                        service.sign( bar, false );
+                    } catch( Exception e ) {
+                        failures[ index ] = e;
+                    }
+                }
+            };
+            builds[ i ].start();
+        }
+        for( Thread build : builds ) {
+            build.join();
+        }
+        service.shutdown();
+
+        Assert.assertNull( failures[ 0 ] );
+        Assert.assertNull( failures[ 1 ] );
+        // one batch, signed with the RDK and author keys
+        Assert.assertEquals( 2, TempFiles.readLines( _log ).size() );
+    }
+
+    @Test
+    public void testBuildsShareAnInstance() throws Exception {
+        BBWPProperties properties = properties( 1, 2 );
+        SigningService service = SigningService.getInstance( properties, "keystore.p12", "p12", "csk" );
+        Assert.assertSame( service, SigningService.getInstance( properties, "keystore.p12", "p12", "csk" ) );
+        Assert.assertNotSame( service, SigningService.getInstance( properties, "other.p12", "p12", "csk" ) );
+
+        SigningService.shutdownInstances();
+        Assert.assertNotSame( service, SigningService.getInstance( properties, "keystore.p12", "p12", "csk" ) );
+        SigningService.shutdownInstances();
+    }
+
+    @Test
+    public void testSingleBarIsSignedAfterLinger() throws Exception {
+        writeSigner( "for a in \"$@\"; do case \"$a\" in *.bar) echo x >> \"$a\";; esac; done" );
+        SigningService service = new SigningService( properties( 1, 4 ), "keystore.p12", "p12", "csk" );
+        File bar = new File( _dir, "app.bar" );
+        TempFiles.write( bar, "bar" );
+
+        service.sign( bar, false );
+        service.shutdown();
+        Assert.assertEquals( 3 + 2 * 2, bar.length() );
+    }
+
+    private static void assertFailed( Future< File > signed ) throws InterruptedException {
+        try {
+            signed.get();
+            Assert.fail( "failed signer accepted" );
+        } catch( ExecutionException ee ) {
+            Assert.assertTrue( ee.getCause() instanceof PackageException );
+        }
+    }
+
+    private BBWPProperties properties( int workers, int batchSize ) throws Exception {
+        File file = new File( _dir, "bbwp.properties" );
+        TempFiles.write( file, "<wcp>\n  <wcp_template>" + new File( _dir, "templates" ) + "</wcp_template>\n  <tablet_sdk>"
+                + new File( _dir, "sdk" ) + "</tablet_sdk>\n  <signer_workers>" + workers + "</signer_workers>\n"
+                + "  <signer_batch_size>" + batchSize + "</signer_batch_size>\n</wcp>\n" );
+        return new BBWPProperties( file.getPath(), _dir.getPath() );
+    }
+
+    private void writeSigner( String script ) throws IOException {
+        File signer = new File( _dir, "sdk/bin/blackberry-signer" );
+        TempFiles.write( signer, "#!/bin/sh\n" + script + "\n" );
+        signer.setExecutable( true );
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import junit.framework.Assert;
+import net.rim.tumbler.TempFiles;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * JUnit for XMLTemplate.
+ */
+public class XMLTemplateTest {
+    private static final String APP_XML = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>\n"
+            + "<!-- WebWorks app template -->\n"
+            + "<application xmlns=\"http://ns.adobe.com/air/application/2.5\">\n"
+            + "  <id>old.id</id>\n"
+            + "  <name a=\"x > y\">old</name>\n"
+            + "  <versionNumber/>\n"
+            + "  <initialWindow>\n"
+            + "    <content><![CDATA[old.swf]]></content>\n"
+            + "  </initialWindow>\n"
+            + "</application>\n";
+
+    @Test
+    public void testRecordsElementsInDocumentOrder() throws Exception {
+        XMLTemplate template = XMLTemplate.compile( APP_XML );
+        Assert.assertEquals( Arrays.asList( "application", "id", "name", "versionNumber", "initialWindow", "content" ), template
+                .getElementNames() );
+
+        XMLTemplate.Document d = template.newDocument();
+        int window = d.find( d.getRoot(), "initialWindow" );
+        Assert.assertEquals( 5, d.find( window, "content" ) );
+        Assert.assertEquals( -1, d.find( window, "id" ) );
+        Assert.assertEquals( 0, d.findAll( -1, "qnx" ).length );
+    }
+
+    @Test
+    public void testEditsMatchDom() throws Exception {
+        XMLTemplate.Document d = XMLTemplate.compile( APP_XML ).newDocument();
+        int root = d.getRoot();
+        int window = d.find( root, "initialWindow" );
+        d.setText( d.find( window, "content" ), "app.swf" );
+        d.append( window, "aspectRatio", "landscape" );
+        d.setText( d.find( root, "id" ), "a & b" );
+        d.setText( d.find( root, "versionNumber" ), "1.0.0" );
+        d.append( root, "description", "<tag> & \u00e9" );
+        d.append( root, "icon", "image", "icon.png" );
+
+        Document dom = parse( write( d ) );
+        Element e = dom.getDocumentElement();
+        Assert.assertEquals( "app.swf", text( e, "content" ) );
+        Assert.assertEquals( "landscape", text( e, "aspectRatio" ) );
+        Assert.assertEquals( "initialWindow", e.getElementsByTagName( "aspectRatio" ).item( 0 ).getParentNode().getNodeName() );
+        Assert.assertEquals( "a & b", text( e, "id" ) );
+        Assert.assertEquals( "old", text( e, "name" ) );
+        Assert.assertEquals( "x > y", ( (Element) e.getElementsByTagName( "name" ).item( 0 ) ).getAttribute( "a" ) );
+        Assert.assertEquals( "1.0.0", text( e, "versionNumber" ) );
+        Assert.assertEquals( "<tag> & \u00e9", text( e, "description" ) );
+        Assert.assertEquals( "icon.png", text( e, "image" ) );
+        Assert.assertEquals( "icon", e.getLastChild().getNodeName() );
+    }
+
+    @Test
+    public void testKeepsUneditedText() throws Exception {
+        XMLTemplate.Document d = XMLTemplate.compile( "<qnx><!-- <category/> --><publisher>RIM</publisher><category/></qnx>" )
+                .newDocument();
+        for( int category : d.findChildren( "qnx", "category" ) ) {
+            d.setText( category, "core.games" );
+        }
+        d.append( d.getRoot(), "action", "access_internet" );
+
+        Assert.assertEquals( "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?><qnx><!-- <category/> -->"
+                + "<publisher>RIM</publisher><category>core.games</category><action>access_internet</action></qnx>", write( d ) );
+    }
+
+    @Test
+    public void testReplacedContentDropsNestedEdits() throws Exception {
+        XMLTemplate.Document d = XMLTemplate.compile( "<a><b><c/></b></a>" ).newDocument();
+        d.append( d.find( -1, "c" ), "d", "x" );
+        d.setText( d.find( -1, "b" ), "y" );
+        d.append( d.getRoot(), "e", "z" );
+
+        Assert.assertTrue( write( d ).endsWith( "<a><b>y</b><e>z</e></a>" ) );
+    }
+
+    @Test
+    public void testCopiesShareOneCompilation() throws Exception {
+        File folder = TempFiles.createFolder( "xmltemplate" );
+        try {
+            File first = new File( folder, "build1/blackberry-tablet.xml" );
+            File second = new File( folder, "build2/blackberry-tablet.xml" );
+            File edited = new File( folder, "build3/blackberry-tablet.xml" );
+            TempFiles.write( first, APP_XML );
+            TempFiles.write( second, APP_XML );
+            TempFiles.write( edited, APP_XML.replace( "old.id", "new.id" ) );
+
+            XMLTemplate template = XMLTemplate.compile( first );
+            Assert.assertSame( template, XMLTemplate.compile( second ) );
+            Assert.assertNotSame( template, XMLTemplate.compile( edited ) );
+
+            TempFiles.write( second, APP_XML.replace( "old.swf", "new.swf" ) );
+            Assert.assertNotSame( template, XMLTemplate.compile( second ) );
+        } finally {
+            TempFiles.delete( folder );
+        }
+    }
+
+    @Test
+    public void testRejectsMalformedTemplates() throws Exception {
+        try {
+            XMLTemplate.compile( "<a><b></a>" );
+            Assert.fail( "mismatched end tag accepted" );
+        } catch( java.io.IOException e ) {
+        }
+        try {
+            XMLTemplate.compile( "<a><!-- </a>" );
+            Assert.fail( "unclosed comment accepted" );
+        } catch( java.io.IOException e ) {
+        }
+    }
+
+    private static String write( XMLTemplate.Document d ) throws Exception {
+        StringWriter w = new StringWriter();
+        d.write( w );
+        return w.toString();
+    }
+
+    private static Document parse( String xml ) throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(
+                new ByteArrayInputStream( xml.getBytes( "UTF-8" ) ) );
+    }
+
+    private static String text( Element e, String name ) {
+        return e.getElementsByTagName( name ).item( 0 ).getTextContent();
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import net.rim.tumbler.file.TemplateWrapper;
+import net.rim.tumbler.log.LogType;
+import net.rim.tumbler.log.Logger;
+import net.rim.tumbler.metrics.BuildMetrics;
+import net.rim.tumbler.session.BBWPProperties;
+import net.rim.tumbler.session.SessionManager;
+import net.rim.tumbler.util.DaemonPools;
+
+/**
+ * Packages the archives of a batch, as many at once as <code>-j</code> allows. The builds share what does not depend on the
+ * archive: bbwp.properties and the device templates are read by the first build that needs them, tld.txt and the extension
+ * index are cached by {@link SessionManager} and the extension map. Each build has its own session, current on the thread
+ * that runs it, and its own source and output folders.
+ * <p>
+ * A failed build does not stop the others. Once all are done the result of every archive is logged, and the batch returns
+ * the return code of the first archive that failed, in the order they were specified, or 0 if none did.
+ */
+class BatchPackager {
+    private final CmdLineHandler _cmd;
+    private BBWPProperties _bbwpProperties;
+    private TemplateWrapper _templateWrapper;
+
+    BatchPackager( CmdLineHandler cmd ) {
+        _cmd = cmd;
+    }
+
+    /**
+     * Packages every archive of the batch.
+     *
+     * @return the return code of the batch.
+     */
+    int run() throws InterruptedException {
+        final List< String > archives = _cmd.getWidgetArchives();
+        final int[] results = new int[ archives.size() ];
+        final long[] durations = new long[ archives.size() ];
+
+        ExecutorService executor = DaemonPools.newFixed( "batch-packager", Math.min( _cmd.getJobs(), archives.size() ) );
+        try {
+            for( int i = 0; i < archives.size(); i++ ) {
+                final int index = i;
+                executor.execute( new Runnable() {
+                    public void run() {
+                        long start = System.nanoTime();
+                        results[ index ] = build( archives.get( index ) );
+                        durations[ index ] = ( System.nanoTime() - start ) / 1000000;
+                    }
+                } );
+            }
+            executor.shutdown();
+            executor.awaitTermination( Long.MAX_VALUE, TimeUnit.NANOSECONDS );
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // the summary, in the order of the archives
+        int returnCode = WidgetPackager.NO_ERROR_RETURN_CODE;
+        int packaged = 0;
+        for( int i = 0; i < archives.size(); i++ ) {
+            if( results[ i ] == WidgetPackager.NO_ERROR_RETURN_CODE ) {
+                packaged++;
+                Logger.logMessage( LogType.INFO, "BATCH_ARCHIVE_PACKAGED", new Object[] { archives.get( i ),
+                        String.valueOf( durations[ i ] ) } );
+            } else {
+                if( returnCode == WidgetPackager.NO_ERROR_RETURN_CODE ) {
+                    returnCode = results[ i ];
+                }
+                Logger.logMessage( LogType.ERROR, "BATCH_ARCHIVE_FAILED", new Object[] { archives.get( i ),
+                        String.valueOf( results[ i ] ), String.valueOf( durations[ i ] ) } );
+            }
+        }
+        Logger.logMessage( LogType.INFO, "BATCH_COMPLETE", new Object[] { String.valueOf( packaged ),
+                String.valueOf( archives.size() ) } );
+        return returnCode;
+    }
+
+    /**
+     * Returns bbwp.properties, read once for the batch.
+     */
+    synchronized BBWPProperties getProperties( SessionManager sessionManager ) throws Exception {
+        if( _bbwpProperties == null ) {
+            Logger.logMessage( LogType.INFO, "PROGRESS_SESSION_BBWP_PROPERTIES" );
+            String propertiesFile = sessionManager.getBBWPJarFolder() + WidgetPackager.PROPERTIES_FILE;
+            _bbwpProperties = new BBWPProperties( propertiesFile, sessionManager.getSessionHome() );
+        }
+        return _bbwpProperties;
+    }
+
+    /**
+     * Returns the device templates, listed once for the batch.
+     */
+    synchronized TemplateWrapper getTemplates( BBWPProperties bbwpProperties ) {
+        if( _templateWrapper == null ) {
+            _templateWrapper = new TemplateWrapper( bbwpProperties );
+        }
+        return _templateWrapper;
+    }
+
+    /**
+     * Packages one archive on the calling thread, returning the return code of its build.
+     */
+    private int build( String widgetArchive ) {
+        Logger.logMessage( LogType.INFO, "PROGRESS_BATCH_ARCHIVE", new Object[] { widgetArchive } );
+        try {
+            WidgetPackager.packageArchive( _cmd, widgetArchive, this );
+            return WidgetPackager.NO_ERROR_RETURN_CODE;
+        } catch( Exception e ) {
+            return WidgetPackager.getReturnCode( e );
+        } finally {
+            BuildMetrics.endPhase();
+            SessionManager.releaseInstance();
+        }
+    }
+}
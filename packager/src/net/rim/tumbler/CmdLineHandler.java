@@ -15,9 +15,18 @@
  */
 package net.rim.tumbler;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Random;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 import net.rim.tumbler.exception.CommandLineException;
@@ -39,6 +48,13 @@ public class CmdLineHandler {
     private static final String OPTION_HELP = "-h";
     private static final String OPTION_DEBUG = "-d";
     private static final String OPTION_DEBUG_INTERNAL = "-dinternal";
+    private static final String OPTION_METRICS = "-metrics";
+    private static final String OPTION_BATCH = "-batch";
+    private static final String OPTION_JOBS = "-j";
+    private static final String OPTION_VERIFY = "-verify";
+    private static final String OPTION_LOG_LEVEL = "-loglevel";
+    private static final String OPTION_LOG_FORMAT = "-logformat";
+    private static final Pattern PATTERN_WIDGET_NAME = Pattern.compile( "[a-zA-Z][a-zA-Z0-9]*" );
 
     private boolean _requireSigned;
     private String _password;
@@ -51,8 +67,13 @@ public class CmdLineHandler {
     private boolean _debugMode;
     private boolean _debugModeInternal;
     private boolean _isVerbose;
-    private String _widgetArchive;
-    private String _archiveName;
+    private List< String > _widgetArchives = new ArrayList< String >();
+    private boolean _batch;
+    private int _jobs = 1;
+    private String _verification = WidgetArchive.VERIFY_CRC;
+    private LogType _logLevel = LogType.INFO;
+    private String _logFormat = Logger.FORMAT_TEXT;
+    private String _metricsFile;
 
     // true for WebWorks on Playbook
     private static final boolean PLAYBOOK = true;
@@ -76,30 +97,85 @@ public class CmdLineHandler {
 
         Logger.logMessage( LogType.INFO, "PROGRESS_CMDLINE_OPTIONS" );
 
-        // check archive format
-        if( !input1.endsWith( ".zip" ) ) {
-            throw new CommandLineException( "EXCEPTION_INVALID_COMMAND_LINE" );
+        // the archives, then the options, which may add the archives of a batch list
+        int index = 0;
+        while( index < inputParams.length && inputParams[ index ].toLowerCase().trim().endsWith( ".zip" ) ) {
+            addArchive( inputParams[ index++ ].toLowerCase().trim() );
         }
-
-        // parse the command line
-        _widgetArchive = getAbsolutePath( input1 );
-        _archiveName = parseWidgetName( _widgetArchive );
-
-        Pattern patternWidgetName = Pattern.compile( "[a-zA-Z][a-zA-Z0-9]*" );
-        if( !patternWidgetName.matcher( _archiveName ).matches() ) {
-            throw new PackageException( "EXCEPTION_INVALID_ARCHIVE_NAME" );
+        if( index == 0 && !isBatchOption( input1 ) ) {
+            throw new CommandLineException( "EXCEPTION_INVALID_COMMAND_LINE" );
         }
 
         // parse options
         try {
-            parseOptionParameters( inputParams );
+            parseOptionParameters( inputParams, index );
+        } catch( PackageException pe ) {
+            throw pe;
         } catch( Exception e ) {
             throw new CommandLineException( "EXCEPTION_INVALID_COMMAND_LINE" );
         }
+        if( _widgetArchives.isEmpty() ) {
+            throw new CommandLineException( "EXCEPTION_INVALID_COMMAND_LINE" );
+        }
+        _batch = _batch || _widgetArchives.size() > 1;
         return true;
     }
 
+    /**
+     * Indicates whether several archives are packaged, from a batch list or the command line. Each archive of a batch is
+     * packaged to its own folder, named after it, inside the output folder.
+     */
+    public boolean isBatch() {
+        return _batch;
+    }
+
+    /**
+     * Returns the archives to package, in the order they were specified.
+     */
+    public List< String > getWidgetArchives() {
+        return Collections.unmodifiableList( _widgetArchives );
+    }
+
+    /**
+     * Returns the number of archives of a batch packaged at once, as specified by <code>-j</code>; 1 by default.
+     */
+    public int getJobs() {
+        return _jobs;
+    }
+
+    /**
+     * Creates the session of the only archive to package.
+     */
     public SessionManager createSession() throws Exception {
+        return createSession( _widgetArchives.get( 0 ) );
+    }
+
+    /**
+     * Creates the session of one of the archives returned by {@link #getWidgetArchives()}, current on the calling thread.
+     */
+    public SessionManager createSession( String widgetArchive ) throws Exception {
+        String archiveName = parseWidgetName( widgetArchive );
+
+        // Populate correct output directory
+        String archiveFolder = widgetArchive.substring( 0, widgetArchive.lastIndexOf( FILE_SEP ) + 1 );
+        String outputDir = _outputDir.length() != 0 ? _outputDir : archiveFolder + "bin";
+        if( _batch ) {
+            outputDir = outputDir + FILE_SEP + archiveName;
+        }
+
+        // Populate correct source directory
+        String sourceDir;
+        if( !_requireSource ) {
+            sourceDir = System.getProperty( "java.io.tmpdir" ) + "widgetGen." + new Random().nextInt( 2147483647 )
+                    + new Date().getTime() + ".tmp";
+        } else if( _sourceDir.length() != 0 ) {
+            sourceDir = ( _batch ? _sourceDir + FILE_SEP + archiveName : _sourceDir ) + FILE_SEP + "src";
+        } else if( _outputDir.length() != 0 || _batch ) {
+            sourceDir = outputDir + FILE_SEP + "src";
+        } else {
+            sourceDir = archiveFolder + "src";
+        }
+
         // parse location of packager
         String bbwpInstallFolder;
         String installPath = getAbsolutePath( SessionManager.BBWP_JAR_PATH );
@@ -111,12 +187,78 @@ public class CmdLineHandler {
             bbwpInstallFolder = installPath;
         }
 
-        SessionManager.createInstance( _archiveName, _widgetArchive, bbwpInstallFolder, _outputDir, _requireSigned, _password,
-                _cskPassword, _p12Password, _buildId, _requireSource, _sourceDir, _debugMode, _debugModeInternal, _isVerbose,
+        SessionManager.createInstance( archiveName, widgetArchive, bbwpInstallFolder, outputDir, _requireSigned, _password,
+                _cskPassword, _p12Password, _buildId, _requireSource, sourceDir, _debugMode, _debugModeInternal, _isVerbose,
                 isPlayBook() );
         return SessionManager.getInstance();
     }
 
+    /**
+     * Returns how thoroughly the archives are verified, as specified by <code>-verify</code>: one of the
+     * <code>WidgetArchive.VERIFY_</code> modes, {@link WidgetArchive#VERIFY_CRC} by default.
+     */
+    public String getVerification() {
+        return _verification;
+    }
+
+    /**
+     * Returns the lowest type of the messages printed, as specified by <code>-loglevel</code>; INFO by default.
+     */
+    public LogType getLogLevel() {
+        return _logLevel;
+    }
+
+    /**
+     * Returns how the messages are printed, as specified by <code>-logformat</code>: {@link Logger#FORMAT_TEXT}, the
+     * default, or {@link Logger#FORMAT_JSON}.
+     */
+    public String getLogFormat() {
+        return _logFormat;
+    }
+
+    /**
+     * Returns the file the build metrics are written to, or null if <code>-metrics</code> was not specified.
+     */
+    public String getMetricsFile() {
+        return _metricsFile;
+    }
+
+    private void addArchive( String archive ) throws PackageException {
+        String widgetArchive = getAbsolutePath( archive );
+        String archiveName = parseWidgetName( widgetArchive );
+        if( !PATTERN_WIDGET_NAME.matcher( archiveName ).matches() ) {
+            throw new PackageException( "EXCEPTION_INVALID_ARCHIVE_NAME", archive );
+        }
+        _widgetArchives.add( widgetArchive );
+    }
+
+    /**
+     * Adds the archives of a batch list: one archive per line, relative to the folder of the list; blank lines and lines
+     * starting with # are ignored.
+     */
+    private void addArchives( String listFile ) throws IOException, PackageException {
+        File list = new File( getAbsolutePath( listFile ) );
+        BufferedReader reader = new BufferedReader( new InputStreamReader( new FileInputStream( list ), "UTF-8" ) );
+        try {
+            String line;
+            while( ( line = reader.readLine() ) != null ) {
+                line = line.trim();
+                if( line.length() == 0 || line.startsWith( "#" ) ) {
+                    continue;
+                }
+                File archive = new File( line );
+                addArchive( archive.isAbsolute() ? line : new File( list.getParentFile(), line ).getPath() );
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static boolean isBatchOption( String param ) {
+        // also accepted with two dashes, as other tools spell long options
+        return param.equals( OPTION_BATCH ) || param.equals( SWITCH_CHAR + OPTION_BATCH );
+    }
+
     private String parseWidgetName( String archivePath ) {
         String name = archivePath.substring( archivePath.lastIndexOf( FILE_SEP ) + 1, archivePath.lastIndexOf( "." ) );
         return name;
@@ -138,7 +280,7 @@ public class CmdLineHandler {
         }
     }
 
-    private void parseOptionParameters( String[] params ) throws Exception {
+    private void parseOptionParameters( String[] params, int index ) throws Exception {
         _requireSigned = false;
         _password = "";
         _cskPassword = "";
@@ -150,7 +292,6 @@ public class CmdLineHandler {
 
         int nPasswords = 0;
 
-        int index = 1;
         while( index < params.length ) {
             String param = params[ index ];
 
@@ -214,6 +355,65 @@ public class CmdLineHandler {
                 } else {
                     throw new Exception();
                 }
+            } else if( param.equals( OPTION_METRICS ) ) {
+                if( params.length > index + 1 ) {
+                    _metricsFile = getAbsolutePath( params[ index + 1 ] );
+                    index += 2;
+                } else {
+                    throw new Exception();
+                }
+            } else if( isBatchOption( param ) ) {
+                if( params.length > index + 1 ) {
+                    _batch = true;
+                    addArchives( params[ index + 1 ] );
+                    index += 2;
+                } else {
+                    throw new Exception();
+                }
+            } else if( param.equals( OPTION_JOBS ) ) {
+                if( params.length > index + 1 ) {
+                    _jobs = Integer.parseInt( params[ index + 1 ] );
+                    if( _jobs < 1 ) {
+                        throw new Exception();
+                    }
+                    index += 2;
+                } else {
+                    throw new Exception();
+                }
+            } else if( param.equals( OPTION_VERIFY ) || param.startsWith( SWITCH_CHAR + OPTION_VERIFY + "=" ) ) {
+                // -verify mode, or --verify=mode as other tools spell long options
+                if( param.equals( OPTION_VERIFY ) && params.length > index + 1 ) {
+                    _verification = params[ index + 1 ];
+                    index += 2;
+                } else if( !param.equals( OPTION_VERIFY ) ) {
+                    _verification = param.substring( param.indexOf( '=' ) + 1 );
+                    index++;
+                } else {
+                    throw new Exception();
+                }
+                if( !WidgetArchive.isVerification( _verification ) ) {
+                    throw new Exception();
+                }
+            } else if( param.equals( OPTION_LOG_LEVEL ) ) {
+                if( params.length > index + 1 ) {
+                    _logLevel = LogType.valueOf( params[ index + 1 ].toUpperCase() );
+                    if( _logLevel == LogType.NONE ) {
+                        throw new Exception();
+                    }
+                    index += 2;
+                } else {
+                    throw new Exception();
+                }
+            } else if( param.equals( OPTION_LOG_FORMAT ) ) {
+                if( params.length > index + 1 ) {
+                    _logFormat = params[ index + 1 ];
+                    if( !_logFormat.equals( Logger.FORMAT_TEXT ) && !_logFormat.equals( Logger.FORMAT_JSON ) ) {
+                        throw new Exception();
+                    }
+                    index += 2;
+                } else {
+                    throw new Exception();
+                }
             } else if( param.equals( OPTION_SOURCEDIR ) ) {
                 _requireSource = true;
                 if( params.length > index + 1 ) {
@@ -241,25 +441,12 @@ public class CmdLineHandler {
             }
         }
 
-        // Populate correct source directory
-        if( !_requireSource ) {
-            _sourceDir = System.getProperty( "java.io.tmpdir" ) + "widgetGen." + new Random().nextInt( 2147483647 )
-                    + new Date().getTime() + ".tmp";
-        } else {
-            if( _sourceDir.length() != 0 ) {
-                _sourceDir = _sourceDir + FILE_SEP + "src";
-            } else {
-                if( _outputDir.length() != 0 ) {
-                    _sourceDir = _outputDir + FILE_SEP + "src";
-                } else {
-                    _sourceDir = _widgetArchive.substring( 0, _widgetArchive.lastIndexOf( FILE_SEP ) + 1 ) + "src";
-                }
+        // the archives of a batch are packaged to folders named after them, which must differ
+        Set< String > archiveNames = new HashSet< String >();
+        for( String widgetArchive : _widgetArchives ) {
+            if( !archiveNames.add( parseWidgetName( widgetArchive ) ) ) {
+                throw new PackageException( "EXCEPTION_DUPLICATE_ARCHIVE_NAME", widgetArchive );
             }
         }
-
-        // Populate correct output directory
-        if( _outputDir.length() == 0 ) {
-            _outputDir = _widgetArchive.substring( 0, _widgetArchive.lastIndexOf( FILE_SEP ) + 1 ) + "bin";
-        }
     }
 }
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Validates the names of the entries of a widget archive. Every segment of a name, between slashes, is made of letters,
+ * digits, "_", "." and "-", and does not start with "-"; a directory name may end with a slash.
+ * <p>
+ * A name is scanned once, against a table of the allowed characters, without allocating. The folders of the previous
+ * name are remembered, so that the folders it shares with the next name, usually all of them since archives list the
+ * entries of a folder together, are not scanned again. Every invalid name is recorded rather than stopping at the first.
+ */
+class ResourceNameValidator {
+    /** The number of invalid names kept to be reported; the others are only counted. */
+    private static final int MAX_REPORTED = 20;
+
+    private static final byte FIRST = 1;
+    private static final byte FOLLOWING = 2;
+    private static final byte[] CHARACTERS = new byte[ 128 ];
+
+    static {
+        for( char c = 'a'; c <= 'z'; c++ ) {
+            CHARACTERS[ c ] = FIRST | FOLLOWING;
+            CHARACTERS[ Character.toUpperCase( c ) ] = FIRST | FOLLOWING;
+        }
+        for( char c = '0'; c <= '9'; c++ ) {
+            CHARACTERS[ c ] = FIRST | FOLLOWING;
+        }
+        CHARACTERS[ '_' ] = FIRST | FOLLOWING;
+        CHARACTERS[ '.' ] = FIRST | FOLLOWING;
+        CHARACTERS[ '-' ] = FOLLOWING;
+    }
+
+    // the last valid name and the length of its folders, up to and including the last slash
+    private String _previous = "";
+    private int _previousFolders;
+
+    private final List< String > _invalidNames = new ArrayList< String >();
+    private int _invalidCount;
+
+    /**
+     * Validates an entry name, with "/" as separator, recording it if it is invalid.
+     *
+     * @return true if the name is valid.
+     */
+    public boolean check( String name ) {
+        // skip the folders shared with the previous name
+        int length = name.length();
+        int start = 0;
+        int shared = Math.min( _previousFolders, length );
+        for( int i = 0; i < shared && name.charAt( i ) == _previous.charAt( i ); i++ ) {
+            if( name.charAt( i ) == '/' ) {
+                start = i + 1;
+            }
+        }
+
+        // then one pass over the rest, a segment at a time
+        int segmentStart = start;
+        int lastSlash = start - 1;
+        for( int i = start; i < length; i++ ) {
+            char c = name.charAt( i );
+            if( c == '/' ) {
+                if( i == segmentStart ) {
+                    // an empty segment
+                    return invalid( name );
+                }
+                lastSlash = i;
+                segmentStart = i + 1;
+            } else if( c >= CHARACTERS.length || ( CHARACTERS[ c ] & ( i == segmentStart ? FIRST : FOLLOWING ) ) == 0 ) {
+                return invalid( name );
+            }
+        }
+        if( length == 0 ) {
+            return invalid( name );
+        }
+
+        _previous = name;
+        _previousFolders = lastSlash + 1;
+        return true;
+    }
+
+    /**
+     * Returns the number of invalid names.
+     */
+    public int getInvalidCount() {
+        return _invalidCount;
+    }
+
+    /**
+     * Returns the first invalid names, in the order they were checked.
+     */
+    public List< String > getInvalidNames() {
+        return _invalidNames;
+    }
+
+    /**
+     * Describes the invalid names, to be reported at once: the first of them, separated by commas, and how many more there
+     * are.
+     */
+    public String describeInvalidNames() {
+        StringBuffer description = new StringBuffer();
+        for( String name : _invalidNames ) {
+            if( description.length() > 0 ) {
+                description.append( ", " );
+            }
+            description.append( name );
+        }
+        if( _invalidCount > _invalidNames.size() ) {
+            description.append( " and " ).append( _invalidCount - _invalidNames.size() ).append( " more" );
+        }
+        return description.toString();
+    }
+
+    private boolean invalid( String name ) {
+        if( _invalidNames.size() < MAX_REPORTED ) {
+            _invalidNames.add( name );
+        }
+        _invalidCount++;
+        return false;
+    }
+}
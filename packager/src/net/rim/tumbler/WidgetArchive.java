@@ -15,49 +15,87 @@
  */
 package net.rim.tumbler;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.regex.Pattern;
-import java.util.zip.Adler32;
-import java.util.zip.CheckedInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
 
 import net.rim.tumbler.exception.PackageException;
 import net.rim.tumbler.exception.ValidationException;
 import net.rim.tumbler.log.LogType;
 import net.rim.tumbler.log.Logger;
+import net.rim.tumbler.metrics.BuildMetrics;
+import net.rim.tumbler.util.DaemonPools;
 
 public class WidgetArchive {
     private static final String[] RESERVED_DIRS = new String[] { "src", "bin" };
 
+    /** The entries are not checked, beyond those the packager needs: config.xml, the index and the icon. */
+    public static final String VERIFY_NONE = "none";
+    /** The names of the entries are validated, from the central directory of the archive. */
+    public static final String VERIFY_NAMES = "names";
+    /** The names are validated and the content of every entry is checked against the CRC of its header. */
+    public static final String VERIFY_CRC = "crc";
+
+    // entries of a verification task, at most, so that small entries do not cost a task each
+    private static final int ENTRIES_PER_TASK = 32;
+    private static final long BYTES_PER_TASK = 4 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final ExecutorService _verifiers = DaemonPools.newFixed( "archive-verifier",
+            Runtime.getRuntime().availableProcessors() );
+
     private String _archiveFile;
+    private String _verification;
     private byte[] _configXML;
     private String _indexFile;
     private String _iconFile;
 
     public WidgetArchive( String widgetArchive ) {
+        this( widgetArchive, VERIFY_CRC );
+    }
+
+    /**
+     * @param verification
+     *            how thoroughly the archive is verified: {@link #VERIFY_NONE}, {@link #VERIFY_NAMES} or
+     *            {@link #VERIFY_CRC}.
+     */
+    public WidgetArchive( String widgetArchive, String verification ) {
         _archiveFile = widgetArchive;
+        _verification = verification;
         _configXML = new byte[ 0 ];
         _indexFile = null;
         _iconFile = null;
     }
 
+    public static boolean isVerification( String verification ) {
+        return VERIFY_NONE.equals( verification ) || VERIFY_NAMES.equals( verification ) || VERIFY_CRC.equals( verification );
+    }
+
     public void validate() throws ValidationException, PackageException {
-        File f = new File( _archiveFile );
+        ZipFile zip = null;
         try {
-            FileInputStream fis = new FileInputStream( f );
-            CheckedInputStream checksum = new CheckedInputStream( fis, new Adler32() );
-            ZipInputStream zis = new ZipInputStream( new BufferedInputStream( checksum ) );
+            // the entries are listed from the central directory, only config.xml and the checked entries are read
+            zip = new ZipFile( _archiveFile );
 
             // parse each zip file
-            ZipEntry entry;
-            while( ( entry = zis.getNextEntry() ) != null ) {
+            ResourceNameValidator resourceNames = new ResourceNameValidator();
+            boolean checkNames = !VERIFY_NONE.equals( _verification );
+            for( Enumeration< ? extends ZipEntry > en = zip.entries(); en.hasMoreElements(); ) {
+                ZipEntry entry = en.nextElement();
                 String entryName = entry.getName().replace( '\\', '/' );
                 if( !entryName.startsWith( "__MACOSX" ) ) { // Catch __MACOSX folder that gets added to every zip on Mac
 
@@ -66,7 +104,7 @@ public class WidgetArchive {
                     } else if( _indexFile == null && entryName.equals( "index.html" ) ) {
                         _indexFile = "index.html";
                     } else if( entryName.equals( "config.xml" ) ) {
-                        _configXML = getBytes( zis );
+                        _configXML = getBytes( zip.getInputStream( entry ) );
                     } else if( entryName.equals( "icon.svg" ) ) {
                         _iconFile = "icon.svg";
                     } else if( ( _iconFile == null || _iconFile.equals( "icon.gif" ) ) && entryName.equals( "icon.png" ) ) {
@@ -86,38 +124,35 @@ public class WidgetArchive {
                     // Validate the resource name
                     // Allow "_" and "." anywhere in file name
                     // Disallow "-" as leading character, but allow it in other positions
-                    Pattern patternEntryName = Pattern.compile( "[a-zA-Z_0-9\\.][a-zA-Z_0-9\\-\\.]*" );
-                    String entity;
-                    String fullEntryName = entryName;
-                    boolean noMoreEntity = false;
-
-                    while( !noMoreEntity ) {
-                        if( entryName.charAt( entryName.length() - 1 ) == '/' ) {
-                            entryName = entryName.substring( 0, entryName.length() - 1 ); // Remove the ending '/'
-                        }
-
-                        if( entryName.lastIndexOf( '/' ) >= 0 ) {
-                            entity = entryName.substring( entryName.lastIndexOf( '/' ) + 1 );
-                            entryName = entryName.substring( 0, entryName.lastIndexOf( '/' ) );
-                        } else {
-                            entity = entryName;
-                            noMoreEntity = true;
-                        }
-
-                        if( !patternEntryName.matcher( entity ).matches() ) {
-                            throw new ValidationException( "EXCEPTION_INVALID_RESOURCE_NAME", fullEntryName );
-                        }
+                    if( checkNames ) {
+                        resourceNames.check( entryName );
                     }
                 }
             }
+
+            // all the invalid names at once
+            if( resourceNames.getInvalidCount() > 0 ) {
+                throw new ValidationException( "EXCEPTION_INVALID_RESOURCE_NAME", resourceNames.describeInvalidNames() );
+            }
             if( _configXML.length == 0 ) {
                 throw new PackageException( "EXCEPTION_CONFIGXML_MISSING" );
             }
+            if( VERIFY_CRC.equals( _verification ) ) {
+                verifyEntries( zip );
+            }
         } catch( FileNotFoundException fnfe ) {
             // already validated for existence of archive file - never get here
             Logger.logMessage( LogType.FATAL, "EXCEPTION_WIDGET_ARCHIVE_NOT_FOUND" );
         } catch( IOException ioe ) {
             throw new PackageException( "EXCEPTION_ARCHIVE_IO", ioe );
+        } finally {
+            if( zip != null ) {
+                try {
+                    zip.close();
+                } catch( IOException ioe ) {
+                    // read already
+                }
+            }
         }
     }
 
@@ -133,13 +168,138 @@ public class WidgetArchive {
         return _iconFile;
     }
 
-    private byte[] getBytes( ZipInputStream zis ) throws IOException {
+    /**
+     * Checks the content of every entry against the CRC recorded for it, on the verifier pool, and reports all the corrupt
+     * entries at once.
+     */
+    private void verifyEntries( final ZipFile zip ) throws PackageException, IOException {
+        // the entries, in batches of similar cost
+        List< List< ZipEntry >> batches = new ArrayList< List< ZipEntry >>();
+        List< ZipEntry > batch = new ArrayList< ZipEntry >();
+        long batchBytes = 0;
+        int count = 0;
+        for( Enumeration< ? extends ZipEntry > en = zip.entries(); en.hasMoreElements(); ) {
+            ZipEntry entry = en.nextElement();
+            if( entry.isDirectory() || entry.getCrc() == -1 ) {
+                continue;
+            }
+            if( batch.size() == ENTRIES_PER_TASK || ( !batch.isEmpty() && batchBytes + entry.getSize() > BYTES_PER_TASK ) ) {
+                batches.add( batch );
+                batch = new ArrayList< ZipEntry >();
+                batchBytes = 0;
+            }
+            batch.add( entry );
+            batchBytes += Math.max( 0, entry.getSize() );
+            count++;
+        }
+        if( !batch.isEmpty() ) {
+            batches.add( batch );
+        }
+
+        final AtomicBoolean stop = new AtomicBoolean();
+        List< Future< List< String >>> tasks = new ArrayList< Future< List< String >>>();
+        List< String > corrupt = new ArrayList< String >();
+        try {
+            for( final List< ZipEntry > entries : batches ) {
+                tasks.add( _verifiers.submit( new Callable< List< String >>() {
+                    public List< String > call() throws IOException {
+                        List< String > corrupt = new ArrayList< String >();
+                        byte[] buffer = new byte[ BUFFER_SIZE ];
+                        for( ZipEntry entry : entries ) {
+                            if( stop.get() ) {
+                                break;
+                            }
+                            if( !isIntact( zip, entry, buffer ) ) {
+                                corrupt.add( entry.getName() );
+                            }
+                        }
+                        return corrupt;
+                    }
+                } ) );
+            }
+            for( Future< List< String >> task : tasks ) {
+                corrupt.addAll( task.get() );
+            }
+        } catch( ExecutionException ee ) {
+            Throwable cause = ee.getCause();
+            if( cause instanceof IOException ) {
+                throw (IOException) cause;
+            } else if( cause instanceof Error ) {
+                throw (Error) cause;
+            }
+            throw new PackageException( "EXCEPTION_ARCHIVE_IO", (Exception) cause );
+        } catch( InterruptedException ie ) {
+            Thread.currentThread().interrupt();
+            throw new PackageException( "EXCEPTION_ARCHIVE_IO", ie );
+        } finally {
+            // nothing may read the archive once it is closed: the remaining tasks stop at their next entry, and are waited for
+            stop.set( true );
+            awaitAll( tasks );
+        }
+        BuildMetrics.count( "archive_entries_verified", count );
+
+        if( !corrupt.isEmpty() ) {
+            StringBuffer names = new StringBuffer();
+            for( String name : corrupt ) {
+                if( names.length() > 0 ) {
+                    names.append( ", " );
+                }
+                names.append( name );
+            }
+            throw new PackageException( "EXCEPTION_ARCHIVE_CORRUPT", names.toString() );
+        }
+    }
+
+    /**
+     * Waits for every task to end, whatever its outcome. An interrupt does not stop the wait, but is kept for the caller.
+     */
+    private static void awaitAll( List< Future< List< String >>> tasks ) {
+        boolean interrupted = false;
+        for( Future< List< String >> task : tasks ) {
+            while( true ) {
+                try {
+                    task.get();
+                    break;
+                } catch( InterruptedException ie ) {
+                    interrupted = true;
+                } catch( ExecutionException ee ) {
+                    break;
+                }
+            }
+        }
+        if( interrupted ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static boolean isIntact( ZipFile zip, ZipEntry entry, byte[] buffer ) throws IOException {
+        CRC32 crc = new CRC32();
+        InputStream is = zip.getInputStream( entry );
+        try {
+            int size;
+            while( ( size = is.read( buffer, 0, buffer.length ) ) != -1 ) {
+                crc.update( buffer, 0, size );
+            }
+        } catch( ZipException ze ) {
+            // the compressed data is not valid
+            return false;
+        } finally {
+            is.close();
+        }
+        return crc.getValue() == entry.getCrc();
+    }
+
+    private byte[] getBytes( InputStream is ) throws IOException {
         int size;
         byte[] buffer = new byte[ 4096 ];
         ByteArrayOutputStream os = new ByteArrayOutputStream();
         BufferedOutputStream bos = new BufferedOutputStream( os, buffer.length );
-        while( ( size = zis.read( buffer, 0, buffer.length ) ) != -1 ) {
-            bos.write( buffer, 0, size );
+        try {
+            while( ( size = is.read( buffer, 0, buffer.length ) ) != -1 ) {
+                bos.write( buffer, 0, size );
+            }
+        } finally {
+            is.close();
         }
         bos.flush();
         bos.close();
@@ -17,8 +17,11 @@ package net.rim.tumbler;
 
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.LinkedHashMap;
@@ -26,6 +29,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
 
+import net.rim.tumbler.build.BuildGraph;
 import net.rim.tumbler.config.WidgetAccess;
 import net.rim.tumbler.config.WidgetConfig;
 import net.rim.tumbler.config.WidgetFeature;
@@ -34,12 +38,16 @@ import net.rim.tumbler.exception.PackageException;
 import net.rim.tumbler.exception.ValidationException;
 import net.rim.tumbler.extension.ExtensionMap;
 import net.rim.tumbler.file.FileManager;
+import net.rim.tumbler.file.OutputPublisher;
+import net.rim.tumbler.file.TreeRemover;
 import net.rim.tumbler.log.LogType;
 import net.rim.tumbler.log.Logger;
+import net.rim.tumbler.metrics.BuildMetrics;
 import net.rim.tumbler.serialize.WidgetConfigSerializer;
 import net.rim.tumbler.serialize.WidgetConfig_v1Serializer;
 import net.rim.tumbler.session.BBWPProperties;
 import net.rim.tumbler.session.SessionManager;
+import net.rim.tumbler.signing.SigningService;
 import net.rim.tumbler.xml.ConfigXMLParser;
 import net.rim.tumbler.xml.XMLParser;
 
@@ -56,7 +64,7 @@ public class WidgetPackager {
     // TODO may need to put it in a different location
     private static final String AUTOGEN_FILE = "config/user.js";
 
-    private static final int NO_ERROR_RETURN_CODE = 0;
+    static final int NO_ERROR_RETURN_CODE = 0;
     private static final int PACKAGE_ERROR_RCODE = 1;
     private static final int VALIDATION_ERROR_RCODE = 2;
     private static final int RUNTIME_ERROR_RCODE = 3;
@@ -75,6 +83,7 @@ public class WidgetPackager {
 
     public void go( String[] args ) {
         int returnCode = NO_ERROR_RETURN_CODE;
+        String metricsFile = null;
 
         try {
             CmdLineHandler cmd = new CmdLineHandler();
@@ -83,49 +92,147 @@ public class WidgetPackager {
                 System.exit( NO_ERROR_RETURN_CODE );
             }
 
-            // create SessionManager
-            SessionManager sessionManager = cmd.createSession();
+            Logger.setLevel( cmd.getLogLevel() );
+            Logger.setFormat( cmd.getLogFormat() );
 
-            // create bbwp.properties
+            metricsFile = cmd.getMetricsFile();
+            if( metricsFile != null ) {
+                BuildMetrics.createInstance();
+            }
+
+            if( cmd.isBatch() ) {
+                returnCode = new BatchPackager( cmd ).run();
+            } else {
+                packageArchive( cmd, cmd.getWidgetArchives().get( 0 ), null );
+            }
+        } catch( CommandLineException cle ) {
+            Logger.logMessage( LogType.ERROR, cle.getMessage(), cle.getInfo() );
+            Logger.logMessage( LogType.NONE, CmdLineHandler.isPlayBook() ? "BBWP_PLAYBOOK_USAGE" : "BBWP_USAGE", getVersion() );
+            returnCode = COMMAND_LINE_EXCEPTION;
+        } catch( Exception e ) {
+            returnCode = getReturnCode( e );
+        }
+
+        SigningService.shutdownInstances();
+
+        // let the folders cleaned in the background, and the outputs of a failed build, be removed before the VM exits
+        OutputPublisher.discardUnpublished();
+        TreeRemover.awaitPending();
+
+        if( metricsFile != null ) {
+            BuildMetrics.finish( returnCode );
+            writeMetrics( metricsFile );
+        }
+
+        Logger.flush();
+        System.exit( returnCode );
+    }
+
+    /**
+     * Packages one archive of the command line. The builds of a batch share the state of the batch; a single build, without
+     * a batch, reads it itself.
+     * 
+     * @param cmd
+     *            the parsed command line.
+     * @param widgetArchive
+     *            the archive to package.
+     * @param batch
+     *            the batch the archive belongs to, or null.
+     */
+    static void packageArchive( final CmdLineHandler cmd, String widgetArchive, BatchPackager batch ) throws Exception {
+        // create SessionManager
+        BuildMetrics.startPhase( "session" );
+        final SessionManager sessionManager = cmd.createSession( widgetArchive );
+
+        // create bbwp.properties
+        final BBWPProperties bbwpProperties;
+        if( batch != null ) {
+            bbwpProperties = batch.getProperties( sessionManager );
+        } else {
             Logger.logMessage( LogType.INFO, "PROGRESS_SESSION_BBWP_PROPERTIES" );
             String propertiesFile = sessionManager.getBBWPJarFolder() + WidgetPackager.PROPERTIES_FILE;
-            BBWPProperties bbwpProperties = new BBWPProperties( propertiesFile, sessionManager.getSessionHome() );
+            bbwpProperties = new BBWPProperties( propertiesFile, sessionManager.getSessionHome() );
+        }
+        FileManager fileManager = new FileManager( bbwpProperties, batch != null ? batch.getTemplates( bbwpProperties ) : null );
+        BuildMetrics.endPhase();
 
-            // validate widget archive
-            Logger.logMessage( LogType.INFO, "PROGRESS_VALIDATING_WIDGET_ARCHIVE" );
-            WidgetArchive wa = new WidgetArchive( sessionManager.getWidgetArchive() );
-            wa.validate();
+        packageSession( sessionManager, bbwpProperties, fileManager, cmd.getVerification() );
+    }
 
-            // parse/validate config.xml
-            Logger.logMessage( LogType.INFO, "PROGRESS_SESSION_CONFIGXML" );
-            XMLParser xmlparser = new ConfigXMLParser();
-            WidgetConfig config = xmlparser.parseXML( wa ); // raw data, without \
+    /**
+     * Runs the build of the session current on the calling thread, from the validation of its archive to the publication of
+     * its outputs. Every task of the build is a phase of {@link BuildMetrics}.
+     * 
+     * @param sessionManager
+     *            the current session.
+     * @param bbwpProperties
+     *            the properties of the SDK.
+     * @param fileManager
+     *            the file manager of the session.
+     * @param verification
+     *            how thoroughly the archive is verified, one of the <code>WidgetArchive.VERIFY_</code> modes.
+     */
+    public static void packageSession( final SessionManager sessionManager, final BBWPProperties bbwpProperties,
+            final FileManager fileManager, final String verification ) throws Exception {
+        final Build build = new Build();
 
-            // create/clean outputs/source
-            // Logger.printInfoMessage("Widget packaging starts...");
-            FileManager fileManager = new FileManager( bbwpProperties );
-            Logger.logMessage( LogType.INFO, "PROGRESS_FILE_POPULATING_SOURCE" );
-            fileManager.prepare();
+        //
+        // The build runs as a graph: every task starts once the tasks it depends on are done, so the source folder
+        // is populated while the archive is validated and config.xml parsed.
+        //
+        BuildGraph graph = new BuildGraph();
+
+        // validate widget archive
+        graph.add( "validate", new BuildGraph.Task() {
+            public void run() throws Exception {
+                Logger.logMessage( LogType.INFO, "PROGRESS_VALIDATING_WIDGET_ARCHIVE" );
+                build.archive = new WidgetArchive( sessionManager.getWidgetArchive(), verification );
+                build.archive.validate();
+            }
+        } ).produces( "archive" );
+
+        // parse/validate config.xml
+        graph.add( "configxml", new BuildGraph.Task() {
+            public void run() throws Exception {
+                Logger.logMessage( LogType.INFO, "PROGRESS_SESSION_CONFIGXML" );
+                XMLParser xmlparser = new ConfigXMLParser();
+                build.config = xmlparser.parseXML( build.archive ); // raw data, without \
+            }
+        } ).requires( "archive" ).produces( "config" );
 
-            //
-            // Copy the JS extensions.
-            //
-            Map< String, Vector< String >> entryClassTable = null;
-            if( SessionManager.getInstance().isPlayBook() ) {
-                entryClassTable = copyExtensions( bbwpProperties, config );
+        // create/clean outputs/source
+        graph.add( "stage", new BuildGraph.Task() {
+            public void run() throws Exception {
+                fileManager.cleanOutput();
             }
+        } ).produces( "output" );
 
-            // Set 3rd party extension classes
-            if( !SessionManager.getInstance().isPlayBook() ) {
-                config.setExtensionClasses( fileManager.getExtensionClasses() );
+        //
+        // Copy the JS extensions.
+        //
+        addSourceTasks( graph, fileManager, new BuildGraph.Task() {
+            public void run() throws Exception {
+                if( sessionManager.isPlayBook() ) {
+                    build.entryClassTable = copyExtensions( bbwpProperties, build.config );
+                }
             }
+        } );
+
+        // create autogen file, over the templates and resources
+        graph.add( "autogen", new BuildGraph.Task() {
+            public void run() throws Exception {
+                // Set 3rd party extension classes
+                if( !sessionManager.isPlayBook() ) {
+                    build.config.setExtensionClasses( fileManager.getExtensionClasses() );
+                }
 
-            // create autogen file
-            WidgetConfigSerializer wcs = new WidgetConfig_v1Serializer( config, entryClassTable );
-            byte[] autogenFile = wcs.serialize();
-            fileManager.writeToSource( autogenFile, AUTOGEN_FILE );
+                WidgetConfigSerializer wcs = new WidgetConfig_v1Serializer( build.config, build.entryClassTable );
+                byte[] autogenFile = wcs.serialize();
+                fileManager.writeToSource( autogenFile, AUTOGEN_FILE );
+            }
+        } ).requires( "config", "extensions", "templates", "resources" ).produces( "autogen" );
 
-            // create jdw/jdp files
+        // create jdw/jdp files
 //            if( !SessionManager.getInstance().isPlayBook() ) {
 //                fileManager.generateProjectFiles( sessionManager.getSourceFolder(), sessionManager.getArchiveName(),
 //                        config.getName(), config.getVersion(), config.getAuthor(), config.getContent(),
@@ -133,7 +240,7 @@ public class WidgetPackager {
 //                        fileManager.getFiles(), bbwpProperties.getImports() );
 //            }
 
-            // run mxmlc to compile ActionScript into SWF
+        // run mxmlc to compile ActionScript into SWF
 //            Logger.logMessage( LogType.INFO, "PROGRESS_COMPILING" );
 //            if( SessionManager.getInstance().isPlayBook() ) {
 //                Mxmlc mxmlc = new Mxmlc( bbwpProperties, config );
@@ -152,12 +259,12 @@ public class WidgetPackager {
 //                }
 //            }
 
-            // generate ALX
+        // generate ALX
 //            if( !SessionManager.getInstance().isPlayBook() ) {
 //                generateAlxFile( config );
 //            }
 
-            // TODO signing needs to be uncommented later
+        // TODO signing needs to be uncommented later
 //            if( ENABLE_SIGNING && sessionManager.requireSigning() ) {
 //                Logger.logMessage( LogType.INFO, "PROGRESS_SIGNING" );
 //                if( SessionManager.getInstance().isPlayBook() ) {
@@ -171,85 +278,115 @@ public class WidgetPackager {
 //                        throw e;
 //                    }
 //                } else {
-//                    signCod( sessionManager );
+//                    SigningSupport.signCod( bbwpProperties );
 //                }
 //                Logger.logMessage( LogType.INFO, "PROGRESS_SIGNING_COMPLETE" );
 //            }
 
-            // clean/prep output folders
-            fileManager.cleanOutput();
+        // prep output folders, staged since the source was prepared
+        graph.add( "output", new BuildGraph.Task() {
+            public void run() throws Exception {
+                // copy output files
+                if( !sessionManager.isPlayBook() ) {
+                    Logger.logMessage( LogType.INFO, "PROGRESS_GEN_OUTPUT" );
+                    fileManager.copyOutputsFromSource( STANDARD_OUTPUTS, OTA_OUTPUTS );
+                }
 
-            // copy output files
-            if( !SessionManager.getInstance().isPlayBook() ) {
-                Logger.logMessage( LogType.INFO, "PROGRESS_GEN_OUTPUT" );
-                fileManager.copyOutputsFromSource( STANDARD_OUTPUTS, OTA_OUTPUTS );
-            }
+                // clean source (if necessary)
+                if( !sessionManager.requireSource() ) {
+                    fileManager.copyOutputsFromSource();
+                    fileManager.cleanSource();
+                }
 
-            // clean source (if necessary)
-            if( !sessionManager.requireSource() ) {
-                fileManager.copyOutputsFromSource();                
-                fileManager.cleanSource();
+                // replace the previous outputs with the new ones at once
+                fileManager.publishOutput();
             }
+        } ).requires( "autogen", "output" );
 
-            Logger.logMessage( LogType.INFO, "PROGRESS_COMPLETE" );
-        } catch( CommandLineException cle ) {
-            Logger.logMessage( LogType.ERROR, cle.getMessage(), cle.getInfo() );
-            Logger.logMessage( LogType.NONE, CmdLineHandler.isPlayBook() ? "BBWP_PLAYBOOK_USAGE" : "BBWP_USAGE", getVersion() );
-            returnCode = COMMAND_LINE_EXCEPTION;
-        } catch( PackageException pe ) {
-            Logger.logMessage( LogType.ERROR, pe.getMessage(), pe.getInfo() );
-            returnCode = PACKAGE_ERROR_RCODE;
-        } catch( ValidationException ve ) {
-            Logger.logMessage( LogType.ERROR, ve.getMessage(), ve.getInfo() );
-            returnCode = VALIDATION_ERROR_RCODE;
-        } catch( RuntimeException re ) {
-            Logger.logMessage( LogType.FATAL, re );
-            returnCode = RUNTIME_ERROR_RCODE;
-        } catch( Exception e ) {
-            System.out.println( e );
-            returnCode = UNEXPECTED_ERROR_RCODE;
-        }
-
-        System.exit( returnCode );
+        graph.run();
+        Logger.logMessage( LogType.INFO, "PROGRESS_COMPLETE" );
     }
 
-    public static Object[] getVersion() {
-        return new Object[] { new WidgetPackager().getClass().getPackage().getImplementationVersion() };
+    /**
+     * Adds the tasks populating the source folder to a graph providing the "archive" and "config" artifacts: the templates,
+     * then the archive over them, then the extensions over both, so that a file of the archive replaces a template of the
+     * same path, as it did when the source folder was populated in one step.
+     */
+    static void addSourceTasks( BuildGraph graph, final FileManager fileManager, BuildGraph.Task extensions ) {
+        graph.add( "source", new BuildGraph.Task() {
+            public void run() throws Exception {
+                Logger.logMessage( LogType.INFO, "PROGRESS_FILE_POPULATING_SOURCE" );
+                fileManager.prepareSource();
+            }
+        } ).produces( "source" );
+        graph.add( "templates", new BuildGraph.Task() {
+            public void run() throws Exception {
+                fileManager.writeTemplates();
+            }
+        } ).requires( "source" ).produces( "templates" );
+        graph.add( "extract", new BuildGraph.Task() {
+            public void run() throws Exception {
+                fileManager.extractArchive();
+            }
+        } ).requires( "archive", "templates" ).produces( "resources" );
+        graph.add( "extensions", extensions ).requires( "config", "resources" ).produces( "extensions" );
     }
 
-    private static void signCod( SessionManager sessionManager ) throws Exception {
-        Process signingProcess;
-        long lastModified = 0;
-        String codFullname = sessionManager.getSourceFolder() + File.separator + sessionManager.getArchiveName() + ".cod";
+    /**
+     * What the tasks of a build pass on to the tasks that depend on them.
+     */
+    private static class Build {
+        WidgetArchive archive;
+        WidgetConfig config;
+        Map< String, Vector< String >> entryClassTable;
+    }
 
-        try {
-            lastModified = ( new File( codFullname ) ).lastModified();
-            String password = sessionManager.getPassword();
-            File cwd = new File( sessionManager.getBBWPJarFolder() );
-            String cmdline = "java -jar SignatureTool.jar -a -c " + ( password.length() == 0 ? "" : "-p " + password + " " )
-                    + "\"" + sessionManager.getSourceFolder() + File.separator + sessionManager.getArchiveName() + ".cod" + "\"";
-            signingProcess = Runtime.getRuntime().exec( cmdline, null, cwd );
-        } catch( IOException ex ) {
-            throw ex;
+    /**
+     * Logs the error that failed a build and returns the matching return code.
+     */
+    static int getReturnCode( Exception e ) {
+        if( e instanceof PackageException ) {
+            PackageException pe = (PackageException) e;
+            Logger.logMessage( LogType.ERROR, pe.getMessage(), pe.getInfo() );
+            return PACKAGE_ERROR_RCODE;
+        } else if( e instanceof ValidationException ) {
+            ValidationException ve = (ValidationException) e;
+            Logger.logMessage( LogType.ERROR, ve.getMessage(), ve.getInfo() );
+            return VALIDATION_ERROR_RCODE;
+        } else if( e instanceof RuntimeException ) {
+            Logger.logMessage( LogType.FATAL, e );
+            return RUNTIME_ERROR_RCODE;
+        } else {
+            Logger.logLine( e.toString() );
+            return UNEXPECTED_ERROR_RCODE;
         }
+    }
 
+    /**
+     * Writes the collected build metrics to the specified file, in the Prometheus text format if its name ends with .prom
+     * and as JSON otherwise. Failing to write them does not fail the build.
+     */
+    private static void writeMetrics( String metricsFile ) {
         try {
-            int signingResult = signingProcess.waitFor();
-
-            // Check whether signing is successful
-            if( signingResult != 0 ) {
-                throw new PackageException( "EXCEPTION_SIGNING_FAILED" );
-            }
-
-            long newModified = ( new File( codFullname ) ).lastModified();
-            if( newModified == lastModified ) {
-                throw new PackageException( "EXCEPTION_SIGNING_FAILED" );
+            Writer writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( metricsFile ), "UTF-8" ) );
+            try {
+                if( metricsFile.endsWith( ".prom" ) ) {
+                    BuildMetrics.getInstance().writePrometheus( writer );
+                } else {
+                    BuildMetrics.getInstance().writeJSON( writer );
+                }
+            } finally {
+                writer.close();
             }
-        } catch( InterruptedException e ) {
-            throw e;
+        } catch( Exception e ) {
+            Logger.logMessage( LogType.WARNING, "WARNING_METRICS_NOT_WRITTEN", metricsFile );
         }
     }
 
+    public static Object[] getVersion() {
+        return new Object[] { new WidgetPackager().getClass().getPackage().getImplementationVersion() };
+    }
+
     // Generate a .alx file
     private static void generateAlxFile( WidgetConfig widgetConfig ) throws IOException {
         String EOL = System.getProperty( "line.separator" );
@@ -314,7 +451,7 @@ public class WidgetPackager {
             // library.xml files to parse. This is independent of config.xml, so far.
             //
 
-            ExtensionMap extensionMap = new ExtensionMap( "AIR", "default", bbwpProperties.getExtensionRepo( SessionManager
+            ExtensionMap extensionMap = ExtensionMap.load( "AIR", "default", bbwpProperties.getExtensionRepo( SessionManager
                     .getInstance().getSessionHome() ) ); // location of the extension repository
 
             //
@@ -15,16 +15,11 @@
  */
 package net.rim.tumbler.airpackager;
 
-import java.awt.Color;
-import java.awt.Graphics2D;
-import java.awt.image.BufferedImage;
 import java.awt.geom.AffineTransform;
 import java.awt.image.AffineTransformOp;
 import java.io.File;
 import java.io.FileFilter;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.Writer;
 import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Hashtable;
@@ -33,45 +28,24 @@ import java.util.Map;
 import java.lang.Math;
 import java.io.Console;
 
-import javax.imageio.ImageIO;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerConfigurationException;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathFactory;
-
 import net.rim.tumbler.config.WidgetConfig;
 import net.rim.tumbler.exception.PackageException;
 import net.rim.tumbler.exception.ValidationException;
 import net.rim.tumbler.file.FileManager;
-import net.rim.tumbler.processbuffer.ErrorBuffer;
-import net.rim.tumbler.processbuffer.ExitBuffer;
-import net.rim.tumbler.processbuffer.OutputBuffer;
+import net.rim.tumbler.file.TreeCopier;
+import net.rim.tumbler.file.TreeRemover;
+import net.rim.tumbler.mxmlc.SwfCache;
+import net.rim.tumbler.processbuffer.ProcessSupervisor;
 import net.rim.tumbler.session.BBWPProperties;
 import net.rim.tumbler.session.SessionManager;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
+import net.rim.tumbler.xml.XMLTemplate;
 
 public class AirPackager {
     private static final String PATH = "Path";
 
     // For splash screen image
-    private static final int SCREEN_WIDTH = 1024;
-    private static final int SCREEN_HEIGHT = 600;
     private static final String SPLASHSCREEN_FORMAT = "png";
-    private static final int ORIENTATION_LANDSCAPE = 1;
-    private static final int ORIENTATION_PORTRAIT = 2;
+    private static final String PATH_SPLASH_CACHE = "splash";
 
     private static final String DOC_ELM_SPLASHSCREEN = "splashscreen";
     private static final String DOC_ELM_IMAGE = "image";
@@ -87,8 +61,7 @@ public class AirPackager {
     private static final String DOC_ELM_INITIALWINDOW = "initialWindow";
     private static final String DOC_ELM_PUBLISHER = "publisher";
     private static final String DOC_ELM_CATEGORY = "category";
-    private static final String DOM_ELM_ROOT_XPATH = "//qnx";
-    private static final String DOC_ELM_CATEGORY_XPATH = DOM_ELM_ROOT_XPATH + "/" + DOC_ELM_CATEGORY;
+    private static final String DOC_ELM_ROOT = "qnx";
 
     private static final String PATH_BIN = "bin";
     private static final String PATH_JAVA_HOME = "java.home";
@@ -114,8 +87,8 @@ public class AirPackager {
     private static final String PATH_BAR_DEBUG = "bar-debug";
     private static final String EXCEPTION_AIRPACKAGER = "EXCEPTION_AIRPACKAGER";
     private static final String EXCEPTION_DEBUG_TOKEN_INVALID = "EXCEPTION_DEBUG_TOKEN_INVALID";
+    private static final String TOOL_NAME = "airpackager";
     private static final String MD5 = "MD5";
-    private static final String FILE_SPSH = "spsh";
     private static final String DELIMITER_DOT = ".";
     private static final String FILE_WEBWORKSAPPTEMPLATE_APP_XML = "WebWorksAppTemplate-app.xml";
     private static final String FLAG_BUILDID = "-buildId";
@@ -160,7 +133,7 @@ public class AirPackager {
             //
             // First we copy the files in the source path to the bin-debug folder.
             //
-            deleteDirectory( new File( bindebugPath ) );
+            TreeRemover.deleteAsync( new File( bindebugPath ) );
             new File( bindebugPath ).mkdir(); // just in case
 
             List< File > fileList = new ArrayList< File >();
@@ -185,25 +158,20 @@ public class AirPackager {
             // If the widget config doesn't specify loading screen data,
             // both splashscreen files will be null.
             //
-            String splashscreenLandscape = createSplashscreen( sourcePath, ORIENTATION_LANDSCAPE ); // 1 is landscape
-            String splashscreenPortrait = createSplashscreen( sourcePath, ORIENTATION_PORTRAIT ); // 2 is portrait
+            String[] splashscreens = createSplashscreens( sourcePath );
+            String splashscreenLandscape = splashscreens == null ? null : splashscreens[ 0 ];
+            String splashscreenPortrait = splashscreens == null ? null : splashscreens[ 1 ];
 
             //
             // Copy src files to the bin-debug folder
             //
-            List< File > srcFiles = listFiles( sourcePath, new FileFilter() {
+            new TreeCopier( new File( sourcePath ), new File( bindebugPath ) ).setFilter( new FileFilter() {
                 public boolean accept( File pathname ) {
                     return !pathname.getName().endsWith( FILE_EXT_AS ) && !pathname.getName().endsWith( APP_XML_SUFFIX )
                             && !pathname.getName().equals( SessionManager.getInstance().getArchiveName() + SWF_FILE_EXTENSION )
                             && !pathname.getName().contains( PATH_MACOSX );
                 }
-            } );
-
-            for( File f : srcFiles ) {
-                String relativePath = f.getAbsolutePath().substring( sourcePath.length() + 1 );
-                desFile = new File( bindebugPath, relativePath );
-                FileManager.copyFile( f, desFile );
-            }
+            } ).setHardLinks( _bbwpProperties.isCopyHardLinks() ).copy();
 
             // Add the top level file/folder under bin-debug folder to the file list,
             // so it will greatly shorten the length of final command line
@@ -240,6 +208,7 @@ public class AirPackager {
 
             File bbt = new File( sourcePath, FILE_BLACKBERRY_TABLET_XML );
             File bbtDes = new File( bindebugPath, FILE_BLACKBERRY_TABLET_XML );
+            bbtDes.delete(); // replace rather than rewrite the copy, which may be a link to bbt
             prepareBBTXML( bbt, bbtDes, iconPath, splashscreenLandscape, splashscreenPortrait );
 
             bbt.delete();
@@ -308,21 +277,16 @@ public class AirPackager {
             String[] join = new String[ cmd.length + n ];
             System.arraycopy( cmd, 0, join, 0, cmd.length );
             System.arraycopy( files, 0, join, cmd.length, n );
-            Process p = buildProcess( join, new File( bindebugPath ) );
-
-            OutputBuffer stdout = new OutputBuffer( p );
-            ErrorBuffer stderr = new ErrorBuffer( p );
-            ExitBuffer exitcode = new ExitBuffer( p );
+            boolean verbose = SessionManager.getInstance().isVerbose();
+            ProcessSupervisor supervisor = new ProcessSupervisor( TOOL_NAME, _bbwpProperties.getToolTimeout( TOOL_NAME ) );
+            ProcessSupervisor.Result result = supervisor.run( buildProcess( join, new File( bindebugPath ) ), verbose );
 
-            stdout.waitFor();
-            stderr.waitFor();
-            exitcode.waitFor();
-
-            if( exitcode.getExitValue().intValue() != 0 ) {
-                System.out.write( stderr.getStderr() );
-                System.out.write( stdout.getStdout() );
-                System.out.flush();
-                return exitcode.getExitValue().intValue();
+            if( !result.succeeded() ) {
+                if( !verbose ) {
+                    result.printOutput( System.out );
+                }
+                result.checkStopped();
+                return result.getExitValue();
             }
         } catch( IOException ioe ) {
             ioe.printStackTrace();
@@ -334,7 +298,7 @@ public class AirPackager {
     }
 
     /**
-     * Builds a process with the <code>bin</code> folder under <code>java.home</code> appended to <code>PATH</code> on Windows.
+     * Creates the builder of a process with the <code>bin</code> folder under <code>java.home</code> appended to <code>PATH</code> on Windows.
      * This is needed because the JRE is an undocumented prerequisite for the Tablet SDK but not for the WebWorks SDK (on
      * Windows).
      * 
@@ -342,11 +306,8 @@ public class AirPackager {
      *            the command string array.
      * @param workingDirectory
      *            the working directory of the subprocess.
-     * 
-     * @exception java.io.IOException
-     *                if an i/o error occurs.
      */
-    private static Process buildProcess( String[] cmd, File workingDirectory ) throws IOException {
+    private static ProcessBuilder buildProcess( String[] cmd, File workingDirectory ) {
         ProcessBuilder builder = new ProcessBuilder( cmd );
 
         String javaBin = FileManager.selectOnPlatform( System.getProperty( PATH_JAVA_HOME ), null );
@@ -360,7 +321,7 @@ public class AirPackager {
             }
         }
 
-        return builder.directory( workingDirectory ).start();
+        return builder.directory( workingDirectory );
     }
 
     /**
@@ -380,141 +341,86 @@ public class AirPackager {
      * @throws ValidationException
      */
     private void prepareAppXML( File infile, File outfile, String replacementText ) throws IOException, ValidationException {
-        Writer w = null;
-        try {
-            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-            DocumentBuilder db = dbf.newDocumentBuilder();
-            Document d = db.parse( infile );
-
-            Element e = d.getDocumentElement();
-
-            if( e != null ) {
-                // Replace initialWindow/content
-                NodeList nl = e.getElementsByTagName( DOC_ELM_INITIALWINDOW );
-                if( nl.getLength() > 0 && nl.item( 0 ) instanceof Element ) {
-                    Element e2 = (Element) nl.item( 0 );
-
-                    NodeList nl2 = e2.getElementsByTagName( DOC_ELM_CONTENT );
-                    if( nl2.getLength() > 0 && nl2.item( 0 ) instanceof Element ) {
-                        Element e3 = (Element) nl2.item( 0 );
-                        e3.setTextContent( replacementText );
-                    }
-
-                    // Add AutoOrientation
-                    if( _widgetConfig.getAutoOrientation() != null && _widgetConfig.getAutoOrientation().length() > 0 ) {
-                        Element autoOrientation = d.createElement( DOC_ELM_AUTOORIENTS );
-                        autoOrientation.setTextContent( _widgetConfig.getAutoOrientation() );
-                        e2.appendChild( autoOrientation );
-                    }
-
-                    // Add Orientation
-                    if( _widgetConfig.getOrientation() != null && _widgetConfig.getOrientation().length() > 0 ) {
-                        Element orientation = d.createElement( DOC_ELM_ASPECTRATIO );
-                        orientation.setTextContent( _widgetConfig.getOrientation() );
-                        e2.appendChild( orientation );
-                    }
-
+        XMLTemplate.Document d = XMLTemplate.compile( infile ).newDocument();
+        int e = d.getRoot();
+
+        if( e >= 0 ) {
+            // Replace initialWindow/content
+            int e2 = d.find( e, DOC_ELM_INITIALWINDOW );
+            if( e2 >= 0 ) {
+                int e3 = d.find( e2, DOC_ELM_CONTENT );
+                if( e3 >= 0 ) {
+                    d.setText( e3, replacementText );
                 }
 
-                // Replace id
-                NodeList nl2 = e.getElementsByTagName( DOC_ELM_ID );
-                if( nl2.getLength() > 0 && nl2.item( 0 ) instanceof Element ) {
-                    Element e3 = (Element) nl2.item( 0 );
-                    e3.setTextContent( populateAppId() );
+                // Add AutoOrientation
+                if( _widgetConfig.getAutoOrientation() != null && _widgetConfig.getAutoOrientation().length() > 0 ) {
+                    d.append( e2, DOC_ELM_AUTOORIENTS, _widgetConfig.getAutoOrientation() );
                 }
 
-                // Replace name
-                nl2 = e.getElementsByTagName( DOC_ELM_NAME );
-                if( nl2.getLength() > 0 && nl2.item( 0 ) instanceof Element ) {
-                    Element e3 = (Element) nl2.item( 0 );
-                    e3.setTextContent( _widgetConfig.getName() );
+                // Add Orientation
+                if( _widgetConfig.getOrientation() != null && _widgetConfig.getOrientation().length() > 0 ) {
+                    d.append( e2, DOC_ELM_ASPECTRATIO, _widgetConfig.getOrientation() );
                 }
 
-                // Replace version
-                nl2 = e.getElementsByTagName( DOC_ELM_VERSIONNUMBER );
-                if( nl2.getLength() > 0 && nl2.item( 0 ) instanceof Element ) {
-                    Element e3 = (Element) nl2.item( 0 );
-                    e3.setTextContent( _widgetConfig.getVersionParts( 0, 3 ) ); // AIR supports only 3-part version strings
-                }
+            }
 
-                // Add description
-                if( _widgetConfig.getDescription() != null && _widgetConfig.getDescription().length() > 0 ) {
-                    Element description = d.createElement( DOC_ELM_DESCRIPTION );
-                    description.setTextContent( _widgetConfig.getDescription() );
-                    Node root = d.getFirstChild();
-                    root.appendChild( description );
-                }
+            // Replace id
+            int e3 = d.find( e, DOC_ELM_ID );
+            if( e3 >= 0 ) {
+                d.setText( e3, populateAppId() );
+            }
 
-                // Add copyright
-                if( _bbwpProperties.getCopyright().length() > 0 ) {
-                    Element copyright = d.createElement( DOC_ELM_COPYRIGHT );
-                    copyright.setTextContent( _bbwpProperties.getCopyright() );
-                    Node root = d.getFirstChild();
-                    root.appendChild( copyright );
-                }
+            // Replace name
+            e3 = d.find( e, DOC_ELM_NAME );
+            if( e3 >= 0 ) {
+                d.setText( e3, _widgetConfig.getName() );
+            }
 
+            // Replace version
+            e3 = d.find( e, DOC_ELM_VERSIONNUMBER );
+            if( e3 >= 0 ) {
+                d.setText( e3, _widgetConfig.getVersionParts( 0, 3 ) ); // AIR supports only 3-part version strings
             }
 
-            TransformerFactory tf = TransformerFactory.newInstance();
-            Transformer t = tf.newTransformer();
-            DOMSource s = new DOMSource( d );
-            w = new FileWriter( outfile );
-            StreamResult r = new StreamResult( w );
-            t.transform( s, r );
-        } catch( ParserConfigurationException pce ) {
-            throw new IOException( pce );
-        } catch( SAXException se ) {
-            throw new IOException( se );
-        } catch( TransformerConfigurationException tce ) {
-            throw new IOException( tce );
-        } catch( TransformerException te ) {
-            throw new IOException( te );
-        } finally {
-            if( w != null ) {
-                try {
-                    w.close();
-                } catch( IOException ioe ) {
-                }
+            // Add description
+            if( _widgetConfig.getDescription() != null && _widgetConfig.getDescription().length() > 0 ) {
+                d.append( e, DOC_ELM_DESCRIPTION, _widgetConfig.getDescription() );
+            }
+
+            // Add copyright
+            if( _bbwpProperties.getCopyright().length() > 0 ) {
+                d.append( e, DOC_ELM_COPYRIGHT, _bbwpProperties.getCopyright() );
             }
+
         }
+
+        d.write( outfile );
     }
 
     private void prepareBBTXML( File infile, File destFile, String iconPath, String splashscreenLandscape, // may be null
             String splashscreenPortrait ) // either of them, one wont exist without the other
             throws IOException {
-        Writer w = null;
         try {
-            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-            DocumentBuilder db = dbf.newDocumentBuilder();
-            Document d = db.parse( infile );
-            Element e = d.getDocumentElement();
+            XMLTemplate.Document d = XMLTemplate.compile( infile ).newDocument();
+            int e = d.getRoot();
 
             // Add icon
             if( iconPath.length() > 0 ) {
 
-                // add icon node
-                Element icon = d.createElement( DOC_ELM_ICON );
-                Node root = d.getFirstChild();
-                root.appendChild( icon );
-
-                // add image72x72 node
-                Element image = d.createElement( DOC_ELM_IMAGE );
-                image.appendChild( d.createTextNode( iconPath ) );
-                icon.appendChild( image );
+                // add icon node holding the image72x72 node
+                d.append( e, DOC_ELM_ICON, DOC_ELM_IMAGE, iconPath );
             }
 
             // Splash screen
             if( splashscreenLandscape != null || splashscreenPortrait != null ) {
-                Element splashscreen = d.createElement( DOC_ELM_SPLASHSCREEN );
-                splashscreen.appendChild( d.createTextNode( splashscreenLandscape + ":" + splashscreenPortrait ) );
-                d.getFirstChild().appendChild( splashscreen );
+                d.append( e, DOC_ELM_SPLASHSCREEN, splashscreenLandscape + ":" + splashscreenPortrait );
             }
 
-            if( e != null && !_bbwpProperties.getCopyright().isEmpty() ) {
-                NodeList nl = e.getElementsByTagName( DOC_ELM_PUBLISHER );
-                if( nl.getLength() > 0 && nl.item( 0 ) instanceof Element ) {
-                    Element e2 = (Element) nl.item( 0 );
-                    e2.setTextContent( _bbwpProperties.getCopyright() );
+            if( e >= 0 && !_bbwpProperties.getCopyright().isEmpty() ) {
+                int e2 = d.find( e, DOC_ELM_PUBLISHER );
+                if( e2 >= 0 ) {
+                    d.setText( e2, _bbwpProperties.getCopyright() );
                 }
             }
 
@@ -522,12 +428,9 @@ public class AirPackager {
             Boolean has_access_internet = false;
             if( permissions != null && permissions.length > 0 ) {
                 for( int i = 0; i < permissions.length; i++ ) {
-                    Element curPer = d.createElement( "action" );
                     String permissionString = ( _permissionMappings.get( permissions[ i ] ) );
                     if( permissionString != null && !permissionString.isEmpty() ) {
-                        curPer.setTextContent( permissionString );
-                        Node root = d.getFirstChild();
-                        root.appendChild( curPer );
+                        d.append( e, "action", permissionString );
                     }
                     if( permissions[ i ] == "access_internet" ) {
                         has_access_internet = true;
@@ -536,44 +439,27 @@ public class AirPackager {
             }
             if( !has_access_internet ) // hardcoded access_internet to ensure user has internet (whitelist takes care of security)
             {
-                Element curPer = d.createElement( "action" );
-                String permissionString = "access_internet";
-                curPer.setTextContent( permissionString );
-                Node root = d.getFirstChild();
-                root.appendChild( curPer );
+                d.append( e, "action", "access_internet" );
             }
 
-            XPath xpathCategory = XPathFactory.newInstance().newXPath();
-            NodeList categoryNL = (NodeList) xpathCategory.evaluate( DOC_ELM_CATEGORY_XPATH, d, XPathConstants.NODESET );
+            int[] categories = d.findChildren( DOC_ELM_ROOT, DOC_ELM_CATEGORY );
 
-            if( categoryNL == null || categoryNL.getLength() == 0 ) {
-                Element categoryE = d.createElement( DOC_ELM_CATEGORY );
-                categoryE.setTextContent( _widgetConfig.getAppHomeScreenCategory() );
-                Node rootN = (Node) xpathCategory.evaluate( DOM_ELM_ROOT_XPATH, d, XPathConstants.NODE );
-                rootN.appendChild( categoryE );
+            if( categories.length == 0 ) {
+                int rootN = d.find( -1, DOC_ELM_ROOT );
+                if( rootN < 0 ) {
+                    return;
+                }
+                d.append( rootN, DOC_ELM_CATEGORY, _widgetConfig.getAppHomeScreenCategory() );
             } else {
 
-                for( int i = 0; i < categoryNL.getLength(); i++ ) {
-                    categoryNL.item( i ).setTextContent( _widgetConfig.getAppHomeScreenCategory() );
+                for( int i = 0; i < categories.length; i++ ) {
+                    d.setText( categories[ i ], _widgetConfig.getAppHomeScreenCategory() );
                 }
             }
 
-            TransformerFactory tf = TransformerFactory.newInstance();
-            Transformer t = tf.newTransformer();
-            DOMSource s = new DOMSource( d );
-            w = new FileWriter( destFile );
-            StreamResult r = new StreamResult( w );
-            t.transform( s, r );
+            d.write( destFile );
         } catch( Exception e ) {
-        } finally {
-            if( w != null ) {
-                try {
-                    w.close();
-                } catch( IOException ioe ) {
-                }
-            }
         }
-
     }
 
     private String populateAppId() {
@@ -614,51 +500,17 @@ public class AirPackager {
         return packageHash;
     }
 
-    private List< File > listFiles( String path, FileFilter fileFilter ) {
-        List< File > fileList = new ArrayList< File >();
-        File[] archiveFiles = new File( path ).listFiles( fileFilter );
-        for( File f : archiveFiles ) {
-            if( f.isDirectory() ) {
-                List< File > subFiles = listFiles( f.getPath(), fileFilter );
-                for( File subFile : subFiles ) {
-                    fileList.add( subFile );
-                }
-            } else {
-                fileList.add( f );
-            }
-        }
-
-        return fileList;
-    }
-
-    // delete a dir
-    private boolean deleteDirectory( File dir ) {
-        // remove files first
-        if( dir.exists() && dir.isDirectory() ) {
-            String[] children = dir.list();
-            for( String child : children ) {
-                if( !deleteDirectory( new File( dir, child ) ) )
-                    return false;
-            }
-        }
-        if( dir.exists() ) {
-            // then remove the directory
-            return dir.delete();
-        }
-        return false;
-    }
-
     /**
-     * Create a splash screen image on disk and return its name, or null if no splash screen is created. A splash screen is not
-     * created if the widget config specifies no loading screen data.
+     * Create the landscape and portrait splash screen images on disk and return their names, or null if no splash screen is
+     * created. A splash screen is not created if the widget config specifies no loading screen data.
      * 
      * @param directory
-     *            the destination folder for the image file, if one is created. Also used to locate the foreground and background
+     *            the destination folder for the image files, if created. Also used to locate the foreground and background
      *            images.
      * 
-     * @return the name of the splash screen image file on disk, or null if none created.
+     * @return the names of the landscape and portrait image files on disk, or null if none created.
      */
-    private String createSplashscreen( String directory, int orientation ) throws IOException {
+    private String[] createSplashscreens( String directory ) throws IOException {
         // Get string args from widget config. They may be null.
         String arg0 = _widgetConfig.getLoadingScreenColour();
         String arg1 = _widgetConfig.getBackgroundImage();
@@ -672,50 +524,13 @@ public class AirPackager {
             return null;
         }
 
-        Color bgcolor = arg0 == null ? Color.WHITE : Color.decode( arg0 );
-        BufferedImage bgImage = arg1 == null ? null : ImageIO.read( new File( directory, arg1 ) );
-        BufferedImage fgImage = arg2 == null ? null : ImageIO.read( new File( directory, arg2 ) );
-
-        BufferedImage composition = null;
-
-        if( orientation == ORIENTATION_PORTRAIT ) {
-            composition = new BufferedImage( SCREEN_HEIGHT, SCREEN_WIDTH, BufferedImage.TYPE_INT_ARGB );
-        } else {
-            composition = new BufferedImage( SCREEN_WIDTH, SCREEN_HEIGHT, BufferedImage.TYPE_INT_ARGB );
-        }
-        Graphics2D g = composition.createGraphics();
-
-        g.setBackground( bgcolor );
-
-        if( orientation == ORIENTATION_PORTRAIT ) {
-            g.clearRect( 0, 0, SCREEN_HEIGHT, SCREEN_WIDTH );
-        } else {
-            g.clearRect( 0, 0, SCREEN_WIDTH, SCREEN_HEIGHT );
+        SwfCache cache = null;
+        if( _bbwpProperties.getSwfCache().length() > 0 ) {
+            cache = new SwfCache( new File( _bbwpProperties.getSwfCache(), PATH_SPLASH_CACHE ), _bbwpProperties.getSwfCacheSize(),
+                    DELIMITER_DOT + SPLASHSCREEN_FORMAT );
         }
-
-        if( orientation == ORIENTATION_PORTRAIT ) {
-            if( bgImage != null ) {
-                g.drawImage( bgImage, 0, 0, SCREEN_HEIGHT, SCREEN_WIDTH, null );
-            }
-            if( fgImage != null ) {
-                g.drawImage( fgImage, ( SCREEN_HEIGHT - fgImage.getHeight() ) / 2, ( SCREEN_WIDTH - fgImage.getHeight() ) / 2,
-                        null );
-                // g.drawImage(fgImage, -(SCREEN_WIDTH - fgImage.getHeight())/2, (SCREEN_WIDTH - fgImage.getHeight())/2, null);
-                // //magic number for centering is -195
-            }
-        } else {
-            if( bgImage != null ) {
-                g.drawImage( bgImage, 0, 0, SCREEN_WIDTH, SCREEN_HEIGHT, null );
-            }
-            if( fgImage != null ) {
-                g.drawImage( fgImage, ( SCREEN_WIDTH - fgImage.getWidth() ) / 2, ( SCREEN_HEIGHT - fgImage.getHeight() ) / 2,
-                        null );
-            }
-        }
-
-        File out = File.createTempFile( FILE_SPSH, DELIMITER_DOT + SPLASHSCREEN_FORMAT, new File( directory ) );
-        ImageIO.write( composition, SPLASHSCREEN_FORMAT, out );
-
-        return out.getName();
+        SplashscreenRenderer renderer = new SplashscreenRenderer( arg0, arg1 == null ? null : new File( directory, arg1 ),
+                arg2 == null ? null : new File( directory, arg2 ), _bbwpProperties.getPngCompression(), cache );
+        return renderer.render( new File( directory ) );
     }
 }
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.airpackager;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Encodes opaque images as 8-bit RGB PNGs with a given deflate level. Every row uses the Sub filter, which turns the flat color
+ * areas of a splash screen into runs of zeros, and pixels are read straight from the raster of <code>TYPE_INT_RGB</code>
+ * images. This is faster than the ImageIO writer, which tries every filter on every row and cannot be given a level.
+ */
+class PngEncoder {
+    private static final byte[] SIGNATURE = { (byte) 137, 80, 78, 71, 13, 10, 26, 10 };
+    private static final int COLOR_TYPE_RGB = 2;
+    private static final int FILTER_SUB = 1;
+    private static final int BYTES_PER_PIXEL = 3;
+
+    private PngEncoder() {
+    }
+
+    /**
+     * Writes an image as PNG; any alpha channel is dropped.
+     *
+     * @param level
+     *            the deflate level, from 0 (no compression) to 9 (best compression).
+     */
+    static void write( BufferedImage image, int level, OutputStream out ) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        out.write( SIGNATURE );
+
+        byte[] header = new byte[ 13 ];
+        putInt( header, 0, width );
+        putInt( header, 4, height );
+        header[ 8 ] = 8;
+        header[ 9 ] = COLOR_TYPE_RGB;
+        writeChunk( out, "IHDR", header, header.length );
+
+        int[] pixels = null;
+        if( image.getType() == BufferedImage.TYPE_INT_RGB || image.getType() == BufferedImage.TYPE_INT_ARGB ) {
+            pixels = ( (DataBufferInt) image.getRaster().getDataBuffer() ).getData();
+        }
+        int[] row = pixels == null ? new int[ width ] : null;
+        byte[] line = new byte[ 1 + width * BYTES_PER_PIXEL ];
+        line[ 0 ] = FILTER_SUB;
+
+        ChunkBuffer data = new ChunkBuffer( width * height / 4 + 1024 );
+        Deflater deflater = new Deflater( level );
+        try {
+            DeflaterOutputStream zip = new DeflaterOutputStream( data, deflater, 65536 );
+            for( int y = 0; y < height; y++ ) {
+                int offset = y * width;
+                if( pixels == null ) {
+                    image.getRGB( 0, y, width, 1, row, 0, width );
+                }
+                int r0 = 0, g0 = 0, b0 = 0;
+                for( int x = 0, i = 1; x < width; x++ ) {
+                    int rgb = pixels == null ? row[ x ] : pixels[ offset + x ];
+                    int r = ( rgb >> 16 ) & 0xFF;
+                    int g = ( rgb >> 8 ) & 0xFF;
+                    int b = rgb & 0xFF;
+                    line[ i++ ] = (byte) ( r - r0 );
+                    line[ i++ ] = (byte) ( g - g0 );
+                    line[ i++ ] = (byte) ( b - b0 );
+                    r0 = r;
+                    g0 = g;
+                    b0 = b;
+                }
+                zip.write( line );
+            }
+            zip.finish();
+        } finally {
+            deflater.end();
+        }
+        writeChunk( out, "IDAT", data.getBuffer(), data.size() );
+        writeChunk( out, "IEND", new byte[ 0 ], 0 );
+    }
+
+    private static void writeChunk( OutputStream out, String type, byte[] data, int length ) throws IOException {
+        byte[] typeBytes = type.getBytes( "US-ASCII" );
+        byte[] buf = new byte[ 4 ];
+        putInt( buf, 0, length );
+        out.write( buf );
+        out.write( typeBytes );
+        out.write( data, 0, length );
+
+        CRC32 crc = new CRC32();
+        crc.update( typeBytes );
+        crc.update( data, 0, length );
+        putInt( buf, 0, (int) crc.getValue() );
+        out.write( buf );
+    }
+
+    private static void putInt( byte[] b, int off, int value ) {
+        b[ off ] = (byte) ( value >>> 24 );
+        b[ off + 1 ] = (byte) ( value >>> 16 );
+        b[ off + 2 ] = (byte) ( value >>> 8 );
+        b[ off + 3 ] = (byte) value;
+    }
+
+    /**
+     * Gives access to the buffer so that the compressed data is not copied.
+     */
+    private static class ChunkBuffer extends ByteArrayOutputStream {
+        ChunkBuffer( int size ) {
+            super( size );
+        }
+
+        byte[] getBuffer() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.airpackager;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+import net.rim.tumbler.metrics.BuildMetrics;
+import net.rim.tumbler.mxmlc.SwfCache;
+import net.rim.tumbler.util.DaemonPools;
+
+/**
+ * Renders the landscape and portrait splash screens of a loading screen: a background color, an optional background image
+ * stretched to the screen and an optional foreground image centered on it.
+ * <p>
+ * The images are decoded once and both orientations are rendered concurrently. Encoded splash screens are cached in memory and,
+ * if a cache folder is given, on disk, keyed by the color, the content hashes of the images, the orientation and the PNG
+ * compression level; on a hit the images are not decoded at all. A compression level of -1 encodes with ImageIO, 0 to 9 with
+ * the faster {@link PngEncoder}.
+ */
+class SplashscreenRenderer {
+    static final int ORIENTATION_LANDSCAPE = 1;
+    static final int ORIENTATION_PORTRAIT = 2;
+
+    private static final int SCREEN_WIDTH = 1024;
+    private static final int SCREEN_HEIGHT = 600;
+    private static final String SPLASHSCREEN_FORMAT = "png";
+    private static final String FILE_SPSH = "spsh";
+    private static final String DELIMITER_DOT = ".";
+    private static final int MAX_CACHED_ENTRIES = 8;
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final Map< String, byte[] > _cache = Collections.synchronizedMap( new LinkedHashMap< String, byte[] >( 16,
+            0.75f, true ) {
+        private static final long serialVersionUID = 1L;
+
+        protected boolean removeEldestEntry( Map.Entry< String, byte[] > eldest ) {
+            return size() > MAX_CACHED_ENTRIES;
+        }
+    } );
+
+    private static final ExecutorService _renderers = DaemonPools.newCached( "splashscreen" );
+
+    private final String _color;
+    private final File _background;
+    private final File _foreground;
+    private final int _compressionLevel;
+    private final SwfCache _diskCache;
+
+    private BufferedImage _bgImage;
+    private BufferedImage _fgImage;
+
+    /**
+     * @param color
+     *            the background color, such as #FFFFFF, or null for white.
+     * @param background
+     *            the background image file, or null.
+     * @param foreground
+     *            the foreground image file, or null.
+     * @param compressionLevel
+     *            -1 to encode with ImageIO, or the deflate level of the PNG encoder.
+     * @param diskCache
+     *            the cache of encoded splash screens on disk, or null.
+     */
+    SplashscreenRenderer( String color, File background, File foreground, int compressionLevel, SwfCache diskCache ) {
+        _color = color;
+        _background = background;
+        _foreground = foreground;
+        _compressionLevel = compressionLevel;
+        _diskCache = diskCache;
+    }
+
+    /**
+     * Writes the landscape and portrait splash screens to new files in the specified folder.
+     *
+     * @return the names of the landscape and portrait files.
+     */
+    String[] render( File directory ) throws IOException {
+        String key = computeKey();
+        File landscape = File.createTempFile( FILE_SPSH, DELIMITER_DOT + SPLASHSCREEN_FORMAT, directory );
+        File portrait = File.createTempFile( FILE_SPSH, DELIMITER_DOT + SPLASHSCREEN_FORMAT, directory );
+
+        boolean landscapeCached = fetch( key + ORIENTATION_LANDSCAPE, landscape );
+        boolean portraitCached = fetch( key + ORIENTATION_PORTRAIT, portrait );
+
+        if( !landscapeCached || !portraitCached ) {
+            decode();
+            Future< byte[] > portraitImage = null;
+            if( !portraitCached ) {
+                portraitImage = _renderers.submit( new Callable< byte[] >() {
+                    public byte[] call() throws IOException {
+                        return encode( compose( ORIENTATION_PORTRAIT ) );
+                    }
+                } );
+            }
+            try {
+                if( !landscapeCached ) {
+                    store( key + ORIENTATION_LANDSCAPE, encode( compose( ORIENTATION_LANDSCAPE ) ), landscape );
+                }
+                if( portraitImage != null ) {
+                    store( key + ORIENTATION_PORTRAIT, portraitImage.get(), portrait );
+                }
+            } catch( InterruptedException ie ) {
+                throw new IOException( ie );
+            } catch( ExecutionException ee ) {
+                Throwable cause = ee.getCause();
+                if( cause instanceof IOException ) {
+                    throw (IOException) cause;
+                } else if( cause instanceof RuntimeException ) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IOException( cause );
+            } finally {
+                if( portraitImage != null ) {
+                    portraitImage.cancel( true );
+                }
+            }
+        }
+
+        return new String[] { landscape.getName(), portrait.getName() };
+    }
+
+    /**
+     * Composes the splash screen of an orientation from the decoded images.
+     */
+    BufferedImage compose( int orientation ) {
+        Color bgcolor = _color == null ? Color.WHITE : Color.decode( _color );
+
+        BufferedImage composition = null;
+
+        if( orientation == ORIENTATION_PORTRAIT ) {
+            composition = new BufferedImage( SCREEN_HEIGHT, SCREEN_WIDTH, BufferedImage.TYPE_INT_RGB );
+        } else {
+            composition = new BufferedImage( SCREEN_WIDTH, SCREEN_HEIGHT, BufferedImage.TYPE_INT_RGB );
+        }
+        Graphics2D g = composition.createGraphics();
+
+        g.setBackground( bgcolor );
+
+        if( orientation == ORIENTATION_PORTRAIT ) {
+            g.clearRect( 0, 0, SCREEN_HEIGHT, SCREEN_WIDTH );
+        } else {
+            g.clearRect( 0, 0, SCREEN_WIDTH, SCREEN_HEIGHT );
+        }
+
+        if( orientation == ORIENTATION_PORTRAIT ) {
+            if( _bgImage != null ) {
+                g.drawImage( _bgImage, 0, 0, SCREEN_HEIGHT, SCREEN_WIDTH, null );
+            }
+            if( _fgImage != null ) {
+                g.drawImage( _fgImage, ( SCREEN_HEIGHT - _fgImage.getHeight() ) / 2, ( SCREEN_WIDTH - _fgImage.getHeight() ) / 2,
+                        null );
+            }
+        } else {
+            if( _bgImage != null ) {
+                g.drawImage( _bgImage, 0, 0, SCREEN_WIDTH, SCREEN_HEIGHT, null );
+            }
+            if( _fgImage != null ) {
+                g.drawImage( _fgImage, ( SCREEN_WIDTH - _fgImage.getWidth() ) / 2, ( SCREEN_HEIGHT - _fgImage.getHeight() ) / 2,
+                        null );
+            }
+        }
+        g.dispose();
+
+        return composition;
+    }
+
+    private void decode() throws IOException {
+        _bgImage = _background == null ? null : ImageIO.read( _background );
+        _fgImage = _foreground == null ? null : ImageIO.read( _foreground );
+    }
+
+    private byte[] encode( BufferedImage image ) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if( _compressionLevel < 0 ) {
+            ImageIO.write( image, SPLASHSCREEN_FORMAT, out );
+        } else {
+            PngEncoder.write( image, _compressionLevel, out );
+        }
+        return out.toByteArray();
+    }
+
+    private boolean fetch( String key, File output ) throws IOException {
+        byte[] cached = _cache.get( key );
+        if( cached != null ) {
+            write( cached, output );
+        } else if( _diskCache == null || !_diskCache.fetch( key, output ) ) {
+            BuildMetrics.count( "splash_cache_misses", 1 );
+            return false;
+        }
+        BuildMetrics.count( "splash_cache_hits", 1 );
+        return true;
+    }
+
+    private void store( String key, byte[] image, File output ) throws IOException {
+        write( image, output );
+        _cache.put( key, image );
+        if( _diskCache != null ) {
+            _diskCache.store( key, output );
+        }
+    }
+
+    /**
+     * Hashes the color, the contents of the images and the compression level; the orientation is appended to the result.
+     */
+    private String computeKey() throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance( "SHA-1" );
+        } catch( NoSuchAlgorithmException nsae ) {
+            throw new IOException( nsae.getMessage() );
+        }
+        digest.update( String.valueOf( _color ).getBytes( "UTF-8" ) );
+        digest.update( (byte) 0 );
+        update( digest, _background );
+        update( digest, _foreground );
+        digest.update( (byte) _compressionLevel );
+
+        StringBuilder key = new StringBuilder();
+        for( byte b : digest.digest() ) {
+            key.append( Character.forDigit( ( b >> 4 ) & 0xF, 16 ) ).append( Character.forDigit( b & 0xF, 16 ) );
+        }
+        return key.toString();
+    }
+
+    private static void update( MessageDigest digest, File file ) throws IOException {
+        if( file == null ) {
+            digest.update( (byte) 0 );
+            return;
+        }
+        digest.update( Long.toString( file.length() ).getBytes( "UTF-8" ) );
+        digest.update( (byte) 0 );
+        InputStream in = new FileInputStream( file );
+        try {
+            byte[] buffer = new byte[ BUFFER_SIZE ];
+            int count;
+            while( ( count = in.read( buffer ) ) != -1 ) {
+                digest.update( buffer, 0, count );
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void write( byte[] contents, File output ) throws IOException {
+        OutputStream os = new FileOutputStream( output );
+        try {
+            os.write( contents );
+        } finally {
+            os.close();
+        }
+    }
+}
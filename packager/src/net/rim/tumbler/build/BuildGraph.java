@@ -0,0 +1,347 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.build;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+import net.rim.tumbler.metrics.BuildMetrics;
+import net.rim.tumbler.session.SessionManager;
+import net.rim.tumbler.util.DaemonPools;
+
+/**
+ * Runs the tasks of a build as a graph. Every task declares the artifacts it requires and those it produces, and starts as
+ * soon as the tasks producing its inputs are done, so that independent tasks run at once and the build takes as long as its
+ * longest chain of dependent tasks rather than the sum of them all.
+ * <p>
+ * The thread that completes a task goes on with one of the tasks it made ready and hands the others to the shared pool, so
+ * that a chain of tasks runs on one thread without waiting in the queue. Every task runs with the session of the thread that
+ * started the graph and is recorded as a phase of the build metrics. The first task to fail stops the graph: no task starts
+ * after it, not even those already queued in the pool, and {@link #run()} throws its exception once the running tasks are
+ * done.
+ * <p>
+ * Once the graph is done, {@link #getCriticalPath()} returns the chain of tasks that determined its duration, each task
+ * being preceded by the input that was ready last; it is also added to the build metrics.
+ *
+ * <pre>
+ *     BuildGraph graph = new BuildGraph();
+ *     graph.add( &quot;configxml&quot;, parseConfig ).requires( &quot;archive&quot; ).produces( &quot;config&quot; );
+ *     graph.add( &quot;validate&quot;, validateArchive ).produces( &quot;archive&quot; );
+ *     graph.run();
+ * </pre>
+ */
+public class BuildGraph {
+    private static final ExecutorService _sharedExecutor = DaemonPools.newFixed( "build-graph", Math.max( 2,
+            Runtime.getRuntime().availableProcessors() ) );
+
+    /**
+     * The work of a task.
+     */
+    public interface Task {
+        void run() throws Exception;
+    }
+
+    /**
+     * A task of the graph, with the artifacts it requires and produces.
+     */
+    public static class Node {
+        private final String _name;
+        private final Task _task;
+        private final List< String > _inputs = new ArrayList< String >();
+        private final List< String > _outputs = new ArrayList< String >();
+        private final List< Node > _dependencies = new ArrayList< Node >();
+        private final List< Node > _dependents = new ArrayList< Node >();
+        private int _waiting;
+        private long _end;
+
+        private Node( String name, Task task ) {
+            _name = name;
+            _task = task;
+        }
+
+        /**
+         * Declares artifacts the task requires, produced by other tasks of the graph.
+         */
+        public Node requires( String... inputs ) {
+            _inputs.addAll( Arrays.asList( inputs ) );
+            return this;
+        }
+
+        /**
+         * Declares artifacts the task produces.
+         */
+        public Node produces( String... outputs ) {
+            _outputs.addAll( Arrays.asList( outputs ) );
+            return this;
+        }
+
+        public String getName() {
+            return _name;
+        }
+    }
+
+    private final ExecutorService _executor;
+    private final List< Node > _nodes = new ArrayList< Node >();
+    private List< String > _criticalPath;
+
+    // the state of a run, guarded by the graph
+    private int _remaining;
+    private Throwable _failure;
+    private SessionManager _session;
+
+    /**
+     * Creates a graph whose tasks run on the pool shared by the builds of the process.
+     */
+    public BuildGraph() {
+        this( _sharedExecutor );
+    }
+
+    /**
+     * Creates a graph whose tasks run on the specified pool.
+     */
+    BuildGraph( ExecutorService executor ) {
+        _executor = executor;
+    }
+
+    /**
+     * Adds a task to the graph.
+     *
+     * @return the task, to declare its inputs and outputs.
+     */
+    public Node add( String name, Task task ) {
+        Node node = new Node( name, task );
+        _nodes.add( node );
+        return node;
+    }
+
+    /**
+     * Runs the tasks and waits for them to be done.
+     *
+     * @throws IllegalStateException
+     *             if an input is not produced by exactly one task, or if tasks depend on each other.
+     * @throws Exception
+     *             the exception of the first task that failed.
+     */
+    public void run() throws Exception {
+        List< Node > order = link();
+        _session = SessionManager.getInstance();
+
+        synchronized( this ) {
+            // every task is counted down once, when it is done or once it is known that it will not run
+            _remaining = _nodes.size();
+            _failure = null;
+            for( Node node : _nodes ) {
+                if( node._waiting == 0 ) {
+                    submit( node );
+                }
+            }
+            while( _remaining > 0 ) {
+                wait();
+            }
+        }
+
+        if( _failure instanceof Exception ) {
+            throw (Exception) _failure;
+        } else if( _failure instanceof Error ) {
+            throw (Error) _failure;
+        }
+
+        _criticalPath = findCriticalPath( order );
+        BuildMetrics.addCriticalPath( _criticalPath );
+    }
+
+    /**
+     * Returns the names of the tasks on the critical path of the last run, in the order they ran.
+     */
+    public List< String > getCriticalPath() {
+        return _criticalPath;
+    }
+
+    /**
+     * Links every task to the tasks producing its inputs and returns the tasks in an order in which every task follows its
+     * dependencies.
+     */
+    private List< Node > link() {
+        Map< String, Node > producers = new HashMap< String, Node >();
+        for( Node node : _nodes ) {
+            for( String output : node._outputs ) {
+                if( producers.put( output, node ) != null ) {
+                    throw new IllegalStateException( "More than one task produces " + output + "." );
+                }
+            }
+        }
+        for( Node node : _nodes ) {
+            node._dependencies.clear();
+            node._dependents.clear();
+        }
+        for( Node node : _nodes ) {
+            for( String input : node._inputs ) {
+                Node producer = producers.get( input );
+                if( producer == null ) {
+                    throw new IllegalStateException( "No task produces " + input + ", required by " + node._name + "." );
+                }
+                if( !node._dependencies.contains( producer ) ) {
+                    node._dependencies.add( producer );
+                    producer._dependents.add( node );
+                }
+            }
+            node._waiting = node._dependencies.size();
+        }
+
+        // sorted from the tasks without dependencies, which also finds cycles
+        List< Node > order = new ArrayList< Node >();
+        Map< Node, Integer > waiting = new HashMap< Node, Integer >();
+        LinkedList< Node > ready = new LinkedList< Node >();
+        for( Node node : _nodes ) {
+            waiting.put( node, Integer.valueOf( node._waiting ) );
+            if( node._waiting == 0 ) {
+                ready.add( node );
+            }
+        }
+        while( !ready.isEmpty() ) {
+            Node node = ready.removeFirst();
+            order.add( node );
+            for( Node dependent : node._dependents ) {
+                int left = waiting.get( dependent ).intValue() - 1;
+                waiting.put( dependent, Integer.valueOf( left ) );
+                if( left == 0 ) {
+                    ready.add( dependent );
+                }
+            }
+        }
+        if( order.size() != _nodes.size() ) {
+            throw new IllegalStateException( "The tasks of the build depend on each other." );
+        }
+        return order;
+    }
+
+    private void submit( final Node node ) {
+        _executor.execute( new Runnable() {
+            public void run() {
+                execute( node );
+            }
+        } );
+    }
+
+    /**
+     * Runs a task, then the first of the tasks it made ready, and so on.
+     */
+    private void execute( Node node ) {
+        SessionManager.bindInstance( _session );
+        try {
+            while( node != null && !skipIfFailed( node ) ) {
+                Throwable failure = null;
+                BuildMetrics.startPhase( node._name );
+                try {
+                    node._task.run();
+                } catch( Throwable t ) {
+                    failure = t;
+                } finally {
+                    BuildMetrics.endPhase();
+                    node._end = System.nanoTime();
+                }
+                node = complete( node, failure );
+            }
+        } finally {
+            SessionManager.releaseInstance();
+        }
+    }
+
+    /**
+     * Marks a task done and schedules the tasks it made ready, returning the one the calling thread is to run next.
+     */
+    private synchronized Node complete( Node node, Throwable failure ) {
+        Node next = null;
+        if( failure != null && _failure == null ) {
+            _failure = failure;
+        }
+        if( _failure == null ) {
+            for( Node dependent : node._dependents ) {
+                if( --dependent._waiting == 0 ) {
+                    if( next == null ) {
+                        next = dependent;
+                    } else {
+                        submit( dependent );
+                    }
+                }
+            }
+        } else {
+            // the tasks that will not run
+            _remaining -= countUnscheduled( node );
+        }
+        _remaining--;
+        notifyAll();
+        return next;
+    }
+
+    /**
+     * Counts down a task that was scheduled before another failed, and the tasks that will not run for it, rather than run
+     * it; returns false if no task has failed.
+     */
+    private synchronized boolean skipIfFailed( Node node ) {
+        if( _failure == null ) {
+            return false;
+        }
+        _remaining -= 1 + countUnscheduled( node );
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Counts the dependents of a task that it was the last to wait for and that will therefore never be scheduled.
+     */
+    private int countUnscheduled( Node node ) {
+        int unscheduled = 0;
+        for( Node dependent : node._dependents ) {
+            if( --dependent._waiting == 0 ) {
+                unscheduled += 1 + countUnscheduled( dependent );
+            }
+        }
+        return unscheduled;
+    }
+
+    /**
+     * Finds the chain of tasks, from the last task to finish back through the input each task got last, that determined
+     * the duration of the run.
+     */
+    private static List< String > findCriticalPath( List< Node > order ) {
+        Node last = null;
+        for( Node node : order ) {
+            if( last == null || node._end > last._end ) {
+                last = node;
+            }
+        }
+
+        LinkedList< String > path = new LinkedList< String >();
+        for( Node node = last; node != null; ) {
+            path.addFirst( node._name );
+            Node latest = null;
+            for( Node dependency : node._dependencies ) {
+                if( latest == null || dependency._end > latest._end ) {
+                    latest = dependency;
+                }
+            }
+            node = latest;
+        }
+        return Collections.unmodifiableList( path );
+    }
+}
@@ -21,7 +21,6 @@ import java.util.Set;
 
 class ExtensionDescriptor {
 
-    private boolean _isCopied;
     private String _id;
     private String _entryClass; // for example, "blackberry.pim.PIMExtension"
     private HashSet< String > _dependencies;
@@ -36,14 +35,6 @@ class ExtensionDescriptor {
         _configuredPathnames = new LinkedHashSet< ConfiguredPathname >();
     }
 
-    public boolean isCopied() {
-        return _isCopied;
-    }
-
-    public void markCopied() {
-        _isCopied = true;
-    }
-
     public String getId() {
         return _id;
     }
@@ -18,10 +18,12 @@ package net.rim.tumbler.extension;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
 
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -33,6 +35,7 @@ import javax.xml.xpath.XPathFactory;
 
 import net.rim.tumbler.exception.PackageException;
 import net.rim.tumbler.file.FileManager;
+import net.rim.tumbler.metrics.BuildMetrics;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -40,6 +43,8 @@ import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
 public class ExtensionMap {
+    // the repositories indexed so far, by platform, version and folder, with the library.xml files they were indexed from
+    private static final Map< String, ExtensionMap > _indexes = new HashMap< String, ExtensionMap >();
 
     // need to check in this collection first before creating a new ExtensionDescriptor
     private Map< String, ExtensionDescriptor > _masterList; // map from an entryClass key to the corresponding extension
@@ -52,77 +57,132 @@ public class ExtensionMap {
 
     private ExtensionDependencyManager _dependencyManager;
 
+    // the IDs of the extensions copied by this map
+    private Set< String > _copied;
+
+    // the library.xml files the index was built from, with their sizes and modification times
+    private String _signature;
+
     public ExtensionMap( String platform, String version, String repositoryRoot ) {
         _masterList = new LinkedHashMap< String, ExtensionDescriptor >();
         _featureIdToDescriptors = new Hashtable< String, Vector< ExtensionDescriptor >>();
         _dependencyManager = new ExtensionDependencyManager( _masterList );
+        _copied = new HashSet< String >();
+
+        File[] extFolders = listExtensionFolders( repositoryRoot );
+        _signature = getSignature( extFolders );
+        for( File extFolder : extFolders ) {
+            try {
+                Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                        .parse( new File( extFolder, "/library.xml" ) );
+                Element e = document.getDocumentElement();
+                if( e != null ) {
+                    NodeList nl = e.getElementsByTagName( "extension" );
+                    if( nl.getLength() > 0 && nl.item( 0 ) instanceof Element ) {
+                        Element e2 = (Element) nl.item( 0 );
+                        String id = e2.getAttribute( "id" );
+
+                        NodeList nl2 = e2.getElementsByTagName( "entryClass" );
+                        if( nl2.getLength() > 0 && nl2.item( 0 ) instanceof Element ) {
+                            Element e3 = (Element) nl2.item( 0 );
+                            String entryClass = e3.getTextContent();
+
+                            ExtensionDescriptor descriptor;
+                            if( _masterList.containsKey( id ) ) {
+                                descriptor = _masterList.get( id );
+                            } else {
+                                descriptor = new ExtensionDescriptor( id, entryClass, extFolder.getAbsolutePath() );
+                                _masterList.put( id, descriptor );
 
-        File root = new File( repositoryRoot );
-        // Note that it's possible that the ext folder doesn't even exist
-        if( root.isDirectory() ) {
-            File[] extFolders = root.getAbsoluteFile().listFiles( new FileFilter() {
-                public boolean accept( File pathname ) {
-                    return pathname.isDirectory() && new File( pathname, "/library.xml" ).isFile();
-                }
-            } );
-
-            for( File extFolder : extFolders ) {
-                try {
-                    Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
-                            .parse( new File( extFolder, "/library.xml" ) );
-                    Element e = document.getDocumentElement();
-                    if( e != null ) {
-                        NodeList nl = e.getElementsByTagName( "extension" );
-                        if( nl.getLength() > 0 && nl.item( 0 ) instanceof Element ) {
-                            Element e2 = (Element) nl.item( 0 );
-                            String id = e2.getAttribute( "id" );
-
-                            NodeList nl2 = e2.getElementsByTagName( "entryClass" );
-                            if( nl2.getLength() > 0 && nl2.item( 0 ) instanceof Element ) {
-                                Element e3 = (Element) nl2.item( 0 );
-                                String entryClass = e3.getTextContent();
-
-                                ExtensionDescriptor descriptor;
-                                if( _masterList.containsKey( id ) ) {
-                                    descriptor = _masterList.get( id );
-                                } else {
-                                    descriptor = new ExtensionDescriptor( id, entryClass, extFolder.getAbsolutePath() );
-                                    _masterList.put( id, descriptor );
-
-                                    populateDescriptor( descriptor, e, e2, extFolder, platform, version );
-                                }
+                                populateDescriptor( descriptor, e, e2, extFolder, platform, version );
+                            }
 
-                                NodeList nl9 = e.getElementsByTagName( "features" );
-                                if( nl9.getLength() > 0 && nl9.item( 0 ) instanceof Element ) {
-                                    Element e6 = (Element) nl9.item( 0 );
+                            NodeList nl9 = e.getElementsByTagName( "features" );
+                            if( nl9.getLength() > 0 && nl9.item( 0 ) instanceof Element ) {
+                                Element e6 = (Element) nl9.item( 0 );
 
-                                    NodeList nl0 = e6.getElementsByTagName( "feature" );
+                                NodeList nl0 = e6.getElementsByTagName( "feature" );
 
-                                    for( int n = 0; n < nl0.getLength(); n++ ) {
-                                        String featureID = ( (Element) nl0.item( n ) ).getAttribute( "id" );
+                                for( int n = 0; n < nl0.getLength(); n++ ) {
+                                    String featureID = ( (Element) nl0.item( n ) ).getAttribute( "id" );
 
-                                        Vector< ExtensionDescriptor > v;
-                                        if( !_featureIdToDescriptors.containsKey( featureID ) ) {
-                                            v = new Vector< ExtensionDescriptor >();
-                                            _featureIdToDescriptors.put( featureID, v );
-                                        } else {
-                                            v = _featureIdToDescriptors.get( featureID );
-                                        }
-                                        v.add( descriptor );
+                                    Vector< ExtensionDescriptor > v;
+                                    if( !_featureIdToDescriptors.containsKey( featureID ) ) {
+                                        v = new Vector< ExtensionDescriptor >();
+                                        _featureIdToDescriptors.put( featureID, v );
+                                    } else {
+                                        v = _featureIdToDescriptors.get( featureID );
                                     }
+                                    v.add( descriptor );
                                 }
                             }
                         }
                     }
-                } catch( IOException ioe ) {
-                    // log it?
-                } catch( ParserConfigurationException pce ) {
-                    // log it?
-                } catch( SAXException se ) {
-                    // log it?
                 }
+            } catch( IOException ioe ) {
+                // log it?
+            } catch( ParserConfigurationException pce ) {
+                // log it?
+            } catch( SAXException se ) {
+                // log it?
+            }
+        }
+    }
+
+    /**
+     * Creates a map sharing the index of another, with nothing copied yet.
+     */
+    private ExtensionMap( ExtensionMap index ) {
+        _masterList = index._masterList;
+        _featureIdToDescriptors = index._featureIdToDescriptors;
+        _dependencyManager = new ExtensionDependencyManager( _masterList );
+        _copied = new HashSet< String >();
+        _signature = index._signature;
+    }
+
+    /**
+     * Returns a map of the specified repository, parsing its library.xml files only if they changed since the repository was
+     * last indexed, so that the builds of a batch share one index. The map returned is the caller's own.
+     */
+    public static ExtensionMap load( String platform, String version, String repositoryRoot ) {
+        String key = platform + File.pathSeparator + version + File.pathSeparator + new File( repositoryRoot ).getAbsolutePath();
+        ExtensionMap index;
+        synchronized( _indexes ) {
+            index = _indexes.get( key );
+        }
+        if( index != null && index._signature.equals( getSignature( listExtensionFolders( repositoryRoot ) ) ) ) {
+            return new ExtensionMap( index );
+        }
+
+        ExtensionMap map = new ExtensionMap( platform, version, repositoryRoot );
+        synchronized( _indexes ) {
+            _indexes.put( key, map );
+        }
+        return new ExtensionMap( map );
+    }
+
+    private static File[] listExtensionFolders( String repositoryRoot ) {
+        File root = new File( repositoryRoot );
+        // Note that it's possible that the ext folder doesn't even exist
+        if( !root.isDirectory() ) {
+            return new File[ 0 ];
+        }
+        File[] extFolders = root.getAbsoluteFile().listFiles( new FileFilter() {
+            public boolean accept( File pathname ) {
+                return pathname.isDirectory() && new File( pathname, "/library.xml" ).isFile();
             }
+        } );
+        return extFolders != null ? extFolders : new File[ 0 ];
+    }
+
+    private static String getSignature( File[] extFolders ) {
+        StringBuffer signature = new StringBuffer();
+        for( File extFolder : extFolders ) {
+            File library = new File( extFolder, "library.xml" );
+            signature.append( library.getPath() ).append( File.pathSeparatorChar ).append( library.length() ).append(
+                    File.pathSeparatorChar ).append( library.lastModified() ).append( File.pathSeparatorChar );
         }
+        return signature.toString();
     }
 
     // helper method
@@ -221,7 +281,7 @@ public class ExtensionMap {
                 for( String depId : resolvedDependencies ) {
                     ExtensionDescriptor depDescriptor = _masterList.get( depId );
 
-                    if( !depDescriptor.isCopied() ) {
+                    if( !_copied.contains( depId ) ) {
                         //
                         // The prefix for javascript files. This can be
                         // prepended
@@ -247,6 +307,7 @@ public class ExtensionMap {
                                 //
                                 FileManager.copyFile( new File( depDescriptor.getRootFolder(), pathname.getPathname() ),
                                         new File( javascriptPrefix + pathname.getPathname() ) );
+                                BuildMetrics.count( BuildMetrics.EXTENSION_FILES_COPIED, 1 );
                             } else if( pathname.getRelativeToPackage() != null ) {
                                 //
                                 // This is something other than javascript and
@@ -258,13 +319,15 @@ public class ExtensionMap {
                                 //
                                 FileManager.copyFile( new File( depDescriptor.getRootFolder(), pathname.getPathname() ),
                                         new File( actionscriptPrefix + pathname.getRelativeToPackage() ) );
+                                BuildMetrics.count( BuildMetrics.EXTENSION_FILES_COPIED, 1 );
                             } else {
                                 // unexpected file type
                                 // TODO: log it
                             }
                         }
 
-                        depDescriptor.markCopied();
+                        _copied.add( depId );
+                        BuildMetrics.count( BuildMetrics.EXTENSIONS_COPIED, 1 );
                     }
                 }
             }
@@ -275,7 +338,7 @@ public class ExtensionMap {
     // prepend the specified prefix to each entry
     public void getCopiedFiles( String suffix, Map< String, Vector< String >> result, String prefix ) {
         for( ExtensionDescriptor descriptor : _masterList.values() ) {
-            if( descriptor.isCopied() ) {
+            if( _copied.contains( descriptor.getId() ) ) {
                 String entryClass = descriptor.getEntryClass();
                 Vector< String > v = new Vector< String >();
                 for( ConfiguredPathname pathname : descriptor.getConfiguredPathnames() ) {
@@ -27,22 +27,28 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.Vector;
-import java.util.zip.Adler32;
-import java.util.zip.CheckedInputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
-import java.util.zip.ZipInputStream;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 
 import net.rim.tumbler.exception.PackageException;
+import net.rim.tumbler.metrics.BuildMetrics;
 import net.rim.tumbler.session.BBWPProperties;
 import net.rim.tumbler.session.SessionManager;
+import net.rim.tumbler.util.DaemonPools;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
@@ -51,52 +57,132 @@ import org.xml.sax.SAXException;
 
 public class FileManager {
     private BBWPProperties _bbwpProperties;
-    private Vector< String > _outputFiles;
+    private TemplateWrapper _templateWrapper;
+    private FileManifest _manifest;
     private Vector< String > _extensionClasses;
+    private OutputPublisher _outputPublisher;
 
     private static final String EOL = System.getProperty( "line.separator" );
     private static final String FILE_SEP = System.getProperty( "file.separator" );
     private static final String STANDARD_OUTPUT = "StandardInstall";
     private static final String OTA_OUTPUT = "OTAInstall";
     private static final String EXTENSION_DIRECTORY = "extension";
+    private static final int COD_BUFFER_SIZE = 65536;
+
+    private static final ExecutorService _codExtractors = DaemonPools.newFixed( "cod-extractor", Math.max( 2,
+            Runtime.getRuntime().availableProcessors() ) );
 
     public FileManager( BBWPProperties bbwpProperties ) {
+        this( bbwpProperties, null );
+    }
+
+    /**
+     * @param templateWrapper
+     *            the templates to write to the source folder, shared by the builds of a batch; null to list them from the
+     *            template folder.
+     */
+    public FileManager( BBWPProperties bbwpProperties, TemplateWrapper templateWrapper ) {
         _bbwpProperties = bbwpProperties;
-        _outputFiles = new Vector< String >();
+        _templateWrapper = templateWrapper;
+        _manifest = new FileManifest();
         _extensionClasses = new Vector< String >();
     }
 
+    /**
+     * Returns the full paths of the files written to the source folder, the files of the subfolders of the archive first.
+     */
     public List< String > getFiles() {
-        return _outputFiles;
+        return _manifest.getPaths();
+    }
+
+    /**
+     * Returns the files written to the source folder, with their size and origin.
+     */
+    public FileManifest getManifest() {
+        return _manifest;
     }
 
-    public void cleanOutput() {
-        String outputDir = SessionManager.getInstance().getOutputFolder();
+    /**
+     * Starts a clean output: from now on the outputs are written to an empty staging folder, which replaces the output folder
+     * when {@link #publishOutput()} is called. Until then the output folder keeps the previous outputs.
+     */
+    public void cleanOutput() throws IOException {
+        SessionManager session = SessionManager.getInstance();
 //        String archiveName = SessionManager.getInstance().getArchiveName();
 //        deleteDirectory( new File( outputDir + FILE_SEP + FileManager.OTA_OUTPUT ) );
 //        deleteDirectory( new File( outputDir + FILE_SEP + FileManager.STANDARD_OUTPUT ) );
 //        ( new File( outputDir + FILE_SEP + archiveName + ".jar" ) ).delete();
 //        ( new File( outputDir + FILE_SEP + archiveName + ".rapc" ) ).delete();
-        deleteDirectory( new File( outputDir ) );
+        if( _outputPublisher != null ) {
+            _outputPublisher.discard();
+        }
+        _outputPublisher = new OutputPublisher( new File( session.getPublishedOutputFolder() ), _bbwpProperties
+                .isOutputSymlink() );
+        session.setOutputStagingFolder( _outputPublisher.getStagingFolder().getPath() );
+    }
+
+    /**
+     * Publishes the outputs written since {@link #cleanOutput()} over the output folder.
+     */
+    public void publishOutput() throws IOException {
+        if( _outputPublisher == null ) {
+            return;
+        }
+        SessionManager session = SessionManager.getInstance();
+
+        // a source folder kept inside the output folder moves along with the outputs
+        File output = _outputPublisher.getOutputFolder();
+        File source = new File( session.getSourceFolder() ).getAbsoluteFile();
+        if( source.isDirectory() && source.getPath().startsWith( output.getPath() + FILE_SEP ) ) {
+            File staged = new File( _outputPublisher.getStagingFolder(), source.getPath().substring(
+                    output.getPath().length() + 1 ) );
+            staged.getParentFile().mkdirs();
+            source.renameTo( staged );
+        }
+
+        _outputPublisher.publish();
+        _outputPublisher = null;
+        session.setOutputStagingFolder( null );
     }
 
     public void cleanSource() {
-        deleteDirectory( new File( SessionManager.getInstance().getSourceFolder() ) );
+        TreeRemover.deleteAsync( new File( SessionManager.getInstance().getSourceFolder() ) );
     }
 
     public void prepare() throws Exception {
+        prepareSource();
+        writeTemplates();
+        extractArchive();
+    }
+
+    /**
+     * Starts an empty source folder, to which the templates are then written and the archive extracted, in that order.
+     */
+    public void prepareSource() {
         // clean out source folder
-        deleteDirectory( new File( SessionManager.getInstance().getSourceFolder() ) );
+        TreeRemover.deleteAsync( new File( SessionManager.getInstance().getSourceFolder() ) );
         ( new File( SessionManager.getInstance().getSourceFolder() ) ).mkdirs();
+    }
 
+    /**
+     * Writes the device templates to the source folder.
+     */
+    public void writeTemplates() throws PackageException {
         // copy templates
         try {
-            TemplateWrapper templateWrapper = new TemplateWrapper( _bbwpProperties );
-            _outputFiles.addAll( templateWrapper.writeAllTemplates( SessionManager.getInstance().getSourceFolder() ) );
+            TemplateWrapper templateWrapper = _templateWrapper != null ? _templateWrapper : new TemplateWrapper( _bbwpProperties );
+            for( String template : templateWrapper.writeAllTemplates( SessionManager.getInstance().getSourceFolder() ) ) {
+                _manifest.add( template, new File( template ).length(), -1, FileManifest.Origin.TEMPLATE );
+            }
         } catch( IOException ex ) {
             throw new PackageException( "EXCEPTION_IO_TEMPLATES" );
         }
+    }
 
+    /**
+     * Extracts the widget archive to the source folder.
+     */
+    public void extractArchive() throws Exception {
         // extract archive
         ZipFile zip = new ZipFile( new File( SessionManager.getInstance().getWidgetArchive() ).getAbsolutePath() );
         Enumeration< ? > en = zip.entries();
@@ -119,18 +205,23 @@ public class FileManager {
                 fi.getParentFile().mkdirs();
             OutputStream fos = new BufferedOutputStream( new FileOutputStream( fname ) );
             int bytesRead;
-            while( ( bytesRead = is.read() ) != -1 )
+            long bytesExtracted = 0;
+            while( ( bytesRead = is.read() ) != -1 ) {
                 fos.write( bytesRead );
+                bytesExtracted++;
+            }
             fos.close();
+            BuildMetrics.count( BuildMetrics.FILES_EXTRACTED, 1 );
+            BuildMetrics.count( BuildMetrics.BYTES_EXTRACTED, bytesExtracted );
 
             if( zipEntryName.startsWith( "ext" ) && zipEntryName.endsWith( ".jar" ) ) {
                 populateExtension( fname );
             } else {
                 // HACK for icon files not displayed properly if similar named files exist in sub folders
                 if( !isRoot ) {
-                    _outputFiles.add( 0, fname );
+                    _manifest.addFirst( fname, bytesExtracted, ze.getCrc(), FileManifest.Origin.ARCHIVE );
                 } else {
-                    _outputFiles.add( fname );
+                    _manifest.add( fname, bytesExtracted, ze.getCrc(), FileManifest.Origin.ARCHIVE );
                 }
             }
         }
@@ -366,7 +457,7 @@ public class FileManager {
             fos.write( fileToWrite );
             fos.close();
 
-            _outputFiles.add( s );
+            _manifest.add( s, fileToWrite.length, -1, FileManifest.Origin.GENERATED );
         } catch( Exception e ) {
             throw new PackageException( e, relativeFile );
         }
@@ -377,11 +468,7 @@ public class FileManager {
         String outputFolder = SessionManager.getInstance().getOutputFolder();
         File outputDir = new File( outputFolder );
 
-        if( !( outputDir.exists() && outputDir.isDirectory() ) ) {
-            outputDir.mkdirs();
-        }
-        
-        copyFiles( new File( sourceFolder ), outputDir );
+        new TreeCopier( new File( sourceFolder ), outputDir ).setHardLinks( _bbwpProperties.isCopyHardLinks() ).copy();
     }
     
     /**
@@ -414,134 +501,138 @@ public class FileManager {
             copyFile( from, to );
         }
         from = new File( sourceFolder + FILE_SEP + archiveName + ".cod" );
-        expandCod( from );
+        expandCod( from, new File( outputFolder + FILE_SEP + FileManager.OTA_OUTPUT ), new File( SessionManager.getInstance()
+                .getPublishedOutputFolder() + FILE_SEP + FileManager.OTA_OUTPUT ) );
     }
 
-    private void expandCod( File codFile ) throws Exception {
+    /**
+     * Extracts the sibling cods of a big cod. A sibling the published output already holds is linked from it, or kept if the
+     * output is written in place, rather than extracted again.
+     *
+     * @param otaInstallDir
+     *            the OTAInstall folder the cods are written to.
+     * @param publishedDir
+     *            the OTAInstall folder of the published output, the same as otaInstallDir when the output is not staged.
+     */
+    static void expandCod( File codFile, File otaInstallDir, File publishedDir ) throws Exception {
 
         // if the codFile can be unzipped,
         // then the cod is too big and actually in the zip format with smaller
         // cods inside
         // otherwise, the cod is already a good cod
 
-        ZipFile zipFile;
+        final ZipFile zipFile;
 
         // check for file's existence
         if( !codFile.exists() ) {
             throw new PackageException( "EXCEPTION_COD_NOT_FOUND" );
         } else {
             try {
+                // reads the central directory, which is all the entries are needed from
                 zipFile = new ZipFile( codFile );
-                zipFile.close();
-            } catch( Exception e ) {
+            } catch( IOException e ) {
                 return; // this is a not a zip file and thus, not a big cod
             }
         }
 
-        FileInputStream fis = new FileInputStream( codFile );
-        CheckedInputStream checksum = new CheckedInputStream( fis, new Adler32() );
-        ZipInputStream zis = new ZipInputStream( new BufferedInputStream( checksum ) );
-
-        ZipEntry entry;
-        BufferedOutputStream dest = null;
-        final int BUFFER_SIZE = 1024;
-
-        while( ( entry = zis.getNextEntry() ) != null ) {
-            int count;
-            byte data[] = new byte[ BUFFER_SIZE ];
-
-            File f = new File( SessionManager.getInstance().getOutputFolder() + FILE_SEP + "OTAInstall" + FILE_SEP
-                    + entry.getName() );
-
-            f.getParentFile().mkdirs();
-            f.createNewFile();
-
-            // write the files to the disk
-            FileOutputStream fos = new FileOutputStream( f );
-            dest = new BufferedOutputStream( fos, BUFFER_SIZE );
-            while( ( count = zis.read( data, 0, BUFFER_SIZE ) ) != -1 ) {
-                dest.write( data, 0, count );
+        Set< File > dirs = new HashSet< File >();
+        List< Future< Boolean >> tasks = new ArrayList< Future< Boolean >>();
+        try {
+            // extract the sibling cods in parallel, reusing those already extracted
+            for( Enumeration< ? extends ZipEntry > en = zipFile.entries(); en.hasMoreElements(); ) {
+                final ZipEntry entry = en.nextElement();
+                if( entry.isDirectory() ) {
+                    continue;
+                }
+                final File f = new File( otaInstallDir, entry.getName() );
+                final File published = new File( publishedDir, entry.getName() );
+                if( dirs.add( f.getParentFile() ) ) {
+                    f.getParentFile().mkdirs();
+                }
+                tasks.add( _codExtractors.submit( new Callable< Boolean >() {
+                    public Boolean call() throws IOException {
+                        // a linked cod is replaced, never written to, as it is also part of the published output
+                        if( isExtracted( published, entry ) && ( published.equals( f ) || TreeCopier.link( published, f ) ) ) {
+                            return Boolean.FALSE;
+                        }
+                        extract( zipFile, entry, f );
+                        return Boolean.TRUE;
+                    }
+                } ) );
             }
 
-            dest.flush();
-            dest.close();
+            int skipped = 0;
+            for( Future< Boolean > task : tasks ) {
+                if( !task.get().booleanValue() ) {
+                    skipped++;
+                }
+            }
+            BuildMetrics.count( "cod_entries_extracted", tasks.size() - skipped );
+            BuildMetrics.count( "cod_entries_skipped", skipped );
+        } catch( ExecutionException ee ) {
+            Throwable cause = ee.getCause();
+            if( cause instanceof Exception ) {
+                throw (Exception) cause;
+            }
+            throw ee;
+        } finally {
+            for( Future< Boolean > task : tasks ) {
+                task.cancel( true );
+            }
+            zipFile.close();
         }
-
-        zis.close();
     }
 
-    // Copy a file
-    public static void copyFile( File in, File out ) throws IOException {
-        // Create parent directories
-        if( out.getAbsolutePath().lastIndexOf( File.separator ) > 0 ) {
-            String parentDirectory = out.getAbsolutePath().substring( 0, out.getAbsolutePath().lastIndexOf( File.separator ) );
-            new File( parentDirectory ).mkdirs();
+    /**
+     * Indicates whether a file already holds the content of a zip entry, as told by its size and CRC.
+     */
+    private static boolean isExtracted( File file, ZipEntry entry ) throws IOException {
+        if( entry.getSize() < 0 || entry.getCrc() < 0 || !file.isFile() || file.length() != entry.getSize() ) {
+            return false;
         }
-
-        FileChannel inChannel = new FileInputStream( in ).getChannel();
-        FileChannel outChannel = new FileOutputStream( out ).getChannel();
+        CRC32 crc = new CRC32();
+        InputStream is = new FileInputStream( file );
         try {
-            // windows is limited to 64mb chunks
-            long size = inChannel.size();
-            long position = 0;
-            while( position < size )
-                position += inChannel.transferTo( position, 67076096, outChannel );
+            byte[] buffer = new byte[ COD_BUFFER_SIZE ];
+            int count;
+            while( ( count = is.read( buffer ) ) != -1 ) {
+                crc.update( buffer, 0, count );
+            }
         } finally {
-            if( inChannel != null )
-                inChannel.close();
-            if( outChannel != null )
-                outChannel.close();
+            is.close();
         }
+        return crc.getValue() == entry.getCrc();
     }
-    
-    /**
-     * This method copies file recursively from src to dest
-     */
-    private static void copyFiles( File src, File dest ) throws IOException {
-        // Check to ensure that the source is valid
-        if( !src.exists() ) {
-            throw new IOException( "copyFiles: Cannot find source: " + src.getAbsolutePath() + "." );
-        } else if( !src.canRead() ) {
-            // check to ensure we have rights to the source
-            throw new IOException( "copyFiles: No right to read source: " + src.getAbsolutePath() + "." );
-        }
-
-        // is this a directory copy?
-        if( src.isDirectory() ) {
-            if( !dest.exists() ) { // does the destination already exist?
-                // if not we need to make it exist if possible (note this is
-                // mkdirs not mkdir)
-                if( !dest.mkdirs() ) {
-                    throw new IOException( "copyFiles: Could not create direcotry: " + dest.getAbsolutePath() + "." );
-                }
-            }
 
-            String list[] = src.list();
-            // copy all the files in the list.
-            for( String path : list ) {
-                File dest1 = new File( dest, path );
-                File src1 = new File( src, path );
-                copyFiles( src1, dest1 );
-            }
-        } else {
-            // This was not a directory, just copy the file
+    private static void extract( ZipFile zipFile, ZipEntry entry, File file ) throws IOException {
+        InputStream is = zipFile.getInputStream( entry );
+        try {
+            OutputStream os = new FileOutputStream( file );
             try {
-                if( !dest.getParentFile().exists() ) {
-                    dest.getParentFile().mkdirs();
+                byte[] buffer = new byte[ COD_BUFFER_SIZE ];
+                int count;
+                while( ( count = is.read( buffer ) ) != -1 ) {
+                    os.write( buffer, 0, count );
                 }
-
-                // open the files for input and output
-                copyFile( src, dest );
-            } catch( IOException e ) { // Error copying file
-                IOException wrapper = new IOException( "copyFiles: Unable to copy file: " + src.getAbsolutePath() + " to "
-                        + dest.getAbsolutePath() + "." );
-                wrapper.initCause( e );
-                wrapper.setStackTrace( e.getStackTrace() );
-                throw wrapper;
+            } finally {
+                os.close();
             }
+        } finally {
+            is.close();
+        }
+    }
+
+    // Copy a file
+    public static void copyFile( File in, File out ) throws IOException {
+        // Create parent directories
+        File parentDirectory = out.getAbsoluteFile().getParentFile();
+        if( parentDirectory != null && !parentDirectory.isDirectory() ) {
+            parentDirectory.mkdirs();
         }
-    }    
 
+        TreeCopier.transfer( in, out );
+    }
+    
     private void createOutputDirs( String outputFolder ) {
         File standardInstallDir = new File( outputFolder + File.separator + FileManager.STANDARD_OUTPUT );
         File otaInstallDir = new File( outputFolder + File.separator + FileManager.OTA_OUTPUT );
@@ -555,23 +646,6 @@ public class FileManager {
         }
     }
 
-    // delete a dir
-    private boolean deleteDirectory( File dir ) {
-        // remove files first
-        if( dir.exists() && dir.isDirectory() ) {
-            String[] children = dir.list();
-            for( String child : children ) {
-                if( !deleteDirectory( new File( dir, child ) ) )
-                    return false;
-            }
-        }
-        if( dir.exists() ) {
-            // then remove the directory
-            return dir.delete();
-        }
-        return false;
-    }
-
     private void populateExtension( String extensionArchive ) throws Exception {
         // create the extension directory
         String extensionPath = SessionManager.getInstance().getSourceFolder() + FILE_SEP + EXTENSION_DIRECTORY + FILE_SEP;
@@ -599,7 +673,7 @@ public class FileManager {
                 fos.write( bytesRead );
             fos.close();
 
-            _outputFiles.add( fname );
+            _manifest.add( fname, ze.getSize(), ze.getCrc(), FileManifest.Origin.EXTENSION );
 
             if( zipEntryName.equals( "library.xml" ) ) {
                 is = zip.getInputStream( ze );
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.file;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The files written to the source folder for a build, with their size, their CRC when known and where they come from.
+ * <p>
+ * The files are kept in two partitions, each appended to in constant time: the files listed first, the files of the
+ * subfolders of the archive, most recent first, then all the others in the order they were added. The folders of the paths
+ * are stored once, shared by the files they hold, rather than repeated in every path.
+ */
+public class FileManifest {
+    /**
+     * Where a file of the manifest comes from.
+     */
+    public enum Origin {
+        TEMPLATE, ARCHIVE, EXTENSION, GENERATED
+    }
+
+    /**
+     * A file of the manifest.
+     */
+    public static final class Entry {
+        private final String _folder;
+        private final String _name;
+        private final long _size;
+        private final long _crc;
+        private final Origin _origin;
+
+        private Entry( String folder, String name, long size, long crc, Origin origin ) {
+            _folder = folder;
+            _name = name;
+            _size = size;
+            _crc = crc;
+            _origin = origin;
+        }
+
+        /**
+         * Returns the full path of the file.
+         */
+        public String getPath() {
+            return _folder + _name;
+        }
+
+        /**
+         * Returns the size of the file in bytes, or -1 if unknown.
+         */
+        public long getSize() {
+            return _size;
+        }
+
+        /**
+         * Returns the CRC-32 of the file, as recorded by the archive it was extracted from, or -1 if unknown.
+         */
+        public long getCrc() {
+            return _crc;
+        }
+
+        public Origin getOrigin() {
+            return _origin;
+        }
+    }
+
+    // the folders of the paths, up to and including the last separator, each stored once
+    private final Map< String, String > _folders = new HashMap< String, String >();
+    private final List< Entry > _first = new ArrayList< Entry >();
+    private final List< Entry > _files = new ArrayList< Entry >();
+
+    /**
+     * Adds a file, listed after the files added so far.
+     *
+     * @param size
+     *            the size of the file in bytes, or -1 if unknown.
+     * @param crc
+     *            the CRC-32 of the file, or -1 if unknown.
+     */
+    public synchronized void add( String path, long size, long crc, Origin origin ) {
+        _files.add( createEntry( path, size, crc, origin ) );
+    }
+
+    /**
+     * Adds a file listed before the files added with {@link #add(String, long, long, Origin)}, and before the files added so
+     * far with this method.
+     */
+    public synchronized void addFirst( String path, long size, long crc, Origin origin ) {
+        _first.add( createEntry( path, size, crc, origin ) );
+    }
+
+    /**
+     * Returns the number of files.
+     */
+    public synchronized int size() {
+        return _first.size() + _files.size();
+    }
+
+    /**
+     * Returns the files, in order.
+     */
+    public synchronized List< Entry > getEntries() {
+        List< Entry > entries = new ArrayList< Entry >( size() );
+        for( int i = _first.size() - 1; i >= 0; i-- ) {
+            entries.add( _first.get( i ) );
+        }
+        entries.addAll( _files );
+        return entries;
+    }
+
+    /**
+     * Returns the full paths of the files, in order.
+     */
+    public synchronized List< String > getPaths() {
+        List< String > paths = new ArrayList< String >( size() );
+        for( int i = _first.size() - 1; i >= 0; i-- ) {
+            paths.add( _first.get( i ).getPath() );
+        }
+        for( Entry entry : _files ) {
+            paths.add( entry.getPath() );
+        }
+        return paths;
+    }
+
+    private Entry createEntry( String path, long size, long crc, Origin origin ) {
+        int separator = Math.max( path.lastIndexOf( File.separatorChar ), path.lastIndexOf( '/' ) ) + 1;
+        String folder = path.substring( 0, separator );
+        String shared = _folders.get( folder );
+        if( shared == null ) {
+            _folders.put( folder, folder );
+            shared = folder;
+        }
+        return new Entry( shared, path.substring( separator ), size, crc, origin );
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Publishes the outputs of a build over an output folder at once. The outputs are written to a staging folder next to the
+ * output folder, which replaces it when the build is complete, so that readers of the output folder see either the previous
+ * outputs or the new ones, never a partial set; a build that fails leaves the previous outputs in place.
+ * <p>
+ * By default the output folder is moved out of the way and the staging folder renamed to it, which leaves the output folder
+ * missing for the time between the two renames. With symbolic links the output folder is a link to the current staging
+ * folder, replaced by renaming a new link over it, which is atomic on POSIX file systems; creating links requires Java 7 at
+ * run time. Either way the previous outputs are removed in the background by {@link TreeRemover}, as are the staging folders
+ * left behind by a process killed before it published them.
+ * <p>
+ * Builds of other processes may be staging outputs for the same folder, so a staging folder is only taken for an abandoned one
+ * when it is provably dead: every staging folder has a lock file next to it, locked by its build until the folder is published
+ * or discarded, which the operating system releases when the process dies. A staging folder without a lock file, left by an
+ * older packager or a removal that was interrupted, is only removed once it is a day old.
+ *
+ * <pre>
+ *     OutputPublisher publisher = new OutputPublisher( outputDir, false );
+ *     write( publisher.getStagingFolder() );
+ *     publisher.publish();
+ * </pre>
+ */
+public class OutputPublisher {
+    private static final String STAGING_SUFFIX = ".staging-";
+    private static final String LINK_SUFFIX = ".link-";
+    private static final String LOCK_SUFFIX = ".lock-";
+    private static final long UNLOCKED_STAGING_MILLIS = 24L * 60 * 60 * 1000;
+
+    private static final List< OutputPublisher > _unpublished = new ArrayList< OutputPublisher >();
+
+    private static Method _toPath;
+    private static Method _createSymbolicLink;
+    private static Object _noAttributes;
+
+    static {
+        try {
+            Class< ? > path = Class.forName( "java.nio.file.Path" );
+            Class< ? > attribute = Class.forName( "java.nio.file.attribute.FileAttribute" );
+            _toPath = File.class.getMethod( "toPath" );
+            _noAttributes = Array.newInstance( attribute, 0 );
+            _createSymbolicLink = Class.forName( "java.nio.file.Files" ).getMethod( "createSymbolicLink", path, path,
+                    _noAttributes.getClass() );
+        } catch( Exception e ) {
+            // no symbolic links before Java 7
+        }
+    }
+
+    private final File _output;
+    private final File _staging;
+    private final File _lockFile;
+    private final boolean _symbolicLink;
+    private FileLock _lock;
+
+    /**
+     * Creates a staging folder for the outputs to be published over the specified folder.
+     *
+     * @param output
+     *            the output folder.
+     * @param symbolicLink
+     *            whether to publish by replacing a symbolic link, if links can be created.
+     */
+    public OutputPublisher( File output, boolean symbolicLink ) throws IOException {
+        _output = output.getAbsoluteFile();
+        _staging = new File( _output.getParentFile(), "." + _output.getName() + STAGING_SUFFIX + System.nanoTime() );
+        _lockFile = getLockFile( _staging );
+        _symbolicLink = symbolicLink && _createSymbolicLink != null;
+
+        List< File > stale = new ArrayList< File >();
+        synchronized( _unpublished ) {
+            // locked before the folder exists, so that no other process sees it unlocked; a file system without locks leaves
+            // the folder unlocked, to be removed by age only
+            _output.getParentFile().mkdirs();
+            _lock = tryLock( _lockFile );
+            if( _lock == null ) {
+                _lockFile.delete();
+            }
+            if( !_staging.mkdirs() ) {
+                unlock();
+                throw new IOException( "Could not create staging folder: " + _staging.getPath() + "." );
+            }
+            _unpublished.add( this );
+
+            // the staging folders of builds killed before they published or discarded them
+            String current = getCurrentName();
+            File[] files = _output.getParentFile().listFiles();
+            for( int i = 0; files != null && i < files.length; i++ ) {
+                if( isStaging( files[ i ] ) && !files[ i ].getName().equals( current ) && !isUnpublished( files[ i ] ) ) {
+                    stale.add( files[ i ] );
+                }
+            }
+        }
+        for( File folder : stale ) {
+            if( isAbandoned( folder ) ) {
+                TreeRemover.deleteAsync( folder );
+            }
+        }
+    }
+
+    /**
+     * Returns the folder the outputs are written to until they are published.
+     */
+    public File getStagingFolder() {
+        return _staging;
+    }
+
+    /**
+     * Returns the folder the outputs are published to.
+     */
+    public File getOutputFolder() {
+        return _output;
+    }
+
+    /**
+     * Replaces the output folder with the staging folder.
+     */
+    public void publish() throws IOException {
+        synchronized( _unpublished ) {
+            _unpublished.remove( this );
+        }
+
+        // unlocked once published, so that another process listing the folder in the meantime sees it as the current one
+        try {
+            doPublish();
+        } finally {
+            unlock();
+        }
+    }
+
+    private void doPublish() throws IOException {
+        if( _symbolicLink ) {
+            if( _output.exists() && !TreeRemover.isLink( _output ) ) {
+                // the first publication replaces a plain folder
+                TreeRemover.deleteAsync( _output );
+            }
+            if( publishLink() ) {
+                return;
+            }
+        }
+
+        File previous = TreeRemover.isLink( _output ) ? _output.getCanonicalFile() : null;
+        TreeRemover.deleteAsync( _output );
+        if( !_staging.renameTo( _output ) ) {
+            // another process holds the folder open; copy the outputs over instead
+            new TreeCopier( _staging, _output ).copy();
+            TreeRemover.deleteAsync( _staging );
+        }
+        if( previous != null && isStaging( previous ) ) {
+            TreeRemover.deleteAsync( previous );
+        }
+    }
+
+    /**
+     * Removes the staging folder without publishing it.
+     */
+    public void discard() {
+        synchronized( _unpublished ) {
+            _unpublished.remove( this );
+        }
+        TreeRemover.deleteAsync( _staging );
+        unlock();
+    }
+
+    /**
+     * Removes the staging folders of the builds that did not publish their outputs.
+     */
+    public static void discardUnpublished() {
+        while( true ) {
+            OutputPublisher publisher;
+            synchronized( _unpublished ) {
+                if( _unpublished.isEmpty() ) {
+                    return;
+                }
+                publisher = _unpublished.get( 0 );
+            }
+            publisher.discard();
+        }
+    }
+
+    /**
+     * Points the output folder at the staging folder by renaming a new link over it; returns false if the link cannot be
+     * created, leaving the output folder as it was.
+     */
+    private boolean publishLink() throws IOException {
+        File previous = _output.exists() ? _output.getCanonicalFile() : null;
+        File link = new File( _output.getParentFile(), "." + _output.getName() + LINK_SUFFIX + System.nanoTime() );
+        try {
+            // relative, so that the output folder and its link can be moved together
+            _createSymbolicLink.invoke( null, _toPath.invoke( link ), _toPath.invoke( new File( _staging.getName() ) ),
+                    _noAttributes );
+        } catch( Exception e ) {
+            return false;
+        }
+
+        if( !link.renameTo( _output ) ) {
+            // the rename cannot replace the link on this platform
+            _output.delete();
+            if( !link.renameTo( _output ) ) {
+                link.delete();
+                throw new IOException( "Could not publish output folder: " + _output.getPath() + "." );
+            }
+        }
+        if( previous != null && isStaging( previous ) ) {
+            TreeRemover.deleteAsync( previous );
+        }
+        return true;
+    }
+
+    /**
+     * Indicates whether the staging folder of another build is abandoned: its lock file is not locked by a live process, or it
+     * has no lock file and is older than {@link #UNLOCKED_STAGING_MILLIS}. Removes the lock file of an abandoned folder.
+     */
+    private boolean isAbandoned( File folder ) {
+        File lockFile = getLockFile( folder );
+        if( !lockFile.exists() ) {
+            return System.currentTimeMillis() - folder.lastModified() > UNLOCKED_STAGING_MILLIS;
+        }
+
+        FileLock lock;
+        try {
+            lock = tryLock( lockFile );
+        } catch( IOException e ) {
+            return false;
+        }
+        if( lock == null ) {
+            // its build is running
+            return false;
+        }
+        boolean abandoned;
+        try {
+            // the build may have published it, then exited, since the folder was listed
+            abandoned = !folder.getName().equals( getCurrentName() );
+        } catch( IOException e ) {
+            abandoned = false;
+        } finally {
+            release( lock );
+        }
+        if( abandoned ) {
+            lockFile.delete();
+        }
+        return abandoned;
+    }
+
+    /**
+     * Returns the name of the staging folder the output folder links to, or null if it is not a link.
+     */
+    private String getCurrentName() throws IOException {
+        return TreeRemover.isLink( _output ) ? _output.getCanonicalFile().getName() : null;
+    }
+
+    /**
+     * Returns the lock file of a staging folder of this output folder.
+     */
+    private File getLockFile( File staging ) {
+        String id = staging.getName().substring( ( "." + _output.getName() + STAGING_SUFFIX ).length() );
+        return new File( staging.getParentFile(), "." + _output.getName() + LOCK_SUFFIX + id );
+    }
+
+    /**
+     * Releases and removes the lock file of the staging folder, which is then published or being removed.
+     */
+    private void unlock() {
+        FileLock lock;
+        synchronized( this ) {
+            lock = _lock;
+            _lock = null;
+        }
+        if( lock != null ) {
+            release( lock );
+            _lockFile.delete();
+        }
+    }
+
+    /**
+     * Locks a file, creating it if needed. Returns null if another process, or this one, holds the lock, or if the file system
+     * does not support locks.
+     */
+    private static FileLock tryLock( File file ) throws IOException {
+        RandomAccessFile access = new RandomAccessFile( file, "rw" );
+        try {
+            FileLock lock = access.getChannel().tryLock();
+            if( lock != null ) {
+                // the file stays open as long as it is locked
+                access = null;
+                return lock;
+            }
+        } catch( OverlappingFileLockException e ) {
+            // locked by this process
+        } catch( IOException e ) {
+            // no locks on this file system
+        } finally {
+            if( access != null ) {
+                access.close();
+            }
+        }
+        return null;
+    }
+
+    private static void release( FileLock lock ) {
+        try {
+            // closing the channel releases the lock
+            lock.channel().close();
+        } catch( IOException e ) {
+            // the lock is released when the process exits
+        }
+    }
+
+    /**
+     * Indicates whether a folder is the staging folder of a build of this process not yet published. Must be called with
+     * the lock of _unpublished held.
+     */
+    private static boolean isUnpublished( File folder ) {
+        for( OutputPublisher publisher : _unpublished ) {
+            if( publisher._staging.getName().equals( folder.getName() ) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Indicates whether a folder is a staging folder of this output folder.
+     */
+    private boolean isStaging( File folder ) {
+        return folder.getName().startsWith( "." + _output.getName() + STAGING_SUFFIX );
+    }
+}
@@ -40,6 +40,16 @@ public class TemplateFile {
         return refactor( content );
     }
 
+    /**
+     * Writes the refactored template to the specified file, streaming it through a TemplatePatcher.
+     * 
+     * @return the number of bytes written.
+     */
+    public long writeTo( File output ) throws IOException {
+        return new TemplatePatcher().replace( TemplateWrapper.DEVICE_PACKAGE,
+                genPackageName( SessionManager.getInstance().getArchiveName() ) ).patch( _sourceFile, output );
+    }
+
     public String getName() {
         return _relativeLocation;
     }
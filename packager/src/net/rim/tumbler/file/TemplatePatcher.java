@@ -0,0 +1,243 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Applies a set of literal substitutions to a template source in a single pass, streaming from input to output. Matching is
+ * done on bytes, so the encoding and line endings of the source are preserved; replacement strings are written as UTF-8.
+ * Patching runs in time linear in the size of the source and holds one fixed-size buffer, whatever the size of the source.
+ * <p>
+ * When several targets match at the same position the one added first wins, and patched text is never matched again.
+ * Patched files up to <code>MAX_CACHED_SIZE</code> bytes are cached in memory, keyed on the path, length and modification
+ * time of the source together with the substitutions, so that the same template patched again is written without reading it.
+ */
+public class TemplatePatcher {
+    private static final int BUFFER_SIZE = 16384;
+    private static final int MAX_CACHED_SIZE = 256 * 1024;
+    private static final int MAX_CACHED_ENTRIES = 64;
+
+    private static final Map< String, byte[] > _cache = Collections.synchronizedMap( new LinkedHashMap< String, byte[] >( 16,
+            0.75f, true ) {
+        private static final long serialVersionUID = 1L;
+
+        protected boolean removeEldestEntry( Map.Entry< String, byte[] > eldest ) {
+            return size() > MAX_CACHED_ENTRIES;
+        }
+    } );
+
+    private List< byte[] > _targets;
+    private List< byte[] > _replacements;
+    private StringBuilder _signature;
+    private boolean[] _firstBytes;
+    private int _maxTargetLength;
+
+    public TemplatePatcher() {
+        _targets = new ArrayList< byte[] >();
+        _replacements = new ArrayList< byte[] >();
+        _signature = new StringBuilder();
+        _firstBytes = new boolean[ 256 ];
+    }
+
+    /**
+     * Adds a literal substitution. An empty target, or one equal to its replacement, is ignored.
+     *
+     * @param target
+     *            the text to replace.
+     * @param replacement
+     *            the text written in its place.
+     * @return this patcher.
+     */
+    public TemplatePatcher replace( String target, String replacement ) {
+        if( target == null || target.length() == 0 || target.equals( replacement ) ) {
+            return this;
+        }
+        byte[] t = toBytes( target );
+        _targets.add( t );
+        _replacements.add( toBytes( replacement == null ? "" : replacement ) );
+        _firstBytes[ t[ 0 ] & 0xFF ] = true;
+        _maxTargetLength = Math.max( _maxTargetLength, t.length );
+        _signature.append( '\0' ).append( target ).append( '\0' ).append( replacement );
+        return this;
+    }
+
+    /**
+     * @return true if no substitution has been added, in which case patching copies the source unchanged.
+     */
+    public boolean isEmpty() {
+        return _targets.isEmpty();
+    }
+
+    /**
+     * Patches a stream. Neither stream is closed.
+     *
+     * @return the number of bytes written.
+     */
+    public long patch( InputStream in, OutputStream out ) throws IOException {
+        byte[] buf = new byte[ BUFFER_SIZE + _maxTargetLength ];
+        long written = 0;
+        int end = 0;
+        boolean eof = false;
+
+        while( true ) {
+            // fill the buffer behind the bytes carried over from the last round
+            while( !eof && end < buf.length ) {
+                int n = in.read( buf, end, buf.length - end );
+                if( n < 0 ) {
+                    eof = true;
+                } else {
+                    end += n;
+                }
+            }
+
+            // a match may start at any position that has the longest target buffered behind it; without targets, anywhere
+            int limit = eof ? end : Math.min( end, end - _maxTargetLength + 1 );
+            int pos = 0;
+            int flushed = 0;
+            while( pos < limit ) {
+                int index = _firstBytes[ buf[ pos ] & 0xFF ] ? matchAt( buf, pos, end ) : -1;
+                if( index < 0 ) {
+                    pos++;
+                    continue;
+                }
+                out.write( buf, flushed, pos - flushed );
+                byte[] replacement = _replacements.get( index );
+                out.write( replacement );
+                written += pos - flushed + replacement.length;
+                pos += _targets.get( index ).length;
+                flushed = pos;
+            }
+            int scanned = Math.max( pos, limit );
+            if( scanned > flushed ) {
+                out.write( buf, flushed, scanned - flushed );
+                written += scanned - flushed;
+            }
+
+            if( eof ) {
+                return written;
+            }
+            // carry over the tail that may still start a match
+            end -= scanned;
+            System.arraycopy( buf, scanned, buf, 0, end );
+        }
+    }
+
+    /**
+     * Patches a file into another. The output file is overwritten.
+     *
+     * @return the number of bytes written.
+     */
+    public long patch( File in, File out ) throws IOException {
+        String key = null;
+        if( in.length() <= MAX_CACHED_SIZE ) {
+            key = in.getCanonicalPath() + '\0' + in.length() + '\0' + in.lastModified() + _signature;
+            byte[] cached = _cache.get( key );
+            if( cached != null ) {
+                write( cached, out );
+                return cached.length;
+            }
+        }
+
+        InputStream is = new FileInputStream( in );
+        try {
+            if( key != null ) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream( (int) in.length() );
+                patch( is, bytes );
+                byte[] patched = bytes.toByteArray();
+                write( patched, out );
+                _cache.put( key, patched );
+                return patched.length;
+            }
+
+            OutputStream os = new FileOutputStream( out );
+            try {
+                return patch( is, os );
+            } finally {
+                os.close();
+            }
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Patches a file in place, through a temporary file in the same folder that then replaces it.
+     *
+     * @return the number of bytes written.
+     */
+    public long patchInPlace( File file ) throws IOException {
+        if( isEmpty() ) {
+            return file.length();
+        }
+        File temp = File.createTempFile( "tpl", ".tmp", file.getAbsoluteFile().getParentFile() );
+        try {
+            long written = patch( file, temp );
+            if( !file.delete() || !temp.renameTo( file ) ) {
+                throw new IOException( "Error when replacing file " + file.getPath() );
+            }
+            return written;
+        } finally {
+            temp.delete();
+        }
+    }
+
+    private int matchAt( byte[] buf, int pos, int end ) {
+        for( int i = 0; i < _targets.size(); i++ ) {
+            byte[] target = _targets.get( i );
+            if( pos + target.length > end ) {
+                continue;
+            }
+            int j = 1;
+            while( j < target.length && buf[ pos + j ] == target[ j ] ) {
+                j++;
+            }
+            if( j == target.length && buf[ pos ] == target[ 0 ] ) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void write( byte[] contents, File out ) throws IOException {
+        OutputStream os = new FileOutputStream( out );
+        try {
+            os.write( contents );
+        } finally {
+            os.close();
+        }
+    }
+
+    private static byte[] toBytes( String s ) {
+        try {
+            return s.getBytes( "UTF-8" );
+        } catch( UnsupportedEncodingException e ) {
+            throw new IllegalStateException( e );
+        }
+    }
+}
@@ -16,14 +16,13 @@
 package net.rim.tumbler.file;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.List;
 
+import net.rim.tumbler.metrics.BuildMetrics;
 import net.rim.tumbler.session.BBWPProperties;
 import net.rim.tumbler.session.SessionManager;
 
@@ -63,9 +62,9 @@ public class TemplateWrapper {
             dir.mkdirs();
 
             // Copy file
-            OutputStream os = new FileOutputStream( strOutputFile );
-            os.write( df.getContents().getBytes() );
-            os.close();
+            long length = df.writeTo( new File( strOutputFile ) );
+            BuildMetrics.count( BuildMetrics.TEMPLATES_WRITTEN, 1 );
+            BuildMetrics.count( BuildMetrics.TEMPLATE_BYTES, length );
         }
         return result;
     }
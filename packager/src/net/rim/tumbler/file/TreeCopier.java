@@ -0,0 +1,282 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.file;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import net.rim.tumbler.util.DaemonPools;
+
+/**
+ * Copies directory trees. The source tree is listed once, the destination folders are created in one pass in which every
+ * folder is created after its parent, without checking for the parents of every file, and the files are copied in parallel.
+ * Folders holding the trash of {@link TreeRemover#deleteAsync(File)} and the destination itself, when it is inside the
+ * source, are not copied.
+ * <p>
+ * With hard links enabled, files are linked rather than copied where the file system allows it, which requires Java 7 at
+ * run time; otherwise they are copied. A linked file shares its content with its source, so it must be replaced rather than
+ * rewritten if either of them is to change.
+ *
+ * <pre>
+ *     new TreeCopier( sourceDir, outputDir ).setFilter( filter ).copy();
+ * </pre>
+ */
+public class TreeCopier {
+    /** Windows is limited to 64 MB per transfer. */
+    private static final long MAX_TRANSFER = 67076096;
+    /** The number of files copied by one task, unless they add up to MAX_TASK_BYTES first. */
+    private static final int FILES_PER_TASK = 32;
+    private static final long MAX_TASK_BYTES = 4 * 1024 * 1024;
+
+    private static final ExecutorService _executor = DaemonPools.newFixed( "tree-copy", Math.max( 2,
+            Runtime.getRuntime().availableProcessors() ) );
+
+    private static Method _toPath;
+    private static Method _createLink;
+
+    static {
+        try {
+            Class< ? > path = Class.forName( "java.nio.file.Path" );
+            _toPath = File.class.getMethod( "toPath" );
+            _createLink = Class.forName( "java.nio.file.Files" ).getMethod( "createLink", path, path );
+        } catch( Exception e ) {
+            // no hard links before Java 7
+        }
+    }
+
+    private final File _source;
+    private final File _destination;
+    private FileFilter _filter;
+    private boolean _hardLinks;
+
+    // what copy() found in the source tree, in the order it was listed
+    private final List< String > _dirPaths = new ArrayList< String >();
+    private final List< File > _files = new ArrayList< File >();
+    private final List< String > _filePaths = new ArrayList< String >();
+
+    /**
+     * @param source
+     *            the folder to copy.
+     * @param destination
+     *            the folder to copy it to, created if necessary; existing files in it are overwritten.
+     */
+    public TreeCopier( File source, File destination ) {
+        _source = source;
+        _destination = destination;
+    }
+
+    /**
+     * Copies only the files and folders accepted by a filter. Folders left without a file to copy are then not created.
+     */
+    public TreeCopier setFilter( FileFilter filter ) {
+        _filter = filter;
+        return this;
+    }
+
+    /**
+     * Links files rather than copying them, where possible.
+     */
+    public TreeCopier setHardLinks( boolean hardLinks ) {
+        _hardLinks = hardLinks;
+        return this;
+    }
+
+    /**
+     * Copies the tree.
+     *
+     * @return the number of files copied.
+     */
+    public int copy() throws IOException {
+        if( !_source.exists() ) {
+            throw new IOException( "copyFiles: Cannot find source: " + _source.getAbsolutePath() + "." );
+        } else if( !_source.canRead() ) {
+            throw new IOException( "copyFiles: No right to read source: " + _source.getAbsolutePath() + "." );
+        }
+
+        if( !_source.isDirectory() ) {
+            FileManager.copyFile( _source, _destination );
+            return 1;
+        }
+
+        list( _source, "", _destination.getCanonicalFile() );
+        createDirectories();
+        copyFiles();
+        return _files.size();
+    }
+
+    /**
+     * Lists the source tree; a folder is recorded after its parent and before its files.
+     */
+    private void list( File dir, String path, File skip ) throws IOException {
+        File[] entries = _filter == null ? dir.listFiles() : dir.listFiles( _filter );
+        if( entries == null ) {
+            throw new IOException( "copyFiles: No right to read source: " + dir.getAbsolutePath() + "." );
+        }
+        for( File entry : entries ) {
+            String entryPath = path + entry.getName();
+            if( entry.isDirectory() ) {
+                if( TreeRemover.isTrash( entry ) || entry.getCanonicalFile().equals( skip ) ) {
+                    continue;
+                }
+                _dirPaths.add( entryPath );
+                list( entry, entryPath + File.separator, skip );
+            } else {
+                _files.add( entry );
+                _filePaths.add( entryPath );
+            }
+        }
+    }
+
+    private void createDirectories() throws IOException {
+        if( !_destination.isDirectory() && !_destination.mkdirs() ) {
+            throw new IOException( "copyFiles: Could not create directory: " + _destination.getAbsolutePath() + "." );
+        }
+
+        // with a filter, only the folders of the files copied, marked from the files up
+        Set< String > needed = null;
+        if( _filter != null ) {
+            needed = new HashSet< String >();
+            for( String path : _filePaths ) {
+                for( int sep = path.lastIndexOf( File.separatorChar ); sep > 0; sep = path.lastIndexOf( File.separatorChar,
+                        sep - 1 ) ) {
+                    if( !needed.add( path.substring( 0, sep ) ) ) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        for( String path : _dirPaths ) {
+            if( needed != null && !needed.contains( path ) ) {
+                continue;
+            }
+            File dir = new File( _destination, path );
+            if( !dir.mkdir() && !dir.isDirectory() ) {
+                throw new IOException( "copyFiles: Could not create directory: " + dir.getAbsolutePath() + "." );
+            }
+        }
+    }
+
+    private void copyFiles() throws IOException {
+        List< Future< Void >> tasks = new ArrayList< Future< Void >>();
+        try {
+            int start = 0;
+            while( start < _files.size() ) {
+                int end = start;
+                long bytes = 0;
+                while( end < _files.size() && end - start < FILES_PER_TASK && bytes < MAX_TASK_BYTES ) {
+                    bytes += _files.get( end++ ).length();
+                }
+                final int from = start;
+                final int to = end;
+                tasks.add( _executor.submit( new Callable< Void >() {
+                    public Void call() throws IOException {
+                        for( int i = from; i < to; i++ ) {
+                            copyFile( _files.get( i ), new File( _destination, _filePaths.get( i ) ) );
+                        }
+                        return null;
+                    }
+                } ) );
+                start = end;
+            }
+
+            for( Future< Void > task : tasks ) {
+                task.get();
+            }
+        } catch( InterruptedException ie ) {
+            throw new IOException( ie );
+        } catch( ExecutionException ee ) {
+            Throwable cause = ee.getCause();
+            if( cause instanceof IOException ) {
+                throw (IOException) cause;
+            } else if( cause instanceof RuntimeException ) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException( cause );
+        } finally {
+            for( Future< Void > task : tasks ) {
+                task.cancel( true );
+            }
+        }
+    }
+
+    private void copyFile( File src, File dest ) throws IOException {
+        try {
+            if( !_hardLinks || !link( src, dest ) ) {
+                transfer( src, dest );
+            }
+        } catch( IOException e ) {
+            IOException wrapper = new IOException( "copyFiles: Unable to copy file: " + src.getAbsolutePath() + " to "
+                    + dest.getAbsolutePath() + "." );
+            wrapper.initCause( e );
+            throw wrapper;
+        }
+    }
+
+    /**
+     * Links a file, replacing the destination; returns false if it cannot be linked.
+     */
+    static boolean link( File src, File dest ) {
+        if( _createLink == null ) {
+            return false;
+        }
+        dest.delete();
+        try {
+            _createLink.invoke( null, _toPath.invoke( dest ), _toPath.invoke( src ) );
+            return true;
+        } catch( InvocationTargetException ite ) {
+            // another file system, or one without links
+            return false;
+        } catch( IllegalAccessException iae ) {
+            return false;
+        }
+    }
+
+    /**
+     * Copies the content of a file into another, whose folder must exist.
+     */
+    static void transfer( File in, File out ) throws IOException {
+        FileChannel inChannel = new FileInputStream( in ).getChannel();
+        try {
+            FileChannel outChannel = new FileOutputStream( out ).getChannel();
+            try {
+                long size = inChannel.size();
+                long position = 0;
+                while( position < size ) {
+                    position += inChannel.transferTo( position, MAX_TRANSFER, outChannel );
+                }
+            } finally {
+                outChannel.close();
+            }
+        } finally {
+            inChannel.close();
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.rim.tumbler.util.DaemonPools;
+
+/**
+ * Removes directory trees. Subdirectories are listed and files are deleted in parallel, a directory being deleted as soon as
+ * its last entry is; a file that cannot be deleted does not stop the removal of the rest of the tree. Symbolic links to
+ * directories are deleted, not followed.
+ * <p>
+ * {@link #deleteAsync(File)} renames the tree out of the way first and removes it in the background, so that its path can be
+ * reused at once; {@link #awaitPending()} waits for those removals before the VM exits. Trees left behind by an earlier run
+ * that did not finish removing them are removed along with the next tree renamed next to them.
+ */
+public class TreeRemover {
+    private static final String TRASH_SUFFIX = ".trash-";
+    /** The number of files of a directory deleted by one task. */
+    private static final int FILES_PER_TASK = 256;
+    /** The number of times a tree is walked again if entries were added to it while it was being removed. */
+    private static final int MAX_RETRIES = 1;
+
+    private static final ExecutorService _executor = DaemonPools.newFixed( "tree-remover", Math.max( 2, Runtime.getRuntime()
+            .availableProcessors() * 2 ) );
+
+    private static final List< Removal > _pending = new ArrayList< Removal >();
+
+    private TreeRemover() {
+    }
+
+    /**
+     * Deletes a file or directory tree and waits for it to be removed.
+     *
+     * @return true if the file or directory no longer exists.
+     */
+    public static boolean delete( File root ) {
+        if( !root.exists() && !isLink( root ) ) {
+            return true;
+        }
+        Removal removal = new Removal( root );
+        removal.start();
+        removal.await();
+        return !root.exists();
+    }
+
+    /**
+     * Moves a file or directory tree out of the way and deletes it in the background. The tree is deleted in place and waited
+     * for if it cannot be renamed.
+     */
+    public static void deleteAsync( File root ) {
+        if( !root.exists() && !isLink( root ) ) {
+            return;
+        }
+        File parent = root.getAbsoluteFile().getParentFile();
+        String prefix = "." + root.getName() + TRASH_SUFFIX;
+        File trash = new File( parent, prefix + System.nanoTime() );
+        if( parent == null || !root.renameTo( trash ) ) {
+            delete( root );
+            return;
+        }
+
+        // remove it, along with what earlier runs left behind
+        File[] stale = parent.listFiles();
+        for( int i = 0; stale != null && i < stale.length; i++ ) {
+            if( stale[ i ].getName().startsWith( prefix ) ) {
+                Removal removal = new Removal( stale[ i ] );
+                synchronized( _pending ) {
+                    _pending.add( removal );
+                }
+                removal.start();
+            }
+        }
+    }
+
+    /**
+     * Waits for the trees given to {@link #deleteAsync(File)} to be removed.
+     */
+    public static void awaitPending() {
+        while( true ) {
+            Removal removal;
+            synchronized( _pending ) {
+                if( _pending.isEmpty() ) {
+                    return;
+                }
+                removal = _pending.remove( 0 );
+            }
+            removal.await();
+        }
+    }
+
+    /**
+     * Indicates whether a file is a tree renamed by {@link #deleteAsync(File)} to be removed.
+     */
+    public static boolean isTrash( File file ) {
+        String name = file.getName();
+        return name.startsWith( "." ) && name.indexOf( TRASH_SUFFIX, 1 ) > 0;
+    }
+
+    /**
+     * Indicates whether a file is a symbolic link, by comparing its canonical path with that of its canonical parent.
+     */
+    static boolean isLink( File file ) {
+        try {
+            File parent = file.getAbsoluteFile().getParentFile();
+            if( parent == null ) {
+                return false;
+            }
+            File resolved = new File( parent.getCanonicalFile(), file.getName() );
+            return !resolved.getCanonicalFile().equals( resolved.getAbsoluteFile() );
+        } catch( IOException ioe ) {
+            return false;
+        }
+    }
+
+    /**
+     * The removal of one tree.
+     */
+    private static class Removal {
+        private final File _root;
+        private final CountDownLatch _done = new CountDownLatch( 1 );
+        private int _retries;
+
+        Removal( File root ) {
+            _root = root;
+        }
+
+        void start() {
+            submit( new Directory( _root, null ) );
+        }
+
+        void await() {
+            try {
+                _done.await();
+            } catch( InterruptedException ie ) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void submit( final Directory dir ) {
+            _executor.execute( new Runnable() {
+                public void run() {
+                    list( dir );
+                }
+            } );
+        }
+
+        /**
+         * Deletes the files of a directory and submits its subdirectories, splitting long lists of files over several tasks.
+         */
+        private void list( final Directory dir ) {
+            // subdirectories were checked for links when their parent was listed
+            boolean walk = dir._file.isDirectory() && ( dir._parent != null || !isLink( dir._file ) );
+            File[] entries = walk ? dir._file.listFiles() : null;
+            if( entries == null ) {
+                dir.complete();
+                return;
+            }
+
+            final List< File > files = new ArrayList< File >();
+            for( File entry : entries ) {
+                if( entry.isDirectory() && !isLink( entry ) ) {
+                    dir._remaining.incrementAndGet();
+                    submit( new Directory( entry, dir ) );
+                } else {
+                    files.add( entry );
+                }
+            }
+            for( int start = FILES_PER_TASK; start < files.size(); start += FILES_PER_TASK ) {
+                final int from = start;
+                dir._remaining.incrementAndGet();
+                _executor.execute( new Runnable() {
+                    public void run() {
+                        deleteFiles( files.subList( from, Math.min( from + FILES_PER_TASK, files.size() ) ) );
+                        dir.complete();
+                    }
+                } );
+            }
+            deleteFiles( files.subList( 0, Math.min( FILES_PER_TASK, files.size() ) ) );
+            dir.complete();
+        }
+
+        private static void deleteFiles( List< File > files ) {
+            for( File file : files ) {
+                file.delete();
+            }
+        }
+
+        private void finish() {
+            if( _root.exists() && _retries < MAX_RETRIES ) {
+                _retries++;
+                start();
+            } else {
+                _done.countDown();
+            }
+        }
+
+        /**
+         * A directory being removed, deleted once its entries and subdirectories are.
+         */
+        private class Directory {
+            private final File _file;
+            private final Directory _parent;
+            /** The tasks left for this directory: its listing, its file tasks and its subdirectories. */
+            private final AtomicInteger _remaining = new AtomicInteger( 1 );
+
+            Directory( File file, Directory parent ) {
+                _file = file;
+                _parent = parent;
+            }
+
+            void complete() {
+                if( _remaining.decrementAndGet() == 0 ) {
+                    _file.delete();
+                    if( _parent != null ) {
+                        _parent.complete();
+                    } else {
+                        finish();
+                    }
+                }
+            }
+        }
+    }
+}
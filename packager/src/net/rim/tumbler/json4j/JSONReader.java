@@ -0,0 +1,253 @@
+/*
+ * PhoneGap is available under *either* the terms of the modified BSD license *or* the
+ * MIT License (2008). See http://www.phonegap.com/about/license/ for full text.
+ *
+ * Copyright (c) 2011, IBM Corporation
+ */
+
+package net.rim.tumbler.json4j;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import net.rim.tumbler.json4j.internal.Token;
+import net.rim.tumbler.json4j.internal.Tokenizer;
+
+/**
+ * This class implements a JSONReader, the reading counterpart of JSONWriter. It walks the token stream in document order so that
+ * callers can bind values straight to their own objects without building an intermediate JSONObject or JSONArray tree.
+ *
+ * <pre>
+ *     reader.beginObject();
+ *     while( reader.hasNext() ) {
+ *         String key = reader.nextKey();
+ *         if( key.equals( "id" ) ) {
+ *             id = reader.nextString();
+ *         } else {
+ *             reader.skipValue();
+ *         }
+ *     }
+ *     reader.endObject();
+ * </pre>
+ */
+public class JSONReader {
+
+    /**
+     * The tokenizer reading the underlying JSON stream.
+     */
+    private Tokenizer tokenizer;
+
+    /**
+     * The token at the current reader position.
+     */
+    private Token lastToken;
+
+    /**
+     * Constructor. Same as JSONReader(reader, false).
+     *
+     * @param reader
+     *            The Reader to read the JSON stream from. The reader is not closed by this class.
+     * @throws JSONException
+     *             Thrown if an error occurs reading the first token.
+     */
+    public JSONReader( Reader reader ) throws JSONException {
+        this( reader, false );
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param reader
+     *            The Reader to read the JSON stream from. The reader is not closed by this class.
+     * @param strict
+     *            Whether or not unquoted strings and comments are rejected.
+     * @throws JSONException
+     *             Thrown if an error occurs reading the first token.
+     */
+    public JSONReader( Reader reader, boolean strict ) throws JSONException {
+        try {
+            this.tokenizer = new Tokenizer( reader, strict );
+            this.lastToken = tokenizer.next();
+        } catch( IOException iox ) {
+            throw readError( iox );
+        }
+    }
+
+    /**
+     * Method to consume the '{' opening a JSON object.
+     *
+     * @throws JSONException
+     *             Thrown if the current value is not an object.
+     */
+    public void beginObject() throws JSONException {
+        expect( Token.TokenBraceL, "'{'" );
+    }
+
+    /**
+     * Method to consume the '}' closing the current JSON object.
+     *
+     * @throws JSONException
+     *             Thrown if the object has remaining members.
+     */
+    public void endObject() throws JSONException {
+        expect( Token.TokenBraceR, "'}'" );
+        skipComma();
+    }
+
+    /**
+     * Method to consume the '[' opening a JSON array.
+     *
+     * @throws JSONException
+     *             Thrown if the current value is not an array.
+     */
+    public void beginArray() throws JSONException {
+        expect( Token.TokenBrackL, "'['" );
+    }
+
+    /**
+     * Method to consume the ']' closing the current JSON array.
+     *
+     * @throws JSONException
+     *             Thrown if the array has remaining elements.
+     */
+    public void endArray() throws JSONException {
+        expect( Token.TokenBrackR, "']'" );
+        skipComma();
+    }
+
+    /**
+     * Method to indicate whether the current object or array has another member.
+     */
+    public boolean hasNext() {
+        return lastToken != Token.TokenBraceR && lastToken != Token.TokenBrackR && lastToken != Token.TokenEOF;
+    }
+
+    /**
+     * Method to indicate whether the current value is the JSON null.
+     */
+    public boolean isNull() {
+        return lastToken == Token.TokenNull;
+    }
+
+    /**
+     * Method to read the key of the next object member, consuming the following colon.
+     *
+     * @throws JSONException
+     *             Thrown if the reader is not positioned on a key.
+     */
+    public String nextKey() throws JSONException {
+        if( !lastToken.isString() ) {
+            throw new JSONException( "Expecting string key " + tokenizer.onLineCol() );
+        }
+        String key = lastToken.getString();
+        advance();
+        expect( Token.TokenColon, "colon" );
+        return key;
+    }
+
+    /**
+     * Method to read a string value. A JSON null is returned as null.
+     *
+     * @throws JSONException
+     *             Thrown if the current value is not a string or null.
+     */
+    public String nextString() throws JSONException {
+        String result;
+        if( lastToken == Token.TokenNull ) {
+            result = null;
+        } else if( lastToken.isString() ) {
+            result = lastToken.getString();
+        } else {
+            throw new JSONException( "Expecting string value " + tokenizer.onLineCol() );
+        }
+        advance();
+        skipComma();
+        return result;
+    }
+
+    /**
+     * Method to read a boolean value.
+     *
+     * @throws JSONException
+     *             Thrown if the current value is not a boolean.
+     */
+    public boolean nextBoolean() throws JSONException {
+        boolean result;
+        if( lastToken == Token.TokenTrue ) {
+            result = true;
+        } else if( lastToken == Token.TokenFalse ) {
+            result = false;
+        } else {
+            throw new JSONException( "Expecting boolean value " + tokenizer.onLineCol() );
+        }
+        advance();
+        skipComma();
+        return result;
+    }
+
+    /**
+     * Method to read a number value, as one of the Number subclasses produced by the tokenizer.
+     *
+     * @throws JSONException
+     *             Thrown if the current value is not a number.
+     */
+    public Object nextNumber() throws JSONException {
+        if( !lastToken.isNumber() ) {
+            throw new JSONException( "Expecting number value " + tokenizer.onLineCol() );
+        }
+        Object result = lastToken.getNumber();
+        advance();
+        skipComma();
+        return result;
+    }
+
+    /**
+     * Method to skip the current value, including any nested objects and arrays.
+     *
+     * @throws JSONException
+     *             Thrown if the stream ends before the value does.
+     */
+    public void skipValue() throws JSONException {
+        int depth = 0;
+        do {
+            if( lastToken == Token.TokenEOF ) {
+                throw new JSONException( "Expecting property value " + tokenizer.onLineCol() );
+            }
+            if( lastToken == Token.TokenBraceL || lastToken == Token.TokenBrackL ) {
+                depth++;
+            } else if( lastToken == Token.TokenBraceR || lastToken == Token.TokenBrackR ) {
+                depth--;
+            }
+            advance();
+        } while( depth > 0 );
+        skipComma();
+    }
+
+    private void expect( Token token, String description ) throws JSONException {
+        if( lastToken != token ) {
+            throw new JSONException( "Expecting " + description + " " + tokenizer.onLineCol() + " instead, obtained token: '"
+                    + lastToken + "'" );
+        }
+        advance();
+    }
+
+    private void skipComma() throws JSONException {
+        if( lastToken == Token.TokenComma ) {
+            advance();
+        }
+    }
+
+    private void advance() throws JSONException {
+        try {
+            lastToken = tokenizer.next();
+        } catch( IOException iox ) {
+            throw readError( iox );
+        }
+    }
+
+    private static JSONException readError( IOException iox ) {
+        JSONException jex = new JSONException( "Error occurred during input read." );
+        jex.setCause( iox );
+        return jex;
+    }
+}
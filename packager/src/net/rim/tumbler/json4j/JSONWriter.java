@@ -8,21 +8,61 @@
 package net.rim.tumbler.json4j;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
-import java.util.Stack;
 
+import net.rim.tumbler.json4j.internal.JSON4JBufferPool;
 import net.rim.tumbler.json4j.internal.NumberUtil;
 
 /**
  * This class implements a JSONWrier, a convenience function for writing out JSON to a writer or underlying stream.
+ * <p>
+ * By default every token is passed straight to the supplied writer. In buffered mode the output is collected in a pooled char
+ * buffer and handed to the writer in large chunks, and when constructed on an OutputStream the output is encoded as UTF-8 into
+ * a pooled byte buffer. Buffers are returned to the pool when the writer is closed.
  */
 public class JSONWriter {
 
+    /**
+     * Closure code for an open JSON object on the nesting stack.
+     */
+    private static final int OBJECT = 1;
+
+    /**
+     * Closure code for an open JSON array on the nesting stack.
+     */
+    private static final int ARRAY = 2;
+
     /**
      * The writer to use to output JSON in a semi-streaming fashion.
      */
     protected Writer writer = null;
 
+    /**
+     * The stream to encode UTF-8 output to, when not writing to a writer.
+     */
+    private OutputStream stream = null;
+
+    /**
+     * Pooled buffer used in buffered writer mode, or null if writing directly to the writer.
+     */
+    private char[] charBuf = null;
+
+    /**
+     * Pooled buffer used in stream mode.
+     */
+    private byte[] byteBuf = null;
+
+    /**
+     * Number of chars or bytes pending in the active buffer.
+     */
+    private int count = 0;
+
+    /**
+     * A high surrogate waiting for its low surrogate in stream mode, or 0 if none.
+     */
+    private char pendingSurrogate = 0;
+
     /**
      * Flag to denote that the writer is in an object.
      */
@@ -45,9 +85,14 @@ public class JSONWriter {
     private boolean firstEntry = false;
 
     /**
-     * A stack to keep track of all the closures.
+     * A stack of OBJECT/ARRAY codes to keep track of all the closures.
      */
-    private Stack closures = null;
+    private int[] closures = new int[ 16 ];
+
+    /**
+     * The number of open closures on the stack.
+     */
+    private int depth = 0;
 
     /**
      * Flag used to check the state of this writer, if it has been closed, all operations will throw an IllegalStateException.
@@ -63,15 +108,44 @@ public class JSONWriter {
      *             Thrown if writer is null.
      */
     public JSONWriter( Writer writer ) throws NullPointerException {
-        // Try to avoid double-buffering or buffering in-memory writers.
-        Class writerClass = writer.getClass();
-        // if (!StringWriter.class.isAssignableFrom(writerClass) &&
-        // !CharArrayWriter.class.isAssignableFrom(writerClass) &&
-        // !BufferedWriter.class.isAssignableFrom(writerClass)) {
-        // writer = new BufferedWriter(writer);
-        // }
+        this( writer, false );
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param writer
+     *            The writer to use to do 'streaming' JSON writing.
+     * @param buffered
+     *            If true, output is collected in a pooled buffer and written to the writer in large chunks. Do not set this for
+     *            writers that already buffer in memory.
+     * @throws NullPointerException
+     *             Thrown if writer is null.
+     */
+    public JSONWriter( Writer writer, boolean buffered ) throws NullPointerException {
+        if( writer == null ) {
+            throw new NullPointerException( "Writer cannot be null" );
+        }
         this.writer = writer;
-        this.closures = new Stack();
+        if( buffered ) {
+            this.charBuf = JSON4JBufferPool.allocChars();
+        }
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param stream
+     *            The stream to write UTF-8 encoded JSON to. Output is collected in a pooled buffer and written in large chunks.
+     * @throws NullPointerException
+     *             Thrown if stream is null.
+     */
+    public JSONWriter( OutputStream stream ) throws NullPointerException {
+        if( stream == null ) {
+            throw new NullPointerException( "Stream cannot be null" );
+        }
+        this.stream = stream;
+        this.byteBuf = JSON4JBufferPool.allocBytes();
     }
 
     /**
@@ -94,15 +168,15 @@ public class JSONWriter {
             }
         } else if( inArray ) {
             if( !firstEntry ) {
-                writer.write( "," );
+                write( "," );
             }
         }
-        writer.write( "[" );
+        write( "[" );
         inArray = true;
         inObject = false;
         keyPlaced = false;
         firstEntry = true;
-        closures.push( "]" );
+        pushClosure( ARRAY );
         return this;
     }
 
@@ -122,11 +196,10 @@ public class JSONWriter {
         if( !inArray ) {
             throw new IllegalStateException( "Current writer position is not within a JSON array" );
         } else {
-            writer.write( ( (String) closures.pop() ) );
+            write( closure( popClosure() ) );
             // Set our current positional/control state.
-            if( !closures.isEmpty() ) {
-                String nextClosure = (String) closures.peek();
-                if( nextClosure.equals( "}" ) ) {
+            if( depth > 0 ) {
+                if( closures[ depth - 1 ] == OBJECT ) {
                     inObject = true;
                     inArray = false;
                 } else {
@@ -163,11 +236,10 @@ public class JSONWriter {
                 throw new IllegalStateException(
                         "Current writer position in an object and has a key placed, but no value has been assigned to the key.  Cannot end." );
             } else {
-                writer.write( (String) closures.pop() );
+                write( closure( popClosure() ) );
                 // Set our current positional/control state.
-                if( !closures.isEmpty() ) {
-                    String nextClosure = (String) closures.peek();
-                    if( nextClosure.equals( "}" ) ) {
+                if( depth > 0 ) {
+                    if( closures[ depth - 1 ] == OBJECT ) {
                         inObject = true;
                         inArray = false;
                     } else {
@@ -208,11 +280,11 @@ public class JSONWriter {
                     if( firstEntry ) {
                         firstEntry = false;
                     } else {
-                        writer.write( "," );
+                        write( "," );
                     }
                     keyPlaced = true;
                     writeString( s );
-                    writer.write( ":" );
+                    write( ":" );
                 } else {
                     throw new IllegalStateException(
                             "Current writer position is inside a JSON Object an with an open key waiting for a value.  Another key cannot be placed." );
@@ -242,15 +314,15 @@ public class JSONWriter {
             }
         } else if( inArray ) {
             if( !firstEntry ) {
-                writer.write( "," );
+                write( "," );
             }
         }
-        writer.write( "{" );
+        write( "{" );
         inObject = true;
         inArray = false;
         keyPlaced = false;
         firstEntry = true;
-        closures.push( "}" );
+        pushClosure( OBJECT );
         return this;
     }
 
@@ -271,19 +343,19 @@ public class JSONWriter {
             if( firstEntry ) {
                 firstEntry = false;
             } else {
-                writer.write( "," );
+                write( "," );
             }
             if( b )
-                writer.write( "true" );
+                write( "true" );
             else
-                writer.write( "false" );
+                write( "false" );
 
         } else if( inObject ) {
             if( keyPlaced ) {
                 if( b )
-                    writer.write( "true" );
+                    write( "true" );
                 else
-                    writer.write( "false" );
+                    write( "false" );
                 keyPlaced = false;
             } else {
                 throw new IllegalStateException(
@@ -314,12 +386,12 @@ public class JSONWriter {
             if( firstEntry ) {
                 firstEntry = false;
             } else {
-                writer.write( "," );
+                write( "," );
             }
-            writer.write( Double.toString( d ) );
+            write( Double.toString( d ) );
         } else if( inObject ) {
             if( keyPlaced ) {
-                writer.write( Double.toString( d ) );
+                write( Double.toString( d ) );
                 keyPlaced = false;
             } else {
                 throw new IllegalStateException(
@@ -350,12 +422,12 @@ public class JSONWriter {
             if( firstEntry ) {
                 firstEntry = false;
             } else {
-                writer.write( "," );
+                write( "," );
             }
-            writer.write( Long.toString( l ) );
+            write( Long.toString( l ) );
         } else if( inObject ) {
             if( keyPlaced ) {
-                writer.write( Long.toString( l ) );
+                write( Long.toString( l ) );
                 keyPlaced = false;
             } else {
                 throw new IllegalStateException(
@@ -386,12 +458,12 @@ public class JSONWriter {
             if( firstEntry ) {
                 firstEntry = false;
             } else {
-                writer.write( "," );
+                write( "," );
             }
-            writer.write( Integer.toString( i ) );
+            write( Integer.toString( i ) );
         } else if( inObject ) {
             if( keyPlaced ) {
-                writer.write( Integer.toString( i ) );
+                write( Integer.toString( i ) );
                 keyPlaced = false;
             } else {
                 throw new IllegalStateException(
@@ -422,12 +494,12 @@ public class JSONWriter {
             if( firstEntry ) {
                 firstEntry = false;
             } else {
-                writer.write( "," );
+                write( "," );
             }
-            writer.write( Integer.toString( s ) );
+            write( Integer.toString( s ) );
         } else if( inObject ) {
             if( keyPlaced ) {
-                writer.write( Integer.toString( s ) );
+                write( Integer.toString( s ) );
                 keyPlaced = false;
             } else {
                 throw new IllegalStateException(
@@ -458,7 +530,7 @@ public class JSONWriter {
             if( firstEntry ) {
                 firstEntry = false;
             } else {
-                writer.write( "," );
+                write( "," );
             }
             writeObject( o );
         } else if( inObject ) {
@@ -489,12 +561,19 @@ public class JSONWriter {
             if( inObject && keyPlaced ) {
                 throw new IllegalStateException( "Object has key without value.  Cannot close." );
             } else {
-                while( !closures.isEmpty() ) {
-                    writer.write( (String) closures.pop() );
+                while( depth > 0 ) {
+                    write( closure( popClosure() ) );
+                }
+                flushBuffer();
+                if( stream != null ) {
+                    stream.flush();
+                    stream.close();
+                } else {
+                    writer.flush();
+                    writer.close();
                 }
-                writer.flush();
-                writer.close();
                 closed = true;
+                releaseBuffers();
             }
         }
     }
@@ -505,10 +584,162 @@ public class JSONWriter {
      * @return A reference to this writer.
      */
     public JSONWriter flush() throws IOException {
-        writer.flush();
+        flushBuffer();
+        if( stream != null ) {
+            stream.flush();
+        } else {
+            writer.flush();
+        }
         return this;
     }
 
+    /**
+     * Method to write the pending contents of the active buffer, if any, to the underlying writer or stream.
+     * 
+     * @throws IOException
+     *             Thrown if an error occurs during write.
+     */
+    private void flushBuffer() throws IOException {
+        if( count > 0 ) {
+            if( byteBuf != null ) {
+                stream.write( byteBuf, 0, count );
+            } else if( charBuf != null ) {
+                writer.write( charBuf, 0, count );
+            }
+            count = 0;
+        }
+    }
+
+    /**
+     * Method to hand the pooled buffers back for reuse once this writer is closed.
+     */
+    private void releaseBuffers() {
+        if( charBuf != null ) {
+            JSON4JBufferPool.releaseChars( charBuf );
+            charBuf = null;
+        }
+        if( byteBuf != null ) {
+            JSON4JBufferPool.releaseBytes( byteBuf );
+            byteBuf = null;
+        }
+    }
+
+    /**
+     * Method to push a closure code onto the nesting stack, growing it if required.
+     */
+    private void pushClosure( int code ) {
+        if( depth == closures.length ) {
+            int[] grown = new int[ depth * 2 ];
+            System.arraycopy( closures, 0, grown, 0, depth );
+            closures = grown;
+        }
+        closures[ depth++ ] = code;
+    }
+
+    /**
+     * Method to pop the innermost closure code off the nesting stack.
+     */
+    private int popClosure() {
+        return closures[ --depth ];
+    }
+
+    /**
+     * Method to map a closure code to its closing character.
+     */
+    private static char closure( int code ) {
+        return code == OBJECT ? '}' : ']';
+    }
+
+    /**
+     * Method to write a string to the active buffer, or straight to the writer when unbuffered.
+     * 
+     * @throws IOException
+     *             Thrown if an error occurs during write.
+     */
+    private void write( String s ) throws IOException {
+        if( byteBuf != null ) {
+            for( int i = 0, len = s.length(); i < len; i++ ) {
+                encode( s.charAt( i ) );
+            }
+        } else if( charBuf != null ) {
+            int len = s.length();
+            int off = 0;
+            while( off < len ) {
+                if( count == charBuf.length ) {
+                    flushBuffer();
+                }
+                int n = Math.min( len - off, charBuf.length - count );
+                s.getChars( off, off + n, charBuf, count );
+                count += n;
+                off += n;
+            }
+        } else {
+            writer.write( s );
+        }
+    }
+
+    /**
+     * Method to write a single char to the active buffer, or straight to the writer when unbuffered.
+     * 
+     * @throws IOException
+     *             Thrown if an error occurs during write.
+     */
+    private void write( char c ) throws IOException {
+        if( byteBuf != null ) {
+            encode( c );
+        } else if( charBuf != null ) {
+            if( count == charBuf.length ) {
+                flushBuffer();
+            }
+            charBuf[ count++ ] = c;
+        } else {
+            writer.write( c );
+        }
+    }
+
+    /**
+     * Method to encode a char as UTF-8 into the byte buffer. Surrogate pairs are combined into a single four byte sequence;
+     * unpaired surrogates are replaced with '?'.
+     * 
+     * @throws IOException
+     *             Thrown if an error occurs while flushing the buffer.
+     */
+    private void encode( char c ) throws IOException {
+        if( byteBuf.length - count < 4 ) {
+            flushBuffer();
+        }
+        byte[] b = byteBuf;
+        if( pendingSurrogate != 0 ) {
+            char high = pendingSurrogate;
+            pendingSurrogate = 0;
+            if( Character.isLowSurrogate( c ) ) {
+                int cp = Character.toCodePoint( high, c );
+                b[ count++ ] = (byte) ( 0xF0 | ( cp >> 18 ) );
+                b[ count++ ] = (byte) ( 0x80 | ( ( cp >> 12 ) & 0x3F ) );
+                b[ count++ ] = (byte) ( 0x80 | ( ( cp >> 6 ) & 0x3F ) );
+                b[ count++ ] = (byte) ( 0x80 | ( cp & 0x3F ) );
+                return;
+            }
+            b[ count++ ] = (byte) '?';
+            encode( c );
+            return;
+        }
+        if( c < 0x80 ) {
+            b[ count++ ] = (byte) c;
+        } else if( c < 0x800 ) {
+            b[ count++ ] = (byte) ( 0xC0 | ( c >> 6 ) );
+            b[ count++ ] = (byte) ( 0x80 | ( c & 0x3F ) );
+        } else if( Character.isHighSurrogate( c ) ) {
+            pendingSurrogate = c;
+        } else if( Character.isLowSurrogate( c ) ) {
+            b[ count++ ] = (byte) '?';
+        } else {
+            b[ count++ ] = (byte) ( 0xE0 | ( c >> 12 ) );
+            b[ count++ ] = (byte) ( 0x80 | ( ( c >> 6 ) & 0x3F ) );
+            b[ count++ ] = (byte) ( 0x80 | ( c & 0x3F ) );
+        }
+    }
+
     /**
      * Method to write a String out to the writer, encoding special characters and unicode characters properly.
      * 
@@ -518,48 +749,48 @@ public class JSONWriter {
      *             Thrown if an error occurs during write.
      */
     private void writeString( String value ) throws IOException {
-        writer.write( '"' );
+        write( '"' );
         char[] chars = value.toCharArray();
         for( int i = 0; i < chars.length; i++ ) {
             char c = chars[ i ];
             switch( c ) {
                 case '"':
-                    writer.write( "\\\"" );
+                    write( "\\\"" );
                     break;
                 case '\\':
-                    writer.write( "\\\\" );
+                    write( "\\\\" );
                     break;
                 case 0:
-                    writer.write( "\\0" );
+                    write( "\\0" );
                     break;
                 case '\b':
-                    writer.write( "\\b" );
+                    write( "\\b" );
                     break;
                 case '\t':
-                    writer.write( "\\t" );
+                    write( "\\t" );
                     break;
                 case '\n':
-                    writer.write( "\\n" );
+                    write( "\\n" );
                     break;
                 case '\f':
-                    writer.write( "\\f" );
+                    write( "\\f" );
                     break;
                 case '\r':
-                    writer.write( "\\r" );
+                    write( "\\r" );
                     break;
                 case '/':
-                    writer.write( "\\/" );
+                    write( "\\/" );
                     break;
                 default:
                     if( ( c >= 32 ) && ( c <= 126 ) ) {
-                        writer.write( c );
+                        write( c );
                     } else {
-                        writer.write( "\\u" );
-                        writer.write( rightAlignedZero( Integer.toHexString( c ), 4 ) );
+                        write( "\\u" );
+                        write( rightAlignedZero( Integer.toHexString( c ), 4 ) );
                     }
             }
         }
-        writer.write( '"' );
+        write( '"' );
     }
 
     /**
@@ -616,7 +847,7 @@ public class JSONWriter {
                 writeNull();
             }
         }
-        writer.write( value.toString() );
+        write( value.toString() );
     }
 
     /**
@@ -636,15 +867,15 @@ public class JSONWriter {
         } else {
             Class clazz = o.getClass();
             if( JSONArtifact.class.isAssignableFrom( clazz ) ) {
-                writer.write( ( (JSONArtifact) o ).toString() );
+                write( ( (JSONArtifact) o ).toString() );
             } else if( NumberUtil.isNumber( clazz ) ) {
                 writeNumber( o );
             } else if( Boolean.class.isAssignableFrom( clazz ) ) {
-                writer.write( ( (Boolean) o ).toString() );
+                write( ( (Boolean) o ).toString() );
             } else if( String.class.isAssignableFrom( clazz ) ) {
                 writeString( (String) o );
             } else if( JSONString.class.isAssignableFrom( clazz ) ) {
-                writer.write( ( (JSONString) o ).toJSONString() );
+                write( ( (JSONString) o ).toJSONString() );
             }// else {
              // // Unknown type, we'll just try to serialize it like a Java Bean.
              // writer.write(BeanSerializer.toJson(o, true).write());
@@ -659,6 +890,6 @@ public class JSONWriter {
      *             Thrown if an error occurs during write.
      */
     private void writeNull() throws IOException {
-        writer.write( "null" );
+        write( "null" );
     }
 }
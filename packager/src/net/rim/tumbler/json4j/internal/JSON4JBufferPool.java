@@ -0,0 +1,70 @@
+/*
+ * PhoneGap is available under *either* the terms of the modified BSD license *or* the
+ * MIT License (2008). See http://www.phonegap.com/about/license/ for full text.
+ *
+ * Copyright (c) 2011, IBM Corporation
+ */
+
+package net.rim.tumbler.json4j.internal;
+
+/**
+ * Internal class that recycles the output buffers used by the buffered JSONWriter modes. Each thread keeps at most one char
+ * buffer and one byte buffer; a buffer that is in use is removed from the pool until it is released, so nested writers on the
+ * same thread simply allocate a fresh one.
+ */
+public class JSON4JBufferPool {
+
+    /**
+     * The size, in chars or bytes, of the buffers handed out by this pool.
+     */
+    public static final int BUF_SIZE = 16384;
+
+    private static final ThreadLocal< char[] > _charBuffers = new ThreadLocal< char[] >();
+
+    private static final ThreadLocal< byte[] > _byteBuffers = new ThreadLocal< byte[] >();
+
+    private JSON4JBufferPool() {
+    }
+
+    /**
+     * Method to obtain a char buffer of at least BUF_SIZE chars, reusing the one cached for the current thread if available.
+     */
+    public static char[] allocChars() {
+        char[] buf = _charBuffers.get();
+        if( buf == null ) {
+            return new char[ BUF_SIZE ];
+        }
+        _charBuffers.set( null );
+        return buf;
+    }
+
+    /**
+     * Method to return a char buffer to the pool of the current thread. The caller must not use the buffer afterwards.
+     */
+    public static void releaseChars( char[] buf ) {
+        if( buf != null && buf.length == BUF_SIZE ) {
+            _charBuffers.set( buf );
+        }
+    }
+
+    /**
+     * Method to obtain a byte buffer of at least BUF_SIZE bytes, reusing the one cached for the current thread if available.
+     */
+    public static byte[] allocBytes() {
+        byte[] buf = _byteBuffers.get();
+        if( buf == null ) {
+            return new byte[ BUF_SIZE ];
+        }
+        _byteBuffers.set( null );
+        return buf;
+    }
+
+    /**
+     * Method to return a byte buffer to the pool of the current thread. The caller must not use the buffer afterwards.
+     */
+    public static void releaseBytes( byte[] buf ) {
+        if( buf != null && buf.length == BUF_SIZE ) {
+            _byteBuffers.set( buf );
+        }
+    }
+}
@@ -14,7 +14,10 @@ public class JSON4JPBackReader extends Reader {
 
     private Reader _reader = null;
 
-    private int _lastChar = 0;
+    /**
+     * The character pushed back by unread(), or -1 if none.
+     */
+    private int _pushback = -1;
 
     public JSON4JPBackReader( Reader reader ) {
         _reader = reader;
@@ -25,12 +28,15 @@ public class JSON4JPBackReader extends Reader {
     }
 
     public void unread( int c ) {
+        _pushback = c;
     }
 
     public int read( char[] cbuf, int off, int len ) throws IOException {
-        cbuf[ off ] = (char) _lastChar;
-        _reader.read( cbuf, off + 1, len - 1 );
-        _lastChar = cbuf[ off + len ];
-        return 0;
+        if( _pushback == -1 || len == 0 ) {
+            return _reader.read( cbuf, off, len );
+        }
+        cbuf[ off ] = (char) _pushback;
+        _pushback = -1;
+        return 1;
     }
 }
@@ -32,11 +32,13 @@ public class JSON4JStringWriter extends Writer {
     }
 
     public void write( char[] cbuf, int off, int len ) throws IOException {
-        for( int x = 0; x < len; x++ ) {
-            _buffer[ _mark ] = cbuf[ off + x ];
-            _mark++;
+        if( _mark + len > _buffer.length ) {
+            char[] grown = new char[ Math.max( _buffer.length * 2, _mark + len ) ];
+            System.arraycopy( _buffer, 0, grown, 0, _mark );
+            _buffer = grown;
         }
-        // MSN RESIZE THIS!!!
+        System.arraycopy( cbuf, off, _buffer, _mark, len );
+        _mark += len;
     }
 
     public String toString() {
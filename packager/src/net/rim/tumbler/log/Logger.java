@@ -15,51 +15,266 @@
  */
 package net.rim.tumbler.log;
 
-import java.text.MessageFormat;
-import java.util.Locale;
-import java.util.ResourceBundle;
+import java.util.MissingResourceException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
+import net.rim.tumbler.json4j.JSONObject;
+import net.rim.tumbler.log.Messages.Message;
+
+/**
+ * Logs the messages of the packager to the standard output.
+ * <p>
+ * Messages below the level set with {@link #setLevel(LogType)} are dropped before their text is even looked up; output of
+ * the tools, logged with the type NONE, is always printed. The other messages are handed to a writer thread, so that a
+ * build never waits for the console: the lines are queued without locking and printed in batches, one flush per batch.
+ * The arguments of a message are formatted by the writer too, so they must not change once logged. {@link #flush()} waits
+ * for the lines queued so far to be printed; it also runs when the VM exits.
+ * <p>
+ * Each line can also be printed as a JSON object, with the archive being built and the phase of the build it was logged
+ * in, so that the interleaved lines of a batch can be told apart.
+ */
 public class Logger {
+    /** Lines of text: the type of each message, then the message. */
+    public static final String FORMAT_TEXT = "text";
+    /** JSON lines: one object per message with its time, type, archive, phase and text. */
+    public static final String FORMAT_JSON = "json";
+
+    private static final String LINE_SEPARATOR = System.getProperty( "line.separator" );
+
+    // lines queued at most before the loggers wait for the writer, and characters printed at once
+    private static final int CAPACITY = 8192;
+    private static final int BATCH_SIZE = 64 * 1024;
+
+    private static volatile LogType _level = LogType.INFO;
+    private static volatile boolean _json = false;
 
-    private static final Locale LOCALE_EN_CA = new Locale( "en", "CA" );
+    // the archive and the phase of the build the calling thread runs
+    private static final ThreadLocal< String > _build = new ThreadLocal< String >();
+    private static final ThreadLocal< String > _phase = new ThreadLocal< String >();
 
-    private static ResourceBundle _bundle;
+    // the lines waiting for the writer, counted by _pending
+    private static final Queue< Record > _queue = new ConcurrentLinkedQueue< Record >();
+    private static final AtomicInteger _pending = new AtomicInteger();
+    private static final AtomicLong _queued = new AtomicLong();
+    private static final Object _flushLock = new Object();
+    private static long _written; // guarded by _flushLock
+    private static final Thread _writer;
+
+    /**
+     * A message waiting to be printed.
+     */
+    private static class Record {
+        final long time = System.currentTimeMillis();
+        final LogType type;
+        final Message message;
+        final Object[] args;
+        final String text;
+        final String info;
+        final String build;
+        final String phase;
+
+        Record( LogType type, Message message, Object[] args, String text, String info ) {
+            this.type = type;
+            this.message = message;
+            this.args = args;
+            this.text = text;
+            this.info = info;
+            build = _build.get();
+            phase = _phase.get();
+        }
+    }
 
     static {
-        _bundle = ResourceBundle.getBundle( "net.rim.tumbler.log.resources.MessageBundle", LOCALE_EN_CA );
+        _writer = new Thread( new Runnable() {
+            public void run() {
+                write();
+            }
+        }, "log-writer" );
+        _writer.setDaemon( true );
+        _writer.start();
+
+        Runtime.getRuntime().addShutdownHook( new Thread( new Runnable() {
+            public void run() {
+                flush();
+            }
+        }, "log-flush" ) );
+    }
+
+    /**
+     * Sets the lowest type of the messages printed; INFO by default.
+     */
+    public static void setLevel( LogType level ) {
+        _level = level;
+    }
+
+    /**
+     * Sets how the messages are printed, {@link #FORMAT_TEXT} by default.
+     */
+    public static void setFormat( String format ) {
+        _json = FORMAT_JSON.equals( format );
+    }
+
+    /**
+     * Indicates whether messages of the specified type are printed.
+     */
+    public static boolean isLoggable( LogType logType ) {
+        return logType == LogType.NONE || logType.compareTo( _level ) >= 0;
+    }
+
+    /**
+     * Sets the archive whose build the calling thread runs, or null once it is done.
+     */
+    public static void setBuild( String build ) {
+        _build.set( build );
+    }
+
+    /**
+     * Sets the phase of the build the calling thread is in, or null once it is done.
+     */
+    public static void setPhase( String phase ) {
+        _phase.set( phase );
     }
 
     public static void logMessage( LogType logType, String messageID ) {
-        printMessage( logType, _bundle.getString( messageID ), null );
+        if( isLoggable( logType ) ) {
+            printMessage( logType, null, null, Messages.get( messageID ).getPattern(), null );
+        }
     }
 
     public static void logMessage( LogType logType, Exception exception ) {
-        printMessage( logType, _bundle.getString( exception.getMessage() ), null );
+        if( isLoggable( logType ) ) {
+            printMessage( logType, null, null, Messages.get( exception.getMessage() ).getPattern(), null );
+        }
     }
 
     public static void logMessage( LogType logType, String messageID, String info ) {
-        printMessage( logType, _bundle.getString( messageID ), info );
+        if( isLoggable( logType ) ) {
+            printMessage( logType, null, null, Messages.get( messageID ).getPattern(), info );
+        }
     }
 
     public static void logMessage( LogType logType, String messageID, Object[] info ) {
-        try {
-            String result = MessageFormat.format( _bundle.getString( messageID ), info );
-            printMessage( logType, result, null );
-        } catch( Exception e ) {
-            // if the pattern/args fail - ignore
+        if( isLoggable( logType ) ) {
+            Message message;
+            try {
+                message = Messages.get( messageID );
+            } catch( MissingResourceException mre ) {
+                // if the pattern/args fail - ignore; the format itself is checked when written
+                return;
+            }
+            printMessage( logType, message, info, null, null );
         }
     }
 
+    /**
+     * Prints a line of output from an external tool as is.
+     */
+    public static void logLine( String line ) {
+        printMessage( LogType.NONE, null, null, line, null );
+    }
+
     public static String getResource( String id ) {
-        return _bundle.getString( id );
+        return Messages.get( id ).getPattern();
+    }
+
+    /**
+     * Waits for the messages logged so far, on any thread, to be printed. To be called before printing to the standard
+     * output directly.
+     */
+    public static void flush() {
+        long queued = _queued.get();
+        synchronized( _flushLock ) {
+            while( _written < queued ) {
+                LockSupport.unpark( _writer );
+                try {
+                    _flushLock.wait( 100 );
+                } catch( InterruptedException ie ) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
     }
 
-    private static void printMessage( LogType logType, String message, String info ) {
-        String output = message + ( ( info != null && info.length() > 0 ) ? "(" + info + ")" : "" );
-        if( logType != LogType.NONE ) {
-            System.out.printf( "%-12s\t\t%s\n", "[" + logType.toString() + "]", output );
+    private static void printMessage( LogType logType, Message message, Object[] args, String text, String info ) {
+        // past the capacity, wait for the writer to catch up
+        while( _pending.incrementAndGet() > CAPACITY ) {
+            _pending.decrementAndGet();
+            LockSupport.unpark( _writer );
+            Thread.yield();
+        }
+        _queue.offer( new Record( logType, message, args, text, info ) );
+        _queued.incrementAndGet();
+        LockSupport.unpark( _writer );
+    }
+
+    /**
+     * Prints the queued messages, on the writer thread, as long as the VM runs.
+     */
+    private static void write() {
+        StringBuilder batch = new StringBuilder( BATCH_SIZE );
+        long count = 0;
+        while( true ) {
+            Record record = _queue.poll();
+            if( record != null ) {
+                _pending.decrementAndGet();
+                append( batch, record );
+                count++;
+            }
+            if( record == null || batch.length() >= BATCH_SIZE ) {
+                if( batch.length() > 0 ) {
+                    System.out.print( batch );
+                    System.out.flush();
+                    batch.setLength( 0 );
+                }
+                synchronized( _flushLock ) {
+                    _written += count;
+                    _flushLock.notifyAll();
+                }
+                count = 0;
+                if( record == null ) {
+                    LockSupport.park();
+                }
+            }
+        }
+    }
+
+    private static void append( StringBuilder out, Record record ) {
+        String output;
+        if( record.message != null ) {
+            try {
+                output = record.message.format( record.args );
+            } catch( Exception e ) {
+                // if the pattern/args fail - ignore
+                return;
+            }
+        } else {
+            output = record.text + ( ( record.info != null && record.info.length() > 0 ) ? "(" + record.info + ")" : "" );
+        }
+        if( _json ) {
+            out.append( "{\"time\":" ).append( record.time );
+            out.append( ",\"type\":" ).append( JSONObject.quote( record.type.toString() ) );
+            if( record.build != null ) {
+                out.append( ",\"build\":" ).append( JSONObject.quote( record.build ) );
+            }
+            if( record.phase != null ) {
+                out.append( ",\"phase\":" ).append( JSONObject.quote( record.phase ) );
+            }
+            out.append( ",\"message\":" ).append( JSONObject.quote( output ) ).append( "}" ).append( LINE_SEPARATOR );
+        } else if( record.type != LogType.NONE ) {
+            // as "%-12s\t\t%s\n"
+            int start = out.length();
+            out.append( '[' ).append( record.type.toString() ).append( ']' );
+            while( out.length() - start < 12 ) {
+                out.append( ' ' );
+            }
+            out.append( "\t\t" ).append( output ).append( '\n' );
         } else {
-            System.out.println( output );
+            out.append( output ).append( LINE_SEPARATOR );
         }
     }
 }
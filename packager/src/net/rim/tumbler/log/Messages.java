@@ -0,0 +1,95 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.log;
+
+import java.text.MessageFormat;
+import java.util.Locale;
+import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The messages of the packager, by ID. The bundle is only loaded when the first message is looked up, and each message is
+ * compiled once, when first used: a message with arguments keeps its parsed format, the others their text.
+ */
+final class Messages {
+    private static final Locale LOCALE_EN_CA = new Locale( "en", "CA" );
+
+    private static final ConcurrentMap< String, Message > _messages = new ConcurrentHashMap< String, Message >();
+
+    /**
+     * Holds the bundle, loaded on first use.
+     */
+    private static class Bundle {
+        static final ResourceBundle INSTANCE = ResourceBundle.getBundle( "net.rim.tumbler.log.resources.MessageBundle",
+                LOCALE_EN_CA );
+    }
+
+    /**
+     * A message, compiled.
+     */
+    static final class Message {
+        private final String _pattern;
+        private final MessageFormat _format;
+
+        private Message( String pattern ) {
+            _pattern = pattern;
+            MessageFormat format = null;
+            try {
+                format = pattern.indexOf( '{' ) >= 0 ? new MessageFormat( pattern ) : null;
+            } catch( IllegalArgumentException iae ) {
+                // not a pattern - printed as is
+            }
+            _format = format;
+        }
+
+        String getPattern() {
+            return _pattern;
+        }
+
+        /**
+         * Formats the message with the specified arguments; a message without arguments is its pattern, as is.
+         */
+        String format( Object[] args ) {
+            if( _format == null ) {
+                return _pattern;
+            }
+            // a format is not thread safe, each message formats with its own copy
+            return ( (MessageFormat) _format.clone() ).format( args );
+        }
+    }
+
+    private Messages() {
+    }
+
+    /**
+     * Returns the message of the specified ID.
+     *
+     * @throws java.util.MissingResourceException
+     *             if there is no such message.
+     */
+    static Message get( String id ) {
+        Message message = _messages.get( id );
+        if( message == null ) {
+            message = new Message( Bundle.INSTANCE.getString( id ) );
+            Message previous = _messages.putIfAbsent( id, message );
+            if( previous != null ) {
+                message = previous;
+            }
+        }
+        return message;
+    }
+}
@@ -0,0 +1,408 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.metrics;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.rim.tumbler.json4j.JSONException;
+import net.rim.tumbler.json4j.JSONWriter;
+import net.rim.tumbler.log.Logger;
+
+/**
+ * Collects timing and volume metrics of a packaging run: the start and end of every phase, counters such as the number of
+ * files and bytes extracted, and the wall and CPU time of every subprocess.
+ * <p>
+ * Metrics are off unless {@link #createInstance()} is called. All recording methods are static and return immediately while
+ * metrics are off, so instrumented code does not need to check {@link #isEnabled()} first.
+ */
+public class BuildMetrics {
+    public static final String FILES_EXTRACTED = "files_extracted";
+    public static final String BYTES_EXTRACTED = "bytes_extracted";
+    public static final String TEMPLATES_WRITTEN = "templates_written";
+    public static final String TEMPLATE_BYTES = "template_bytes";
+    public static final String EXTENSIONS_COPIED = "extensions_copied";
+    public static final String EXTENSION_FILES_COPIED = "extension_files_copied";
+
+    private static final String PROMETHEUS_PREFIX = "bbwp_";
+    private static final File PROC_SELF_STAT = new File( "/proc/self/stat" );
+    private static final long NANOS_PER_CLOCK_TICK = 10000000L; // USER_HZ is 100 on Linux
+
+    private static BuildMetrics _instance = null;
+
+    private long _startMillis;
+    private long _startNanos;
+    private long _endNanos;
+    private int _result;
+    private List< Phase > _phases;
+    // the current phase of each thread running a build, one per archive of a batch
+    private Map< Thread, Phase > _currentPhases;
+    private Map< String, Long > _counters;
+    private List< Subprocess > _subprocesses;
+    private List< List< String >> _criticalPaths;
+
+    /**
+     * The start and end, in nanoseconds since the start of the run, of one phase.
+     */
+    private static class Phase {
+        String name;
+        long start;
+        long end = -1;
+    }
+
+    /**
+     * A running or completed subprocess, as returned by {@link BuildMetrics#startSubprocess(String)}.
+     */
+    public static class Subprocess {
+        String tool;
+        long start;
+        long childCpuAtStart;
+        long wallNanos = -1;
+        long cpuNanos = -1;
+        int exitValue;
+        String exitReason;
+    }
+
+    private BuildMetrics() {
+        _startMillis = System.currentTimeMillis();
+        _startNanos = System.nanoTime();
+        _endNanos = -1;
+        _phases = new ArrayList< Phase >();
+        _currentPhases = new HashMap< Thread, Phase >();
+        _counters = new LinkedHashMap< String, Long >();
+        _subprocesses = new ArrayList< Subprocess >();
+        _criticalPaths = new ArrayList< List< String >>();
+    }
+
+    /**
+     * Turns metrics on for the rest of the run.
+     */
+    public static void createInstance() {
+        _instance = new BuildMetrics();
+    }
+
+    public static BuildMetrics getInstance() {
+        return _instance;
+    }
+
+    public static boolean isEnabled() {
+        return _instance != null;
+    }
+
+    /**
+     * Starts the specified phase, ending the current one of the calling thread if any. The messages logged by the thread are
+     * attributed to the phase, with or without metrics.
+     */
+    public static void startPhase( String name ) {
+        Logger.setPhase( name );
+        BuildMetrics metrics = _instance;
+        if( metrics != null ) {
+            metrics.doStartPhase( name );
+        }
+    }
+
+    /**
+     * Ends the current phase of the calling thread, once the build it runs is complete.
+     */
+    public static void endPhase() {
+        Logger.setPhase( null );
+        BuildMetrics metrics = _instance;
+        if( metrics != null ) {
+            metrics.doEndPhase();
+        }
+    }
+
+    /**
+     * Records the phases on the critical path of a build, in the order they ran; one path per archive of a batch.
+     */
+    public static void addCriticalPath( List< String > phases ) {
+        BuildMetrics metrics = _instance;
+        if( metrics != null ) {
+            metrics.doAddCriticalPath( phases );
+        }
+    }
+
+    /**
+     * Ends the current phases and the run, recording the specified return code.
+     */
+    public static void finish( int result ) {
+        BuildMetrics metrics = _instance;
+        if( metrics != null ) {
+            metrics.doFinish( result );
+        }
+    }
+
+    /**
+     * Adds the specified amount to a counter.
+     */
+    public static void count( String counter, long delta ) {
+        BuildMetrics metrics = _instance;
+        if( metrics != null ) {
+            metrics.doCount( counter, delta );
+        }
+    }
+
+    /**
+     * Marks the start of a subprocess, to be passed to {@link #endSubprocess(Subprocess, int, String)} once it has ended.
+     * Returns null while metrics are off.
+     */
+    public static Subprocess startSubprocess( String tool ) {
+        BuildMetrics metrics = _instance;
+        if( metrics == null ) {
+            return null;
+        }
+        Subprocess subprocess = new Subprocess();
+        subprocess.tool = tool;
+        subprocess.childCpuAtStart = readChildCpuNanos();
+        subprocess.start = System.nanoTime();
+        return subprocess;
+    }
+
+    /**
+     * Records how a subprocess ended, with its wall time and CPU time. The CPU time is read from the kernel's accounting of
+     * the children reaped by this process (Linux only, -1 elsewhere), so it is only exact while one subprocess runs at a time.
+     */
+    public static void endSubprocess( Subprocess subprocess, int exitValue, String exitReason ) {
+        BuildMetrics metrics = _instance;
+        if( metrics != null && subprocess != null ) {
+            subprocess.wallNanos = System.nanoTime() - subprocess.start;
+            long childCpu = readChildCpuNanos();
+            if( childCpu >= 0 && subprocess.childCpuAtStart >= 0 ) {
+                subprocess.cpuNanos = childCpu - subprocess.childCpuAtStart;
+            }
+            subprocess.exitValue = exitValue;
+            subprocess.exitReason = exitReason;
+            metrics.doAddSubprocess( subprocess );
+        }
+    }
+
+    private synchronized void doStartPhase( String name ) {
+        long now = System.nanoTime() - _startNanos;
+        Phase phase = new Phase();
+        phase.name = name;
+        phase.start = now;
+        Phase current = _currentPhases.put( Thread.currentThread(), phase );
+        if( current != null ) {
+            current.end = now;
+        }
+        _phases.add( phase );
+    }
+
+    private synchronized void doEndPhase() {
+        Phase current = _currentPhases.remove( Thread.currentThread() );
+        if( current != null ) {
+            current.end = System.nanoTime() - _startNanos;
+        }
+    }
+
+    private synchronized void doFinish( int result ) {
+        _endNanos = System.nanoTime() - _startNanos;
+        for( Phase current : _currentPhases.values() ) {
+            current.end = _endNanos;
+        }
+        _currentPhases.clear();
+        _result = result;
+    }
+
+    private synchronized void doAddCriticalPath( List< String > phases ) {
+        _criticalPaths.add( new ArrayList< String >( phases ) );
+    }
+
+    private synchronized void doCount( String counter, long delta ) {
+        Long value = _counters.get( counter );
+        _counters.put( counter, Long.valueOf( value == null ? delta : value.longValue() + delta ) );
+    }
+
+    private synchronized void doAddSubprocess( Subprocess subprocess ) {
+        _subprocesses.add( subprocess );
+    }
+
+    /**
+     * Returns the value of a counter, 0 if it was never incremented.
+     */
+    public synchronized long getCounter( String counter ) {
+        Long value = _counters.get( counter );
+        return value == null ? 0 : value.longValue();
+    }
+
+    /**
+     * Returns the wall time of every phase in nanoseconds, in the order the phases first started. A phase that ran more than
+     * once, for several archives of a batch, holds the sum of its times.
+     */
+    public synchronized Map< String, Long > getPhaseDurations() {
+        Map< String, Long > phases = new LinkedHashMap< String, Long >();
+        for( Phase phase : _phases ) {
+            sum( phases, phase.name, phase.end - phase.start );
+        }
+        return phases;
+    }
+
+    /**
+     * Returns the wall time of the run in nanoseconds, until now if it is not finished.
+     */
+    public synchronized long getWallTime() {
+        return _endNanos < 0 ? System.nanoTime() - _startNanos : _endNanos;
+    }
+
+    /**
+     * Writes the metrics as a JSON document.
+     */
+    public synchronized void writeJSON( Writer out ) throws IOException, JSONException {
+        JSONWriter writer = new JSONWriter( out );
+        writer.object();
+        writer.key( "startTime" ).value( _startMillis );
+        writer.key( "wallMs" ).value( millis( getWallTime() ) );
+        writer.key( "result" ).value( _result );
+
+        writer.key( "phases" ).array();
+        for( Phase phase : _phases ) {
+            writer.object();
+            writer.key( "name" ).value( phase.name );
+            writer.key( "startMs" ).value( millis( phase.start ) );
+            writer.key( "endMs" ).value( millis( phase.end ) );
+            writer.key( "durationMs" ).value( millis( phase.end - phase.start ) );
+            writer.endObject();
+        }
+        writer.endArray();
+
+        writer.key( "criticalPaths" ).array();
+        for( List< String > path : _criticalPaths ) {
+            writer.array();
+            for( String phase : path ) {
+                writer.value( phase );
+            }
+            writer.endArray();
+        }
+        writer.endArray();
+
+        writer.key( "counters" ).object();
+        for( Map.Entry< String, Long > counter : _counters.entrySet() ) {
+            writer.key( counter.getKey() ).value( counter.getValue().longValue() );
+        }
+        writer.endObject();
+
+        writer.key( "subprocesses" ).array();
+        for( Subprocess subprocess : _subprocesses ) {
+            writer.object();
+            writer.key( "tool" ).value( subprocess.tool );
+            writer.key( "wallMs" ).value( millis( subprocess.wallNanos ) );
+            writer.key( "cpuMs" ).value( subprocess.cpuNanos < 0 ? -1 : millis( subprocess.cpuNanos ) );
+            writer.key( "exitValue" ).value( subprocess.exitValue );
+            writer.key( "exitReason" ).value( subprocess.exitReason );
+            writer.endObject();
+        }
+        writer.endArray();
+
+        writer.endObject();
+        out.flush();
+    }
+
+    /**
+     * Writes the metrics in the Prometheus text exposition format. A phase or tool that ran more than once, for several
+     * archives of a batch or several invocations, is written as one sample holding the sum of its times, as a series may
+     * only appear once.
+     */
+    public synchronized void writePrometheus( Writer out ) throws IOException {
+        Map< String, Long > phases = getPhaseDurations();
+        writeHeader( out, "phase_duration_seconds", "gauge", "Wall time of a packaging phase, summed over the builds." );
+        for( Map.Entry< String, Long > phase : phases.entrySet() ) {
+            writeSample( out, "phase_duration_seconds", "phase", phase.getKey(), seconds( phase.getValue().longValue() ) );
+        }
+
+        for( Map.Entry< String, Long > counter : _counters.entrySet() ) {
+            String name = counter.getKey() + "_total";
+            writeHeader( out, name, "counter", null );
+            writeSample( out, name, null, null, counter.getValue().toString() );
+        }
+
+        Map< String, Long > wall = new LinkedHashMap< String, Long >();
+        Map< String, Long > cpu = new LinkedHashMap< String, Long >();
+        for( Subprocess subprocess : _subprocesses ) {
+            sum( wall, subprocess.tool, subprocess.wallNanos );
+            if( subprocess.cpuNanos >= 0 ) {
+                sum( cpu, subprocess.tool, subprocess.cpuNanos );
+            }
+        }
+        writeHeader( out, "subprocess_wall_seconds", "gauge", "Wall time of the subprocesses of a tool." );
+        for( Map.Entry< String, Long > tool : wall.entrySet() ) {
+            writeSample( out, "subprocess_wall_seconds", "tool", tool.getKey(), seconds( tool.getValue().longValue() ) );
+        }
+        writeHeader( out, "subprocess_cpu_seconds", "gauge", "CPU time of the subprocesses of a tool." );
+        for( Map.Entry< String, Long > tool : cpu.entrySet() ) {
+            writeSample( out, "subprocess_cpu_seconds", "tool", tool.getKey(), seconds( tool.getValue().longValue() ) );
+        }
+        out.flush();
+    }
+
+    private static void sum( Map< String, Long > sums, String key, long nanos ) {
+        Long sum = sums.get( key );
+        sums.put( key, Long.valueOf( sum != null ? sum.longValue() + nanos : nanos ) );
+    }
+
+    private static void writeHeader( Writer out, String name, String type, String help ) throws IOException {
+        if( help != null ) {
+            out.write( "# HELP " + PROMETHEUS_PREFIX + name + " " + help + "\n" );
+        }
+        out.write( "# TYPE " + PROMETHEUS_PREFIX + name + " " + type + "\n" );
+    }
+
+    private static void writeSample( Writer out, String name, String label, String labelValue, String value )
+            throws IOException {
+        out.write( PROMETHEUS_PREFIX + name );
+        if( label != null ) {
+            out.write( "{" + label + "=\"" + labelValue.replace( "\\", "\\\\" ).replace( "\"", "\\\"" ) + "\"}" );
+        }
+        out.write( " " + value + "\n" );
+    }
+
+    private static double millis( long nanos ) {
+        return nanos / 1000000.0;
+    }
+
+    private static String seconds( long nanos ) {
+        return Double.toString( nanos / 1000000000.0 );
+    }
+
+    /**
+     * Returns the user + system CPU time of the reaped children of this process, or -1 if it cannot be read.
+     */
+    private static long readChildCpuNanos() {
+        if( !PROC_SELF_STAT.canRead() ) {
+            return -1;
+        }
+        try {
+            BufferedReader reader = new BufferedReader( new FileReader( PROC_SELF_STAT ) );
+            try {
+                String stat = reader.readLine();
+                // pid (comm) state ppid ... : fields 16 and 17 are cutime and cstime, comm may contain spaces
+                String[] fields = stat.substring( stat.lastIndexOf( ')' ) + 2 ).split( " " );
+                return ( Long.parseLong( fields[ 13 ] ) + Long.parseLong( fields[ 14 ] ) ) * NANOS_PER_CLOCK_TICK;
+            } finally {
+                reader.close();
+            }
+        } catch( Exception e ) {
+            return -1;
+        }
+    }
+}
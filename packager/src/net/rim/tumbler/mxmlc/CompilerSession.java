@@ -0,0 +1,289 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.mxmlc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import net.rim.tumbler.exception.PackageException;
+import net.rim.tumbler.log.Logger;
+import net.rim.tumbler.metrics.BuildMetrics;
+import net.rim.tumbler.processbuffer.PersistentWorker;
+
+/**
+ * Keeps fcsh compiler shells running between compilations, so that a compilation neither starts a JVM nor reloads the
+ * framework libraries.
+ * <p>
+ * fcsh assigns a target id to every distinct <code>mxmlc</code> command line it compiles. The session remembers the targets of
+ * each shell and sends <code>compile &lt;id&gt;</code> when the same command line comes back, letting fcsh recompile only the
+ * sources that changed, typically <code>WebWorksAppTemplate.as</code> after its background color was rewritten. Requests are
+ * routed to a shell that already knows the target whenever one is idle.
+ * <p>
+ * The shells are closed when the JVM exits.
+ */
+public class CompilerSession {
+    public static final String PROMPT = "(fcsh) ";
+    private static final String QUIT = "quit";
+    private static final Pattern TARGET_ID = Pattern.compile( "Assigned (\\d+) as the compile target id" );
+    private static final Pattern COMPILE_ERROR = Pattern.compile( "(^|\\s)Error:", Pattern.MULTILINE );
+
+    private static final Map< String, CompilerSession > _sessions = new HashMap< String, CompilerSession >();
+
+    /**
+     * One compiler shell and the targets it knows, by command line.
+     */
+    private static class Shell {
+        PersistentWorker worker;
+        Map< String, String > targets = new HashMap< String, String >();
+    }
+
+    /**
+     * The outcome of a compilation.
+     */
+    public static class Result {
+        private final boolean _succeeded;
+        private final boolean _incremental;
+        private final String _output;
+
+        Result( boolean succeeded, boolean incremental, String output ) {
+            _succeeded = succeeded;
+            _incremental = incremental;
+            _output = output;
+        }
+
+        public boolean succeeded() {
+            return _succeeded;
+        }
+
+        /**
+         * Indicates whether the shell recompiled an existing target rather than compiling from scratch.
+         */
+        public boolean isIncremental() {
+            return _incremental;
+        }
+
+        /**
+         * Returns what the compiler printed.
+         */
+        public String getOutput() {
+            return _output;
+        }
+    }
+
+    private final String _fcshPath;
+    private final int _maxShells;
+
+    /**
+     * The shells not compiling right now, and the number of shells started or being started. Access is synchronized via 'this'.
+     */
+    private final LinkedList< Shell > _idle = new LinkedList< Shell >();
+    private int _started;
+
+    private CompilerSession( String fcshPath, int maxShells ) {
+        _fcshPath = fcshPath;
+        _maxShells = maxShells;
+    }
+
+    /**
+     * Returns the session of the specified fcsh executable, creating it on first use.
+     * 
+     * @param fcshPath
+     *            the path of the fcsh executable.
+     * @param maxShells
+     *            the number of shells that may run at the same time; only used when the session is created.
+     */
+    public static synchronized CompilerSession getInstance( String fcshPath, int maxShells ) {
+        CompilerSession session = _sessions.get( fcshPath );
+        if( session == null ) {
+            if( _sessions.isEmpty() ) {
+                Runtime.getRuntime().addShutdownHook( new Thread( "CompilerSession-shutdown" ) {
+                    public void run() {
+                        closeAll();
+                    }
+                } );
+            }
+            session = new CompilerSession( fcshPath, Math.max( 1, maxShells ) );
+            _sessions.put( fcshPath, session );
+        }
+        return session;
+    }
+
+    /**
+     * Closes the shells of all sessions. Shells that are compiling are left to finish.
+     */
+    public static void closeAll() {
+        List< CompilerSession > sessions;
+        synchronized( CompilerSession.class ) {
+            sessions = new ArrayList< CompilerSession >( _sessions.values() );
+        }
+        for( CompilerSession session : sessions ) {
+            session.close();
+        }
+    }
+
+    /**
+     * Compiles with the specified <code>mxmlc</code> arguments.
+     * 
+     * @param args
+     *            the arguments of <code>mxmlc</code>, without the executable.
+     * @param output
+     *            the SWF file the arguments tell the compiler to write.
+     * @param timeoutMillis
+     *            how long to wait for a shell to start and for the compilation, 0 for no limit.
+     * @param echo
+     *            whether the compiler output is written to the log.
+     * @exception java.io.IOException
+     *                if a shell could not be started, or ended during the compilation; it has been discarded.
+     * @exception net.rim.tumbler.exception.PackageException
+     *                if the compilation did not finish in time; the shell has been killed.
+     * @exception java.lang.InterruptedException
+     *                if the current thread is interrupted while waiting for an idle shell.
+     */
+    public Result compile( String[] args, File output, long timeoutMillis, boolean echo ) throws IOException,
+            PackageException, InterruptedException {
+        String commandLine = toCommandLine( args );
+        Shell shell = acquire( commandLine, timeoutMillis );
+        boolean healthy = false;
+        try {
+            String target = shell.targets.get( commandLine );
+            String response;
+            try {
+                if( target != null ) {
+                    response = shell.worker.execute( "compile " + target, timeoutMillis );
+                } else {
+                    response = shell.worker.execute( "mxmlc " + commandLine, timeoutMillis );
+                    Matcher matcher = TARGET_ID.matcher( response );
+                    if( matcher.find() ) {
+                        shell.targets.put( commandLine, matcher.group( 1 ) );
+                    }
+                }
+            } catch( IOException ioe ) {
+                if( shell.worker.hasTimedOut() ) {
+                    // as a tool run by ProcessSupervisor, rather than compiling it again
+                    throw new PackageException( "EXCEPTION_TOOL_TIMEOUT", "fcsh" );
+                }
+                throw ioe;
+            }
+            healthy = true;
+
+            if( echo ) {
+                for( String line : response.split( "\\r?\\n" ) ) {
+                    Logger.logLine( line );
+                }
+            }
+            BuildMetrics.count( target != null ? "compiler_session_incremental" : "compiler_session_full", 1 );
+            boolean succeeded = output.isFile() && !COMPILE_ERROR.matcher( response ).find();
+            return new Result( succeeded, target != null, response );
+        } finally {
+            release( shell, healthy );
+        }
+    }
+
+    /**
+     * Closes the idle shells of this session.
+     */
+    public void close() {
+        List< Shell > shells;
+        synchronized( this ) {
+            shells = new ArrayList< Shell >( _idle );
+            _started -= _idle.size();
+            _idle.clear();
+        }
+        for( Shell shell : shells ) {
+            shell.worker.close( QUIT );
+        }
+    }
+
+    /**
+     * Takes an idle shell, preferably one that knows the command line, or starts one if fewer than the maximum are running.
+     */
+    private Shell acquire( String commandLine, long timeoutMillis ) throws IOException, InterruptedException {
+        synchronized( this ) {
+            while( true ) {
+                Shell any = null;
+                for( Iterator< Shell > i = _idle.iterator(); i.hasNext(); ) {
+                    Shell shell = i.next();
+                    if( !shell.worker.isAlive() ) {
+                        i.remove();
+                        _started--;
+                    } else if( shell.targets.containsKey( commandLine ) ) {
+                        i.remove();
+                        return shell;
+                    } else if( any == null ) {
+                        any = shell;
+                    }
+                }
+                if( any != null ) {
+                    _idle.remove( any );
+                    return any;
+                }
+                if( _started < _maxShells ) {
+                    _started++;
+                    break;
+                }
+                wait();
+            }
+        }
+
+        // start outside the lock, fcsh takes a while to come up
+        Shell shell = new Shell();
+        try {
+            shell.worker = new PersistentWorker( "fcsh", new ProcessBuilder( _fcshPath ), PROMPT, timeoutMillis );
+        } catch( IOException ioe ) {
+            release( null, false );
+            throw ioe;
+        }
+        return shell;
+    }
+
+    private synchronized void release( Shell shell, boolean healthy ) {
+        if( healthy ) {
+            _idle.addFirst( shell );
+        } else {
+            if( shell != null ) {
+                shell.worker.destroy();
+            }
+            _started--;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Joins the arguments as fcsh expects them, quoting those that contain spaces.
+     */
+    private static String toCommandLine( String[] args ) {
+        StringBuilder sb = new StringBuilder();
+        for( String arg : args ) {
+            if( sb.length() > 0 ) {
+                sb.append( ' ' );
+            }
+            if( arg.indexOf( ' ' ) >= 0 ) {
+                sb.append( '"' ).append( arg ).append( '"' );
+            } else {
+                sb.append( arg );
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -18,25 +18,29 @@ package net.rim.tumbler.mxmlc;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import net.rim.tumbler.config.WidgetConfig;
 import net.rim.tumbler.exception.PackageException;
 import net.rim.tumbler.file.FileManager;
-import net.rim.tumbler.processbuffer.ErrorBuffer;
-import net.rim.tumbler.processbuffer.ExitBuffer;
-import net.rim.tumbler.processbuffer.OutputBuffer;
+import net.rim.tumbler.file.TemplatePatcher;
+import net.rim.tumbler.log.LogType;
+import net.rim.tumbler.log.Logger;
+import net.rim.tumbler.metrics.BuildMetrics;
+import net.rim.tumbler.processbuffer.ProcessSupervisor;
 import net.rim.tumbler.session.BBWPProperties;
 import net.rim.tumbler.session.SessionManager;
 
 public class Mxmlc {
     private static final String TEMPLATE_MAIN_CLASS_FILE = "WebWorksAppTemplate.as";
     private static final String JAVA_HOME = "JAVA_HOME";
+    private static final String TOOL_NAME = "mxmlc";
 
     private String _tabletSdkPath;
     private String _mxmlcPath;
+    private String _fcshPath;
     private String _airConfigPath;
 
     private String _templateMainClassPath;
@@ -50,10 +54,13 @@ public class Mxmlc {
 
         _tabletSdkPath = _bbwpProperties.getTabletSDK();
         String os = System.getProperty( "os.name" ).toLowerCase();
-        if( os.indexOf( "win" ) >= 0 )
+        if( os.indexOf( "win" ) >= 0 ) {
             _mxmlcPath = _tabletSdkPath + File.separator + "bin" + File.separator + "mxmlc.exe";
-        else
+            _fcshPath = _tabletSdkPath + File.separator + "bin" + File.separator + "fcsh.exe";
+        } else {
             _mxmlcPath = _tabletSdkPath + File.separator + "bin" + File.separator + "mxmlc";
+            _fcshPath = _tabletSdkPath + File.separator + "bin" + File.separator + "fcsh";
+        }
         _airConfigPath = _tabletSdkPath + File.separator + "frameworks" + File.separator + "air-config.xml";
         _templateMainClassPath = SessionManager.getInstance().getSourceFolder() + File.separator + TEMPLATE_MAIN_CLASS_FILE;
     }
@@ -72,31 +79,16 @@ public class Mxmlc {
             String sourceFolder = SessionManager.getInstance().getSourceFolder();
             String archiveName = SessionManager.getInstance().getArchiveName();
 
-            File configFile = new File( sourceFolder, "config.xml" );
-            String newColor = getString( configFile, "rim:loadingScreen", "backgroundColor", 17 );
+            String newColor = _widgetConfig.getLoadingScreenColour();
+            if( newColor == null ) {
+                newColor = "";
+            }
 
             if( newColor.length() > 0 ) {
                 // replace color in actionscript file
-                File asName = new File( sourceFolder, "WebWorksAppTemplate.as" );
+                File asName = new File( sourceFolder, TEMPLATE_MAIN_CLASS_FILE );
                 String oldColor = getString( asName, "SWF", "backgroundColor", 17 );
-
-                String input = "";
-                BufferedReader reader = new BufferedReader( new FileReader( asName ) );
-                String line = "";
-                while( ( line = reader.readLine() ) != null ) {
-                    input += line + "\r\n";
-                }
-                reader.close();
-
-                // Replace old background color with new one
-                String output = input.replaceAll( oldColor, newColor );
-
-                File tempFile = new File( sourceFolder, "temp.as" );
-                FileWriter writer = new FileWriter( tempFile );
-                writer.write( output );
-                writer.close();
-                asName.delete();
-                tempFile.renameTo( asName );
+                new TemplatePatcher().replace( oldColor, newColor ).patchInPlace( asName );
             }
             //
             // Now we can compile all the template code.
@@ -111,20 +103,32 @@ public class Mxmlc {
                         sourceFolder + File.separator + archiveName + ".swf",
                         "--warnings=" + ( SessionManager.getInstance().isVerbose() ? "true" : "false" ), _templateMainClassPath, };
             }
-            Process p = buildProcess( cmd );
-
-            OutputBuffer stdout = new OutputBuffer( p );
-            ErrorBuffer stderr = new ErrorBuffer( p );
-            ExitBuffer exitcode = new ExitBuffer( p );
-
-            stdout.waitFor();
-            stderr.waitFor();
-            exitcode.waitFor();
+            File swf = new File( sourceFolder, archiveName + ".swf" );
+
+            SwfCache cache = null;
+            String cacheKey = null;
+            if( _bbwpProperties.getSwfCache().length() > 0 ) {
+                cache = new SwfCache( new File( _bbwpProperties.getSwfCache() ), _bbwpProperties.getSwfCacheSize() );
+                try {
+                    cacheKey = SwfCache.computeKey( new File( sourceFolder ), newColor, SessionManager.getInstance()
+                            .debugModeInternal(), _tabletSdkPath );
+                    if( cache.fetch( cacheKey, swf ) ) {
+                        BuildMetrics.count( "swf_cache_hits", 1 );
+                        return;
+                    }
+                    BuildMetrics.count( "swf_cache_misses", 1 );
+                } catch( IOException ioe ) {
+                    Logger.logMessage( LogType.WARNING, "WARNING_SWF_CACHE_FAILED", ioe.getMessage() );
+                    cache = null;
+                }
+            }
 
-            if( exitcode.getExitValue().intValue() != 0 || SessionManager.getInstance().isVerbose() ) {
-                System.out.write( stderr.getStderr() );
-                System.out.write( stdout.getStdout() );
-                System.out.flush();
+            if( compile( cmd, swf ) && cache != null ) {
+                try {
+                    cache.store( cacheKey, swf );
+                } catch( IOException ioe ) {
+                    Logger.logMessage( LogType.WARNING, "WARNING_SWF_CACHE_FAILED", ioe.getMessage() );
+                }
             }
         } catch( IOException ioe ) {
             ioe.printStackTrace();
@@ -135,16 +139,83 @@ public class Mxmlc {
     }
 
     /**
-     * Builds a process with <code>JAVA_HOME</code> set as required on Windows. This is needed because the JRE is an undocumented
-     * prerequisite for the Tablet SDK but not for the WebWorks SDK (on Windows).
+     * Runs the specified mxmlc command line, in a compiler shell if enabled. Compiler errors are printed but do not fail the
+     * build; a compiler that timed out or was cancelled does. mxmlc runs instead of a shell that could not be started or
+     * ended, within what the shell left of the tool timeout.
      * 
      * @param cmd
-     *            the command string array.
+     *            the mxmlc command line.
+     * @param swf
+     *            the SWF file the command line writes.
+     * @return true if the compilation succeeded.
+     */
+    private boolean compile( String[] cmd, File swf ) throws IOException, InterruptedException, PackageException {
+        boolean verbose = SessionManager.getInstance().isVerbose();
+        long timeoutMillis = TimeUnit.SECONDS.toMillis( _bbwpProperties.getToolTimeout( TOOL_NAME ) );
+        if( _bbwpProperties.getCompilerWorkers() > 0 && new File( _fcshPath ).isFile() ) {
+            long start = System.nanoTime();
+            CompilerSession.Result result = compileInSession( cmd, swf, timeoutMillis, verbose );
+            if( result != null ) {
+                if( !result.succeeded() && !verbose ) {
+                    Logger.flush();
+                    System.out.print( result.getOutput() );
+                    System.out.flush();
+                }
+                return result.succeeded();
+            }
+            if( timeoutMillis > 0 ) {
+                timeoutMillis -= TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+                if( timeoutMillis <= 0 ) {
+                    throw new PackageException( "EXCEPTION_TOOL_TIMEOUT", TOOL_NAME );
+                }
+            }
+        }
+
+        ProcessSupervisor supervisor = new ProcessSupervisor( TOOL_NAME, timeoutMillis, TimeUnit.MILLISECONDS );
+        ProcessSupervisor.Result result = supervisor.run( buildProcess( cmd ), verbose );
+
+        if( !result.succeeded() && !verbose ) {
+            result.printOutput( System.out );
+        }
+        result.checkStopped();
+        return result.succeeded() && swf.isFile();
+    }
+
+    /**
+     * Compiles in a persistent fcsh shell of the compiler session. Returns null if no shell could be started, or the shell
+     * ended, in which case the caller runs mxmlc instead; a shell that timed out fails the build.
+     * 
+     * @param cmd
+     *            the mxmlc command line.
+     * @param swf
+     *            the SWF file the command line writes.
+     * @param timeoutMillis
+     *            how long the compilation may take, 0 for no limit.
+     * @param verbose
+     *            whether the compiler output is written to the log.
+     */
+    private CompilerSession.Result compileInSession( String[] cmd, File swf, long timeoutMillis, boolean verbose )
+            throws InterruptedException, PackageException {
+        CompilerSession session = CompilerSession.getInstance( _fcshPath, _bbwpProperties.getCompilerWorkers() );
+        String[] args = new String[ cmd.length - 1 ];
+        System.arraycopy( cmd, 1, args, 0, args.length );
+
+        try {
+            return session.compile( args, swf, timeoutMillis, verbose );
+        } catch( IOException ioe ) {
+            Logger.logMessage( LogType.WARNING, "WARNING_COMPILER_SESSION_FAILED", ioe.getMessage() );
+            return null;
+        }
+    }
+
+    /**
+     * Creates the builder of a process with <code>JAVA_HOME</code> set as required on Windows. This is needed because the JRE is
+     * an undocumented prerequisite for the Tablet SDK but not for the WebWorks SDK (on Windows).
      * 
-     * @exception java.io.IOException
-     *                if an i/o error occurs.
+     * @param cmd
+     *            the command string array.
      */
-    private static Process buildProcess( String[] cmd ) throws IOException {
+    private static ProcessBuilder buildProcess( String[] cmd ) {
         ProcessBuilder builder = new ProcessBuilder( cmd );
 
         Map< String, String > env = builder.environment();
@@ -155,7 +226,7 @@ public class Mxmlc {
             }
         }
 
-        return builder.start();
+        return builder;
     }
 
     private String getString( File source, String lineName, String property, int offset ) {
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.mxmlc;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.rim.tumbler.file.FileManager;
+
+/**
+ * A content-addressed cache of compiled SWF files. The key of a compilation hashes everything its output depends on: the
+ * relative paths and contents of the files in the source folder, the loading screen background color, the debug flag and the
+ * Tablet SDK, identified by its path and the contents of its description files, compiler jars and AIR configuration. A hit
+ * copies the cached SWF instead of running the compiler.
+ * <p>
+ * Entries are plain files named after their key. Their modification time records their last use, and the least recently used
+ * entries are deleted whenever the cache grows beyond its size bound. Entries are written to a temporary file and renamed, so
+ * several packagers can share one cache folder. Other build outputs, such as rendered splash screens, can be cached the same
+ * way in a folder of their own with their own entry suffix.
+ */
+public class SwfCache {
+    private static final String SWF_SUFFIX = ".swf";
+    private static final String[] SDK_FILES = new String[] { "flex-sdk-description.xml", "air-sdk-description.xml",
+            "lib/mxmlc.jar", "lib/compiler.jar", "frameworks/air-config.xml" };
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_CACHED_SDKS = 8;
+
+    /** The digests of the SDK files, keyed on their paths, lengths and modification times. */
+    private static final Map< String, byte[] > _sdkDigests = Collections.synchronizedMap( new LinkedHashMap< String, byte[] >( 16,
+            0.75f, true ) {
+        private static final long serialVersionUID = 1L;
+
+        protected boolean removeEldestEntry( Map.Entry< String, byte[] > eldest ) {
+            return size() > MAX_CACHED_SDKS;
+        }
+    } );
+
+    private final File _folder;
+    private final long _maxBytes;
+    private final String _entrySuffix;
+
+    /**
+     * @param folder
+     *            the cache folder, created if needed.
+     * @param maxBytes
+     *            the total size the entries may take before the least recently used are evicted.
+     */
+    public SwfCache( File folder, long maxBytes ) {
+        this( folder, maxBytes, SWF_SUFFIX );
+    }
+
+    /**
+     * @param folder
+     *            the cache folder, created if needed.
+     * @param maxBytes
+     *            the total size the entries may take before the least recently used are evicted.
+     * @param entrySuffix
+     *            the file name suffix of the entries, for example ".png".
+     */
+    public SwfCache( File folder, long maxBytes, String entrySuffix ) {
+        _folder = folder;
+        _maxBytes = maxBytes;
+        _entrySuffix = entrySuffix;
+    }
+
+    /**
+     * Computes the key of a compilation.
+     * 
+     * @param sourceFolder
+     *            the folder holding the sources to compile; every file in it is hashed.
+     * @param backgroundColor
+     *            the loading screen background color written into the main class, empty if none.
+     * @param debug
+     *            whether the SWF is compiled with debug information.
+     * @param sdkPath
+     *            the Tablet SDK path.
+     */
+    public static String computeKey( File sourceFolder, String backgroundColor, boolean debug, String sdkPath )
+            throws IOException {
+        MessageDigest digest = newDigest();
+        update( digest, backgroundColor );
+        update( digest, Boolean.toString( debug ) );
+        update( digest, sdkPath );
+        digest.update( digestSdk( new File( sdkPath ) ) );
+
+        List< String > sources = new ArrayList< String >();
+        listSources( sourceFolder, "", sources );
+        Collections.sort( sources );
+        byte[] buffer = new byte[ BUFFER_SIZE ];
+        for( String source : sources ) {
+            update( digest, source );
+            hash( digest, new File( sourceFolder, source ), buffer );
+        }
+        return toHex( digest.digest() );
+    }
+
+    /**
+     * Hashes the files identifying an SDK, so that an SDK upgraded or replaced in place changes the keys. Missing files hash
+     * their name only. The digest is remembered until one of the files changes length or modification time.
+     */
+    private static byte[] digestSdk( File sdk ) throws IOException {
+        StringBuilder stamp = new StringBuilder( sdk.getAbsolutePath() );
+        for( String name : SDK_FILES ) {
+            File file = new File( sdk, name );
+            stamp.append( '\0' ).append( file.length() ).append( '\0' ).append( file.lastModified() );
+        }
+        String key = stamp.toString();
+        byte[] result = _sdkDigests.get( key );
+        if( result == null ) {
+            MessageDigest digest = newDigest();
+            byte[] buffer = new byte[ BUFFER_SIZE ];
+            for( String name : SDK_FILES ) {
+                File file = new File( sdk, name );
+                update( digest, name );
+                if( file.isFile() ) {
+                    hash( digest, file, buffer );
+                }
+            }
+            result = digest.digest();
+            _sdkDigests.put( key, result );
+        }
+        return result;
+    }
+
+    private static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance( "SHA-1" );
+        } catch( NoSuchAlgorithmException nsae ) {
+            throw new IOException( nsae.getMessage() );
+        }
+    }
+
+    private static void hash( MessageDigest digest, File file, byte[] buffer ) throws IOException {
+        InputStream in = new FileInputStream( file );
+        try {
+            for( int n; ( n = in.read( buffer ) ) != -1; ) {
+                digest.update( buffer, 0, n );
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Copies the SWF cached under the specified key to the output file, marking the entry as recently used.
+     * 
+     * @return true on a hit, false if the key is not cached.
+     */
+    public boolean fetch( String key, File output ) throws IOException {
+        File entry = new File( _folder, key + _entrySuffix );
+        if( !entry.isFile() ) {
+            return false;
+        }
+        FileManager.copyFile( entry, output );
+        entry.setLastModified( System.currentTimeMillis() );
+        return true;
+    }
+
+    /**
+     * Caches the specified SWF under the key, then evicts least recently used entries as needed.
+     */
+    public void store( String key, File swf ) throws IOException {
+        _folder.mkdirs();
+        File temp = File.createTempFile( "swf-" + key, ".tmp", _folder );
+        try {
+            FileManager.copyFile( swf, temp );
+            File entry = new File( _folder, key + _entrySuffix );
+            if( !temp.renameTo( entry ) && !entry.isFile() ) {
+                throw new IOException( "Cannot create " + entry );
+            }
+        } finally {
+            temp.delete();
+        }
+        evict();
+    }
+
+    /**
+     * Deletes the least recently used entries until the total size is within the bound.
+     */
+    void evict() {
+        File[] entries = _folder.listFiles();
+        if( entries == null ) {
+            return;
+        }
+        long total = 0;
+        List< File > swfs = new ArrayList< File >();
+        for( File entry : entries ) {
+            if( entry.getName().endsWith( _entrySuffix ) ) {
+                swfs.add( entry );
+                total += entry.length();
+            }
+        }
+        if( total <= _maxBytes ) {
+            return;
+        }
+        // read the times once, they may change while sorting
+        final long[] times = new long[ swfs.size() ];
+        Integer[] order = new Integer[ swfs.size() ];
+        for( int i = 0; i < times.length; i++ ) {
+            times[ i ] = swfs.get( i ).lastModified();
+            order[ i ] = Integer.valueOf( i );
+        }
+        Arrays.sort( order, new Comparator< Integer >() {
+            public int compare( Integer a, Integer b ) {
+                long ta = times[ a.intValue() ];
+                long tb = times[ b.intValue() ];
+                return ta < tb ? -1 : ( ta == tb ? 0 : 1 );
+            }
+        } );
+        for( int i = 0; i < order.length && total > _maxBytes; i++ ) {
+            File oldest = swfs.get( order[ i ].intValue() );
+            long size = oldest.length();
+            if( oldest.delete() ) {
+                total -= size;
+            }
+        }
+    }
+
+    private static void listSources( File folder, String prefix, List< String > result ) {
+        File[] children = folder.listFiles();
+        if( children == null ) {
+            return;
+        }
+        for( File child : children ) {
+            String name = prefix + child.getName();
+            if( child.isDirectory() ) {
+                listSources( child, name + "/", result );
+            } else {
+                result.add( name );
+            }
+        }
+    }
+
+    private static void update( MessageDigest digest, String value ) {
+        try {
+            digest.update( value.getBytes( "UTF-8" ) );
+        } catch( IOException ioe ) {
+            // UTF-8 is always supported
+        }
+        digest.update( (byte) 0 );
+    }
+
+    private static String toHex( byte[] bytes ) {
+        StringBuilder sb = new StringBuilder( bytes.length * 2 );
+        for( byte b : bytes ) {
+            sb.append( Character.forDigit( ( b >> 4 ) & 0xF, 16 ) ).append( Character.forDigit( b & 0xF, 16 ) );
+        }
+        return sb.toString();
+    }
+}
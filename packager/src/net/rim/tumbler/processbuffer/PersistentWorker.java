@@ -0,0 +1,216 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.processbuffer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import net.rim.tumbler.util.DaemonPools;
+
+/**
+ * A long-lived tool process driven through a line-based request/response protocol, such as the fcsh compiler shell:
+ * <ul>
+ * <li>the worker prints a prompt, not necessarily followed by a line break, whenever it is ready for a request;</li>
+ * <li>each request is one line written to its standard input;</li>
+ * <li>everything the worker prints until the next prompt is the response.</li>
+ * </ul>
+ * Standard error is merged into the response, of which the last {@link ProcessRunner#DEFAULT_MAX_RETAINED} bytes are kept. A
+ * worker that does not answer within the timeout, or whose process ends, is killed and must be discarded.
+ */
+public final class PersistentWorker {
+
+    private static final ScheduledExecutorService _watchdog = DaemonPools.newScheduled( "PersistentWorker-watchdog" );
+
+    private final String _tool;
+    private final byte[] _prompt;
+    private final Process _process;
+    private final InputStream _stdout;
+    private final OutputStream _stdin;
+    private final byte[] _chunk = new byte[ 8192 ];
+
+    private volatile boolean _broken;
+    private volatile boolean _timedOut;
+
+    /**
+     * Starts the worker process and waits for its first prompt.
+     * 
+     * @param tool
+     *            the name of the tool, used in error messages.
+     * @param builder
+     *            the process builder of the worker; its error stream is redirected to the output stream.
+     * @param prompt
+     *            the prompt the worker prints when it is ready for a request.
+     * @param timeoutMillis
+     *            how long to wait for the first prompt, 0 for no limit.
+     * @exception java.io.IOException
+     *                if the worker cannot be started or does not become ready.
+     */
+    public PersistentWorker( String tool, ProcessBuilder builder, String prompt, long timeoutMillis ) throws IOException {
+        _tool = tool;
+        _prompt = prompt.getBytes();
+        _process = builder.redirectErrorStream( true ).start();
+        _stdout = _process.getInputStream();
+        _stdin = _process.getOutputStream();
+        readResponse( timeoutMillis );
+    }
+
+    /**
+     * Sends one request and returns the response printed before the next prompt.
+     * 
+     * @param request
+     *            the request, without line break.
+     * @param timeoutMillis
+     *            how long to wait for the response, 0 for no limit.
+     * @exception java.io.IOException
+     *                if the worker does not answer in time or has ended; the worker is unusable afterwards.
+     */
+    public synchronized String execute( String request, long timeoutMillis ) throws IOException {
+        if( _broken ) {
+            throw new IOException( _tool + " worker is no longer usable" );
+        }
+        try {
+            _stdin.write( ( request + "\n" ).getBytes() );
+            _stdin.flush();
+        } catch( IOException ioe ) {
+            destroy();
+            throw ioe;
+        }
+        return readResponse( timeoutMillis );
+    }
+
+    /**
+     * Indicates whether the worker can still accept requests.
+     */
+    public boolean isAlive() {
+        if( _broken ) {
+            return false;
+        }
+        try {
+            _process.exitValue();
+            return false;
+        } catch( IllegalThreadStateException itse ) {
+            return true;
+        }
+    }
+
+    /**
+     * Indicates whether the worker was killed because it did not answer within the timeout.
+     */
+    public boolean hasTimedOut() {
+        return _timedOut;
+    }
+
+    /**
+     * Sends the specified request, meant to make the worker quit, then kills the worker if it has not ended shortly after.
+     */
+    public synchronized void close( String quitRequest ) {
+        if( !_broken ) {
+            try {
+                _stdin.write( ( quitRequest + "\n" ).getBytes() );
+                _stdin.close();
+                ProcessRunner.start( _process, false ).waitFor( 5, TimeUnit.SECONDS );
+            } catch( Exception e ) {
+                // do nothing - killed below
+            }
+        }
+        destroy();
+    }
+
+    /**
+     * Kills the worker and the processes it started.
+     */
+    public void destroy() {
+        _broken = true;
+        ProcessSupervisor.destroyTree( _process );
+    }
+
+    private String readResponse( long timeoutMillis ) throws IOException {
+        ScheduledFuture< ? > watchdog = null;
+        if( timeoutMillis > 0 ) {
+            watchdog = _watchdog.schedule( new Runnable() {
+                public void run() {
+                    _timedOut = true;
+                    destroy();
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS );
+        }
+        try {
+            ResponseBuffer response = new ResponseBuffer( ProcessRunner.DEFAULT_MAX_RETAINED + _prompt.length );
+            while( !response.endsWith( _prompt ) ) {
+                // read what is available, at least one byte, so the prompt is seen without waiting for a line break
+                int n = _stdout.read( _chunk, 0, Math.max( 1, Math.min( _chunk.length, _stdout.available() ) ) );
+                if( n == -1 ) {
+                    destroy();
+                    throw new IOException( _tool + " worker " + ( _timedOut ? "timed out" : "ended unexpectedly" ) );
+                }
+                response.write( _chunk, 0, n );
+            }
+            return response.getResponse( _prompt.length );
+        } catch( IOException ioe ) {
+            destroy();
+            throw ioe;
+        } finally {
+            if( watchdog != null ) {
+                watchdog.cancel( false );
+            }
+        }
+    }
+
+    /**
+     * Keeps the newest bytes of the response, up to a limit, and gives access to its tail without copying it.
+     */
+    private static class ResponseBuffer extends ByteArrayOutputStream {
+        private final int _maxRetained;
+
+        ResponseBuffer( int maxRetained ) {
+            _maxRetained = maxRetained;
+        }
+
+        public void write( byte[] b, int off, int len ) {
+            super.write( b, off, len );
+            // dropping the oldest bytes once twice the limit is buffered keeps the copies proportional to the output
+            if( count >= 2 * _maxRetained ) {
+                System.arraycopy( buf, count - _maxRetained, buf, 0, _maxRetained );
+                count = _maxRetained;
+            }
+        }
+
+        /**
+         * Returns the retained bytes, without the specified number of bytes at the end, as a string.
+         */
+        String getResponse( int trimmed ) {
+            int start = Math.max( 0, count - _maxRetained );
+            return new String( buf, start, count - start - trimmed );
+        }
+
+        boolean endsWith( byte[] suffix ) {
+            if( count < suffix.length ) {
+                return false;
+            }
+            for( int i = 0; i < suffix.length; i++ ) {
+                if( buf[ count - suffix.length + i ] != suffix[ i ] ) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
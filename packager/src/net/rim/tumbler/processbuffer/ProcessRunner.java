@@ -0,0 +1,245 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.processbuffer;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import net.rim.tumbler.log.Logger;
+import net.rim.tumbler.util.DaemonPools;
+
+/**
+ * Drains the standard output and error streams of a subprocess and waits for its exit value.
+ * <p>
+ * Both streams are read in bulk on a shared pool of daemon threads, so running a tool no longer creates threads of its own and
+ * idle readers are reused by the next tool. Each stream retains at most a fixed number of bytes; lines can also be echoed to
+ * the log as the tool writes them.
+ * 
+ * <pre>
+ *     Process p = builder.start();
+ *     ProcessRunner runner = ProcessRunner.start( p, verbose );
+ *     if( runner.waitFor() != 0 ) {
+ *         runner.printOutput( System.out );
+ *     }
+ * </pre>
+ * 
+ * The runner is the <code>Future</code> of the exit value; cancelling it destroys the subprocess.
+ */
+public final class ProcessRunner implements Future< Integer > {
+
+    /**
+     * The default number of bytes retained from each stream.
+     */
+    public static final int DEFAULT_MAX_RETAINED = 1024 * 1024;
+
+    /**
+     * How often the exit value is polled while waiting with a timeout.
+     */
+    private static final long POLL_MILLIS = 10;
+
+    private static final ExecutorService _pool = DaemonPools.newCached( "ProcessRunner" );
+
+    private final Process _process;
+    private final StreamBuffer _stdout;
+    private final StreamBuffer _stderr;
+    private final Future< Void > _stdoutDone;
+    private final Future< Void > _stderrDone;
+
+    private volatile boolean _cancelled;
+    private volatile Integer _exitValue;
+
+    private ProcessRunner( Process process, int maxRetained, boolean echo ) {
+        _process = process;
+        _stdout = new StreamBuffer( process.getInputStream(), maxRetained, echo );
+        _stderr = new StreamBuffer( process.getErrorStream(), maxRetained, echo );
+        _stdoutDone = _pool.submit( _stdout );
+        _stderrDone = _pool.submit( _stderr );
+    }
+
+    /**
+     * Starts draining the specified subprocess, retaining up to {@link #DEFAULT_MAX_RETAINED} bytes of each stream.
+     * 
+     * @param process
+     *            the subprocess, whose input stream is closed since tools are not fed any input.
+     * @param echo
+     *            whether output lines are written to the log as they arrive.
+     */
+    public static ProcessRunner start( Process process, boolean echo ) {
+        return start( process, DEFAULT_MAX_RETAINED, echo );
+    }
+
+    /**
+     * Starts draining the specified subprocess.
+     * 
+     * @param process
+     *            the subprocess, whose input stream is closed since tools are not fed any input.
+     * @param maxRetained
+     *            the number of bytes retained from each stream; older output is discarded first.
+     * @param echo
+     *            whether output lines are written to the log as they arrive.
+     */
+    public static ProcessRunner start( Process process, int maxRetained, boolean echo ) {
+        try {
+            process.getOutputStream().close();
+        } catch( IOException ioe ) {
+            // do nothing - the tool just sees an open input
+        }
+        return new ProcessRunner( process, maxRetained, echo );
+    }
+
+    /**
+     * Waits until the subprocess has exited and both streams are drained.
+     * 
+     * @return the exit value of the subprocess.
+     * @exception java.lang.InterruptedException
+     *                if the current thread is interrupted while waiting.
+     */
+    public int waitFor() throws InterruptedException {
+        awaitStream( _stdoutDone );
+        awaitStream( _stderrDone );
+        int exitValue = _process.waitFor();
+        _exitValue = Integer.valueOf( exitValue );
+        return exitValue;
+    }
+
+    /**
+     * Waits at most the specified time until the subprocess has exited and both streams are drained. The subprocess keeps
+     * running on timeout.
+     * 
+     * @return the exit value of the subprocess.
+     * @exception java.lang.InterruptedException
+     *                if the current thread is interrupted while waiting.
+     * @exception java.util.concurrent.TimeoutException
+     *                if the subprocess has not exited in time.
+     */
+    public int waitFor( long timeout, TimeUnit unit ) throws InterruptedException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos( timeout );
+        awaitStream( _stdoutDone, deadline );
+        awaitStream( _stderrDone, deadline );
+        while( true ) {
+            try {
+                int exitValue = _process.exitValue();
+                _exitValue = Integer.valueOf( exitValue );
+                return exitValue;
+            } catch( IllegalThreadStateException itse ) {
+                // still running
+            }
+            long remaining = deadline - System.nanoTime();
+            if( remaining <= 0 ) {
+                throw new TimeoutException();
+            }
+            Thread.sleep( Math.min( POLL_MILLIS, TimeUnit.NANOSECONDS.toMillis( remaining ) + 1 ) );
+        }
+    }
+
+    public Integer get() throws InterruptedException, ExecutionException {
+        checkCancelled();
+        return Integer.valueOf( waitFor() );
+    }
+
+    public Integer get( long timeout, TimeUnit unit ) throws InterruptedException, ExecutionException, TimeoutException {
+        checkCancelled();
+        return Integer.valueOf( waitFor( timeout, unit ) );
+    }
+
+    /**
+     * Destroys the subprocess. Its streams are drained until the pipes close.
+     */
+    public boolean cancel( boolean mayInterruptIfRunning ) {
+        if( isDone() ) {
+            return false;
+        }
+        _cancelled = true;
+        _process.destroy();
+        return true;
+    }
+
+    public boolean isCancelled() {
+        return _cancelled;
+    }
+
+    public boolean isDone() {
+        if( _cancelled || _exitValue != null ) {
+            return true;
+        }
+        try {
+            _process.exitValue();
+        } catch( IllegalThreadStateException itse ) {
+            return false;
+        }
+        return _stdoutDone.isDone() && _stderrDone.isDone();
+    }
+
+    /**
+     * Returns the retained standard output of the subprocess, complete only once it has been waited for.
+     */
+    public byte[] getStdout() {
+        return _stdout.getBytes();
+    }
+
+    /**
+     * Returns the retained standard error of the subprocess, complete only once it has been waited for.
+     */
+    public byte[] getStderr() {
+        return _stderr.getBytes();
+    }
+
+    /**
+     * Indicates whether output was discarded from either stream to stay within the retention limit.
+     */
+    public boolean isTruncated() {
+        return _stdout.isTruncated() || _stderr.isTruncated();
+    }
+
+    /**
+     * Writes the retained standard error and then standard output of the subprocess to the specified stream, after the
+     * messages logged so far.
+     */
+    public void printOutput( PrintStream out ) throws IOException {
+        Logger.flush();
+        out.write( getStderr() );
+        out.write( getStdout() );
+        out.flush();
+    }
+
+    private void checkCancelled() {
+        if( _cancelled ) {
+            throw new CancellationException();
+        }
+    }
+
+    private static void awaitStream( Future< Void > done ) throws InterruptedException {
+        try {
+            done.get();
+        } catch( ExecutionException ee ) {
+            // do nothing - StreamBuffer handles its own errors
+        }
+    }
+
+    private static void awaitStream( Future< Void > done, long deadline ) throws InterruptedException, TimeoutException {
+        try {
+            done.get( Math.max( 0, deadline - System.nanoTime() ), TimeUnit.NANOSECONDS );
+        } catch( ExecutionException ee ) {
+            // do nothing - StreamBuffer handles its own errors
+        }
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.processbuffer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import net.rim.tumbler.exception.PackageException;
+import net.rim.tumbler.metrics.BuildMetrics;
+
+/**
+ * Runs an external tool under a wall-clock timeout. When the timeout expires, when {@link #cancel()} is called from another
+ * thread, or when the waiting thread is interrupted, the tool is killed together with the processes it started, so that a hung
+ * tool cannot hold a build slot forever.
+ * <p>
+ * The exit reason and duration of every run are returned in a {@link Result} and recorded in the build metrics.
+ * 
+ * <pre>
+ *     ProcessSupervisor supervisor = new ProcessSupervisor( "mxmlc", bbwpProperties.getToolTimeout( "mxmlc" ) );
+ *     ProcessSupervisor.Result result = supervisor.run( new ProcessBuilder( cmd ), verbose );
+ * </pre>
+ */
+public final class ProcessSupervisor {
+
+    /**
+     * How a supervised tool ended.
+     */
+    public enum ExitReason {
+        /** The tool exited by itself; its exit value may still indicate an error. */
+        EXITED,
+        /** The tool was killed after running longer than its timeout. */
+        TIMED_OUT,
+        /** The tool was killed because the run was cancelled. */
+        CANCELLED
+    }
+
+    /**
+     * The outcome of a supervised run.
+     */
+    public static final class Result {
+        private final String _tool;
+        private final ExitReason _reason;
+        private final int _exitValue;
+        private final long _durationMillis;
+        private final ProcessRunner _runner;
+
+        Result( String tool, ExitReason reason, int exitValue, long durationMillis, ProcessRunner runner ) {
+            _tool = tool;
+            _reason = reason;
+            _exitValue = exitValue;
+            _durationMillis = durationMillis;
+            _runner = runner;
+        }
+
+        public String getTool() {
+            return _tool;
+        }
+
+        public ExitReason getReason() {
+            return _reason;
+        }
+
+        /**
+         * Returns the exit value of the tool, or -1 if it had to be killed and its exit value could not be obtained.
+         */
+        public int getExitValue() {
+            return _exitValue;
+        }
+
+        /**
+         * Indicates whether the tool exited by itself with a zero exit value.
+         */
+        public boolean succeeded() {
+            return _reason == ExitReason.EXITED && _exitValue == 0;
+        }
+
+        public long getDurationMillis() {
+            return _durationMillis;
+        }
+
+        /**
+         * Fails the build if the tool was killed because it timed out or was cancelled.
+         */
+        public void checkStopped() throws PackageException {
+            if( _reason == ExitReason.TIMED_OUT ) {
+                throw new PackageException( "EXCEPTION_TOOL_TIMEOUT", _tool );
+            } else if( _reason == ExitReason.CANCELLED ) {
+                throw new PackageException( "EXCEPTION_TOOL_CANCELLED", _tool );
+            }
+        }
+
+        /**
+         * Writes the retained standard error and then standard output of the tool to the specified stream.
+         */
+        public void printOutput( PrintStream out ) throws IOException {
+            _runner.printOutput( out );
+        }
+    }
+
+    /**
+     * How long to wait for the streams of a killed tool to close.
+     */
+    private static final long KILL_WAIT_MILLIS = 10000;
+
+    private static final File PROC = new File( "/proc" );
+
+    private final String _tool;
+    private final long _timeoutMillis;
+
+    /**
+     * The running tool, or null. Access is synchronized via 'this'.
+     */
+    private Process _process;
+    private boolean _cancelled;
+
+    /**
+     * Creates a supervisor for the specified tool.
+     * 
+     * @param tool
+     *            the name of the tool, as reported in the metrics.
+     * @param timeoutSeconds
+     *            the wall-clock time the tool may run, 0 for no limit.
+     */
+    public ProcessSupervisor( String tool, long timeoutSeconds ) {
+        this( tool, timeoutSeconds, TimeUnit.SECONDS );
+    }
+
+    /**
+     * Creates a supervisor for the specified tool.
+     * 
+     * @param tool
+     *            the name of the tool, as reported in the metrics.
+     * @param timeout
+     *            the wall-clock time the tool may run, 0 for no limit.
+     * @param unit
+     *            the unit of the timeout.
+     */
+    public ProcessSupervisor( String tool, long timeout, TimeUnit unit ) {
+        _tool = tool;
+        _timeoutMillis = unit.toMillis( timeout );
+    }
+
+    /**
+     * Starts the tool and waits until it exits, times out or is cancelled.
+     * 
+     * @param builder
+     *            the process builder of the tool.
+     * @param echo
+     *            whether output lines are written to the log as they arrive.
+     * @exception java.io.IOException
+     *                if the tool cannot be started.
+     * @exception java.lang.InterruptedException
+     *                if the current thread is interrupted while waiting; the tool is killed first.
+     */
+    public Result run( ProcessBuilder builder, boolean echo ) throws IOException, InterruptedException {
+        BuildMetrics.Subprocess timer = BuildMetrics.startSubprocess( _tool );
+        long start = System.nanoTime();
+        Process process = builder.start();
+        ProcessRunner runner = ProcessRunner.start( process, echo );
+        synchronized( this ) {
+            _process = process;
+            if( _cancelled ) {
+                destroyTree( process );
+            }
+        }
+
+        ExitReason reason;
+        int exitValue;
+        try {
+            if( _timeoutMillis > 0 ) {
+                exitValue = runner.waitFor( _timeoutMillis, TimeUnit.MILLISECONDS );
+            } else {
+                exitValue = runner.waitFor();
+            }
+            synchronized( this ) {
+                reason = _cancelled ? ExitReason.CANCELLED : ExitReason.EXITED;
+            }
+        } catch( TimeoutException te ) {
+            destroyTree( process );
+            exitValue = waitForKilled( runner );
+            reason = ExitReason.TIMED_OUT;
+        } catch( InterruptedException ie ) {
+            destroyTree( process );
+            BuildMetrics.endSubprocess( timer, -1, ExitReason.CANCELLED.name() );
+            throw ie;
+        } finally {
+            synchronized( this ) {
+                _process = null;
+            }
+        }
+
+        BuildMetrics.endSubprocess( timer, exitValue, reason.name() );
+        return new Result( _tool, reason, exitValue, TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start ), runner );
+    }
+
+    /**
+     * Kills the running tool and the processes it started, or the next tool to be started by this supervisor. May be called
+     * from any thread.
+     */
+    public synchronized void cancel() {
+        _cancelled = true;
+        if( _process != null ) {
+            destroyTree( _process );
+        }
+    }
+
+    private static int waitForKilled( ProcessRunner runner ) throws InterruptedException {
+        try {
+            return runner.waitFor( KILL_WAIT_MILLIS, TimeUnit.MILLISECONDS );
+        } catch( TimeoutException te ) {
+            // a descendant we could not find still holds the pipes open
+            return -1;
+        }
+    }
+
+    /**
+     * Kills the specified process and all its descendants. Descendants can only be found where /proc is available; elsewhere
+     * only the process itself is destroyed.
+     */
+    static void destroyTree( Process process ) {
+        long pid = getPid( process );
+        if( pid > 0 && PROC.isDirectory() ) {
+            // collect the whole tree before killing anything, since orphans are reparented
+            List< Long > tree = getDescendants( pid );
+            tree.add( 0, Long.valueOf( pid ) );
+            String[] cmd = new String[ tree.size() + 2 ];
+            cmd[ 0 ] = "kill";
+            cmd[ 1 ] = "-KILL";
+            for( int i = 0; i < tree.size(); i++ ) {
+                cmd[ i + 2 ] = tree.get( i ).toString();
+            }
+            try {
+                Process kill = new ProcessBuilder( cmd ).redirectErrorStream( true ).start();
+                ProcessRunner.start( kill, false ).waitFor();
+            } catch( IOException ioe ) {
+                // do nothing - fall back to destroy()
+            } catch( InterruptedException ie ) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        process.destroy();
+    }
+
+    /**
+     * Returns the operating system id of the specified process, or -1 if it is not available on this JVM.
+     */
+    private static long getPid( Process process ) {
+        try {
+            // Java 9 and later
+            Method pid = Process.class.getMethod( "pid" );
+            return ( (Long) pid.invoke( process ) ).longValue();
+        } catch( Exception e ) {
+            // fall through
+        }
+        try {
+            // UNIXProcess up to Java 8
+            Field pid = process.getClass().getDeclaredField( "pid" );
+            pid.setAccessible( true );
+            return pid.getLong( process );
+        } catch( Exception e ) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the descendants of the specified process, read from the parent ids in /proc.
+     */
+    private static List< Long > getDescendants( long pid ) {
+        Map< Long, List< Long >> children = new HashMap< Long, List< Long >>();
+        String[] entries = PROC.list();
+        if( entries != null ) {
+            for( String entry : entries ) {
+                if( entry.length() == 0 || !Character.isDigit( entry.charAt( 0 ) ) ) {
+                    continue;
+                }
+                long ppid = getParentPid( new File( new File( PROC, entry ), "stat" ) );
+                if( ppid > 0 ) {
+                    Long key = Long.valueOf( ppid );
+                    List< Long > list = children.get( key );
+                    if( list == null ) {
+                        list = new ArrayList< Long >();
+                        children.put( key, list );
+                    }
+                    list.add( Long.valueOf( entry ) );
+                }
+            }
+        }
+
+        List< Long > result = new ArrayList< Long >();
+        List< Long > pending = new ArrayList< Long >();
+        pending.add( Long.valueOf( pid ) );
+        while( !pending.isEmpty() ) {
+            List< Long > list = children.get( pending.remove( pending.size() - 1 ) );
+            if( list != null ) {
+                result.addAll( list );
+                pending.addAll( list );
+            }
+        }
+        return result;
+    }
+
+    private static long getParentPid( File stat ) {
+        try {
+            BufferedReader reader = new BufferedReader( new FileReader( stat ) );
+            try {
+                String line = reader.readLine();
+                // pid (comm) state ppid ... : comm may contain spaces
+                String[] fields = line.substring( line.lastIndexOf( ')' ) + 2 ).split( " " );
+                return Long.parseLong( fields[ 1 ] );
+            } finally {
+                reader.close();
+            }
+        } catch( Exception e ) {
+            // the process exited meanwhile
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.processbuffer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+
+import net.rim.tumbler.log.LogType;
+import net.rim.tumbler.log.Logger;
+
+/**
+ * Drains one output stream of a subprocess on a pooled thread. The stream is read in bulk; at most a fixed number of bytes are
+ * retained, the oldest being discarded first since the end of a tool's output is usually where its errors are. Complete lines
+ * can also be echoed to the log as they arrive.
+ * 
+ * @see ProcessRunner
+ */
+final class StreamBuffer implements Callable< Void > {
+
+    private static final int READ_SIZE = 8192;
+
+    /**
+     * Lines longer than this are echoed in pieces rather than buffered until their end.
+     */
+    private static final int MAX_LINE = 8192;
+
+    private final InputStream _stream;
+    private final int _maxRetained;
+    private final boolean _echo;
+
+    /**
+     * The retained bytes, at most '_maxRetained' of them once the stream is drained, '_count' bytes from '_start' on. The
+     * buffer grows until it holds '_maxRetained' bytes, then wraps around, the newest bytes overwriting the oldest. Access is
+     * synchronized via 'this'.
+     */
+    private byte[] _buffer;
+    private int _start;
+    private int _count;
+    private boolean _truncated;
+
+    private ByteArrayOutputStream _line;
+
+    StreamBuffer( InputStream stream, int maxRetained, boolean echo ) {
+        _stream = stream;
+        _maxRetained = maxRetained;
+        _echo = echo;
+        _buffer = new byte[ Math.min( maxRetained, READ_SIZE ) ];
+        _line = echo ? new ByteArrayOutputStream() : null;
+    }
+
+    /**
+     * Reads to the end of the stream. An i/o error ends the read early; what was read until then is kept.
+     */
+    public Void call() {
+        byte[] chunk = new byte[ READ_SIZE ];
+        try {
+            try {
+                for( int n; ( n = _stream.read( chunk ) ) != -1; ) {
+                    retain( chunk, n );
+                    if( _echo ) {
+                        echo( chunk, n );
+                    }
+                }
+            } finally {
+                _stream.close();
+            }
+        } catch( IOException ioe ) {
+            // do nothing - the bytes read so far remain available
+        }
+        if( _echo && _line.size() > 0 ) {
+            flushLine();
+        }
+        return null;
+    }
+
+    /**
+     * Returns a copy of the retained bytes, oldest first.
+     */
+    synchronized byte[] getBytes() {
+        byte[] result = new byte[ _count ];
+        copyTo( result );
+        return result;
+    }
+
+    /**
+     * Indicates whether bytes had to be discarded to stay within the retention limit.
+     */
+    synchronized boolean isTruncated() {
+        return _truncated;
+    }
+
+    private synchronized void retain( byte[] chunk, int n ) {
+        if( n >= _maxRetained ) {
+            if( _buffer.length < _maxRetained ) {
+                _buffer = new byte[ _maxRetained ];
+            }
+            System.arraycopy( chunk, n - _maxRetained, _buffer, 0, _maxRetained );
+            _start = 0;
+            _count = _maxRetained;
+            _truncated = true;
+            return;
+        }
+        if( _count + n > _buffer.length && _buffer.length < _maxRetained ) {
+            grow( _count + n );
+        }
+
+        // append after the newest byte, wrapping around to the start of the buffer
+        int length = _buffer.length;
+        int end = ( _start + _count ) % length;
+        int first = Math.min( n, length - end );
+        System.arraycopy( chunk, 0, _buffer, end, first );
+        System.arraycopy( chunk, first, _buffer, 0, n - first );
+        int overflow = _count + n - length;
+        if( overflow > 0 ) {
+            _start = ( _start + overflow ) % length;
+            _count = length;
+            _truncated = true;
+        } else {
+            _count += n;
+        }
+    }
+
+    private void grow( int capacity ) {
+        byte[] grown = new byte[ Math.min( Math.max( capacity, _buffer.length * 2 ), _maxRetained ) ];
+        copyTo( grown );
+        _buffer = grown;
+        _start = 0;
+    }
+
+    /**
+     * Copies the retained bytes, oldest first, to the start of the specified array.
+     */
+    private void copyTo( byte[] target ) {
+        int first = Math.min( _count, _buffer.length - _start );
+        System.arraycopy( _buffer, _start, target, 0, first );
+        System.arraycopy( _buffer, 0, target, first, _count - first );
+    }
+
+    private void echo( byte[] chunk, int n ) {
+        int start = 0;
+        for( int i = 0; i < n; i++ ) {
+            if( chunk[ i ] == '\n' ) {
+                _line.write( chunk, start, i - start );
+                flushLine();
+                start = i + 1;
+            }
+        }
+        _line.write( chunk, start, n - start );
+        if( _line.size() >= MAX_LINE ) {
+            flushLine();
+        }
+    }
+
+    private void flushLine() {
+        String line = _line.toString();
+        _line.reset();
+        if( line.endsWith( "\r" ) ) {
+            line = line.substring( 0, line.length() - 1 );
+        }
+        Logger.logLine( line );
+    }
+}
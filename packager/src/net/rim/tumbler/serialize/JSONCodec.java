@@ -0,0 +1,40 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.serialize;
+
+import java.io.IOException;
+
+import net.rim.tumbler.json4j.JSONException;
+import net.rim.tumbler.json4j.JSONReader;
+import net.rim.tumbler.json4j.JSONWriter;
+
+/**
+ * Binds a config type directly to the json4j token stream, without reflection and without an intermediate JSONObject tree.
+ * 
+ * @param <T>
+ *            the type handled by the codec.
+ */
+public interface JSONCodec< T > {
+    /**
+     * Writes <code>value</code> as a single JSON value at the current writer position.
+     */
+    void write( JSONWriter writer, T value ) throws IOException, JSONException;
+
+    /**
+     * Reads a single JSON value at the current reader position, as produced by {@link #write}.
+     */
+    T read( JSONReader reader ) throws Exception;
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.serialize;
+
+import java.io.IOException;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.Vector;
+
+import net.rim.tumbler.config.WidgetAccess;
+import net.rim.tumbler.config.WidgetFeature;
+import net.rim.tumbler.json4j.JSONException;
+import net.rim.tumbler.json4j.JSONReader;
+import net.rim.tumbler.json4j.JSONWriter;
+
+/**
+ * Codec for the access table of a widget config, written as the <code>accessList</code> array of user.js. The local domain is
+ * written as <code>WIDGET_LOCAL</code>.
+ */
+public class WhitelistCodec implements JSONCodec< Hashtable< WidgetAccess, Vector< WidgetFeature >>> {
+    public static final WhitelistCodec INSTANCE = new WhitelistCodec();
+
+    private static final String LOCAL_DOMAIN = "WidgetConfig.WIDGET_LOCAL_DOMAIN";
+    private static final String LOCAL_URI = "WIDGET_LOCAL";
+
+    private static final String KEY_URI = "uri";
+    private static final String KEY_ALLOW_SUBDOMAIN = "allowSubDomain";
+    private static final String KEY_FEATURES = "features";
+
+    public void write( JSONWriter writer, Hashtable< WidgetAccess, Vector< WidgetFeature >> accessTable ) throws IOException,
+            JSONException {
+        writer.array();
+        for( Map.Entry< WidgetAccess, Vector< WidgetFeature >> entry : accessTable.entrySet() ) {
+            WidgetAccess access = entry.getKey();
+            String uri = access.getURI().toString();
+
+            writer.object();
+            writer.key( KEY_URI ).value( uri.equals( LOCAL_DOMAIN ) ? LOCAL_URI : uri );
+            writer.key( KEY_ALLOW_SUBDOMAIN ).value( access.allowSubDomain() );
+            writer.key( KEY_FEATURES ).array();
+            for( WidgetFeature feature : entry.getValue() ) {
+                WidgetFeatureCodec.INSTANCE.write( writer, feature );
+            }
+            writer.endArray();
+            writer.endObject();
+        }
+        writer.endArray();
+    }
+
+    public Hashtable< WidgetAccess, Vector< WidgetFeature >> read( JSONReader reader ) throws Exception {
+        Hashtable< WidgetAccess, Vector< WidgetFeature >> accessTable = new Hashtable< WidgetAccess, Vector< WidgetFeature >>();
+
+        reader.beginArray();
+        while( reader.hasNext() ) {
+            String uri = null;
+            boolean allowSubDomain = false;
+            Vector< WidgetFeature > features = new Vector< WidgetFeature >();
+
+            reader.beginObject();
+            while( reader.hasNext() ) {
+                String key = reader.nextKey();
+                if( key.equals( KEY_URI ) ) {
+                    uri = reader.nextString();
+                } else if( key.equals( KEY_ALLOW_SUBDOMAIN ) ) {
+                    allowSubDomain = reader.nextBoolean();
+                } else if( key.equals( KEY_FEATURES ) ) {
+                    reader.beginArray();
+                    while( reader.hasNext() ) {
+                        features.add( WidgetFeatureCodec.INSTANCE.read( reader ) );
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if( uri == null ) {
+                throw new JSONException( "Access entry without " + KEY_URI );
+            }
+            accessTable.put( new WidgetAccess( uri.equals( LOCAL_URI ) ? LOCAL_DOMAIN : uri, allowSubDomain ), features );
+        }
+        reader.endArray();
+
+        return accessTable;
+    }
+}
@@ -15,24 +15,30 @@
  */
 package net.rim.tumbler.serialize;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.Map;
 import java.util.Vector;
 
-import net.rim.tumbler.config.WidgetAccess;
 import net.rim.tumbler.config.WidgetConfig;
-import net.rim.tumbler.config.WidgetFeature;
 import net.rim.tumbler.exception.ValidationException;
-import net.rim.tumbler.json4j.JSONArray;
 import net.rim.tumbler.json4j.JSONException;
 import net.rim.tumbler.json4j.JSONObject;
+import net.rim.tumbler.json4j.JSONWriter;
 
 /**
  * Generate JSON that contains information parsed from config.xml
+ * <p>
+ * The JSON is streamed straight from the config through a JSONWriter; a JSONObject is only built on request by
+ * getConfigJSONObject().
  */
 public class WidgetConfig_v1Serializer implements WidgetConfigSerializer {
 
-    private StringBuffer _buffer;
-    private JSONObject _configValues;
+    private static final String PREFIX = "module.exports = ";
+    private static final String SUFFIX = ";\n";
+
+    // the serialized config, the JSON between PREFIX and SUFFIX
+    private byte[] _config;
     private WidgetConfig _widgetConfig;
     private static final String[] KEYS_PROP_STRING = { 
         "version",
@@ -67,12 +73,10 @@ public class WidgetConfig_v1Serializer implements WidgetConfigSerializer {
     };
 
     public WidgetConfig_v1Serializer( WidgetConfig widgetConfig, Map< String, Vector< String >> entryClassTable ) {
-        _buffer = new StringBuffer( "module.exports = " );
-        _configValues = new JSONObject();
         _widgetConfig = widgetConfig;
     }
     
-    private void serializeStringProperties() throws JSONException {
+    private void serializeStringProperties( JSONWriter writer ) throws IOException, JSONException {
         String[] propValues = {
                 _widgetConfig.getVersion(),
                 _widgetConfig.getID(),
@@ -98,12 +102,12 @@ public class WidgetConfig_v1Serializer implements WidgetConfigSerializer {
 
         for( int i = 0; i < KEYS_PROP_STRING.length; i++ ) {
             if( propValues[ i ] != null ) {
-                _configValues.put( KEYS_PROP_STRING[ i ], propValues[ i ] );
+                writer.key( KEYS_PROP_STRING[ i ] ).value( propValues[ i ] );
             }
         }
     }
 	
-    private void serializeBooleanProperties() throws JSONException {
+    private void serializeBooleanProperties( JSONWriter writer ) throws IOException, JSONException {
         boolean[] propValues = {
                 _widgetConfig.allowMultiAccess(),
                 _widgetConfig.getFirstPageLoad(),
@@ -116,96 +120,82 @@ public class WidgetConfig_v1Serializer implements WidgetConfigSerializer {
 
         for( int i = 0; i < KEYS_PROP_BOOLEAN.length; i++ ) {
             if( propValues[ i ] ) {
-                _configValues.put( KEYS_PROP_BOOLEAN[ i ], propValues[ i ] );
+                writer.key( KEYS_PROP_BOOLEAN[ i ] ).value( propValues[ i ] );
             }
         }
     }
 
-    private void serializeWhitelist() throws JSONException {
+    private void serializeWhitelist( JSONWriter writer ) throws IOException, JSONException {
         // add access/features
         if( _widgetConfig.getAccessTable() != null && _widgetConfig.getAccessTable().size() > 0 ) {
-            JSONArray accessList = new JSONArray();
-
-            for( WidgetAccess key : _widgetConfig.getAccessTable().keySet() ) {
-                JSONObject access = new JSONObject();
-                JSONArray featureList = new JSONArray();
-
-                if( key.getURI().toString().equals( "WidgetConfig.WIDGET_LOCAL_DOMAIN" ) ) {
-                    access.put( "uri", "WIDGET_LOCAL" );
-                } else {
-                    access.put( "uri", key.getURI().toString() );
-                }
-
-                access.put( "allowSubDomain", key.allowSubDomain() );
-                access.put( "features", featureList );
-
-                Vector< ? > wfList = (Vector< ? >) _widgetConfig.getAccessTable().get( key );
-
-                if( wfList.size() > 0 ) {
-                    for( int j = 0; j < wfList.size(); j++ ) {
-                        WidgetFeature wf = (WidgetFeature) wfList.get( j );
-                        JSONObject feature = new JSONObject();
-
-                        feature.put( "id", wf.getID() );
-                        feature.put( "required", wf.isRequired() );
-                        feature.put( "version", wf.getVersion() );
-
-                        featureList.add( feature );
-                    }
-                }
-
-                accessList.add( access );
-            }
-
-            _configValues.put( "accessList", accessList );
-        }        
+            writer.key( "accessList" );
+            WhitelistCodec.INSTANCE.write( writer, _widgetConfig.getAccessTable() );
+        }
     }
-    
+
     public byte[] serialize() throws ValidationException {
         try {
-            serializeStringProperties();            
-            serializeBooleanProperties();            
-            serializeWhitelist();
-            
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write( PREFIX.getBytes( "UTF-8" ) );
+            JSONWriter writer = new JSONWriter( out );
+            writer.object();
+
+            serializeStringProperties( writer );
+            serializeBooleanProperties( writer );
+            serializeWhitelist( writer );
+
             // add icons
             if( _widgetConfig.getIconSrc().size() > 0 ) {
-                _configValues.put( "icon", _widgetConfig.getIconSrc().firstElement() );
+                writer.key( "icon" ).value( _widgetConfig.getIconSrc().firstElement() );
                 if( _widgetConfig.getHoverIconSrc().size() > 0 ) {
-                    _configValues.put( "iconHover", _widgetConfig.getHoverIconSrc().firstElement() );
+                    writer.key( "iconHover" ).value( _widgetConfig.getHoverIconSrc().firstElement() );
                 }
             }
 
             // add custom headers
             if( _widgetConfig.getCustomHeaders().size() > 0 ) {
-                JSONObject customHeaders = new JSONObject();
-                for( String key : _widgetConfig.getCustomHeaders().keySet() ) {
-                    customHeaders.put( key, _widgetConfig.getCustomHeaders().get( key ) );
+                writer.key( "customHeaders" ).object();
+                for( Map.Entry< String, String > header : _widgetConfig.getCustomHeaders().entrySet() ) {
+                    writer.key( header.getKey() ).value( header.getValue() );
                 }
-                _configValues.put( "customHeaders", customHeaders );
+                writer.endObject();
             }
 
             // set navigation mode
             if( _widgetConfig.getNavigationMode() ) {
-                _configValues.put( "navigationMode", "focus" );
+                writer.key( "navigationMode" ).value( "focus" );
             }
 
-            _buffer.append( _configValues.toString() );
-            _buffer.append( ";\n" );
+            writer.endObject();
+            writer.close(); // closing a ByteArrayOutputStream has no effect
+            out.write( SUFFIX.getBytes( "UTF-8" ) );
+
+            _config = out.toByteArray();
+        } catch( IOException e ) {
+            throw new RuntimeException( e );
         } catch( JSONException e ) {
             throw new RuntimeException( e );
         }
 
-        return _buffer.toString().getBytes();
+        return _config;
     }
-    
+
     public JSONObject getConfigJSONObject() {
-        if( _configValues != null ) {
-            return (JSONObject) _configValues.clone();
+        if( _config == null ) {
+            return new JSONObject();
         }
 
-        return null;
+        try {
+            // PREFIX and SUFFIX are ASCII, one byte per character
+            return new JSONObject( new String( _config, PREFIX.length(), _config.length - PREFIX.length() - SUFFIX.length(),
+                    "UTF-8" ) );
+        } catch( IOException e ) {
+            throw new RuntimeException( e );
+        } catch( JSONException e ) {
+            throw new RuntimeException( e );
+        }
     }
-    
+
     public static String[] getStringPropKeys() {
         return KEYS_PROP_STRING;
     }
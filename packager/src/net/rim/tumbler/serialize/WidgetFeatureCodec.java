@@ -0,0 +1,65 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.serialize;
+
+import java.io.IOException;
+
+import net.rim.tumbler.config.WidgetFeature;
+import net.rim.tumbler.json4j.JSONException;
+import net.rim.tumbler.json4j.JSONReader;
+import net.rim.tumbler.json4j.JSONWriter;
+
+/**
+ * Codec for a feature entry of the whitelist: <code>{"id":..., "required":..., "version":...}</code>.
+ */
+public class WidgetFeatureCodec implements JSONCodec< WidgetFeature > {
+    public static final WidgetFeatureCodec INSTANCE = new WidgetFeatureCodec();
+
+    private static final String KEY_ID = "id";
+    private static final String KEY_REQUIRED = "required";
+    private static final String KEY_VERSION = "version";
+
+    public void write( JSONWriter writer, WidgetFeature feature ) throws IOException, JSONException {
+        writer.object();
+        writer.key( KEY_ID ).value( feature.getID() );
+        writer.key( KEY_REQUIRED ).value( feature.isRequired() );
+        writer.key( KEY_VERSION ).value( feature.getVersion() );
+        writer.endObject();
+    }
+
+    public WidgetFeature read( JSONReader reader ) throws JSONException {
+        String id = null;
+        boolean required = false;
+        String version = null;
+
+        reader.beginObject();
+        while( reader.hasNext() ) {
+            String key = reader.nextKey();
+            if( key.equals( KEY_ID ) ) {
+                id = reader.nextString();
+            } else if( key.equals( KEY_REQUIRED ) ) {
+                required = reader.nextBoolean();
+            } else if( key.equals( KEY_VERSION ) ) {
+                version = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return new WidgetFeature( id, required, version, null );
+    }
+}
@@ -19,7 +19,9 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.StringTokenizer;
 
 import org.w3c.dom.Document;
@@ -44,6 +46,27 @@ public class BBWPProperties {
     private static final String NODE_TABLET_SDK = "tablet_sdk";
     private static final String NODE_EXTENSION_REPO = "extension_repository";
     private static final String NODE_DEBUG_TOKEN = "debug_token";
+    private static final String NODE_TOOL_TIMEOUT = "tool_timeout";
+    private static final String ATTR_TOOL = "tool";
+    private static final String NODE_COMPILER_WORKERS = "compiler_workers";
+    private static final String NODE_SWF_CACHE = "swf_cache";
+    private static final String NODE_SIGNER_WORKERS = "signer_workers";
+    private static final String NODE_SIGNER_BATCH_SIZE = "signer_batch_size";
+    private static final String NODE_SIGNER_IN_PROCESS = "signer_in_process";
+    private static final String NODE_PNG_COMPRESSION = "png_compression";
+    private static final String NODE_COPY_HARD_LINKS = "copy_hard_links";
+    private static final String NODE_OUTPUT_SYMLINK = "output_symlink";
+    private static final String ATTR_SIZE = "size";
+
+    /**
+     * The size, in megabytes, the SWF cache may grow to unless bbwp.properties specifies otherwise.
+     */
+    public static final long DEFAULT_SWF_CACHE_SIZE = 256;
+
+    /**
+     * The time, in seconds, an external tool may run unless bbwp.properties specifies otherwise.
+     */
+    public static final long DEFAULT_TOOL_TIMEOUT = 600;
 
     private String _rapc;
     private String _javac;
@@ -58,6 +81,17 @@ public class BBWPProperties {
     private String _tabletSDK;
     private String _extensionRepo;
     private String _debugToken;
+    private long _defaultToolTimeout;
+    private Map< String, Long > _toolTimeouts;
+    private int _compilerWorkers;
+    private String _swfCache;
+    private long _swfCacheSize;
+    private int _signerWorkers;
+    private int _signerBatchSize;
+    private boolean _signerInProcess;
+    private int _pngCompression;
+    private boolean _copyHardLinks;
+    private boolean _outputSymlink;
 
     public BBWPProperties( String bbwpProperties, String sessionHome ) throws Exception {
         // parse bbwp.properties
@@ -122,6 +156,91 @@ public class BBWPProperties {
         return _debugToken;
     }
 
+    /**
+     * Returns the wall-clock time, in seconds, the specified external tool may run before it is killed; 0 means no limit. It is
+     * set with <code>&lt;tool_timeout tool="mxmlc"&gt;seconds&lt;/tool_timeout&gt;</code>, or for all tools without a timeout of
+     * their own with a <code>&lt;tool_timeout&gt;</code> element that has no tool attribute.
+     * 
+     * @param tool
+     *            the tool name: mxmlc, airpackager or signer.
+     */
+    public long getToolTimeout( String tool ) {
+        Long timeout = _toolTimeouts.get( tool );
+        return timeout != null ? timeout.longValue() : _defaultToolTimeout;
+    }
+
+    /**
+     * Returns the number of persistent fcsh compiler shells that may be kept running for mxmlc compilations, as set with
+     * <code>&lt;compiler_workers&gt;</code>. If 0, the default, every compilation runs mxmlc.
+     */
+    public int getCompilerWorkers() {
+        return _compilerWorkers;
+    }
+
+    /**
+     * Returns the folder of the compiled SWF cache, as set with <code>&lt;swf_cache size="megabytes"&gt;</code>, or an empty
+     * string if the cache is disabled, the default.
+     */
+    public String getSwfCache() {
+        return _swfCache;
+    }
+
+    /**
+     * Returns the size, in bytes, the SWF cache may grow to before its least recently used entries are evicted.
+     */
+    public long getSwfCacheSize() {
+        return _swfCacheSize;
+    }
+
+    /**
+     * Returns the number of signer batches that may be signed concurrently, as set with <code>&lt;signer_workers&gt;</code>;
+     * 1 by default.
+     */
+    public int getSignerWorkers() {
+        return _signerWorkers;
+    }
+
+    /**
+     * Returns the number of BARs passed to one signer invocation, as set with <code>&lt;signer_batch_size&gt;</code>; 1 by
+     * default. Larger batches require a signer that accepts several BARs before the key alias.
+     */
+    public int getSignerBatchSize() {
+        return _signerBatchSize;
+    }
+
+    /**
+     * Indicates whether BARs are signed in process with the keys of the P12 keystore rather than by the signer of the Tablet
+     * SDK, as set with <code>&lt;signer_in_process&gt;true&lt;/signer_in_process&gt;</code>; false by default.
+     */
+    public boolean isSignerInProcess() {
+        return _signerInProcess;
+    }
+
+    /**
+     * Returns the deflate level, 0 to 9, of the PNG encoder used for splash screens, as set with
+     * <code>&lt;png_compression&gt;</code>; -1, the default, encodes them with ImageIO.
+     */
+    public int getPngCompression() {
+        return _pngCompression;
+    }
+
+    /**
+     * Indicates whether the files copied to bin-debug and to the output folder are hard links to the source files where the
+     * file system allows it, as set with <code>&lt;copy_hard_links&gt;true&lt;/copy_hard_links&gt;</code>; false by default.
+     */
+    public boolean isCopyHardLinks() {
+        return _copyHardLinks;
+    }
+
+    /**
+     * Indicates whether the output folder is published as a symbolic link to the folder holding the outputs, which makes the
+     * switch to new outputs atomic, as set with <code>&lt;output_symlink&gt;true&lt;/output_symlink&gt;</code>; false by
+     * default.
+     */
+    public boolean isOutputSymlink() {
+        return _outputSymlink;
+    }
+
     private void validate() throws Exception {
         // Check template and archive
         if( !( new File( _templateDir ) ).exists() ) {
@@ -208,6 +327,17 @@ public class BBWPProperties {
 
         _extensionRepo = "ext";
         _debugToken = "";
+        _defaultToolTimeout = DEFAULT_TOOL_TIMEOUT;
+        _toolTimeouts = new HashMap< String, Long >();
+        _compilerWorkers = 0;
+        _swfCache = "";
+        _swfCacheSize = DEFAULT_SWF_CACHE_SIZE * 1024 * 1024;
+        _signerWorkers = 1;
+        _signerBatchSize = 1;
+        _signerInProcess = false;
+        _pngCompression = -1;
+        _copyHardLinks = false;
+        _outputSymlink = false;
 
         if( dom == null )
             return;
@@ -293,14 +423,14 @@ public class BBWPProperties {
                             _copyright = childlist.item( j ).getNodeValue();
                         }
                     }
-                }/* else if( nodename.equals( NODE_TABLET_SDK ) ) {
+                } else if( nodename.equals( NODE_TABLET_SDK ) ) {
                     NodeList childlist = node.getChildNodes();
                     for( int j = 0; j < childlist.getLength(); j++ ) {
                         if( childlist.item( j ).getNodeType() == Node.TEXT_NODE ) {
                             _tabletSDK = childlist.item( j ).getNodeValue();
                         }
                     }
-                }*/ else if( nodename.equals( NODE_EXTENSION_REPO ) ) {
+                } else if( nodename.equals( NODE_EXTENSION_REPO ) ) {
                     NodeList childlist = node.getChildNodes();
                     for( int j = 0; j < childlist.getLength(); j++ ) {
                         if( childlist.item( j ).getNodeType() == Node.TEXT_NODE ) {
@@ -314,6 +444,37 @@ public class BBWPProperties {
                             _debugToken = childlist.item( j ).getNodeValue();
                         }
                     }
+                } else if( nodename.equals( NODE_SWF_CACHE ) ) {
+                    _swfCache = node.getTextContent().trim();
+                    if( _swfCache.length() > 0 && !new File( _swfCache ).isAbsolute() ) {
+                        _swfCache = _sessionHome + File.separator + _swfCache;
+                    }
+                    Node size = node.getAttributes().getNamedItem( ATTR_SIZE );
+                    if( size != null ) {
+                        _swfCacheSize = Long.parseLong( size.getNodeValue().trim() ) * 1024 * 1024;
+                    }
+                } else if( nodename.equals( NODE_SIGNER_WORKERS ) ) {
+                    _signerWorkers = Integer.parseInt( node.getTextContent().trim() );
+                } else if( nodename.equals( NODE_SIGNER_BATCH_SIZE ) ) {
+                    _signerBatchSize = Integer.parseInt( node.getTextContent().trim() );
+                } else if( nodename.equals( NODE_SIGNER_IN_PROCESS ) ) {
+                    _signerInProcess = Boolean.parseBoolean( node.getTextContent().trim() );
+                } else if( nodename.equals( NODE_PNG_COMPRESSION ) ) {
+                    _pngCompression = Math.max( -1, Math.min( 9, Integer.parseInt( node.getTextContent().trim() ) ) );
+                } else if( nodename.equals( NODE_COPY_HARD_LINKS ) ) {
+                    _copyHardLinks = Boolean.parseBoolean( node.getTextContent().trim() );
+                } else if( nodename.equals( NODE_OUTPUT_SYMLINK ) ) {
+                    _outputSymlink = Boolean.parseBoolean( node.getTextContent().trim() );
+                } else if( nodename.equals( NODE_COMPILER_WORKERS ) ) {
+                    _compilerWorkers = Integer.parseInt( node.getTextContent().trim() );
+                } else if( nodename.equals( NODE_TOOL_TIMEOUT ) ) {
+                    long timeout = Long.parseLong( node.getTextContent().trim() );
+                    Node tool = node.getAttributes().getNamedItem( ATTR_TOOL );
+                    if( tool != null ) {
+                        _toolTimeouts.put( tool.getNodeValue(), Long.valueOf( timeout ) );
+                    } else {
+                        _defaultToolTimeout = timeout;
+                    }
                 }
             }
         }
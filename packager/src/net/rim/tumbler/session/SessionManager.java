@@ -18,8 +18,11 @@ package net.rim.tumbler.session;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.zip.ZipFile;
 
 import net.rim.tumbler.CmdLineHandler;
@@ -27,11 +30,16 @@ import net.rim.tumbler.WidgetPackager;
 import net.rim.tumbler.exception.PackageException;
 import net.rim.tumbler.exception.SessionException;
 import net.rim.tumbler.exception.ValidationException;
+import net.rim.tumbler.log.Logger;
 import net.rim.tumbler.signing.SigningSupport;
 
 public class SessionManager {
     private static final String BAR_FILE_EXTENSION = ".bar";
     private static SessionManager _instance = null;
+    // the session of each thread packaging an archive of a batch
+    private static final ThreadLocal< SessionManager > _threadInstance = new ThreadLocal< SessionManager >();
+    // tld.txt, read once per file
+    private static final Map< String, String > _tldCache = new HashMap< String, String >();
 
     // environment properties
     public static final String BBWP_JAR_PATH;
@@ -52,6 +60,7 @@ public class SessionManager {
     private String _p12FullPath;
     private String _buildId;
     private String _outputFolder;
+    private String _outputStagingFolder;
     private boolean _requireSource;
     private String _sourceFolder;
     private boolean _debugMode;
@@ -78,12 +87,43 @@ public class SessionManager {
             boolean requireSigning, String password, String cskPassword, String p12Password, String buildId,
             boolean requireSource, String sourceFolder, boolean debugMode, boolean debugModeInternal, boolean isVerbose,
             boolean playbook ) throws Exception {
-        _instance = new SessionManager( archiveName, widgetArchive, bbwpInstallFolder, outputFolder, requireSigning, password,
-                cskPassword, p12Password, buildId, requireSource, sourceFolder, debugMode, debugModeInternal, isVerbose, playbook );
+        SessionManager session = new SessionManager( archiveName, widgetArchive, bbwpInstallFolder, outputFolder, requireSigning,
+                password, cskPassword, p12Password, buildId, requireSource, sourceFolder, debugMode, debugModeInternal, isVerbose,
+                playbook );
+        _instance = session;
+        _threadInstance.set( session );
+        Logger.setBuild( archiveName );
     }
 
+    /**
+     * Returns the session last created on the calling thread, or, on a thread that did not create one, the session last
+     * created on any thread.
+     */
     public static SessionManager getInstance() {
-        return _instance;
+        SessionManager session = _threadInstance.get();
+        return session != null ? session : _instance;
+    }
+
+    /**
+     * Makes the specified session current on the calling thread, which runs part of its build.
+     */
+    public static void bindInstance( SessionManager session ) {
+        if( session != null ) {
+            _threadInstance.set( session );
+            Logger.setBuild( session.getArchiveName() );
+        } else {
+            _threadInstance.remove();
+            Logger.setBuild( null );
+        }
+    }
+
+    /**
+     * Detaches the session of the calling thread from it, once its archive is packaged, so that a thread reused for the next
+     * archive of a batch does not see it.
+     */
+    public static void releaseInstance() {
+        _threadInstance.remove();
+        Logger.setBuild( null );
     }
 
     private SessionManager( String archiveName, String widgetArchive, String bbwpInstallFolder, String outputFolder,
@@ -120,14 +160,34 @@ public class SessionManager {
         validateArchive( _widgetArchive );
 
         // load top level domain info
-        BufferedReader input = new BufferedReader( new FileReader( new File( _bbwpJarFolder + "tld.txt" ) ) );
-        String line = null; // not declared within while loop
-        StringBuffer sb = new StringBuffer( "$$" );
-        while( ( line = input.readLine() ) != null ) {
-            sb.append( line.toLowerCase().trim() );
-            sb.append( "$$" );
+        _tld = loadTLD( new File( _bbwpJarFolder + "tld.txt" ) );
+    }
+
+    /**
+     * Reads the top level domains of the specified file, once for all the sessions of a run.
+     */
+    private static String loadTLD( File file ) throws IOException {
+        synchronized( _tldCache ) {
+            String tld = _tldCache.get( file.getPath() );
+            if( tld != null ) {
+                return tld;
+            }
+
+            BufferedReader input = new BufferedReader( new FileReader( file ) );
+            try {
+                String line = null; // not declared within while loop
+                StringBuffer sb = new StringBuffer( "$$" );
+                while( ( line = input.readLine() ) != null ) {
+                    sb.append( line.toLowerCase().trim() );
+                    sb.append( "$$" );
+                }
+                tld = sb.toString();
+            } finally {
+                input.close();
+            }
+            _tldCache.put( file.getPath(), tld );
+            return tld;
         }
-        _tld = sb.toString();
     }
 
     private void validateArchive( String archive ) throws PackageException {
@@ -159,8 +219,14 @@ public class SessionManager {
 
         if( home.equals( "" ) ) {
             return System.getProperty( "user.dir" );
+        }
+
+        int binIndex = home.lastIndexOf( File.separator + "bin" );
+        if( binIndex >= 0 ) {
+            return home.substring( 0, binIndex );
         } else {
-            return home.substring( 0, home.lastIndexOf( File.separator + "bin" ) );
+            // not installed under bin (e.g. embedded in a tool), use the folder containing the jar
+            return new File( home ).getParent();
         }
     }
 
@@ -251,10 +317,28 @@ public class SessionManager {
         return _buildId;
     }
 
+    /**
+     * Returns the folder the outputs are written to: the staging folder while the outputs are staged, the output folder
+     * otherwise.
+     */
     public String getOutputFolder() {
+        return _outputStagingFolder != null ? _outputStagingFolder : _outputFolder;
+    }
+
+    /**
+     * Returns the output folder the outputs are published to.
+     */
+    public String getPublishedOutputFolder() {
         return _outputFolder;
     }
 
+    /**
+     * Sets the folder the outputs are staged in until they are published, or null once they are.
+     */
+    public void setOutputStagingFolder( String outputStagingFolder ) {
+        _outputStagingFolder = outputStagingFolder;
+    }
+
     public boolean requireSource() {
         return _requireSource;
     }
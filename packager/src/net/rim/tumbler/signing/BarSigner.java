@@ -0,0 +1,309 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.signing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.xml.bind.DatatypeConverter;
+
+import net.rim.tumbler.exception.PackageException;
+import net.rim.tumbler.util.DaemonPools;
+
+/**
+ * Signs BAR files in process with the keys of a P12 keystore, instead of running the signer of the Tablet SDK.
+ * <p>
+ * The SHA-512 digests of the assets, all entries outside META-INF, are computed in parallel and written to
+ * <code>META-INF/MANIFEST.MF</code>, after the main section and the other sections of the manifest the BAR already holds,
+ * such as the package and application headers written by the packager. Then for every key alias
+ * <code>META-INF/&lt;ALIAS&gt;.SF</code> holds the digest of the manifest, <code>META-INF/&lt;ALIAS&gt;.SIG</code> the signature
+ * of that file and <code>META-INF/&lt;ALIAS&gt;.CER</code> the certificate chain of the key. The entries are appended to the BAR
+ * in place; the assets are read once whatever the number of aliases, and are not rewritten.
+ */
+public class BarSigner {
+    public static final String MANIFEST_NAME = "META-INF/MANIFEST.MF";
+
+    private static final String META_INF = "META-INF/";
+    private static final String DIGEST_ALGORITHM = "SHA-512";
+    private static final String CREATED_BY = "BlackBerry WebWorks Packager";
+    private static final String EOL = "\r\n";
+    private static final int MAX_LINE_LENGTH = 72;
+    private static final int BUFFER_SIZE = 65536;
+
+    private static final ExecutorService _digesters = DaemonPools.newFixed( "bar-digest",
+            Runtime.getRuntime().availableProcessors() );
+
+    private final SigningKeystore _keystore;
+
+    public BarSigner( SigningKeystore keystore ) {
+        _keystore = keystore;
+    }
+
+    /**
+     * Signs a BAR with the keys of the specified aliases, in order.
+     *
+     * @param bar
+     *            the BAR file.
+     * @param aliases
+     *            the key aliases, for example RDK and author.
+     */
+    public void sign( File bar, List< String > aliases ) throws IOException, PackageException {
+        try {
+            Map< String, byte[] > entries = new LinkedHashMap< String, byte[] >();
+            byte[] manifest = createManifest( bar );
+            if( manifest != null ) {
+                entries.put( MANIFEST_NAME, manifest );
+            } else {
+                manifest = readEntry( bar, MANIFEST_NAME );
+            }
+
+            byte[] signatureFile = createSignatureFile( manifest );
+            for( String alias : aliases ) {
+                KeyStore.PrivateKeyEntry key = _keystore.getEntry( alias );
+                String name = META_INF + alias.toUpperCase();
+                entries.put( name + ".SF", signatureFile );
+                entries.put( name + ".SIG", sign( signatureFile, key.getPrivateKey() ) );
+                entries.put( name + ".CER", encode( key.getCertificateChain() ) );
+            }
+
+            ZipAppender.append( bar, entries );
+        } catch( GeneralSecurityException gse ) {
+            throw new PackageException( "EXCEPTION_SIGNING_FAILED", gse );
+        } catch( InterruptedException ie ) {
+            throw new PackageException( "EXCEPTION_SIGNING_FAILED", ie );
+        }
+    }
+
+    /**
+     * Returns the manifest listing the digests of the assets of a BAR, after the sections of its current manifest, or null if
+     * the BAR already holds that manifest, so that signatures made earlier with other keys stay valid.
+     */
+    private static byte[] createManifest( File bar ) throws IOException, InterruptedException {
+        byte[] existing = null;
+        List< Future< String >> digests = new ArrayList< Future< String >>();
+        List< String > names = new ArrayList< String >();
+
+        final ZipFile zip = new ZipFile( bar );
+        try {
+            for( Enumeration< ? extends ZipEntry > e = zip.entries(); e.hasMoreElements(); ) {
+                ZipEntry entry = e.nextElement();
+                if( !entry.isDirectory() && !entry.getName().startsWith( META_INF ) ) {
+                    names.add( entry.getName() );
+                }
+            }
+            Collections.sort( names );
+
+            for( final String name : names ) {
+                digests.add( _digesters.submit( new Callable< String >() {
+                    public String call() throws IOException {
+                        return digest( zip, zip.getEntry( name ) );
+                    }
+                } ) );
+            }
+
+            ZipEntry manifestEntry = zip.getEntry( MANIFEST_NAME );
+            if( manifestEntry != null ) {
+                existing = read( zip, manifestEntry );
+            }
+
+            StringBuilder manifest = new StringBuilder();
+            if( existing != null ) {
+                appendKeptSections( manifest, new String( existing, "UTF-8" ) );
+            }
+            if( manifest.length() == 0 ) {
+                appendHeader( manifest, "Manifest-Version", "1.0" );
+                appendHeader( manifest, "Created-By", CREATED_BY );
+                manifest.append( EOL );
+            }
+            for( int i = 0; i < names.size(); i++ ) {
+                appendHeader( manifest, "Name", names.get( i ) );
+                appendHeader( manifest, DIGEST_ALGORITHM + "-Digest", digests.get( i ).get() );
+                manifest.append( EOL );
+            }
+
+            byte[] result = manifest.toString().getBytes( "UTF-8" );
+            return Arrays.equals( result, existing ) ? null : result;
+        } catch( ExecutionException ee ) {
+            Throwable cause = ee.getCause();
+            if( cause instanceof IOException ) {
+                throw (IOException) cause;
+            }
+            throw new IOException( cause );
+        } finally {
+            for( Future< String > digest : digests ) {
+                digest.cancel( true );
+            }
+            zip.close();
+        }
+    }
+
+    /**
+     * Appends the sections of an existing manifest as they are, but for the per-entry sections, starting with a Name header,
+     * that are written again with the current digests.
+     */
+    private static void appendKeptSections( StringBuilder out, String manifest ) {
+        StringBuilder section = new StringBuilder();
+        int start = 0;
+        while( start < manifest.length() ) {
+            int end = manifest.indexOf( '\n', start ) + 1;
+            if( end == 0 ) {
+                end = manifest.length();
+            }
+            String line = manifest.substring( start, end );
+            section.append( line );
+            start = end;
+            if( line.trim().length() == 0 || start == manifest.length() ) {
+                // the end of a section
+                if( !section.toString().startsWith( "Name:" ) && section.toString().trim().length() > 0 ) {
+                    out.append( section );
+                }
+                section.setLength( 0 );
+            }
+        }
+
+        // a section ends with an empty line, which the last one may lack
+        if( out.length() > 0 && out.charAt( out.length() - 1 ) != '\n' ) {
+            out.append( EOL );
+        }
+        if( out.length() > 0 && !out.toString().endsWith( "\n\n" ) && !out.toString().endsWith( "\n\r\n" ) ) {
+            out.append( EOL );
+        }
+    }
+
+    private static byte[] createSignatureFile( byte[] manifest ) throws IOException {
+        StringBuilder sf = new StringBuilder();
+        appendHeader( sf, "Signature-Version", "1.0" );
+        appendHeader( sf, "Created-By", CREATED_BY );
+        appendHeader( sf, DIGEST_ALGORITHM + "-Digest-Manifest", DatatypeConverter.printBase64Binary( newDigest().digest(
+                manifest ) ) );
+        sf.append( EOL );
+        return sf.toString().getBytes( "UTF-8" );
+    }
+
+    /**
+     * Returns the signature algorithm for a key: SHA512withECDSA, SHA512withRSA or, as DSA keys cannot use SHA-512,
+     * SHA1withDSA.
+     */
+    static String getSignatureAlgorithm( PrivateKey key ) {
+        String algorithm = key.getAlgorithm();
+        if( "EC".equals( algorithm ) ) {
+            return "SHA512withECDSA";
+        } else if( "DSA".equals( algorithm ) ) {
+            return "SHA1withDSA";
+        }
+        return "SHA512with" + algorithm;
+    }
+
+    private static byte[] sign( byte[] data, PrivateKey key ) throws GeneralSecurityException {
+        Signature signature = Signature.getInstance( getSignatureAlgorithm( key ) );
+        signature.initSign( key );
+        signature.update( data );
+        return signature.sign();
+    }
+
+    private static byte[] encode( Certificate[] chain ) throws GeneralSecurityException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for( Certificate certificate : chain ) {
+            byte[] encoded = certificate.getEncoded();
+            out.write( encoded, 0, encoded.length );
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Appends a manifest header, continuing lines longer than 72 characters on the next line after a space.
+     */
+    private static void appendHeader( StringBuilder out, String name, String value ) {
+        String line = name + ": " + value;
+        int start = 0;
+        int max = MAX_LINE_LENGTH;
+        while( line.length() - start > max ) {
+            out.append( line, start, start + max ).append( EOL ).append( ' ' );
+            start += max;
+            max = MAX_LINE_LENGTH - 1;
+        }
+        out.append( line, start, line.length() ).append( EOL );
+    }
+
+    private static String digest( ZipFile zip, ZipEntry entry ) throws IOException {
+        MessageDigest md = newDigest();
+        InputStream in = zip.getInputStream( entry );
+        try {
+            byte[] buffer = new byte[ BUFFER_SIZE ];
+            int count;
+            while( ( count = in.read( buffer ) ) != -1 ) {
+                md.update( buffer, 0, count );
+            }
+        } finally {
+            in.close();
+        }
+        return DatatypeConverter.printBase64Binary( md.digest() );
+    }
+
+    private static byte[] readEntry( File bar, String name ) throws IOException {
+        ZipFile zip = new ZipFile( bar );
+        try {
+            return read( zip, zip.getEntry( name ) );
+        } finally {
+            zip.close();
+        }
+    }
+
+    private static byte[] read( ZipFile zip, ZipEntry entry ) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputStream in = zip.getInputStream( entry );
+        try {
+            byte[] buffer = new byte[ 4096 ];
+            int count;
+            while( ( count = in.read( buffer ) ) != -1 ) {
+                out.write( buffer, 0, count );
+            }
+        } finally {
+            in.close();
+        }
+        return out.toByteArray();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance( DIGEST_ALGORITHM );
+        } catch( NoSuchAlgorithmException e ) {
+            throw new IllegalStateException( e );
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.signing;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.UnrecoverableKeyException;
+import java.security.cert.Certificate;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A PKCS#12 keystore unlocked once and kept for the session, so that signing several BARs reads and decrypts the P12 file once.
+ * Instances are cached by path and are reloaded when the file changes.
+ */
+public final class SigningKeystore {
+    private static final Map< String, SigningKeystore > _instances = new HashMap< String, SigningKeystore >();
+
+    private final String _password;
+    private final long _lastModified;
+    private final long _length;
+    private final KeyStore _keyStore;
+    private final Map< String, KeyStore.PrivateKeyEntry > _entries;
+
+    private SigningKeystore( File file, String password ) throws IOException, GeneralSecurityException {
+        _password = password;
+        _lastModified = file.lastModified();
+        _length = file.length();
+        _keyStore = KeyStore.getInstance( "PKCS12" );
+        _entries = new HashMap< String, KeyStore.PrivateKeyEntry >();
+
+        InputStream in = new FileInputStream( file );
+        try {
+            _keyStore.load( in, password.toCharArray() );
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns the unlocked keystore at the specified path, loading it if it is not cached, has changed since it was loaded or
+     * was loaded with a different password.
+     *
+     * @param p12FullPath
+     *            the full path of the P12 file.
+     * @param password
+     *            the password of the keystore and its keys.
+     */
+    public static SigningKeystore getInstance( String p12FullPath, String password ) throws IOException,
+            GeneralSecurityException {
+        File file = new File( p12FullPath ).getCanonicalFile();
+        synchronized( _instances ) {
+            SigningKeystore keystore = _instances.get( file.getPath() );
+            if( keystore == null || !keystore._password.equals( password ) || keystore._lastModified != file.lastModified()
+                    || keystore._length != file.length() ) {
+                keystore = new SigningKeystore( file, password );
+                _instances.put( file.getPath(), keystore );
+            }
+            return keystore;
+        }
+    }
+
+    /**
+     * Returns the private key and certificate chain of the specified alias. Aliases are matched ignoring case, as PKCS#12
+     * keystores may store them in lower case.
+     *
+     * @throws UnrecoverableKeyException
+     *             if the keystore has no key for the alias.
+     */
+    public synchronized KeyStore.PrivateKeyEntry getEntry( String alias ) throws GeneralSecurityException {
+        KeyStore.PrivateKeyEntry entry = _entries.get( alias );
+        if( entry == null ) {
+            String name = findAlias( alias );
+            if( name == null || !_keyStore.isKeyEntry( name ) ) {
+                throw new UnrecoverableKeyException( "No key for alias " + alias );
+            }
+            PrivateKey key = (PrivateKey) _keyStore.getKey( name, _password.toCharArray() );
+            Certificate[] chain = _keyStore.getCertificateChain( name );
+            entry = new KeyStore.PrivateKeyEntry( key, chain );
+            _entries.put( alias, entry );
+        }
+        return entry;
+    }
+
+    private String findAlias( String alias ) throws GeneralSecurityException {
+        for( Enumeration< String > e = _keyStore.aliases(); e.hasMoreElements(); ) {
+            String name = e.nextElement();
+            if( name.equalsIgnoreCase( alias ) ) {
+                return name;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.signing;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import net.rim.tumbler.exception.PackageException;
+import net.rim.tumbler.file.FileManager;
+import net.rim.tumbler.session.BBWPProperties;
+import net.rim.tumbler.util.DaemonPools;
+
+/**
+ * Signs BAR files with the blackberry-signer of the Tablet SDK, first with the RDK key and then with the author key.
+ * <p>
+ * Submitted BARs are grouped into batches of up to <code>&lt;signer_batch_size&gt;</code> BARs, and each batch is signed with
+ * one signer invocation per key, so that the signer starts and reads the keystore once per batch rather than once per BAR.
+ * Batches are signed on a pool of <code>&lt;signer_workers&gt;</code> threads, so that the signing of independent builds
+ * overlaps. A batch is dispatched when it is full or when {@link #flush()} is called; a BAR signed with
+ * {@link #sign(File, boolean)} waits up to {@value #LINGER_MILLIS} ms for the BARs of other builds to fill its batch first.
+ * When the signer fails a batch, its BARs are signed again one by one, so that only the builds whose BAR cannot be signed
+ * fail.
+ * <p>
+ * The builds of a process share one service per keystore, returned by {@link #getInstance(BBWPProperties, String, String,
+ * String)}, so that the BARs of concurrent builds are batched together; {@link #shutdownInstances()} lets them finish once
+ * the builds are done.
+ * <p>
+ * With <code>&lt;signer_in_process&gt;</code> set, the BARs are signed by a {@link BarSigner} with the RDK and author keys of
+ * the P12 keystore instead, which is unlocked once for the session.
+ *
+ * <pre>
+ *     SigningService service = new SigningService( bbwpProperties, p12Path, p12Password, cskPassword );
+ *     Future&lt; File &gt; signed = service.submit( barFile, verbose );
+ *     ...
+ *     service.flush();
+ *     signed.get();
+ *     service.shutdown();
+ * </pre>
+ */
+public class SigningService {
+    private static final String RDK_ALIAS = "RDK";
+    private static final String AUTHOR_ALIAS = "author";
+    private static final List< String > ALIASES = Arrays.asList( RDK_ALIAS, AUTHOR_ALIAS );
+    static final long LINGER_MILLIS = 100;
+
+    // the services of the process, by keystore and passwords
+    private static final Map< String, SigningService > _instances = new HashMap< String, SigningService >();
+
+    private final BBWPProperties _bbwpProperties;
+    private final String _signer;
+    private final String _keystore;
+    private final String _storePassword;
+    private final String _cskPassword;
+    private final int _batchSize;
+    private final long _lingerMillis;
+    private final ExecutorService _executor;
+
+    /**
+     * The batch BARs are added to until it is dispatched, or null. Access is synchronized via 'this'.
+     */
+    private Batch _pending;
+
+    /**
+     * Creates a signing service.
+     *
+     * @param bbwpProperties
+     *            the properties holding the Tablet SDK, the signer timeout, the batch size and the number of workers.
+     * @param keystore
+     *            the full path of the P12 keystore.
+     * @param storePassword
+     *            the password of the keystore.
+     * @param cskPassword
+     *            the password of the code signing key.
+     */
+    public SigningService( BBWPProperties bbwpProperties, String keystore, String storePassword, String cskPassword ) {
+        this( bbwpProperties, keystore, storePassword, cskPassword, LINGER_MILLIS );
+    }
+
+    /**
+     * Creates a signing service whose single BARs wait the specified time for other BARs to fill their batch.
+     */
+    SigningService( BBWPProperties bbwpProperties, String keystore, String storePassword, String cskPassword,
+            long lingerMillis ) {
+        _lingerMillis = lingerMillis;
+        _bbwpProperties = bbwpProperties;
+        _signer = bbwpProperties.getTabletSDK() + File.separator + "bin" + File.separator
+                + FileManager.selectOnPlatform( "blackberry-signer.bat", "blackberry-signer" );
+        _keystore = keystore;
+        _storePassword = storePassword;
+        _cskPassword = cskPassword;
+        _batchSize = Math.max( 1, bbwpProperties.getSignerBatchSize() );
+        _executor = DaemonPools.newFixed( "signer", Math.max( 1, bbwpProperties.getSignerWorkers() ) );
+    }
+
+    /**
+     * Returns the service of the process for the specified keystore, creating it with the specified properties if there is
+     * none yet.
+     *
+     * @see #SigningService(BBWPProperties, String, String, String)
+     */
+    public static SigningService getInstance( BBWPProperties bbwpProperties, String keystore, String storePassword,
+            String cskPassword ) {
+        String key = keystore + '\n' + storePassword + '\n' + cskPassword;
+        synchronized( _instances ) {
+            SigningService service = _instances.get( key );
+            if( service == null ) {
+                service = new SigningService( bbwpProperties, keystore, storePassword, cskPassword );
+                _instances.put( key, service );
+            }
+            return service;
+        }
+    }
+
+    /**
+     * Shuts down the services of the process, letting the batches submitted so far finish; a later call to
+     * {@link #getInstance(BBWPProperties, String, String, String)} creates a new service.
+     */
+    public static void shutdownInstances() {
+        synchronized( _instances ) {
+            for( SigningService service : _instances.values() ) {
+                service.shutdown();
+            }
+            _instances.clear();
+        }
+    }
+
+    /**
+     * Adds a BAR to the current batch, dispatching the batch if it is full.
+     *
+     * @param bar
+     *            the BAR to sign.
+     * @param verbose
+     *            whether the signer output is written to the log, as the session of the build requires.
+     * @return a future that returns the BAR once it is signed, or throws an ExecutionException caused by the PackageException
+     *         or IOException that failed its signing. Cancelling it leaves the BAR out of its batch if the batch has not
+     *         started, and never stops the batch, which holds the BARs of other builds.
+     */
+    public synchronized Future< File > submit( File bar, boolean verbose ) {
+        if( _pending == null ) {
+            _pending = new Batch();
+        }
+        Batch batch = _pending;
+        SignedBar signed = new SignedBar( batch, bar, verbose );
+        batch._bars.add( signed );
+        if( batch._bars.size() >= _batchSize ) {
+            flush();
+        }
+        return signed;
+    }
+
+    /**
+     * Dispatches the current batch, even if it is not full.
+     */
+    public synchronized void flush() {
+        if( _pending != null ) {
+            _executor.execute( _pending );
+            _pending = null;
+        }
+    }
+
+    /**
+     * Dispatches the specified batch if it is still the current one.
+     */
+    private synchronized void flush( Batch batch ) {
+        if( _pending == batch ) {
+            flush();
+        }
+    }
+
+    /**
+     * Signs a single BAR and waits for it.
+     *
+     * @see #submit(File, boolean)
+     */
+    public void sign( File bar, boolean verbose ) throws IOException, PackageException {
+        SignedBar signed = (SignedBar) submit( bar, verbose );
+        try {
+            try {
+                signed.get( _lingerMillis, TimeUnit.MILLISECONDS );
+            } catch( TimeoutException te ) {
+                flush( signed._batch );
+                signed.get();
+            }
+        } catch( InterruptedException ie ) {
+            signed.cancel( true );
+            throw new PackageException( "EXCEPTION_SIGNING_FAILED" );
+        } catch( ExecutionException ee ) {
+            Throwable cause = ee.getCause();
+            if( cause instanceof PackageException ) {
+                throw (PackageException) cause;
+            } else if( cause instanceof IOException ) {
+                throw (IOException) cause;
+            } else if( cause instanceof RuntimeException ) {
+                throw (RuntimeException) cause;
+            }
+            throw new PackageException( "EXCEPTION_SIGNING_FAILED" );
+        }
+    }
+
+    /**
+     * Dispatches the current batch and lets the submitted batches finish; no BAR can be submitted afterwards.
+     */
+    public void shutdown() {
+        flush();
+        _executor.shutdown();
+    }
+
+    /**
+     * Builds the signer command line for the specified BARs and key alias.
+     */
+    List< String > buildCommand( List< File > bars, String alias ) {
+        List< String > cmd = new ArrayList< String >();
+        cmd.add( _signer );
+        if( RDK_ALIAS.equals( alias ) ) {
+            cmd.add( "-cskpass" );
+            cmd.add( _cskPassword );
+        }
+        cmd.add( "-keystore" );
+        cmd.add( _keystore );
+        cmd.add( "-storepass" );
+        cmd.add( _storePassword );
+        for( File bar : bars ) {
+            cmd.add( bar.getPath() );
+        }
+        cmd.add( alias );
+        return cmd;
+    }
+
+    /**
+     * BARs signed together.
+     */
+    private class Batch implements Runnable {
+        private final List< SignedBar > _bars = new ArrayList< SignedBar >();
+
+        public void run() {
+            // the BARs cancelled before the batch started are left out
+            List< SignedBar > bars = new ArrayList< SignedBar >( _bars.size() );
+            for( SignedBar signed : _bars ) {
+                if( !signed.isCancelled() ) {
+                    bars.add( signed );
+                }
+            }
+
+            // the in-process signer signs one BAR at a time anyway
+            if( bars.size() > 1 && !_bbwpProperties.isSignerInProcess() ) {
+                try {
+                    signAll( bars );
+                    for( SignedBar signed : bars ) {
+                        signed.set( signed._bar );
+                    }
+                    return;
+                } catch( Throwable t ) {
+                    // the signer does not tell which BAR failed the batch
+                }
+            }
+
+            for( SignedBar signed : bars ) {
+                try {
+                    signAll( Collections.singletonList( signed ) );
+                    signed.set( signed._bar );
+                } catch( Throwable t ) {
+                    signed.setException( t );
+                }
+            }
+        }
+
+        private void signAll( List< SignedBar > signed ) throws Exception {
+            List< File > bars = new ArrayList< File >( signed.size() );
+            boolean verbose = false;
+            for( SignedBar bar : signed ) {
+                bars.add( bar._bar );
+                verbose |= bar._verbose;
+            }
+
+            if( _bbwpProperties.isSignerInProcess() ) {
+                BarSigner signer;
+                try {
+                    signer = new BarSigner( SigningKeystore.getInstance( _keystore, _storePassword ) );
+                } catch( GeneralSecurityException gse ) {
+                    throw new PackageException( "EXCEPTION_SIGNING_FAILED", gse );
+                }
+                for( File bar : bars ) {
+                    signer.sign( bar, ALIASES );
+                }
+                return;
+            }
+
+            //
+            // 1. RIM signing
+            //
+            SigningSupport.execAndCheck( new ProcessBuilder( buildCommand( bars, RDK_ALIAS ) ), bars, _bbwpProperties,
+                    verbose );
+
+            //
+            // 2. Developer signing
+            //
+            SigningSupport.execAndCheck( new ProcessBuilder( buildCommand( bars, AUTHOR_ALIAS ) ), bars, _bbwpProperties,
+                    verbose );
+        }
+    }
+
+    /**
+     * The future of one BAR of a batch, completed by the batch.
+     */
+    private static class SignedBar extends FutureTask< File > {
+        private static final Runnable NONE = new Runnable() {
+            public void run() {
+            }
+        };
+
+        private final Batch _batch;
+        private final File _bar;
+        private final boolean _verbose;
+
+        SignedBar( Batch batch, File bar, boolean verbose ) {
+            super( NONE, null );
+            _batch = batch;
+            _bar = bar;
+            _verbose = verbose;
+        }
+
+        @Override
+        protected void set( File bar ) {
+            super.set( bar );
+        }
+
+        @Override
+        protected void setException( Throwable t ) {
+            super.setException( t );
+        }
+    }
+}
@@ -16,13 +16,17 @@
 package net.rim.tumbler.signing;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import net.rim.tumbler.exception.PackageException;
-import net.rim.tumbler.file.FileManager;
-import net.rim.tumbler.processbuffer.ErrorBuffer;
-import net.rim.tumbler.processbuffer.ExitBuffer;
-import net.rim.tumbler.processbuffer.OutputBuffer;
+import net.rim.tumbler.processbuffer.ProcessSupervisor;
 import net.rim.tumbler.session.BBWPProperties;
 import net.rim.tumbler.session.SessionManager;
 
@@ -31,6 +35,8 @@ public class SigningSupport {
     private static final String AUTHOR_P12_FILENAME = "author.p12";
     private static final String LONGTERM_CSK_FILENAME = "barsigner.csk";
     private static final String LONGTERM_DB_FILENAME = "barsigner.db";
+    private static final String TOOL_NAME = "signer";
+    private static final int BUFFER_SIZE = 65536;
 
     /**
      * The constructor is inaccessible because this class only provides static helper methods.
@@ -70,66 +76,106 @@ public class SigningSupport {
 
     public static void signBar( BBWPProperties bbwpProperties ) throws IOException, PackageException {
         SessionManager sessionManager = SessionManager.getInstance();
-        String signer = bbwpProperties.getTabletSDK() + File.separator + "bin" + File.separator
-                + FileManager.selectOnPlatform( "blackberry-signer.bat", "blackberry-signer" );
-
-        String barFullname = sessionManager.getOutputFilepath();
-        File barFile = new File( barFullname );
+        File barFile = new File( sessionManager.getOutputFilepath() );
 
         if( barFile.isFile() ) {
-            try {
-                //
-                // 1. RIM signing
-                //
-                String[] cmd1 = { signer,
-                        // "-verbose",
-                        "-cskpass", sessionManager.getCskPassword(), "-keystore", sessionManager.getP12FullPath(), "-storepass",
-                        sessionManager.getP12Password(), barFullname, "RDK" };
-                execAndCheck( cmd1, barFile );
-
-                //
-                // 2. Developer signing
-                //
-                String[] cmd2 = { signer,
-                        // "-verbose",
-                        "-keystore", sessionManager.getP12FullPath(), "-storepass", sessionManager.getP12Password(), barFullname,
-                        "author" };
-                execAndCheck( cmd2, barFile );
-            } catch( InterruptedException ie ) {
-                throw new PackageException( "EXCEPTION_SIGNING_FAILED" );
-            }
+            // the service of the process, so that the BARs of the builds of a batch are signed together
+            SigningService.getInstance( bbwpProperties, sessionManager.getP12FullPath(), sessionManager.getP12Password(),
+                    sessionManager.getCskPassword() ).sign( barFile, sessionManager.isVerbose() );
         }
     }
 
-    private static void execAndCheck( String[] cmdarray, File targetToCheck ) throws IOException, PackageException,
-            InterruptedException {
-        long lastModified = targetToCheck.lastModified();
+    public static void signCod( BBWPProperties bbwpProperties ) throws IOException, PackageException {
+        SessionManager sessionManager = SessionManager.getInstance();
+        File codFile = new File( sessionManager.getSourceFolder(), sessionManager.getArchiveName() + ".cod" );
+
+        List< String > cmd = new ArrayList< String >();
+        cmd.add( "java" );
+        cmd.add( "-jar" );
+        cmd.add( "SignatureTool.jar" );
+        cmd.add( "-a" );
+        cmd.add( "-c" );
+        String password = sessionManager.getPassword();
+        if( password.length() > 0 ) {
+            cmd.add( "-p" );
+            cmd.add( password );
+        }
+        cmd.add( codFile.getPath() );
 
-        Process p = Runtime.getRuntime().exec( cmdarray );
+        ProcessBuilder builder = new ProcessBuilder( cmd );
+        builder.directory( new File( sessionManager.getBBWPJarFolder() ) );
+        try {
+            execAndCheck( builder, Collections.singletonList( codFile ), bbwpProperties, sessionManager.isVerbose() );
+        } catch( InterruptedException ie ) {
+            throw new PackageException( "EXCEPTION_SIGNING_FAILED" );
+        }
+    }
 
-        OutputBuffer stdout = new OutputBuffer( p );
-        ErrorBuffer stderr = new ErrorBuffer( p );
-        ExitBuffer exitcode = new ExitBuffer( p );
+    /**
+     * Runs a signing tool and checks that it succeeded and changed the content of every target. The content is compared by
+     * digest, as the modification time may have a coarser resolution than the run of the tool.
+     * 
+     * @param builder
+     *            the builder of the signing tool process.
+     * @param targets
+     *            the files the tool signs.
+     * @param bbwpProperties
+     *            the properties holding the tool timeout.
+     * @param verbose
+     *            whether the tool output is written to the log; otherwise it is printed if the tool fails.
+     */
+    static void execAndCheck( ProcessBuilder builder, List< File > targets, BBWPProperties bbwpProperties, boolean verbose )
+            throws IOException, PackageException, InterruptedException {
+        List< byte[] > digests = new ArrayList< byte[] >( targets.size() );
+        for( File target : targets ) {
+            digests.add( digest( target ) );
+        }
 
-        stdout.waitFor();
-        stderr.waitFor();
-        exitcode.waitFor();
+        ProcessSupervisor supervisor = new ProcessSupervisor( TOOL_NAME, bbwpProperties.getToolTimeout( TOOL_NAME ) );
+        ProcessSupervisor.Result result = supervisor.run( builder, verbose );
 
         //
         // Check for return code
         //
-        if( exitcode.getExitValue().intValue() != 0 ) {
-            System.out.write( stderr.getStderr() );
-            System.out.write( stdout.getStdout() );
-            System.out.flush();
+        if( !result.succeeded() ) {
+            if( !verbose ) {
+                result.printOutput( System.out );
+            }
+            result.checkStopped();
             throw new PackageException( "EXCEPTION_SIGNING_FAILED" );
         }
 
         //
-        // Check for target modified
+        // Check for targets modified
         //
-        if( targetToCheck.lastModified() == lastModified ) {
-            throw new PackageException( "EXCEPTION_SIGNING_FAILED" );
+        for( int i = 0; i < targets.size(); i++ ) {
+            if( MessageDigest.isEqual( digests.get( i ), digest( targets.get( i ) ) ) ) {
+                throw new PackageException( "EXCEPTION_SIGNING_FAILED", targets.get( i ).getPath() );
+            }
+        }
+    }
+
+    /**
+     * Returns the SHA-1 digest of the content of a file.
+     */
+    static byte[] digest( File file ) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance( "SHA-1" );
+        } catch( NoSuchAlgorithmException e ) {
+            throw new IllegalStateException( e );
+        }
+
+        InputStream in = new FileInputStream( file );
+        try {
+            byte[] buffer = new byte[ BUFFER_SIZE ];
+            int count;
+            while( ( count = in.read( buffer ) ) != -1 ) {
+                md.update( buffer, 0, count );
+            }
+        } finally {
+            in.close();
         }
+        return md.digest();
     }
 }
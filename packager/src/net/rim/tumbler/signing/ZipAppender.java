@@ -0,0 +1,199 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.signing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Calendar;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Adds entries to an existing ZIP file in place. The new entries are written over the central directory, which is then
+ * rewritten behind them, so the existing entries are neither read nor copied. An existing entry with the name of a new one is
+ * dropped from the central directory; its data stays in the file but is no longer reachable. ZIP64 archives are not supported.
+ */
+class ZipAppender {
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_HEADER = 0x06054b50;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_HEADER_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final int VERSION = 20;
+    private static final int UTF8_FLAG = 0x0800;
+    private static final int DEFLATED = 8;
+
+    private ZipAppender() {
+    }
+
+    /**
+     * Adds the specified entries, deflated, to a ZIP file.
+     *
+     * @param zip
+     *            the ZIP file.
+     * @param entries
+     *            the entry contents by entry name, in the order they are written.
+     */
+    static void append( File zip, Map< String, byte[] > entries ) throws IOException {
+        RandomAccessFile file = new RandomAccessFile( zip, "rw" );
+        try {
+            long endOffset = findEnd( file );
+            byte[] end = new byte[ END_HEADER_SIZE ];
+            file.seek( endOffset );
+            file.readFully( end );
+            int count = getShort( end, 10 );
+            long centralSize = getInt( end, 12 );
+            long centralOffset = getInt( end, 16 );
+            if( count == 0xFFFF || centralOffset == 0xFFFFFFFFL ) {
+                throw new IOException( "ZIP64 archives are not supported: " + zip.getPath() );
+            }
+
+            byte[] central = new byte[ (int) centralSize ];
+            file.seek( centralOffset );
+            file.readFully( central );
+
+            ByteArrayOutputStream newCentral = new ByteArrayOutputStream( central.length + 128 * entries.size() );
+            int newCount = 0;
+
+            // keep the records of the entries that are not replaced
+            int pos = 0;
+            while( pos < central.length ) {
+                if( getInt( central, pos ) != CENTRAL_HEADER ) {
+                    throw new IOException( "Invalid central directory: " + zip.getPath() );
+                }
+                int nameLength = getShort( central, pos + 28 );
+                int length = CENTRAL_HEADER_SIZE + nameLength + getShort( central, pos + 30 ) + getShort( central, pos + 32 );
+                String name = new String( central, pos + CENTRAL_HEADER_SIZE, nameLength, "UTF-8" );
+                if( !entries.containsKey( name ) ) {
+                    newCentral.write( central, pos, length );
+                    newCount++;
+                }
+                pos += length;
+            }
+
+            // write the new entries where the central directory was
+            long offset = centralOffset;
+            file.seek( offset );
+            int time = dosTime( System.currentTimeMillis() );
+            for( Map.Entry< String, byte[] > entry : entries.entrySet() ) {
+                byte[] name = entry.getKey().getBytes( "UTF-8" );
+                byte[] data = entry.getValue();
+                byte[] compressed = deflate( data );
+                CRC32 crc = new CRC32();
+                crc.update( data );
+
+                byte[] local = new byte[ 30 ];
+                putInt( local, 0, LOCAL_HEADER );
+                putShort( local, 4, VERSION );
+                putShort( local, 6, UTF8_FLAG );
+                putShort( local, 8, DEFLATED );
+                putInt( local, 10, time );
+                putInt( local, 14, (int) crc.getValue() );
+                putInt( local, 18, compressed.length );
+                putInt( local, 22, data.length );
+                putShort( local, 26, name.length );
+                file.write( local );
+                file.write( name );
+                file.write( compressed );
+
+                byte[] record = new byte[ CENTRAL_HEADER_SIZE ];
+                putInt( record, 0, CENTRAL_HEADER );
+                putShort( record, 4, VERSION );
+                System.arraycopy( local, 4, record, 6, 26 );
+                putInt( record, 42, (int) offset );
+                newCentral.write( record );
+                newCentral.write( name );
+                newCount++;
+
+                offset += local.length + name.length + compressed.length;
+            }
+
+            // then the central directory and its end record
+            byte[] records = newCentral.toByteArray();
+            file.write( records );
+            putShort( end, 8, newCount );
+            putShort( end, 10, newCount );
+            putInt( end, 12, records.length );
+            putInt( end, 16, (int) offset );
+            putShort( end, 20, 0 );
+            file.write( end );
+            file.setLength( file.getFilePointer() );
+        } finally {
+            file.close();
+        }
+    }
+
+    private static long findEnd( RandomAccessFile file ) throws IOException {
+        long length = file.length();
+        int size = (int) Math.min( length, END_HEADER_SIZE + MAX_COMMENT_SIZE );
+        byte[] tail = new byte[ size ];
+        file.seek( length - size );
+        file.readFully( tail );
+        for( int pos = size - END_HEADER_SIZE; pos >= 0; pos-- ) {
+            if( getInt( tail, pos ) == END_HEADER ) {
+                return length - size + pos;
+            }
+        }
+        throw new IOException( "Not a ZIP file" );
+    }
+
+    private static byte[] deflate( byte[] data ) {
+        Deflater deflater = new Deflater( Deflater.DEFAULT_COMPRESSION, true );
+        try {
+            deflater.setInput( data );
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream( data.length / 2 + 64 );
+            byte[] buffer = new byte[ 4096 ];
+            while( !deflater.finished() ) {
+                int count = deflater.deflate( buffer );
+                out.write( buffer, 0, count );
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static int dosTime( long millis ) {
+        Calendar c = Calendar.getInstance();
+        c.setTimeInMillis( millis );
+        return ( c.get( Calendar.YEAR ) - 1980 ) << 25 | ( c.get( Calendar.MONTH ) + 1 ) << 21
+                | c.get( Calendar.DAY_OF_MONTH ) << 16 | c.get( Calendar.HOUR_OF_DAY ) << 11 | c.get( Calendar.MINUTE ) << 5
+                | c.get( Calendar.SECOND ) >> 1;
+    }
+
+    private static int getShort( byte[] b, int off ) {
+        return ( b[ off ] & 0xFF ) | ( b[ off + 1 ] & 0xFF ) << 8;
+    }
+
+    private static long getInt( byte[] b, int off ) {
+        return ( getShort( b, off ) | (long) getShort( b, off + 2 ) << 16 ) & 0xFFFFFFFFL;
+    }
+
+    private static void putShort( byte[] b, int off, int value ) {
+        b[ off ] = (byte) value;
+        b[ off + 1 ] = (byte) ( value >> 8 );
+    }
+
+    private static void putInt( byte[] b, int off, int value ) {
+        putShort( b, off, value );
+        putShort( b, off + 2, value >> 16 );
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the thread pools of the packager. Their threads are daemons, so that a pool left running never keeps the VM from
+ * exiting, and are named after the pool, numbered in the order they are started.
+ *
+ * <pre>
+ *     private static final ExecutorService _executor = DaemonPools.newFixed( &quot;tree-copy&quot;, 4 );
+ * </pre>
+ */
+public final class DaemonPools {
+
+    /**
+     * The constructor is inaccessible because this class only provides static helper methods.
+     */
+    private DaemonPools() {
+    }
+
+    /**
+     * Returns a pool of the specified number of threads.
+     */
+    public static ExecutorService newFixed( String name, int threads ) {
+        return Executors.newFixedThreadPool( threads, newThreadFactory( name ) );
+    }
+
+    /**
+     * Returns a pool that starts threads as they are needed and ends those idle for a minute.
+     */
+    public static ExecutorService newCached( String name ) {
+        return Executors.newCachedThreadPool( newThreadFactory( name ) );
+    }
+
+    /**
+     * Returns a single thread running scheduled tasks.
+     */
+    public static ScheduledExecutorService newScheduled( String name ) {
+        return Executors.newSingleThreadScheduledExecutor( newThreadFactory( name ) );
+    }
+
+    /**
+     * Returns a factory of daemon threads named <code>name-1</code>, <code>name-2</code> and so on.
+     */
+    public static ThreadFactory newThreadFactory( final String name ) {
+        return new ThreadFactory() {
+            private final AtomicInteger _count = new AtomicInteger();
+
+            public Thread newThread( Runnable r ) {
+                Thread thread = new Thread( r, name + "-" + _count.incrementAndGet() );
+                thread.setDaemon( true );
+                return thread;
+            }
+        };
+    }
+}
@@ -0,0 +1,495 @@
+/*
+ * Copyright 2010-2011 Research In Motion Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.rim.tumbler.xml;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An XML template compiled once into a table of its elements, from which documents are written by copying the template text
+ * and splicing in the edits made through a {@link Document}. Text that is not edited, including comments, entity references
+ * and white space, is written as it is in the template; values are escaped. The output is written in UTF-8 behind an XML
+ * declaration saying so.
+ * <p>
+ * Element lookups follow the DOM: {@link Document#find(int, String)} returns the first descendant with a given tag name in
+ * document order, setting the text of an element replaces all of its content, and appended elements go last in their parent.
+ * Compiled templates are cached on their text, so that the copies of a template made for each build share one compilation;
+ * the <code>MAX_CACHED_ENTRIES</code> most recently used are kept.
+ *
+ * <pre>
+ *     XMLTemplate.Document d = XMLTemplate.compile( file ).newDocument();
+ *     int window = d.find( d.getRoot(), "initialWindow" );
+ *     d.setText( d.find( window, "content" ), swfName );
+ *     d.append( window, "aspectRatio", orientation );
+ *     d.write( outfile );
+ * </pre>
+ */
+public final class XMLTemplate {
+    private static final String DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>";
+    private static final Pattern ENCODING = Pattern.compile( "^<\\?xml[^>]*encoding\\s*=\\s*[\"']([A-Za-z0-9._\\-]+)[\"']" );
+
+    private static final int MAX_CACHED_ENTRIES = 16;
+
+    private static final Map< String, XMLTemplate > _cache = Collections.synchronizedMap( new LinkedHashMap< String, XMLTemplate >(
+            16, 0.75f, true ) {
+        private static final long serialVersionUID = 1L;
+
+        protected boolean removeEldestEntry( Map.Entry< String, XMLTemplate > eldest ) {
+            return size() > MAX_CACHED_ENTRIES;
+        }
+    } );
+
+    private final String _text;
+
+    /** The end of the XML declaration, 0 if there is none. */
+    private int _prologStart;
+
+    // the elements in document order
+    private int _count;
+    private String[] _names = new String[ 16 ];
+    private int[] _parents = new int[ 16 ];
+    /** The index of the last descendant of each element, itself if it has none. */
+    private int[] _lastDescendants = new int[ 16 ];
+    /** The end of each start tag, after '&gt;'. */
+    private int[] _tagEnds = new int[ 16 ];
+    /** The start of each end tag, at '&lt;/'; -1 for an empty-element tag. */
+    private int[] _endTagStarts = new int[ 16 ];
+
+    private XMLTemplate( String text ) throws IOException {
+        _text = text;
+        parse();
+    }
+
+    /**
+     * Returns the compiled template of an XML file.
+     *
+     * @throws IOException
+     *             if the file cannot be read or is not well-formed.
+     */
+    public static XMLTemplate compile( File file ) throws IOException {
+        String text = read( file );
+        XMLTemplate template = _cache.get( text );
+        if( template == null ) {
+            template = new XMLTemplate( text );
+            _cache.put( text, template );
+        }
+        return template;
+    }
+
+    /**
+     * Compiles an XML template held in a string.
+     *
+     * @throws IOException
+     *             if the template is not well-formed.
+     */
+    public static XMLTemplate compile( String text ) throws IOException {
+        return new XMLTemplate( text );
+    }
+
+    /**
+     * Creates an empty set of edits of this template.
+     */
+    public Document newDocument() {
+        return new Document();
+    }
+
+    /**
+     * The edits of one document written from the template. Elements are identified by their index in the template.
+     */
+    public final class Document {
+        private final String[] _texts = new String[ _count ];
+        private final StringBuilder[] _appended = new StringBuilder[ _count ];
+
+        private Document() {
+        }
+
+        /**
+         * Returns the document element, or -1 if there is none.
+         */
+        public int getRoot() {
+            return _count > 0 ? 0 : -1;
+        }
+
+        /**
+         * Returns the first descendant of an element with the specified tag name, or -1 if there is none.
+         *
+         * @param scope
+         *            the element to search, or -1 to search the whole document.
+         */
+        public int find( int scope, String name ) {
+            int[] all = findAll( scope, name, 1 );
+            return all.length > 0 ? all[ 0 ] : -1;
+        }
+
+        /**
+         * Returns the descendants of an element with the specified tag name, in document order.
+         *
+         * @param scope
+         *            the element to search, or -1 to search the whole document.
+         */
+        public int[] findAll( int scope, String name ) {
+            return findAll( scope, name, Integer.MAX_VALUE );
+        }
+
+        /**
+         * Returns the elements with the specified tag name whose parent has the specified tag name, such as the elements
+         * selected by the XPath <code>//parent/name</code>.
+         */
+        public int[] findChildren( String parent, String name ) {
+            int[] result = new int[ 0 ];
+            for( int i : findAll( -1, name ) ) {
+                if( _parents[ i ] >= 0 && _names[ _parents[ i ] ].equals( parent ) ) {
+                    result = Arrays.copyOf( result, result.length + 1 );
+                    result[ result.length - 1 ] = i;
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Replaces the content of an element with the specified text; null removes the content.
+         */
+        public void setText( int element, String text ) {
+            _texts[ element ] = text == null ? "" : text;
+        }
+
+        /**
+         * Appends an element holding the specified text as the last child of an element.
+         */
+        public void append( int parent, String name, String text ) {
+            StringBuilder sb = new StringBuilder();
+            escape( sb, text == null ? "" : text );
+            appendMarkup( parent, name, sb );
+        }
+
+        /**
+         * Appends an element holding a child element holding the specified text as the last child of an element.
+         */
+        public void append( int parent, String name, String child, String text ) {
+            StringBuilder sb = new StringBuilder( "<" ).append( child ).append( '>' );
+            escape( sb, text == null ? "" : text );
+            sb.append( "</" ).append( child ).append( '>' );
+            appendMarkup( parent, name, sb );
+        }
+
+        /**
+         * Writes the document to a file in UTF-8.
+         */
+        public void write( File file ) throws IOException {
+            Writer w = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( file ), "UTF-8" ) );
+            try {
+                write( w );
+            } finally {
+                w.close();
+            }
+        }
+
+        /**
+         * Writes the document; the writer must encode in UTF-8 and is not closed.
+         */
+        public void write( Writer w ) throws IOException {
+            // each edit replaces a range of the template: [start, end, element]
+            List< int[] > splices = new ArrayList< int[] >();
+            for( int i = 0; i < _count; i++ ) {
+                if( ( _texts[ i ] == null && _appended[ i ] == null ) || isInsideReplaced( i ) ) {
+                    continue;
+                }
+                if( _endTagStarts[ i ] < 0 ) {
+                    // expand the empty-element tag from its '/>'
+                    splices.add( new int[] { _text.lastIndexOf( '/', _tagEnds[ i ] ), _tagEnds[ i ], i } );
+                } else if( _texts[ i ] != null ) {
+                    splices.add( new int[] { _tagEnds[ i ], _endTagStarts[ i ], i } );
+                } else {
+                    splices.add( new int[] { _endTagStarts[ i ], _endTagStarts[ i ], i } );
+                }
+            }
+            Collections.sort( splices, new Comparator< int[] >() {
+                public int compare( int[] a, int[] b ) {
+                    return a[ 0 ] - b[ 0 ];
+                }
+            } );
+
+            w.write( DECLARATION );
+            int pos = _prologStart;
+            StringBuilder content = new StringBuilder();
+            for( int[] splice : splices ) {
+                int i = splice[ 2 ];
+                content.setLength( 0 );
+                if( _endTagStarts[ i ] < 0 ) {
+                    content.append( '>' );
+                }
+                if( _texts[ i ] != null ) {
+                    escape( content, _texts[ i ] );
+                }
+                if( _appended[ i ] != null ) {
+                    content.append( _appended[ i ] );
+                }
+                if( _endTagStarts[ i ] < 0 ) {
+                    content.append( "</" ).append( _names[ i ] ).append( '>' );
+                }
+                w.write( _text, pos, splice[ 0 ] - pos );
+                w.write( content.toString() );
+                pos = splice[ 1 ];
+            }
+            w.write( _text, pos, _text.length() - pos );
+        }
+
+        private void appendMarkup( int parent, String name, CharSequence content ) {
+            if( _appended[ parent ] == null ) {
+                _appended[ parent ] = new StringBuilder();
+            }
+            _appended[ parent ].append( '<' ).append( name ).append( '>' ).append( content ).append( "</" ).append( name )
+                    .append( '>' );
+        }
+
+        /**
+         * Indicates whether the content of an ancestor of an element is replaced, so that the element is not written.
+         */
+        private boolean isInsideReplaced( int element ) {
+            for( int p = _parents[ element ]; p >= 0; p = _parents[ p ] ) {
+                if( _texts[ p ] != null ) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private int[] findAll( int scope, String name, int max ) {
+            int first = scope < 0 ? 0 : scope + 1;
+            int last = scope < 0 ? _count - 1 : _lastDescendants[ scope ];
+            int[] result = new int[ 0 ];
+            for( int i = first; i <= last && result.length < max; i++ ) {
+                if( _names[ i ].equals( name ) ) {
+                    result = Arrays.copyOf( result, result.length + 1 );
+                    result[ result.length - 1 ] = i;
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Scans the template, recording every element. Only the structure is checked: markup must be closed and end tags must match
+     * their start tags.
+     */
+    private void parse() throws IOException {
+        if( _text.startsWith( "<?xml" ) && _text.length() > 5 && Character.isWhitespace( _text.charAt( 5 ) ) ) {
+            _prologStart = indexOf( "?>", 0 ) + 2;
+        }
+
+        List< Integer > open = new ArrayList< Integer >();
+        int pos = _prologStart;
+        int length = _text.length();
+        while( true ) {
+            int lt = _text.indexOf( '<', pos );
+            if( lt < 0 ) {
+                break;
+            }
+            if( _text.startsWith( "<!--", lt ) ) {
+                pos = indexOf( "-->", lt + 4 ) + 3;
+            } else if( _text.startsWith( "<![CDATA[", lt ) ) {
+                pos = indexOf( "]]>", lt + 9 ) + 3;
+            } else if( _text.startsWith( "<?", lt ) ) {
+                pos = indexOf( "?>", lt + 2 ) + 2;
+            } else if( _text.startsWith( "<!", lt ) ) {
+                pos = skipDeclaration( lt + 2 );
+            } else if( _text.startsWith( "</", lt ) ) {
+                int gt = indexOf( ">", lt + 2 );
+                String name = _text.substring( lt + 2, gt ).trim();
+                if( open.isEmpty() || !_names[ open.get( open.size() - 1 ) ].equals( name ) ) {
+                    throw new IOException( "Unexpected end tag </" + name + "> in XML template" );
+                }
+                int element = open.remove( open.size() - 1 );
+                _endTagStarts[ element ] = lt;
+                _lastDescendants[ element ] = _count - 1;
+                pos = gt + 1;
+            } else {
+                int end = lt + 1;
+                while( end < length && !isNameEnd( _text.charAt( end ) ) ) {
+                    end++;
+                }
+                int gt = skipTag( end );
+                boolean empty = _text.charAt( gt - 1 ) == '/';
+                int element = add( _text.substring( lt + 1, end ), open.isEmpty() ? -1 : open.get( open.size() - 1 ), gt + 1 );
+                if( empty ) {
+                    _endTagStarts[ element ] = -1;
+                    _lastDescendants[ element ] = element;
+                } else {
+                    open.add( Integer.valueOf( element ) );
+                }
+                pos = gt + 1;
+            }
+        }
+        if( !open.isEmpty() ) {
+            throw new IOException( "Unclosed element <" + _names[ open.get( open.size() - 1 ) ] + "> in XML template" );
+        }
+        if( _count > 0 && _parents[ 0 ] != -1 ) {
+            throw new IOException( "Invalid XML template" );
+        }
+    }
+
+    private int add( String name, int parent, int tagEnd ) {
+        if( _count == _names.length ) {
+            int size = _count * 2;
+            _names = Arrays.copyOf( _names, size );
+            _parents = Arrays.copyOf( _parents, size );
+            _lastDescendants = Arrays.copyOf( _lastDescendants, size );
+            _tagEnds = Arrays.copyOf( _tagEnds, size );
+            _endTagStarts = Arrays.copyOf( _endTagStarts, size );
+        }
+        _names[ _count ] = name;
+        _parents[ _count ] = parent;
+        _tagEnds[ _count ] = tagEnd;
+        return _count++;
+    }
+
+    private static boolean isNameEnd( char c ) {
+        return c == '>' || c == '/' || Character.isWhitespace( c );
+    }
+
+    /**
+     * Returns the index of the '&gt;' closing a start tag, skipping quoted attribute values.
+     */
+    private int skipTag( int pos ) throws IOException {
+        char quote = 0;
+        for( int i = pos; i < _text.length(); i++ ) {
+            char c = _text.charAt( i );
+            if( quote != 0 ) {
+                if( c == quote ) {
+                    quote = 0;
+                }
+            } else if( c == '"' || c == '\'' ) {
+                quote = c;
+            } else if( c == '>' ) {
+                return i;
+            }
+        }
+        throw new IOException( "Unclosed tag in XML template" );
+    }
+
+    /**
+     * Returns the end of a markup declaration such as a DOCTYPE, including any internal subset in brackets.
+     */
+    private int skipDeclaration( int pos ) throws IOException {
+        int depth = 0;
+        char quote = 0;
+        for( int i = pos; i < _text.length(); i++ ) {
+            char c = _text.charAt( i );
+            if( quote != 0 ) {
+                if( c == quote ) {
+                    quote = 0;
+                }
+            } else if( c == '"' || c == '\'' ) {
+                quote = c;
+            } else if( c == '[' ) {
+                depth++;
+            } else if( c == ']' ) {
+                depth--;
+            } else if( c == '>' && depth == 0 ) {
+                return i + 1;
+            }
+        }
+        throw new IOException( "Unclosed declaration in XML template" );
+    }
+
+    private int indexOf( String s, int from ) throws IOException {
+        int index = _text.indexOf( s, from );
+        if( index < 0 ) {
+            throw new IOException( "Missing '" + s + "' in XML template" );
+        }
+        return index;
+    }
+
+    /**
+     * Escapes text content: '&amp;', '&lt;' and '&gt;' are written as references, and so is carriage return, which a parser
+     * would otherwise normalize away.
+     */
+    private static void escape( StringBuilder sb, String text ) {
+        for( int i = 0; i < text.length(); i++ ) {
+            char c = text.charAt( i );
+            switch( c ) {
+                case '&':
+                    sb.append( "&amp;" );
+                    break;
+                case '<':
+                    sb.append( "&lt;" );
+                    break;
+                case '>':
+                    sb.append( "&gt;" );
+                    break;
+                case '\r':
+                    sb.append( "&#13;" );
+                    break;
+                default:
+                    sb.append( c );
+            }
+        }
+    }
+
+    /**
+     * Reads an XML file in the encoding its declaration names, UTF-8 by default, dropping any byte order mark.
+     */
+    private static String read( File file ) throws IOException {
+        byte[] bytes = new byte[ (int) file.length() ];
+        InputStream in = new FileInputStream( file );
+        try {
+            int offset = 0;
+            int count;
+            while( offset < bytes.length && ( count = in.read( bytes, offset, bytes.length - offset ) ) > 0 ) {
+                offset += count;
+            }
+            if( offset < bytes.length ) {
+                bytes = Arrays.copyOf( bytes, offset );
+            }
+        } finally {
+            in.close();
+        }
+
+        int start = 0;
+        if( bytes.length >= 3 && ( bytes[ 0 ] & 0xFF ) == 0xEF && ( bytes[ 1 ] & 0xFF ) == 0xBB && ( bytes[ 2 ] & 0xFF ) == 0xBF ) {
+            start = 3;
+        }
+        String encoding = "UTF-8";
+        String head = new String( bytes, start, Math.min( 200, bytes.length - start ), "ISO-8859-1" );
+        Matcher m = ENCODING.matcher( head );
+        if( m.find() ) {
+            encoding = m.group( 1 );
+        }
+        return new String( bytes, start, bytes.length - start, encoding );
+    }
+
+    /**
+     * Returns the names of the elements, for tests.
+     */
+    List< String > getElementNames() {
+        return Collections.unmodifiableList( Arrays.asList( _names ).subList( 0, _count ) );
+    }
+}